@@ -10,6 +10,7 @@ import sun.reflect.ReflectionFactory;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.SerializationException;
+import com.esotericsoftware.kryo.Serializer;
 
 /**
  * Extensions to Kryo to let classes control their own registration, suggest
@@ -49,6 +50,22 @@ public class AutoKryo extends Kryo {
             register(type); 
         }
     }
+    
+    /**
+     * Register the given class with the given serializer, unless the
+     * class has already been autoregistered (in which case its earlier 
+     * registration stands). 
+     * 
+     * @param type class to register
+     * @param serializer serializer to use for class
+     */
+    public void autoregister(Class<?> type, Serializer serializer) {
+        if (registeredClasses.contains(type)) {
+            return;
+        }
+        registeredClasses.add(type); 
+        register(type, serializer); 
+    }
 
     protected static final ReflectionFactory REFLECTION_FACTORY = ReflectionFactory.getReflectionFactory();
     protected static final Object[] INITARGS = new Object[0];
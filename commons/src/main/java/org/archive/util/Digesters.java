@@ -0,0 +1,77 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread pool of reusable MessageDigests, sparing the provider lookup
+ * and setup of MessageDigest.getInstance() on every use. Besides the 
+ * JCA algorithms (SHA1, MD5, ...), offers the non-cryptographic 
+ * {@link Murmur3Digest#ALGORITHM} fingerprint.
+ * 
+ * A digest obtained here is reset, and belongs to the calling thread 
+ * until its next call to {@link #get(String)} for the same algorithm.
+ */
+public class Digesters {
+
+    protected static ThreadLocal<Map<String,MessageDigest>> digests = 
+        new ThreadLocal<Map<String,MessageDigest>>() {
+        protected Map<String,MessageDigest> initialValue() {
+            return new HashMap<String,MessageDigest>();
+        }
+    };
+
+    /**
+     * Get the current thread's digest for the given algorithm, reset 
+     * and ready for use.
+     * 
+     * @param algorithm algorithm name, as for MessageDigest.getInstance(),
+     * or {@link Murmur3Digest#ALGORITHM}
+     * @return MessageDigest
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest get(String algorithm) 
+    throws NoSuchAlgorithmException {
+        Map<String,MessageDigest> map = digests.get();
+        MessageDigest digest = map.get(algorithm);
+        if (digest == null) {
+            digest = newDigest(algorithm);
+            map.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * Create a new digest for the given algorithm.
+     */
+    public static MessageDigest newDigest(String algorithm) 
+    throws NoSuchAlgorithmException {
+        if (Murmur3Digest.ALGORITHM.equalsIgnoreCase(algorithm)) {
+            return new Murmur3Digest();
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+}
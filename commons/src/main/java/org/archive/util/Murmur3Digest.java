@@ -0,0 +1,177 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.security.MessageDigest;
+
+/**
+ * MurmurHash3 (x64, 128-bit variant, seed 0) as a MessageDigest, for
+ * use where a fast, well-distributed content fingerprint is enough --
+ * as for duplicate detection -- and a cryptographic digest is not 
+ * required. Output bytes match the reference implementation's (two 
+ * little-endian longs).
+ * 
+ * Not registered with any security Provider; obtain instances directly
+ * or via {@link Digesters#get(String)}.
+ */
+public class Murmur3Digest extends MessageDigest {
+    public static final String ALGORITHM = "MURMUR3-128";
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    protected long h1;
+    protected long h2;
+    protected long length;
+    /** bytes awaiting a full 16-byte block */
+    protected byte[] tail = new byte[16];
+    protected int tailLength;
+
+    public Murmur3Digest() {
+        super(ALGORITHM);
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override
+    protected void engineReset() {
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        tailLength = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        tail[tailLength++] = input;
+        length++;
+        if (tailLength == 16) {
+            mix(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        while (len > 0 && tailLength > 0) {
+            engineUpdate(input[offset++]);
+            len--;
+        }
+        while (len >= 16) {
+            mix(getLong(input, offset), getLong(input, offset + 8));
+            offset += 16;
+            len -= 16;
+            length += 16;
+        }
+        while (len > 0) {
+            engineUpdate(input[offset++]);
+            len--;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+        }
+        if (tailLength > 8) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 ^= (tail[i] & 0xffL) << (i * 8);
+        }
+        if (tailLength > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] result = new byte[16];
+        putLong(result, 0, h1);
+        putLong(result, 8, h2);
+        engineReset();
+        return result;
+    }
+
+    protected void mix(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    protected static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    protected static long getLong(byte[] b, int offset) {
+        long l = 0;
+        for (int i = 7; i >= 0; i--) {
+            l = (l << 8) | (b[offset + i] & 0xffL);
+        }
+        return l;
+    }
+
+    protected static void putLong(byte[] b, int offset, long l) {
+        for (int i = 0; i < 8; i++) {
+            b[offset + i] = (byte) (l >>> (i * 8));
+        }
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        Murmur3Digest clone = (Murmur3Digest) super.clone();
+        clone.tail = tail.clone();
+        return clone;
+    }
+}
@@ -131,8 +131,8 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
         this.memMap = new MapMaker().concurrencyLevel(64).initialCapacity(8192).softValues().makeMap();    
         this.db = openDatabase(env, dbName);
         this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
-        // keep a record of items that must be persisted; auto-persist if 
-        // unchanged after 5 minutes, or more than 10K would collect
+        // keep a record of items that must be persisted; auto-persist 
+        // 5 minutes after first dirtied, or if more than 10K would collect
         this.dirtyItems = new MapMaker().concurrencyLevel(64)
             .maximumSize(10000).expireAfterWrite(5,TimeUnit.MINUTES)
             .evictionListener(this).makeMap();
@@ -356,6 +356,12 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
 
     @Override
     public void dirtyKey(String key) {
+       if (dirtyItems.containsKey(key)) {
+           // already awaiting persistence; re-putting would only restart
+           // its expiry, so a steadily-updated object (like a busy host's
+           // stats) would never be written until the next sync()
+           return;
+       }
        V val = memMap.get(key);
        if(val==null) {
            logger.severe("dirty key not in memory should be impossible");
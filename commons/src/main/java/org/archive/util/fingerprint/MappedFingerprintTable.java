@@ -0,0 +1,308 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.fingerprint;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only table of 64-bit fingerprints to small integer values, in a 
+ * file built offline (by {@link Builder}) and memory-mapped for lookup. 
+ * Suitable for large preloaded per-URI values, such as precalculated 
+ * precedence, consulted on the scheduling path: a lookup reads one 
+ * index slot and then searches a run of about 64 fixed-width entries 
+ * (usually within one page), with no deserialization. As the file is 
+ * only ever read, several crawl jobs on one host may map the same file 
+ * and share its pages in the OS cache. 
+ * 
+ * File layout (all big-endian): 
+ * <pre>
+ *   header:  magic(int) version(int) count(long) valueWidth(int) 
+ *            bucketBits(int) reserved(long)
+ *   index:   (2^bucketBits + 1) ints, the first entry whose fingerprint's
+ *            top bucketBits bits are at least each bucket number
+ *   entries: count x (fingerprint(long) value(valueWidth bytes)), in 
+ *            unsigned fingerprint order, fingerprints unique
+ * </pre>
+ * Values are stored in 1, 2 or 4 bytes, as the range of values added
+ * requires; 1- and 2-byte values are unsigned. At most 
+ * Integer.MAX_VALUE entries are supported.
+ */
+public class MappedFingerprintTable implements Closeable {
+    public static final int MAGIC = 0x48465054; // "HFPT"
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 32; 
+    /** value returned by {@link #get(long)} for absent fingerprints */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+    /** target number of entries per index bucket */
+    protected static final int BUCKET_ENTRIES = 64; 
+    protected static final int MAX_BUCKET_BITS = 28; 
+    /** entries per mapped region, keeping each well under 2GiB */
+    protected static final int CHUNK_SHIFT = 26; 
+
+    protected RandomAccessFile file; 
+    protected ByteBuffer index; 
+    protected ByteBuffer[] chunks; 
+    protected long count; 
+    protected int valueWidth; 
+    protected int entryWidth; 
+    protected int bucketBits; 
+
+    /**
+     * Open and map the given table file.
+     * 
+     * @param tableFile file written by a Builder
+     * @throws IOException if unreadable or not a table file
+     */
+    public MappedFingerprintTable(File tableFile) throws IOException {
+        file = new RandomAccessFile(tableFile, "r");
+        FileChannel channel = file.getChannel();
+        ByteBuffer header = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            file.close();
+            throw new IOException("not a fingerprint table: " + tableFile);
+        }
+        count = header.getLong(8);
+        valueWidth = header.getInt(16);
+        bucketBits = header.getInt(20);
+        entryWidth = 8 + valueWidth; 
+        long indexLength = ((1L << bucketBits) + 1) * 4;
+        index = channel.map(FileChannel.MapMode.READ_ONLY, 
+                HEADER_LENGTH, indexLength);
+        long entriesOffset = HEADER_LENGTH + indexLength;
+        int chunkCount = (int) ((count + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+        chunks = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long first = (long) i << CHUNK_SHIFT; 
+            long entries = Math.min(count - first, 1L << CHUNK_SHIFT);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, 
+                    entriesOffset + first * entryWidth, entries * entryWidth);
+        }
+    }
+
+    /**
+     * Number of fingerprints in table.
+     */
+    public long size() {
+        return count; 
+    }
+
+    protected static int bucketOf(long fp, int bits) {
+        return bits == 0 ? 0 : (int) (fp >>> (64 - bits));
+    }
+
+    /**
+     * Look up the value for the given fingerprint.
+     * 
+     * @param fp fingerprint
+     * @return value, or NO_VALUE if absent
+     */
+    public int get(long fp) {
+        int bucket = bucketOf(fp, bucketBits);
+        int lo = index.getInt(bucket * 4);
+        int hi = index.getInt((bucket + 1) * 4) - 1;
+        long target = fp ^ Long.MIN_VALUE; // for unsigned comparison
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            ByteBuffer chunk = chunks[mid >>> CHUNK_SHIFT];
+            int pos = (mid & ((1 << CHUNK_SHIFT) - 1)) * entryWidth;
+            long probe = chunk.getLong(pos) ^ Long.MIN_VALUE;
+            if (probe < target) {
+                lo = mid + 1;
+            } else if (probe > target) {
+                hi = mid - 1;
+            } else {
+                pos += 8;
+                switch (valueWidth) {
+                case 1:
+                    return chunk.get(pos) & 0xff;
+                case 2:
+                    return chunk.getShort(pos) & 0xffff;
+                default:
+                    return chunk.getInt(pos);
+                }
+            }
+        }
+        return NO_VALUE;
+    }
+
+    public void close() throws IOException {
+        // mappings are released when collected
+        index = null; 
+        chunks = null; 
+        file.close();
+    }
+
+    /**
+     * Accumulates fingerprint-value pairs in memory, then writes them as
+     * a table file. Where a fingerprint is added more than once, the 
+     * last value added is kept. Needs about 24 bytes of heap per pair 
+     * while building. 
+     */
+    public static class Builder {
+        protected long[] fps = new long[1024];
+        protected int[] values = new int[1024];
+        protected int size; 
+
+        public void add(long fp, int value) {
+            if (value == NO_VALUE) {
+                throw new IllegalArgumentException("reserved value");
+            }
+            if (size == fps.length) {
+                int newLength = (int) Math.min(2L * size, Integer.MAX_VALUE - 8);
+                if (newLength == size) {
+                    throw new IllegalStateException("table full");
+                }
+                long[] newFps = new long[newLength];
+                System.arraycopy(fps, 0, newFps, 0, size);
+                fps = newFps;
+                int[] newValues = new int[newLength];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            fps[size] = fp;
+            values[size] = value;
+            size++;
+        }
+
+        /**
+         * Number of pairs added so far (including repeats).
+         */
+        public int size() {
+            return size; 
+        }
+
+        /**
+         * Sort, deduplicate and write all added pairs to the given file.
+         * 
+         * @param target file to write
+         * @return number of distinct fingerprints written
+         * @throws IOException
+         */
+        public long build(File target) throws IOException {
+            sort();
+            // deduplicate, keeping last-added (sort is stable)
+            int distinct = 0; 
+            int min = 0; 
+            int max = 0; 
+            for (int i = 0; i < size; i++) {
+                if (distinct > 0 && fps[distinct - 1] == fps[i]) {
+                    distinct--;
+                }
+                fps[distinct] = fps[i];
+                values[distinct] = values[i];
+                distinct++;
+            }
+            for (int i = 0; i < distinct; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            int valueWidth = (min < 0 || max > 0xffff) ? 4 : (max > 0xff) ? 2 : 1;
+            int bucketBits = 0; 
+            while ((distinct >>> bucketBits) > BUCKET_ENTRIES 
+                    && bucketBits < MAX_BUCKET_BITS) {
+                bucketBits++;
+            }
+            
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(target), 1024 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(distinct);
+                out.writeInt(valueWidth);
+                out.writeInt(bucketBits);
+                out.writeLong(0);
+                int entry = 0; 
+                for (long bucket = 0; bucket < (1L << bucketBits); bucket++) {
+                    while (entry < distinct 
+                            && bucketOf(fps[entry], bucketBits) < bucket) {
+                        entry++;
+                    }
+                    out.writeInt(entry);
+                }
+                out.writeInt(distinct);
+                for (int i = 0; i < distinct; i++) {
+                    out.writeLong(fps[i]);
+                    switch (valueWidth) {
+                    case 1:
+                        out.writeByte(values[i]);
+                        break;
+                    case 2:
+                        out.writeShort(values[i]);
+                        break;
+                    default:
+                        out.writeInt(values[i]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            return distinct; 
+        }
+
+        /**
+         * Stable bottom-up merge sort of the parallel arrays, by 
+         * unsigned fingerprint. 
+         */
+        protected void sort() {
+            long[] fpsFrom = fps; 
+            int[] valuesFrom = values;
+            long[] fpsTo = new long[size];
+            int[] valuesTo = new int[size];
+            for (int width = 1; width < size; width *= 2) {
+                for (int lo = 0; lo < size; lo += 2 * width) {
+                    int mid = Math.min(lo + width, size);
+                    int hi = Math.min(lo + 2 * width, size);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) {
+                        if ((fpsFrom[j] ^ Long.MIN_VALUE) < (fpsFrom[i] ^ Long.MIN_VALUE)) {
+                            fpsTo[k] = fpsFrom[j];
+                            valuesTo[k++] = valuesFrom[j++];
+                        } else {
+                            fpsTo[k] = fpsFrom[i];
+                            valuesTo[k++] = valuesFrom[i++];
+                        }
+                    }
+                    while (i < mid) {
+                        fpsTo[k] = fpsFrom[i];
+                        valuesTo[k++] = valuesFrom[i++];
+                    }
+                    while (j < hi) {
+                        fpsTo[k] = fpsFrom[j];
+                        valuesTo[k++] = valuesFrom[j++];
+                    }
+                }
+                long[] swapFps = fpsFrom; fpsFrom = fpsTo; fpsTo = swapFps;
+                int[] swapValues = valuesFrom; valuesFrom = valuesTo; valuesTo = swapValues;
+            }
+            fps = fpsFrom; 
+            values = valuesFrom; 
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Tests for Murmur3Digest.
+ */
+public class Murmur3DigestTest extends TestCase {
+
+    protected String hex(byte[] digest) {
+        return new String(Hex.encodeHex(digest));
+    }
+
+    public void testReferenceValues() throws Exception {
+        MessageDigest digest = Digesters.get(Murmur3Digest.ALGORITHM);
+        assertEquals("00000000000000000000000000000000", 
+                hex(digest.digest()));
+        assertEquals("029bbd41b3a7d8cb191dae486a901e5b", 
+                hex(digest.digest("hello".getBytes("UTF-8"))));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", 
+                hex(digest.digest("The quick brown fox jumps over the lazy dog"
+                        .getBytes("UTF-8"))));
+    }
+
+    public void testPiecewiseUpdates() throws Exception {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        MessageDigest digest = Digesters.get(Murmur3Digest.ALGORITHM);
+        String whole = hex(digest.digest(data));
+        for (int step = 1; step < 40; step += 3) {
+            for (int i = 0; i < data.length; i += step) {
+                if (step == 1) {
+                    digest.update(data[i]);
+                } else {
+                    digest.update(data, i, Math.min(step, data.length - i));
+                }
+            }
+            assertEquals("step " + step, whole, hex(digest.digest()));
+        }
+    }
+
+    public void testPooledDigests() throws Exception {
+        MessageDigest sha1 = Digesters.get("SHA1");
+        sha1.update((byte) 1);
+        // handed out again, reset
+        assertSame(sha1, Digesters.get("SHA1"));
+        assertEquals(hex(MessageDigest.getInstance("SHA1").digest()), 
+                hex(Digesters.get("SHA1").digest()));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for MappedFingerprintTable.
+ */
+public class MappedFingerprintTableTest extends TmpDirTestCase {
+
+    protected void checkTable(int pairs, int maxValue) throws IOException {
+        Random random = new Random(pairs);
+        MappedFingerprintTable.Builder builder = 
+            new MappedFingerprintTable.Builder();
+        Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        for (int i = 0; i < pairs; i++) {
+            // some repeats, which should keep last value added
+            long fp = (i % 10 == 9) ? fpAt(random.nextInt(i)) : fpAt(i);
+            int value = random.nextInt(maxValue + 1);
+            builder.add(fp, value);
+            expected.put(fp, value);
+        }
+        File file = new File(getTmpDir(), "MappedFingerprintTableTest.fpt");
+        assertEquals(expected.size(), builder.build(file));
+        MappedFingerprintTable table = new MappedFingerprintTable(file);
+        try {
+            assertEquals(expected.size(), table.size());
+            for (Map.Entry<Long,Integer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue().intValue(), 
+                        table.get(entry.getKey()));
+            }
+            for (int i = 0; i < 1000; i++) {
+                long absent = random.nextLong();
+                if (!expected.containsKey(absent)) {
+                    assertEquals(MappedFingerprintTable.NO_VALUE, 
+                            table.get(absent));
+                }
+            }
+        } finally {
+            table.close();
+            file.delete();
+        }
+    }
+
+    /** spread, including negative (high-bit) fingerprints */
+    protected long fpAt(int i) {
+        return (i * 0x9E3779B97F4A7C15L) ^ (i >>> 3);
+    }
+
+    public void testEmpty() throws IOException {
+        checkTable(0, 1);
+    }
+
+    public void testSmall() throws IOException {
+        checkTable(50, 127);
+    }
+
+    public void testLarge() throws IOException {
+        checkTable(200000, 255);
+    }
+
+    public void testWideValues() throws IOException {
+        checkTable(5000, 60000);
+        checkTable(5000, Integer.MAX_VALUE - 1);
+    }
+}
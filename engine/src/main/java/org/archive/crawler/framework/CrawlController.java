@@ -166,6 +166,19 @@ implements Serializable,
         this.dispositionChain = dispositionChain;
     }
     
+    /**
+     * Optional pool of threads to which ToeThreads hand off CPU-heavy 
+     * link extraction of large documents
+     */
+    protected ExtractionPool extractionPool;
+    public ExtractionPool getExtractionPool() {
+        return this.extractionPool;
+    }
+    @Autowired(required=false)
+    public void setExtractionPool(ExtractionPool extractionPool) {
+        this.extractionPool = extractionPool;
+    }
+    
     /**
      * Candidate chain
      */
@@ -0,0 +1,351 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import static org.archive.modules.CoreAttributeConstants.A_RUNTIME_EXCEPTION;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_RUNTIME_EXCEPTION;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorChain.HandoffPolicy;
+import org.archive.modules.extractor.ContentExtractor;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.Recorder;
+import org.archive.util.Reporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Optional pool of CPU-bound worker threads to which ToeThreads hand off
+ * CrawlURIs with large content, just before the first ContentExtractor
+ * of the fetch chain. A worker finishes the fetch chain and runs the
+ * disposition chain; the ToeThread meanwhile swaps in a spare Recorder
+ * and goes back to fetching, so the number of ToeThreads (network-bound)
+ * and extraction threads (CPU-bound) may be sized independently.
+ *
+ * The handed-off CrawlURI keeps the ToeThread's original Recorder, and
+ * thus its replayable content, until the disposition chain completes;
+ * the Recorder is then returned to the spare pool. At most
+ * threads+maxPending spare Recorders are ever created. When none is
+ * available the pool is saturated, and the ToeThread simply continues
+ * extraction itself -- so a backlog of extraction work slows fetching
+ * rather than growing without bound.
+ *
+ * Handed-off CrawlURIs remain in-process in the frontier until finished,
+ * so their queues stay busy, and pausing or checkpointing waits for
+ * them as for any other in-process URI.
+ */
+public class ExtractionPool implements Lifecycle, HandoffPolicy, Reporter {
+    private static final Logger logger =
+        Logger.getLogger(ExtractionPool.class.getName());
+
+    // same as ToeThread default
+    protected static final int DEFAULT_PRIORITY = Thread.NORM_PRIORITY-2;
+
+    /**
+     * Number of extraction threads. Default is the number of available
+     * processors.
+     */
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Maximum number of handed-off CrawlURIs waiting for an extraction
+     * thread. Each holds a fetched-content Recorder (and its in-memory
+     * buffers), so this bounds the extra memory used.
+     */
+    protected int maxPending = Runtime.getRuntime().availableProcessors();
+    public int getMaxPending() {
+        return maxPending;
+    }
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Only CrawlURIs with at least this much content are handed off;
+     * smaller documents are processed more cheaply in place.
+     */
+    protected long minContentLength = 64 * 1024; // 64KiB
+    public long getMinContentLength() {
+        return minContentLength;
+    }
+    public void setMinContentLength(long minContentLength) {
+        this.minContentLength = minContentLength;
+    }
+
+    protected CrawlController controller;
+    public CrawlController getCrawlController() {
+        return this.controller;
+    }
+    @Autowired
+    public void setCrawlController(CrawlController controller) {
+        this.controller = controller;
+    }
+
+    protected ExecutorService executor;
+    protected ConcurrentLinkedQueue<Recorder> spareRecorders =
+        new ConcurrentLinkedQueue<Recorder>();
+    protected AtomicInteger recordersCreated = new AtomicInteger(0);
+    protected AtomicInteger threadsCreated = new AtomicInteger(0);
+
+    protected AtomicLong handedOff = new AtomicLong(0);
+    protected AtomicLong declined = new AtomicLong(0);
+    protected AtomicInteger inProgress = new AtomicInteger(0);
+
+    protected volatile boolean isRunning = false;
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        // threads are created lazily, by the first ToeThreads to hand
+        // off, and so join the ToePool's thread group
+        executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ExtractionThread #"
+                                + threadsCreated.incrementAndGet());
+                        t.setDaemon(true);
+                        t.setPriority(DEFAULT_PRIORITY);
+                        return t;
+                    }
+                });
+        isRunning = true;
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warning("extraction threads still busy at stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Recorder r;
+        while ((r = spareRecorders.poll()) != null) {
+            r.closeRecorders();
+        }
+    }
+
+    /**
+     * Hand off before any ContentExtractor, if the content is large
+     * enough to be worth the trip, and some ContentExtractor from there
+     * on would actually process it -- otherwise the trip (and a spare
+     * Recorder) would be spent only to skip them.
+     *
+     * @see org.archive.modules.ProcessorChain.HandoffPolicy#shouldHandOff(java.util.List, int, org.archive.modules.CrawlURI)
+     */
+    public boolean shouldHandOff(List<Processor> processors, int index, 
+            CrawlURI curi) {
+        if (!isRunning
+                || !(processors.get(index) instanceof ContentExtractor)
+                || curi.getContentLength() < minContentLength) {
+            return false;
+        }
+        for (int i = index; i < processors.size(); i++) {
+            Processor proc = processors.get(i);
+            if (proc instanceof ContentExtractor && proc.wouldProcess(curi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accept the given CrawlURI, with its Recorder, for processing
+     * from the given fetch chain index onward.
+     *
+     * @param curi CrawlURI whose fetch chain stopped at a handoff
+     * @param resumeIndex fetch chain index at which to resume
+     * @return a Recorder for the calling thread to use in place of the
+     * one now owned by the handed-off CrawlURI, or null if the pool is
+     * saturated and the caller should finish the CrawlURI itself
+     */
+    public Recorder offload(CrawlURI curi, int resumeIndex) {
+        Recorder replacement = spareRecorders.poll();
+        if (replacement == null) {
+            int n = recordersCreated.incrementAndGet();
+            if (n > threads + maxPending) {
+                recordersCreated.decrementAndGet();
+                declined.incrementAndGet();
+                return null;
+            }
+            replacement = newRecorder(n);
+        }
+        try {
+            executor.execute(new ExtractionTask(curi, resumeIndex));
+        } catch (RejectedExecutionException e) {
+            // stopping; caller keeps the CrawlURI
+            spareRecorders.add(replacement);
+            declined.incrementAndGet();
+            return null;
+        }
+        inProgress.incrementAndGet();
+        handedOff.incrementAndGet();
+        return replacement;
+    }
+
+    /**
+     * Create the nth spare Recorder.
+     */
+    protected Recorder newRecorder(int n) {
+        return new Recorder(
+                controller.getScratchDir().getFile(), "ex" + n + "http",
+                controller.getRecorderOutBufferBytes(),
+                controller.getRecorderInBufferBytes());
+    }
+
+    /**
+     * Remainder of a ToeThread's processing of one CrawlURI: the rest
+     * of the fetch chain, then the disposition chain, then return to the
+     * frontier.
+     * 
+     * @param curi handed-off CrawlURI, with its Recorder
+     * @param resumeIndex fetch chain index at which to resume
+     */
+    protected void complete(CrawlURI curi, int resumeIndex) {
+        Recorder recorder = curi.getRecorder();
+        Recorder.setHttpRecorder(recorder);
+        Frontier frontier = controller.getFrontier();
+        try {
+            KeyedProperties.loadOverridesFrom(curi);
+            controller.getFetchChain().process(
+                    curi, null, resumeIndex, null);
+            frontier.beginDisposition(curi);
+            controller.getDispositionChain().process(curi, null);
+        } catch (InterruptedException e) {
+            problem(curi, e);
+            Thread.interrupted(); // clear interrupt status
+        } catch (RuntimeException e) {
+            problem(curi, e);
+        } catch (AssertionError ae) {
+            problem(curi, ae);
+        } catch (StackOverflowError err) {
+            problem(curi, err);
+        } finally {
+            recorder.endReplays();
+            KeyedProperties.clearOverridesFrom(curi);
+            Recorder.setHttpRecorder(null);
+            try {
+                frontier.finished(curi);
+            } finally {
+                frontier.endDisposition();
+            }
+        }
+    }
+
+    protected void problem(CrawlURI curi, Throwable e) {
+        curi.setFetchStatus(S_RUNTIME_EXCEPTION);
+        curi.getAnnotations().add("err="+e.getClass().getName());
+        curi.getData().put(A_RUNTIME_EXCEPTION, e);
+        logger.log(Level.SEVERE, "Problem " + e
+                + " occured when trying to extract '" + curi + "'", e);
+    }
+
+    /**
+     * Completion of one handed-off CrawlURI, after which its Recorder
+     * becomes a spare for the next handoff.
+     */
+    protected class ExtractionTask implements Runnable {
+        protected CrawlURI curi;
+        protected int resumeIndex;
+
+        public ExtractionTask(CrawlURI curi, int resumeIndex) {
+            this.curi = curi;
+            this.resumeIndex = resumeIndex;
+        }
+
+        public void run() {
+            Recorder recorder = curi.getRecorder();
+            try {
+                complete(curi, resumeIndex);
+            } finally {
+                spareRecorders.add(recorder);
+                inProgress.decrementAndGet();
+            }
+        }
+    }
+
+    //
+    // Reporter implementation
+    //
+
+    public void reportTo(PrintWriter writer) {
+        writer.print("ExtractionPool - ");
+        shortReportLineTo(writer);
+        writer.println();
+    }
+
+    public void shortReportLineTo(PrintWriter w) {
+        w.print(inProgress.get());
+        w.print(" in progress, ");
+        w.print(handedOff.get());
+        w.print(" handed off, ");
+        w.print(declined.get());
+        w.print(" declined (saturated), ");
+        w.print(recordersCreated.get());
+        w.print(" spare recorders");
+    }
+
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("inProgress", inProgress.get());
+        map.put("handedOff", handedOff.get());
+        map.put("declined", declined.get());
+        map.put("recorders", recordersCreated.get());
+        return map;
+    }
+
+    public String shortReportLegend() {
+        return "inProgress handedOff declined recorders";
+    }
+}
@@ -142,14 +142,22 @@ implements Reporter, ProgressStatisticsReporter,
                     currentCuri.setRecorder(httpRecorder);
                 }
                 
+                boolean handedOff = false;
                 try {
                     KeyedProperties.loadOverridesFrom(curi);
                     
-                    controller.getFetchChain().process(curi,this);
+                    ExtractionPool pool = controller.getExtractionPool();
+                    if(pool==null) {
+                        controller.getFetchChain().process(curi,this);
+                    } else {
+                        handedOff = processOrHandOff(curi, pool);
+                    }
                     
-                    controller.getFrontier().beginDisposition(curi);
+                    if(!handedOff) {
+                        controller.getFrontier().beginDisposition(curi);
                     
-                    controller.getDispositionChain().process(curi,this);
+                        controller.getDispositionChain().process(curi,this);
+                    }
   
                 } catch (RuntimeExceptionWrapper e) {
                     // Workaround to get cause from BDB
@@ -176,7 +184,10 @@ implements Reporter, ProgressStatisticsReporter,
                     // OutOfMemory and any others
                     seriousError(err); 
                 } finally {
-                    httpRecorder.endReplays();
+                    if(!handedOff) {
+                        // otherwise, replays now belong to extraction thread
+                        httpRecorder.endReplays();
+                    }
                     KeyedProperties.clearOverridesFrom(curi); 
                 }
                 
@@ -184,8 +195,10 @@ implements Reporter, ProgressStatisticsReporter,
                 ArchiveUtils.continueCheck();
 
                 synchronized(this) {
-                    controller.getFrontier().finished(currentCuri);
-                    controller.getFrontier().endDisposition();
+                    if(!handedOff) {
+                        controller.getFrontier().finished(currentCuri);
+                        controller.getFrontier().endDisposition();
+                    }
                     setCurrentCuri(null);
                 }
                 curi = null;
@@ -222,6 +235,39 @@ implements Reporter, ProgressStatisticsReporter,
         controller = null;
     }
 
+    /**
+     * Run the fetch chain, handing the CrawlURI off to the ExtractionPool 
+     * if it asks to take over before a content extractor. On a successful 
+     * handoff the CrawlURI keeps the current Recorder (with its content), 
+     * and this thread continues with a replacement from the pool. 
+     * 
+     * @param curi CrawlURI to process
+     * @param pool ExtractionPool
+     * @return true if the CrawlURI was handed off, and so is no longer
+     * this thread's responsibility
+     * @throws InterruptedException
+     */
+    private boolean processOrHandOff(CrawlURI curi, ExtractionPool pool)
+    throws InterruptedException {
+        int resumeAt = controller.getFetchChain().process(curi,this,0,pool);
+        if(resumeAt < 0) {
+            return false;
+        }
+        synchronized(this) {
+            Recorder replacement = pool.offload(curi, resumeAt);
+            if(replacement!=null) {
+                // no longer ours to kill or finish
+                setCurrentCuri(null);
+                httpRecorder = replacement;
+                Recorder.setHttpRecorder(httpRecorder);
+                return true;
+            }
+        }
+        // pool saturated: extract here
+        controller.getFetchChain().process(curi,this,resumeAt,null);
+        return false;
+    }
+
     /**
      * Set currentCuri, updating thread name as appropriate
      * @param curi
@@ -41,6 +41,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
@@ -64,7 +65,7 @@ import org.archive.modules.fetcher.FetchStats.Stage;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.SeedBatchListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
@@ -85,7 +86,7 @@ import org.springframework.context.ApplicationListener;
  */
 public abstract class AbstractFrontier 
     implements Frontier,
-               SeedListener, 
+               SeedBatchListener, 
                HasKeyedProperties,
                ExtractorParameters,
                CrawlUriReceiver,
@@ -797,6 +798,17 @@ public abstract class AbstractFrontier
     public void addedSeed(CrawlURI puri) {
         schedule(puri);
     }
+
+    /**
+     * When notified of a batch of seeds, schedule each.
+     * 
+     * @see org.archive.modules.seeds.SeedBatchListener#addedSeeds(java.util.List)
+     */
+    public void addedSeeds(List<CrawlURI> seeds) {
+        for (CrawlURI curi : seeds) {
+            addedSeed(curi);
+        }
+    }
     
     /** 
      * Do nothing with non-seed lines
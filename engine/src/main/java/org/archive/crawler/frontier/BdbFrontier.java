@@ -27,6 +27,7 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -41,6 +42,7 @@ import org.archive.bdb.StoredQueue;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.Supplier;
 import org.json.JSONArray;
@@ -79,7 +81,7 @@ implements Checkpointable, BeanNameAware {
     protected StoredQueue<String> retiredQueues;
     
     /** all URIs scheduled to be crawled */
-    protected transient BdbMultipleWorkQueues pendingUris;
+    protected transient WorkQueueStore pendingUris;
 
     protected BdbModule bdb;
     @Autowired
@@ -99,6 +101,81 @@ implements Checkpointable, BeanNameAware {
     public void setDumpPendingAtClose(boolean dumpPendingAtClose) {
         this.dumpPendingAtClose = dumpPendingAtClose;
     }
+    
+    /**
+     * Number of URIs to read ahead from the head of a queue, in one 
+     * sequential scan of the pending-URIs database, and hold in memory 
+     * for subsequent peeks. The default of 1 reads each URI individually
+     * as it reaches the head of its queue. 
+     */
+    protected int queueHeadBufferSize = 1;
+    public int getQueueHeadBufferSize() {
+        return queueHeadBufferSize;
+    }
+    public void setQueueHeadBufferSize(int queueHeadBufferSize) {
+        this.queueHeadBufferSize = queueHeadBufferSize;
+    }
+    
+    /**
+     * Maximum URIs held in memory across all queues' read-ahead buffers.
+     * Least-recently-used buffers are discarded when exceeded. 
+     */
+    protected long maxQueueHeadBufferedUris = 100000;
+    public long getMaxQueueHeadBufferedUris() {
+        return maxQueueHeadBufferedUris;
+    }
+    public void setMaxQueueHeadBufferedUris(long maxQueueHeadBufferedUris) {
+        this.maxQueueHeadBufferedUris = maxQueueHeadBufferedUris;
+    }
+    
+    /**
+     * Whether to keep pending URIs in append-only segment files (see
+     * {@link SegmentedWorkQueueStore}) rather than in a BDB database. 
+     * Only takes effect at crawl launch; a crawl resumed from checkpoint
+     * must use the same setting as when the checkpoint was made. 
+     */
+    protected boolean useSegmentedQueueStore = false;
+    public boolean getUseSegmentedQueueStore() {
+        return useSegmentedQueueStore;
+    }
+    public void setUseSegmentedQueueStore(boolean useSegmentedQueueStore) {
+        this.useSegmentedQueueStore = useSegmentedQueueStore;
+    }
+    
+    /**
+     * Whether to assign each new queue a compact numeric ID, used in 
+     * place of its classKey as the prefix of its URIs' database keys. 
+     * Shrinks keys (and so the BDB index and cache footprint) when 
+     * classKeys are long. Queues created earlier keep their classKey
+     * prefixes, so this may be changed between checkpoint and resume. 
+     */
+    protected boolean useQueueIds = false;
+    public boolean getUseQueueIds() {
+        return useQueueIds;
+    }
+    public void setUseQueueIds(boolean useQueueIds) {
+        this.useQueueIds = useQueueIds;
+    }
+    
+    /** next numeric queue ID to assign, if useQueueIds */
+    protected AtomicInteger nextQueueId = new AtomicInteger(0);
+    
+    /**
+     * @return a new, never-before-assigned queue ID
+     */
+    protected int nextQueueId() {
+        return nextQueueId.getAndIncrement();
+    }
+    
+    /** directory for segment files, if useSegmentedQueueStore */
+    protected ConfigPath segmentedQueueStoreDir = 
+        new ConfigPath("segmented queue store directory", "queue-segments");
+    public ConfigPath getSegmentedQueueStoreDir() {
+        return segmentedQueueStoreDir;
+    }
+    public void setSegmentedQueueStoreDir(ConfigPath segmentedQueueStoreDir) {
+        this.segmentedQueueStoreDir = segmentedQueueStoreDir;
+    }
 
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
@@ -134,7 +211,28 @@ implements Checkpointable, BeanNameAware {
         // before a page-out is required need never cause disk IO.
         db = bdb.openDatabase("pending", dbConfig, recycle);
         
-        return new BdbMultipleWorkQueues(db, bdb.getClassCatalog());
+        BdbMultipleWorkQueues queues = 
+            new BdbMultipleWorkQueues(db, bdb.getClassCatalog());
+        queues.setHeadBufferSize(getQueueHeadBufferSize());
+        queues.setMaxBufferedUris(getMaxQueueHeadBufferedUris());
+        return queues;
+    }
+    
+    /**
+     * Create and open a segment-file-based store for all queues' URIs, 
+     * restoring from the recovery checkpoint if any. 
+     * 
+     * @return the opened SegmentedWorkQueueStore
+     */
+    protected WorkQueueStore createSegmentedQueueStore() {
+        SegmentedWorkQueueStore store = new SegmentedWorkQueueStore(
+                getSegmentedQueueStoreDir().getFile());
+        try {
+            store.open(recoveryCheckpoint);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return store;
     }
 
 
@@ -178,6 +276,8 @@ implements Checkpointable, BeanNameAware {
             return pendingUris.getFrom(marker, numberOfMatches, p, verbose);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
     }
     
@@ -207,7 +307,7 @@ implements Checkpointable, BeanNameAware {
         super.close(); 
     }
         
-    protected BdbMultipleWorkQueues getWorkQueues() {
+    protected WorkQueueStore getWorkQueues() {
         return pendingUris;
     }
 
@@ -223,16 +323,17 @@ implements Checkpointable, BeanNameAware {
         dispositionInProgressLock.writeLock().lock();
     }
 
-    public void doCheckpoint(Checkpoint checkpointInProgress) {
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
         // An explicit sync on any deferred write dbs is needed to make the
         // db recoverable. Sync'ing the environment is insufficient
-        this.pendingUris.sync();
+        this.pendingUris.doCheckpoint(checkpointInProgress);
         // object caches will be sync()d by BdbModule
         
         // save simple instance fields & inactive-levels summary
         JSONObject json = new JSONObject();
         try {
             json.put("nextOrdinal", nextOrdinal.get());
+            json.put("nextQueueId", nextQueueId.get());
             json.put("queuedUriCount", queuedUriCount.get());
             json.put("futureUriCount", futureUriCount.get());
             json.put("succeededFetchCount", succeededFetchCount.get());
@@ -292,6 +393,7 @@ implements Checkpointable, BeanNameAware {
             JSONObject json = recoveryCheckpoint.loadJson(beanName);
             try {
                 nextOrdinal.set(json.getLong("nextOrdinal"));
+                nextQueueId.set(json.optInt("nextQueueId", 0));
                 queuedUriCount.set(json.getLong("queuedUriCount"));
                 futureUriCount.set(json.getLong("futureUriCount"));
                 succeededFetchCount.set(json.getLong("succeededFetchCount"));
@@ -325,6 +427,16 @@ implements Checkpointable, BeanNameAware {
             }
 
             // TODO: restore largestQueues topNset?
+            
+            if (getIndexQueueStates()) {
+                // rebuild queue-state index (one pass over all queues)
+                for (String key : allQueues.keySet()) {
+                    WorkQueue wq = allQueues.get(key);
+                    if (wq != null) {
+                        noteQueueState(wq);
+                    }
+                }
+            }
         }
     }
 
@@ -350,7 +462,9 @@ implements Checkpointable, BeanNameAware {
                 "futureUris", Long.class, CrawlURI.class, true, recoveryCheckpoint!=null);
         
         // initialize master map in which other queues live
-        this.pendingUris = createMultipleWorkQueues();
+        this.pendingUris = getUseSegmentedQueueStore() 
+            ? createSegmentedQueueStore() 
+            : createMultipleWorkQueues();
     }
 
 
@@ -374,9 +488,9 @@ implements Checkpointable, BeanNameAware {
      * dequeuing. Useful for understanding what was remaining in a crawl that
      * was ended early, for example at a time limit.
      * 
-     * @throws DatabaseException
+     * @throws IOException
      */
-    public void dumpAllPendingToLog() throws DatabaseException {
+    public void dumpAllPendingToLog() throws IOException {
         Closure tolog = new Closure() {
             public void execute(Object curi) {
                 log((CrawlURI) curi);
@@ -22,6 +22,11 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -32,6 +37,7 @@ import javax.management.openmbean.OpenDataException;
 
 import org.apache.commons.collections.Closure;
 import org.archive.bdb.KryoBinding;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.modules.CrawlURI;
 import org.archive.util.ArchiveUtils;
 
@@ -43,6 +49,7 @@ import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.tree.Key;
 import com.sleepycat.util.RuntimeExceptionWrapper;
 
 
@@ -58,7 +65,7 @@ import com.sleepycat.util.RuntimeExceptionWrapper;
  * 
  * @author gojomo
  */
-public class BdbMultipleWorkQueues {
+public class BdbMultipleWorkQueues implements WorkQueueStore {
 	@SuppressWarnings("unused")
     private static final long serialVersionUID = 1L;
 	
@@ -68,9 +75,62 @@ public class BdbMultipleWorkQueues {
     /** Database holding all pending URIs, grouped in virtual queues */
     private Database pendingUrisDB = null;
     
+    /** 
+     * First byte of origin keys based on numeric queue IDs; 0xFF never
+     * appears in UTF-8. 
+     */
+    protected static final byte QUEUE_ID_MARKER = (byte) 0xFF;
+    
     /**  Supporting bdb serialization of CrawlURIs */
     private EntryBinding<CrawlURI> crawlUriBinding;
 
+    /**
+     * Number of CrawlURIs to read ahead from the head of a queue, in a
+     * single cursor scan, and hold in memory for subsequent gets. The 
+     * default of 1 disables read-ahead: each get() reads one item. 
+     */
+    protected int headBufferSize = 1;
+    public int getHeadBufferSize() {
+        return headBufferSize;
+    }
+    public void setHeadBufferSize(int headBufferSize) {
+        this.headBufferSize = headBufferSize;
+    }
+    
+    /**
+     * Maximum CrawlURIs held across all queues' head buffers. When 
+     * exceeded, the least-recently-used buffers are discarded. 
+     */
+    protected long maxBufferedUris = 100000;
+    public long getMaxBufferedUris() {
+        return maxBufferedUris;
+    }
+    public void setMaxBufferedUris(long maxBufferedUris) {
+        this.maxBufferedUris = maxBufferedUris;
+    }
+    
+    /** a read-ahead queue item: its key and still-serialized value */
+    protected static class BufferedEntry {
+        byte[] key;
+        byte[] value;
+        BufferedEntry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** 
+     * Read-ahead entries, in key order, by classKey; iterates 
+     * least-recently-used first. Entries are kept serialized, so each 
+     * get returns a fresh CrawlURI. An empty list marks a refill in 
+     * progress. All access synchronized on the map, which is held only
+     * for bookkeeping: database reads and deserialization happen outside.
+     */
+    protected LinkedHashMap<String,LinkedList<BufferedEntry>> headBuffers = 
+        new LinkedHashMap<String,LinkedList<BufferedEntry>>(16, 0.75f, true);
+    /** total CrawlURIs in all headBuffers */
+    protected long bufferedUriCount = 0;
+
     /**
      * Create the multi queue in the given environment. 
      * 
@@ -94,6 +154,74 @@ public class BdbMultipleWorkQueues {
             
     }
 
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#initQueue(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public void initQueue(BdbWorkQueue queue) {
+        // add the queue-front 'cap' entry; see...
+        // http://sourceforge.net/tracker/index.php?func=detail&aid=1262665&group_id=73833&atid=539102
+        addCap(queue.getOrigin());
+    }
+    
+    /**
+     * Get the first item of the given queue, retrying a few times in 
+     * the (unexpected) case of failure or an item from outside the 
+     * queue's key range.
+     * 
+     * @see org.archive.crawler.frontier.WorkQueueStore#peek(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public CrawlURI peek(BdbWorkQueue queue) {
+        String classKey = queue.getClassKey();
+        byte[] origin = queue.getOrigin();
+        DatabaseEntry key = new DatabaseEntry(origin);
+        CrawlURI curi = null;
+        int tries = 1;
+        while(true) {
+            try {
+                curi = get(key, classKey);
+            } catch (DatabaseException e) {
+                LOGGER.log(Level.SEVERE,"peekItem failure; retrying",e);
+            }
+            
+            // ensure CrawlURI, if any,  came from acceptable range: 
+            if(!ArchiveUtils.startsWith(key.getData(),origin)) {
+                LOGGER.severe(
+                    "inconsistency: "+classKey+"("+
+                    BdbWorkQueue.getPrefixClassKey(origin)+") gave "
+                    + curi +"("+BdbWorkQueue.getPrefixClassKey(key.getData()));
+                // clear curi to allow retry
+                curi = null; 
+                // reset key to original origin for retry
+                key.setData(origin);
+            }
+            
+            if (curi!=null) {
+                // success
+                break;
+            }
+            
+            if (tries>3) {
+                LOGGER.severe("no item where expected in queue "+classKey);
+                break;
+            }
+            tries++;
+            LOGGER.severe("Trying get #" + Integer.toString(tries)
+                    + " in queue " + classKey 
+                    + " using key "
+                    + BdbWorkQueue.getPrefixClassKey(key.getData()));
+        }
+ 
+        return curi;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#deleteMatchingFromQueue(java.lang.String, org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public long deleteMatchingFromQueue(String match, BdbWorkQueue queue) {
+        return deleteMatchingFromQueue(match, queue.getClassKey(), 
+                new DatabaseEntry(queue.getOrigin()));
+    }
+
     /**
      * Delete all CrawlURIs matching the given expression.
      * 
@@ -136,6 +264,42 @@ public class BdbMultipleWorkQueues {
                 cursor.close();
             }
         }
+        invalidateHeadBuffer(queue);
+
+        return deletedCount;
+    }
+    
+    /**
+     * Delete all of the given queue's CrawlURIs, as the run of keys 
+     * following its origin, reading keys only. The queue-front 'cap' 
+     * entry is kept. 
+     * 
+     * @see org.archive.crawler.frontier.WorkQueueStore#deleteQueue(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public long deleteQueue(BdbWorkQueue queue) throws DatabaseException {
+        byte[] origin = queue.getOrigin();
+        long deletedCount = 0;
+        DatabaseEntry key = new DatabaseEntry(origin);
+        DatabaseEntry value = new DatabaseEntry();
+        value.setPartial(0, 0, true); // keys only
+        Cursor cursor = null;
+        try {
+            cursor = pendingUrisDB.openCursor(null, null);
+            OperationStatus result = cursor.getSearchKeyRange(key, value, null);
+            while (result == OperationStatus.SUCCESS
+                    && ArchiveUtils.startsWith(key.getData(), origin)) {
+                if (key.getSize() > origin.length) {
+                    cursor.delete();
+                    deletedCount++;
+                }
+                result = cursor.getNext(key, value, null);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        invalidateHeadBuffer(queue.getClassKey());
 
         return deletedCount;
     }
@@ -199,13 +363,23 @@ public class BdbMultipleWorkQueues {
             m = new String(key.getData()); // = FrontierJMXTypes.toString(key.getData());
         }
         
+        return uriListData(results, m);
+    }
+    
+    /**
+     * @param results listed URIs
+     * @param marker marker for continuing listing, or null
+     * @return CompositeData of URI list and marker
+     */
+    protected static CompositeData uriListData(ArrayList<String> results, 
+            String marker) {
         String[] arr = results.toArray(new String[results.size()]);
         CompositeData cd;
         try {
             cd = new CompositeDataSupport(
                     /*FrontierJMXTypes.URI_LIST_DATA*/ null,
                     new String[] { "list", "marker" },
-                    new Object[] { arr, m });
+                    new Object[] { arr, marker });
         } catch (OpenDataException e) {
             throw new IllegalStateException(e);
         }
@@ -237,6 +411,10 @@ public class BdbMultipleWorkQueues {
      * 
      * <p>TODO: hold within a queue's range
      * 
+     * <p>Always read from the database, bypassing any head buffer: the 
+     * queue's classKey, by which head buffers are kept and invalidated,
+     * can't be derived from the key when queues are keyed by numeric ID.
+     * 
      * @param headKey Key prefix that demarks the beginning of the range
      * in <code>pendingUrisDB</code> we're interested in.
      * @return CrawlURI.
@@ -255,7 +433,6 @@ public class BdbMultipleWorkQueues {
         // OperationStatus.NOTFOUND, in which case no data record matched
         // the criteria. "
         OperationStatus status = getNextNearestItem(headKey, result);
-        CrawlURI retVal = null;
         if (status != OperationStatus.SUCCESS) {
             LOGGER.severe("See '1219854 NPE je-2.0 "
                     + "entryToObject...'. OperationStatus "
@@ -266,10 +443,47 @@ public class BdbMultipleWorkQueues {
             return null;
         }
        
+        CrawlURI retVal = entryToCrawlURI(result, headKey);
+        if (retVal != null) {
+            retVal.setHolderKey(headKey);
+        }
+        return retVal;
+    }
+    
+    /**
+     * Get the next nearest item after the given key, which begins the
+     * queue with the given classKey. If headBufferSize is greater than 1,
+     * the item is served from (and a miss refills) an in-memory buffer of
+     * the queue's next items, kept by classKey.
+     * 
+     * @param headKey queue cap key
+     * @param classKey queue classKey
+     * @return CrawlURI
+     * @throws DatabaseException
+     * @see #get(DatabaseEntry)
+     */
+    protected CrawlURI get(DatabaseEntry headKey, String classKey)
+    throws DatabaseException {
+        if (headBufferSize > 1) {
+            return getBuffered(headKey, classKey);
+        }
+        return get(headKey);
+    }
+    
+    /**
+     * Deserialize the CrawlURI in the given value entry, logging and 
+     * returning null on failure.
+     * 
+     * @param value database value entry
+     * @param headKey key of queue being read, for logging
+     * @return CrawlURI, or null
+     */
+    protected CrawlURI entryToCrawlURI(DatabaseEntry value, 
+            DatabaseEntry headKey) {
         try {
-            retVal = (CrawlURI)crawlUriBinding.entryToObject(result);
+            return (CrawlURI)crawlUriBinding.entryToObject(value);
         } catch (ClassCastException cce) {
-            Object obj = crawlUriBinding.entryToObject(result);
+            Object obj = crawlUriBinding.entryToObject(value);
             LOGGER.log(Level.SEVERE,
                     "see [#HER-1283]: deserialized " + obj.getClass() 
                     + " has ClassLoader " 
@@ -284,8 +498,197 @@ public class BdbMultipleWorkQueues {
                 rw);
             return null; 
         }
-        retVal.setHolderKey(headKey);
-        return retVal;
+    }
+    
+    /**
+     * Get the first item of the queue beginning at the given cap key from
+     * that queue's head buffer, first refilling the buffer with up to 
+     * headBufferSize items in a single cursor scan if it is empty. The 
+     * item remains buffered until deleted, but each get deserializes a 
+     * fresh CrawlURI, so changes to one not written back are never seen 
+     * by the next. The headKey is updated to the item's key, as with an 
+     * unbuffered get(). 
+     * 
+     * <p>The refill's cursor scan runs without the headBuffers lock; a
+     * placeholder marks it in progress, and if an insert or delete 
+     * discards the placeholder meanwhile, the refill is repeated.
+     * 
+     * @param headKey queue cap key
+     * @param classKey queue classKey
+     * @return CrawlURI, or null if none could be read
+     * @throws DatabaseException
+     */
+    protected CrawlURI getBuffered(DatabaseEntry headKey, String classKey) 
+    throws DatabaseException {
+        BufferedEntry head = null;
+        while (head == null) {
+            LinkedList<BufferedEntry> placeholder;
+            synchronized (headBuffers) {
+                LinkedList<BufferedEntry> buffer = headBuffers.get(classKey);
+                if (buffer != null && !buffer.isEmpty()) {
+                    head = buffer.getFirst();
+                    break;
+                }
+                placeholder = new LinkedList<BufferedEntry>();
+                headBuffers.put(classKey, placeholder);
+            }
+            LinkedList<BufferedEntry> batch = 
+                readAhead(headKey, headBufferSize);
+            synchronized (headBuffers) {
+                if (headBuffers.get(classKey) != placeholder) {
+                    // queue changed during read; reread
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    headBuffers.remove(classKey);
+                    LOGGER.severe("no items readable at headKey " + classKey);
+                    return null;
+                }
+                installHeadBuffer(classKey, batch);
+                head = batch.getFirst();
+            }
+        }
+        CrawlURI curi = entryToCrawlURI(new DatabaseEntry(head.value), headKey);
+        if (curi == null) {
+            return null;
+        }
+        curi.setHolderKey(new DatabaseEntry(head.key));
+        headKey.setData(head.key);
+        return curi;
+    }
+    
+    /**
+     * Read up to max items, in order, from the queue beginning at the 
+     * given cap key, stopping at the end of the queue's key range. 
+     * 
+     * @param headKey queue cap key
+     * @param max maximum items to read
+     * @return list of entries, possibly empty
+     * @throws DatabaseException
+     */
+    protected LinkedList<BufferedEntry> readAhead(DatabaseEntry headKey, 
+            int max) throws DatabaseException {
+        LinkedList<BufferedEntry> batch = new LinkedList<BufferedEntry>();
+        byte[] origin = headKey.getData();
+        DatabaseEntry key = new DatabaseEntry(origin);
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = null;
+        try {
+            cursor = this.pendingUrisDB.openCursor(null, null);
+            OperationStatus status = cursor.getSearchKey(key, value, null);
+            if (status != OperationStatus.SUCCESS) {
+                LOGGER.severe("bdb queue cap missing: " 
+                        + status.toString() + " "  + new String(origin));
+                return batch;
+            }
+            while (batch.size() < max 
+                    && cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
+                byte[] itemKey = key.getData();
+                if (!ArchiveUtils.startsWith(itemKey, origin)) {
+                    // rolled into next queue
+                    break;
+                }
+                // copies, as the entries' buffers may be reused
+                batch.add(new BufferedEntry(itemKey.clone(), 
+                        Arrays.copyOfRange(value.getData(), value.getOffset(), 
+                                value.getOffset() + value.getSize())));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return batch;
+    }
+    
+    /**
+     * Install the given (non-empty) buffer as the head buffer for the 
+     * given queue, then discard least-recently-used buffers as necessary 
+     * to respect maxBufferedUris. Must hold lock on headBuffers. 
+     */
+    protected void installHeadBuffer(String classKey, 
+            LinkedList<BufferedEntry> buffer) {
+        LinkedList<BufferedEntry> prior = headBuffers.put(classKey, buffer);
+        if (prior != null) {
+            bufferedUriCount -= prior.size();
+        }
+        bufferedUriCount += buffer.size();
+        Iterator<Map.Entry<String,LinkedList<BufferedEntry>>> iter = 
+            headBuffers.entrySet().iterator();
+        while (bufferedUriCount > maxBufferedUris && iter.hasNext()) {
+            LinkedList<BufferedEntry> eldest = iter.next().getValue();
+            if (eldest == buffer) {
+                // just-installed buffer is most-recently-used; stop here
+                break;
+            }
+            if (eldest.isEmpty()) {
+                // another queue's refill in progress; frees nothing
+                continue;
+            }
+            bufferedUriCount -= eldest.size();
+            iter.remove();
+        }
+    }
+    
+    /**
+     * Discard any head buffer for the given queue, so that the next get
+     * rereads from the database. 
+     * 
+     * @param classKey queue key
+     */
+    protected void invalidateHeadBuffer(String classKey) {
+        synchronized (headBuffers) {
+            LinkedList<BufferedEntry> buffer = headBuffers.remove(classKey);
+            if (buffer != null) {
+                bufferedUriCount -= buffer.size();
+            }
+        }
+    }
+    
+    /**
+     * Note an item written to the database at the given key. If it sorts
+     * at or before the last buffered item of its queue -- a reprioritized
+     * insert, or an update of an already-buffered item -- the buffer no 
+     * longer reflects the queue, and is discarded. So is a refill in 
+     * progress, which may or may not have seen the item.
+     */
+    protected void noteInserted(String classKey, byte[] insertKey) {
+        synchronized (headBuffers) {
+            LinkedList<BufferedEntry> buffer = headBuffers.get(classKey);
+            if (buffer == null) {
+                return;
+            }
+            if (buffer.isEmpty() 
+                    || Key.compareKeys(insertKey, buffer.getLast().key, null) <= 0) {
+                invalidateHeadBuffer(classKey);
+            }
+        }
+    }
+    
+    /**
+     * Note an item deleted from the database. If it was the head of its 
+     * queue's buffer, it's simply dropped from the buffer; otherwise the
+     * buffer (or refill in progress) is discarded. 
+     */
+    protected void noteDeleted(CrawlURI item) {
+        byte[] itemKey = ((DatabaseEntry)item.getHolderKey()).getData();
+        synchronized (headBuffers) {
+            LinkedList<BufferedEntry> buffer = 
+                headBuffers.get(item.getClassKey());
+            if (buffer == null) {
+                return;
+            }
+            if (!buffer.isEmpty() 
+                    && Arrays.equals(buffer.getFirst().key, itemKey)) {
+                buffer.removeFirst();
+                bufferedUriCount--;
+                if (buffer.isEmpty()) {
+                    headBuffers.remove(item.getClassKey());
+                }
+            } else {
+                invalidateHeadBuffer(item.getClassKey());
+            }
+        }
     }
     
     protected OperationStatus getNextNearestItem(DatabaseEntry headKey,
@@ -319,6 +722,21 @@ public class BdbMultipleWorkQueues {
     }
 
 
+    /**
+     * Put the given CrawlURI in at the appropriate place in the given 
+     * queue, deriving its key (if not already assigned) from the queue's
+     * origin key. 
+     * 
+     * @see org.archive.crawler.frontier.WorkQueueStore#put(org.archive.crawler.frontier.BdbWorkQueue, org.archive.modules.CrawlURI, boolean)
+     */
+    public void put(BdbWorkQueue queue, CrawlURI curi, 
+            boolean overwriteIfPresent) throws DatabaseException {
+        if (curi.getHolderKey() == null) {
+            curi.setHolderKey(calculateInsertKey(queue.getOrigin(), curi));
+        }
+        put(curi, overwriteIfPresent);
+    }
+    
     /**
      * Put the given CrawlURI in at the appropriate place. 
      * 
@@ -348,6 +766,10 @@ public class BdbMultipleWorkQueues {
         if (status!=OperationStatus.SUCCESS) {
             LOGGER.log(Level.SEVERE,"URI enqueueing failed; "+status+ " "+curi, new RuntimeException());
         }
+        if (headBufferSize > 1) {
+            // after write, so any concurrent refill can't miss this item
+            noteInserted(curi.getClassKey(), insertKey.getData());
+        }
     }
     
     private long entryCount = 0;
@@ -401,6 +823,26 @@ public class BdbMultipleWorkQueues {
         return keyData;
     }
     
+    /**
+     * Calculate the compact 'origin' key for a virtual queue with the 
+     * given numeric ID: a marker byte which never begins a UTF-8 
+     * classKey, followed by 4 bytes of ID. Being fixed-width, such keys
+     * need no terminator, and can't collide with classKey-based origins,
+     * so queues of either kind may share the same database.
+     * 
+     * @param queueId queue ID 
+     * @return a byte array key 
+     */
+    protected static byte[] calculateOriginKey(int queueId) {
+        byte[] keyData = new byte[5];
+        keyData[0] = QUEUE_ID_MARKER;
+        keyData[1] = (byte) (queueId >>> 24);
+        keyData[2] = (byte) (queueId >>> 16);
+        keyData[3] = (byte) (queueId >>> 8);
+        keyData[4] = (byte) queueId;
+        return keyData;
+    }
+    
     /**
      * Calculate the insertKey that places a CrawlURI in the
      * desired spot. First bytes are always classKey (usu. host)
@@ -422,20 +864,34 @@ public class BdbMultipleWorkQueues {
      * @return a DatabaseEntry key for the CrawlURI
      */
     protected static DatabaseEntry calculateInsertKey(CrawlURI curi) {
-        byte[] classKeyBytes = null;
-        int len = 0;
-        classKeyBytes = curi.getClassKey().getBytes(Charsets.UTF_8);
-        len = classKeyBytes.length;
-        byte[] keyData = new byte[len+9];
-        System.arraycopy(classKeyBytes,0,keyData,0,len);
-        keyData[len]=0;
+        byte[] classKeyBytes = curi.getClassKey().getBytes(Charsets.UTF_8);
+        byte[] origin = new byte[classKeyBytes.length+1];
+        System.arraycopy(classKeyBytes,0,origin,0,classKeyBytes.length);
+        origin[classKeyBytes.length]=0;
+        return calculateInsertKey(origin, curi);
+    }
+    
+    /**
+     * Calculate the insertKey that places a CrawlURI in the desired spot
+     * of the queue with the given origin key: the origin, followed by
+     * the 8 bytes of ordering data described above. 
+     * 
+     * @param origin queue's origin key
+     * @param curi
+     * @return a DatabaseEntry key for the CrawlURI
+     */
+    protected static DatabaseEntry calculateInsertKey(byte[] origin, 
+            CrawlURI curi) {
+        int len = origin.length;
+        byte[] keyData = new byte[len+8];
+        System.arraycopy(origin,0,keyData,0,len);
         long ordinalPlus = curi.getOrdinal() & 0x0000FFFFFFFFFFFFL;
         ordinalPlus = 
         	((long)curi.getSchedulingDirective() << 56) | ordinalPlus;
         long precedence = Math.min(curi.getPrecedence(), 127);
         ordinalPlus = 
         	(((precedence) & 0xFFL) << 48) | ordinalPlus;
-        ArchiveUtils.longIntoByteArray(ordinalPlus, keyData, len+1);
+        ArchiveUtils.longIntoByteArray(ordinalPlus, keyData, len);
         return new DatabaseEntry(keyData);
     }
     
@@ -443,11 +899,20 @@ public class BdbMultipleWorkQueues {
     protected static String insertKeyToString(DatabaseEntry holderKey) {
         StringBuilder result = new StringBuilder();
         byte[] data = holderKey.getData();
-        int p = findFirstZero(data);
-        result.append(new String(data, 0, p));
+        // offset of the 8 ordering bytes following the origin
+        int p;
+        if (data.length >= 5 && data[0] == QUEUE_ID_MARKER) {
+            // fixed-width queue-ID origin, without terminator
+            result.append(BdbWorkQueue.getPrefixClassKey(data));
+            p = 5;
+        } else {
+            int zero = findFirstZero(data);
+            result.append(new String(data, 0, zero));
+            p = zero + 1;
+        }
         
         java.io.ByteArrayInputStream binp = 
-            new java.io.ByteArrayInputStream(data, p + 1, data.length);
+            new java.io.ByteArrayInputStream(data, p, data.length - p);
         java.io.DataInputStream dinp = new java.io.DataInputStream(binp);
         long l = 0;
         try {
@@ -490,6 +955,9 @@ public class BdbMultipleWorkQueues {
                     + (new BigInteger(((DatabaseEntry) item.getHolderKey())
                             .getData())).toString(16) + ")");
         }
+        if (headBufferSize > 1) {
+            noteDeleted(item);
+        }
     }
     
     /**
@@ -513,6 +981,15 @@ public class BdbMultipleWorkQueues {
         }
     }
     
+    /**
+     * Sync the database; the BdbModule checkpoints the environment.
+     * 
+     * @see org.archive.crawler.frontier.WorkQueueStore#doCheckpoint(org.archive.checkpointing.Checkpoint)
+     */
+    public void doCheckpoint(Checkpoint checkpointInProgress) {
+        sync();
+    }
+    
     /**
      * clean up 
      *
@@ -548,7 +1025,7 @@ public class BdbMultipleWorkQueues {
      * @param c Closure action to perform
      * @throws DatabaseException
      */
-    protected void forAllPendingDo(Closure c) throws DatabaseException {
+    public void forAllPendingDo(Closure c) throws DatabaseException {
         DatabaseEntry key = new DatabaseEntry();
         DatabaseEntry value = new DatabaseEntry();
         Cursor cursor = pendingUrisDB.openCursor(null, null);
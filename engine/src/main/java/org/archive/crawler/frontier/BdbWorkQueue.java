@@ -27,11 +27,10 @@ import java.util.logging.Logger;
 
 import org.archive.bdb.AutoKryo;
 import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
+import org.archive.crawler.frontier.precedence.SuccessCountsQueuePrecedencePolicy.SuccessCountsPrecedenceProvider;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStats;
-import org.archive.util.ArchiveUtils;
 
-import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 
 
@@ -48,7 +47,8 @@ implements Serializable {
 
     /**
      * All items in this queue have this same 'origin'
-     * prefix to their keys.
+     * prefix to their keys: either the classKey, or (if the frontier
+     * assigns numeric queue IDs) a compact 5-byte form of the ID.
      */
     private byte[] origin;
 
@@ -59,22 +59,39 @@ implements Serializable {
      */
     public BdbWorkQueue(String classKey, BdbFrontier frontier) {
         super(classKey);
-        this.origin = BdbMultipleWorkQueues.calculateOriginKey(classKey);
+        this.origin = frontier.getUseQueueIds()
+            ? BdbMultipleWorkQueues.calculateOriginKey(frontier.nextQueueId())
+            : BdbMultipleWorkQueues.calculateOriginKey(classKey);
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine(getPrefixClassKey(this.origin) + " " + classKey);
         }
-        // add the queue-front 'cap' entry; see...
-        // http://sourceforge.net/tracker/index.php?func=detail&aid=1262665&group_id=73833&atid=539102
-        frontier.getWorkQueues().addCap(origin);
+        frontier.getWorkQueues().initQueue(this);
+    }
+    
+    /**
+     * @return key prefix shared by all this queue's items
+     */
+    public byte[] getOrigin() {
+        return origin;
     }
 
     protected long deleteMatchingFromQueue(final WorkQueueFrontier frontier,
             final String match) throws IOException {
         try {
-            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+            final WorkQueueStore queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
-            return queues.deleteMatchingFromQueue(match, classKey,
-                new DatabaseEntry(origin));
+            return queues.deleteMatchingFromQueue(match, this);
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    protected long deleteAllFromQueue(final WorkQueueFrontier frontier)
+    throws IOException {
+        try {
+            final WorkQueueStore queues = ((BdbFrontier) frontier)
+                .getWorkQueues();
+            return queues.deleteQueue(this);
         } catch (DatabaseException e) {
             throw new IOException(e);
         }
@@ -83,7 +100,7 @@ implements Serializable {
     protected void deleteItem(final WorkQueueFrontier frontier,
             final CrawlURI peekItem) throws IOException {
         try {
-            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+            final WorkQueueStore queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
              queues.delete(peekItem);
         } catch (DatabaseException e) {
@@ -93,55 +110,22 @@ implements Serializable {
 
     protected CrawlURI peekItem(final WorkQueueFrontier frontier)
     throws IOException {
-        final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+        final WorkQueueStore queues = ((BdbFrontier) frontier)
             .getWorkQueues();
-        DatabaseEntry key = new DatabaseEntry(origin);
-        CrawlURI curi = null;
-        int tries = 1;
-        while(true) {
-            try {
-                curi = queues.get(key);
-            } catch (DatabaseException e) {
-                LOGGER.log(Level.SEVERE,"peekItem failure; retrying",e);
-            }
-            
-            // ensure CrawlURI, if any,  came from acceptable range: 
-            if(!ArchiveUtils.startsWith(key.getData(),origin)) {
-                LOGGER.severe(
-                    "inconsistency: "+classKey+"("+
-                    getPrefixClassKey(origin)+") with " + getCount() + " items gave "
-                    + curi +"("+getPrefixClassKey(key.getData()));
-                // clear curi to allow retry
-                curi = null; 
-                // reset key to original origin for retry
-                key.setData(origin);
-            }
-            
-            if (curi!=null) {
-                // success
-                break;
-            }
-            
-            if (tries>3) {
-                LOGGER.severe("no item where expected in queue "+classKey);
-                break;
-            }
-            tries++;
-            LOGGER.severe("Trying get #" + Integer.toString(tries)
-                    + " in queue " + classKey + " with " + getCount()
-                    + " items using key "
-                    + getPrefixClassKey(key.getData()));
+        CrawlURI curi = queues.peek(this);
+        if (curi == null) {
+            LOGGER.severe("no item in queue " + classKey + " with " 
+                    + getCount() + " items");
         }
- 
         return curi;
     }
 
     protected void insertItem(final WorkQueueFrontier frontier,
             final CrawlURI curi, boolean overwriteIfPresent) throws IOException {
         try {
-            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+            final WorkQueueStore queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
-            queues.put(curi, overwriteIfPresent);
+            queues.put(this, curi, overwriteIfPresent);
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Inserted into " + getPrefixClassKey(this.origin) +
                     " (count " + Long.toString(getCount())+ "): " +
@@ -155,11 +139,20 @@ implements Serializable {
     /**
      * @param byteArray Byte array to get hex string of.
      * @return Hex string of passed in byte array (Used logging
-     * key-prefixes).
+     * key-prefixes). Keys based on numeric queue IDs render as '#' 
+     * followed by the ID.
      */
     protected static String getPrefixClassKey(final byte [] byteArray) {
+        if (byteArray.length >= 5 
+                && byteArray[0] == BdbMultipleWorkQueues.QUEUE_ID_MARKER) {
+            int id = ((byteArray[1] & 0xFF) << 24) 
+                | ((byteArray[2] & 0xFF) << 16)
+                | ((byteArray[3] & 0xFF) << 8) 
+                | (byteArray[4] & 0xFF);
+            return "#" + id;
+        }
         int zeroIndex = 0;
-        while(byteArray[zeroIndex]!=0) {
+        while(zeroIndex < byteArray.length && byteArray[zeroIndex]!=0) {
             zeroIndex++;
         }
         try {
@@ -177,6 +170,8 @@ implements Serializable {
         kryo.autoregister(FetchStats.class); 
         kryo.autoregister(HashSet.class);
         kryo.autoregister(SimplePrecedenceProvider.class);
+        kryo.autoregister(SuccessCountsPrecedenceProvider.class);
+        kryo.autoregister(long[].class);
         kryo.autoregister(byte[].class);
         kryo.setRegistrationOptional(true); 
     }
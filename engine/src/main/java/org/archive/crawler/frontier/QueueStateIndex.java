@@ -0,0 +1,285 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Secondary index of the states of all queues with URIs pending, kept
+ * current by the frontier as queues change, so that operator queries --
+ * the largest queues, or all queues under a host or SURT prefix -- need
+ * not pull every WorkQueue through the (disk-backed) allQueues cache.
+ * 
+ * Entries are small immutable snapshots, sorted both by classKey (for
+ * prefix and range queries) and by size (largest first). A queue's
+ * entry is dropped once it has nothing pending or in process. 
+ */
+public class QueueStateIndex {
+
+    /**
+     * Snapshot of one queue's state at its last update.
+     */
+    public static class QueueState {
+        protected final String classKey;
+        protected final long count;
+        protected final int inProcess;
+        protected final int precedence;
+        protected final long totalBudget;
+        protected final long totalExpenditure;
+        protected final long lastDequeueTime;
+        protected final long wakeTime;
+        protected final boolean active;
+        protected final boolean retired;
+
+        protected QueueState(WorkQueue wq) {
+            this.classKey = wq.getClassKey();
+            this.count = wq.count;
+            this.inProcess = wq.getInProcessCount();
+            this.precedence = wq.getPrecedence();
+            this.totalBudget = wq.totalBudget;
+            this.totalExpenditure = wq.totalExpenditure;
+            this.lastDequeueTime = wq.lastDequeueTime;
+            this.wakeTime = wq.wakeTime;
+            this.active = wq.active;
+            this.retired = wq.isRetired();
+        }
+
+        public String getClassKey() {
+            return classKey;
+        }
+        public long getCount() {
+            return count;
+        }
+        public int getInProcess() {
+            return inProcess;
+        }
+        public int getPrecedence() {
+            return precedence;
+        }
+        public long getTotalBudget() {
+            return totalBudget;
+        }
+        public long getTotalExpenditure() {
+            return totalExpenditure;
+        }
+        public long getLastDequeueTime() {
+            return lastDequeueTime;
+        }
+        public long getWakeTime() {
+            return wakeTime;
+        }
+        public boolean isRetired() {
+            return retired;
+        }
+
+        /**
+         * @param now time now in ms
+         * @return one of "retired", "snoozed", "active", "inactive"
+         */
+        public String getState(long now) {
+            if (retired) {
+                return "retired";
+            }
+            if (wakeTime > now) {
+                return "snoozed";
+            }
+            return active ? "active" : "inactive";
+        }
+
+        public static String shortReportLegend() {
+            return "queue state precedence currentSize inProcess " 
+                + "totalBudget totalExpenditure lastDequeueTime";
+        }
+
+        public void shortReportLineTo(PrintWriter writer, long now) {
+            writer.print(classKey);
+            writer.print(" ");
+            writer.print(getState(now));
+            writer.print(" ");
+            writer.print(precedence);
+            writer.print(" ");
+            writer.print(count);
+            writer.print(" ");
+            writer.print(inProcess);
+            writer.print(" ");
+            writer.print(totalBudget);
+            writer.print(" ");
+            writer.print(totalExpenditure);
+            writer.print(" ");
+            if (lastDequeueTime != 0) {
+                writer.print(ArchiveUtils.getLog17Date(lastDequeueTime));
+            } else {
+                writer.print("-");
+            }
+            writer.print("\n");
+        }
+
+        @Override
+        public String toString() {
+            return classKey + "(" + count + ", p" + precedence + ", " 
+                + getState(System.currentTimeMillis()) + ", last " 
+                + (lastDequeueTime == 0 ? "-" : new Date(lastDequeueTime)) 
+                + ")";
+        }
+    }
+
+    /** largest first, ties by classKey */
+    protected static final Comparator<QueueState> BY_SIZE = 
+        new Comparator<QueueState>() {
+            public int compare(QueueState a, QueueState b) {
+                if (a.count != b.count) {
+                    return a.count > b.count ? -1 : 1;
+                }
+                return a.classKey.compareTo(b.classKey);
+            }
+        };
+
+    protected ConcurrentSkipListMap<String,QueueState> byKey = 
+        new ConcurrentSkipListMap<String,QueueState>();
+    protected ConcurrentSkipListSet<QueueState> bySize = 
+        new ConcurrentSkipListSet<QueueState>(BY_SIZE);
+
+    /**
+     * Record the current state of the given queue. Updates of any one 
+     * queue are serialized by its lock.
+     * 
+     * @param wq queue whose state may have changed
+     */
+    public void update(WorkQueue wq) {
+        synchronized (wq) {
+            if (wq.count == 0 && wq.getInProcessCount() == 0) {
+                remove(wq.getClassKey());
+                return;
+            }
+            QueueState state = new QueueState(wq);
+            QueueState prior = byKey.put(state.classKey, state);
+            if (prior != null) {
+                bySize.remove(prior);
+            }
+            bySize.add(state);
+        }
+    }
+
+    /**
+     * Forget the given queue. 
+     * 
+     * @param classKey queue's classKey
+     */
+    public void remove(String classKey) {
+        QueueState prior = byKey.remove(classKey);
+        if (prior != null) {
+            bySize.remove(prior);
+        }
+    }
+
+    /**
+     * @param classKey queue's classKey
+     * @return last state noted for the given queue, or null if none
+     */
+    public QueueState get(String classKey) {
+        return byKey.get(classKey);
+    }
+
+    /**
+     * Queues whose classKey begins with the given prefix (such as a SURT
+     * prefix, for SURT-form classKeys), in classKey order. 
+     * 
+     * @param prefix classKey prefix; empty for all queues
+     * @return live view of matching queue states
+     */
+    public Collection<QueueState> withPrefix(String prefix) {
+        if (prefix.length() == 0) {
+            return byKey.values();
+        }
+        return byKey.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+            .values();
+    }
+
+    /**
+     * Queues whose classKeys fall in the given range, in classKey order.
+     * 
+     * @param fromKey lowest classKey, inclusive
+     * @param toKey highest classKey, exclusive
+     * @return live view of matching queue states
+     */
+    public Collection<QueueState> range(String fromKey, String toKey) {
+        return byKey.subMap(fromKey, true, toKey, false).values();
+    }
+
+    /**
+     * The given number of largest queues, largest first.
+     * 
+     * @param max maximum queues to return
+     * @return list of queue states
+     */
+    public List<QueueState> largest(int max) {
+        List<QueueState> list = new ArrayList<QueueState>(max);
+        for (QueueState state : bySize) {
+            if (list.size() >= max) {
+                break;
+            }
+            if (byKey.get(state.classKey) == state) {
+                list.add(state);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * All queues with at least the given number of URIs pending, largest
+     * first. 
+     * 
+     * @param minCount minimum count
+     * @return list of queue states
+     */
+    public List<QueueState> withCountAtLeast(long minCount) {
+        List<QueueState> list = new ArrayList<QueueState>();
+        for (QueueState state : bySize) {
+            if (state.count < minCount) {
+                break;
+            }
+            if (byKey.get(state.classKey) == state) {
+                list.add(state);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return count of queues indexed
+     */
+    public int size() {
+        return byKey.size();
+    }
+
+    public void clear() {
+        byKey.clear();
+        bySize.clear();
+    }
+}
@@ -0,0 +1,1177 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.collections.Closure;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.archive.bdb.KryoBinding;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+import org.archive.util.FilesystemLinkMaker;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * A WorkQueueStore keeping pending CrawlURIs in large append-only segment
+ * files, rather than in a single BDB B-tree, so that adding and removing
+ * URIs costs sequential writes and reads rather than B-tree maintenance.
+ *
+ * <p>Each queue is divided into 'lanes', one per combination of
+ * scheduling directive and precedence -- the leading bytes of
+ * {@link BdbMultipleWorkQueues#calculateInsertKey(CrawlURI)} -- and
+ * lanes are consumed in the same order those keys sort. Within a lane,
+ * URIs are kept in insertion order, which tracks ordinal order except
+ * for URIs moved between queues.
+ *
+ * <p>A lane's URIs are serialized into 'chunks' of several records,
+ * written contiguously to the current segment file once enough have
+ * accumulated in memory (or at a checkpoint). Written chunks are never
+ * modified: the in-memory state of each lane is just the addresses of
+ * its chunks and the position of its head within the first. A chunk
+ * dies when its lane's head passes it; a segment file is deleted when
+ * all of its chunks have died. A background task copies any still-live
+ * chunks out of mostly-dead segments, so that a few slow queues don't
+ * pin whole segments.
+ *
+ * <p>Because segments are immutable once written, a checkpoint need only
+ * flush pending records, hard-link the live segments into the checkpoint
+ * directory, and save the lanes' in-memory state.
+ *
+ * <p>The store's monitor guards only that in-memory state and segment
+ * writes. Reading chunks from segment files, and (de)serializing
+ * CrawlURIs, happen outside it, so that queues waiting on disk or on
+ * each other's serialization don't block every other queue.
+ */
+public class SegmentedWorkQueueStore implements WorkQueueStore {
+    private static final Logger logger =
+        Logger.getLogger(SegmentedWorkQueueStore.class.getName());
+
+    public static final String SEGMENT_PREFIX = "segment-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    /** subdirectory of checkpoint directory holding linked segments */
+    public static final String CHECKPOINT_SUBDIR = "queue-segments";
+    protected static final String STATE_FILENAME = "queue-segments.state";
+    protected static final int FORMAT_VERSION = 1;
+
+    /** directory holding segment files */
+    protected File dir;
+
+    /**
+     * Size at which a segment is closed and a new one started. At most
+     * 2GiB, as chunk addresses hold 32-bit offsets.
+     */
+    protected long segmentSize = 64 * 1024 * 1024;
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+    }
+
+    /** bytes of records a lane accumulates in memory before writing a chunk */
+    protected int chunkSize = 16 * 1024;
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /** total unwritten record bytes, across all lanes, forcing a write of all */
+    protected long maxPendingBytes = 64 * 1024 * 1024;
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /** 
+     * fraction of a closed segment file's length still live, under which
+     * its chunks are relocated 
+     */
+    protected float compactionThreshold = 0.25f;
+    public float getCompactionThreshold() {
+        return compactionThreshold;
+    }
+    public void setCompactionThreshold(float compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /** seconds between background compaction passes; 0 disables */
+    protected int compactionIntervalSeconds = 60;
+    public int getCompactionIntervalSeconds() {
+        return compactionIntervalSeconds;
+    }
+    public void setCompactionIntervalSeconds(int compactionIntervalSeconds) {
+        this.compactionIntervalSeconds = compactionIntervalSeconds;
+    }
+
+    /** lanes of each queue, by classKey; each queue's lanes by lane key */
+    protected Map<String,TreeMap<Integer,Lane>> queues =
+        new HashMap<String,TreeMap<Integer,Lane>>();
+
+    /** live (referenced) chunk bytes in each existing segment */
+    protected TreeMap<Integer,Long> segmentLiveBytes = new TreeMap<Integer,Long>();
+
+    protected int writeSegment = -1;
+    protected RandomAccessFile writeFile;
+    protected long writeOffset;
+
+    /** total bytes of records not yet written to chunks */
+    protected long pendingBytes = 0;
+
+    /** open readers of closed segments */
+    protected LinkedHashMap<Integer,RandomAccessFile> readFiles =
+        new LinkedHashMap<Integer,RandomAccessFile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer,RandomAccessFile> eldest) {
+                if (size() > 32) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    /** recently-read chunks, by address */
+    protected LinkedHashMap<Long,Chunk> chunkCache =
+        new LinkedHashMap<Long,Chunk>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long,Chunk> eldest) {
+                return size() > 1024;
+            }
+        };
+
+    protected ScheduledExecutorService compactor;
+
+    protected EntryBinding<CrawlURI> crawlUriBinding =
+        new KryoBinding<CrawlURI>(CrawlURI.class);
+
+    /**
+     * A run of CrawlURIs of one queue sharing a scheduling directive and
+     * precedence, in insertion order: the unconsumed portion of the
+     * written chunks, followed by records not yet written.
+     */
+    protected static class Lane {
+        /** chunk addresses, oldest first, in chunks[start..end) */
+        long[] chunks = new long[2];
+        int start = 0;
+        int end = 0;
+        /** index of first unconsumed record in first chunk */
+        int headRecord = 0;
+        /** serialized CrawlURIs not yet written to a chunk */
+        ArrayList<byte[]> pending = new ArrayList<byte[]>();
+        int pendingBytes = 0;
+        /** total unconsumed records, written and pending */
+        long size = 0;
+
+        int chunkCount() {
+            return end - start;
+        }
+        long chunkAt(int i) {
+            return chunks[start + i];
+        }
+        void setChunkAt(int i, long address) {
+            chunks[start + i] = address;
+        }
+        void addLast(long address) {
+            if (end == chunks.length) {
+                compact(chunkCount() * 2 + 2);
+            }
+            chunks[end++] = address;
+        }
+        void addFirst(long address) {
+            if (start == 0) {
+                long[] grown = new long[chunkCount() * 2 + 2];
+                int offset = grown.length - chunkCount();
+                System.arraycopy(chunks, start, grown, offset, chunkCount());
+                end = offset + chunkCount();
+                start = offset;
+                chunks = grown;
+            }
+            chunks[--start] = address;
+        }
+        long removeFirst() {
+            long address = chunks[start++];
+            if (start > chunks.length / 2) {
+                compact(Math.max(chunkCount() * 2, 2));
+            }
+            return address;
+        }
+        void compact(int capacity) {
+            long[] resized = new long[capacity];
+            System.arraycopy(chunks, start, resized, 0, chunkCount());
+            end = chunkCount();
+            start = 0;
+            chunks = resized;
+        }
+    }
+
+    /** a parsed chunk */
+    protected static class Chunk {
+        String classKey;
+        int laneKey;
+        byte[][] records;
+        int length;
+    }
+
+    /** visitor of serialized records; return false to stop */
+    protected static abstract class RecordVisitor {
+        abstract boolean visit(byte[] record) throws IOException;
+    }
+
+    public SegmentedWorkQueueStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Open the store, restoring its state from the given checkpoint or,
+     * if null, discarding any prior contents of the store's directory.
+     *
+     * @param recoveryCheckpoint checkpoint from which to resume, or null
+     * @throws IOException
+     */
+    public synchronized void open(Checkpoint recoveryCheckpoint) throws IOException {
+        org.archive.util.FileUtils.ensureWriteableDirectory(dir);
+        for (File f : listSegmentFiles(dir)) {
+            if (!f.delete()) {
+                throw new IOException("unable to delete " + f);
+            }
+        }
+        if (recoveryCheckpoint != null) {
+            File cpDir = new File(
+                    recoveryCheckpoint.getCheckpointDir().getFile(),
+                    CHECKPOINT_SUBDIR);
+            for (File f : listSegmentFiles(cpDir)) {
+                File dest = new File(dir, f.getName());
+                if (!FilesystemLinkMaker.makeHardLink(
+                        f.getAbsolutePath(), dest.getAbsolutePath())) {
+                    FileUtils.copyFile(f, dest);
+                }
+            }
+            loadState(new File(cpDir, STATE_FILENAME));
+            // discard linked segments holding nothing live
+            for (Iterator<Map.Entry<Integer,Long>> iter = 
+                    segmentLiveBytes.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<Integer,Long> entry = iter.next();
+                if (entry.getValue() == 0) {
+                    iter.remove();
+                    segmentFile(entry.getKey()).delete();
+                }
+            }
+        }
+        startSegment(segmentLiveBytes.isEmpty() ? 0 : segmentLiveBytes.lastKey() + 1);
+        if (compactionIntervalSeconds > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "SegmentedWorkQueueStore compactor");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Throwable t) {
+                        logger.log(Level.WARNING, "compaction problem", t);
+                    }
+                }
+            }, compactionIntervalSeconds, compactionIntervalSeconds,
+            TimeUnit.SECONDS);
+        }
+    }
+
+    protected static File[] listSegmentFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        ArrayList<File> segments = new ArrayList<File>();
+        for (File f : files) {
+            if (f.getName().startsWith(SEGMENT_PREFIX)
+                    && f.getName().endsWith(SEGMENT_SUFFIX)) {
+                segments.add(f);
+            }
+        }
+        return segments.toArray(new File[segments.size()]);
+    }
+
+    protected File segmentFile(int segment) {
+        return new File(dir, String.format("%s%08d%s", SEGMENT_PREFIX,
+                segment, SEGMENT_SUFFIX));
+    }
+
+    protected static long address(int segment, long offset) {
+        return ((long) segment << 32) | offset;
+    }
+    protected static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+    protected static long offsetOf(long address) {
+        return address & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Lane key for the given CrawlURI: its scheduling directive and
+     * (capped) precedence, ordered as in BdbMultipleWorkQueues keys.
+     */
+    protected static int laneKeyFor(CrawlURI curi) {
+        int precedence = Math.min(curi.getPrecedence(), 127);
+        return ((curi.getSchedulingDirective() & 0xFF) << 8)
+            | (precedence & 0xFF);
+    }
+
+    protected byte[] toRecord(CrawlURI curi) {
+        DatabaseEntry entry = new DatabaseEntry();
+        crawlUriBinding.objectToEntry(curi, entry);
+        return entry.getData();
+    }
+
+    protected CrawlURI fromRecord(byte[] record) {
+        return crawlUriBinding.entryToObject(new DatabaseEntry(record));
+    }
+
+    protected TreeMap<Integer,Lane> lanesFor(String classKey) {
+        TreeMap<Integer,Lane> lanes = queues.get(classKey);
+        if (lanes == null) {
+            lanes = new TreeMap<Integer,Lane>();
+            queues.put(classKey, lanes);
+        }
+        return lanes;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#initQueue(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public synchronized void initQueue(BdbWorkQueue queue) {
+        lanesFor(queue.getClassKey());
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#peek(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public CrawlURI peek(BdbWorkQueue queue) throws IOException {
+        return peek(queue.getClassKey());
+    }
+
+    /**
+     * Return the head CrawlURI of the queue's first lane. Only the lane
+     * state is read under the store lock; if the head chunk isn't cached,
+     * it is read from its segment file without the lock, then installed
+     * if it is still the lane's head (otherwise the peek is retried).
+     */
+    protected CrawlURI peek(String classKey) throws IOException {
+        while (true) {
+            Integer laneKey;
+            long address = -1;
+            int headRecord = 0;
+            byte[] record = null;
+            synchronized (this) {
+                TreeMap<Integer,Lane> lanes = queues.get(classKey);
+                if (lanes == null || lanes.isEmpty()) {
+                    return null;
+                }
+                Map.Entry<Integer,Lane> first = lanes.firstEntry();
+                laneKey = first.getKey();
+                Lane lane = first.getValue();
+                if (lane.chunkCount() > 0) {
+                    address = lane.chunkAt(0);
+                    headRecord = lane.headRecord;
+                    Chunk cached = chunkCache.get(address);
+                    if (cached != null) {
+                        record = cached.records[headRecord];
+                    }
+                } else {
+                    record = lane.pending.get(0);
+                }
+            }
+            if (record == null) {
+                Chunk chunk;
+                try {
+                    chunk = readChunkUnlocked(address);
+                } catch (IOException e) {
+                    // segment may have died meanwhile; rechecked below
+                    chunk = null;
+                }
+                synchronized (this) {
+                    TreeMap<Integer,Lane> lanes = queues.get(classKey);
+                    Lane lane = (lanes == null || lanes.isEmpty()) 
+                        ? null : lanes.firstEntry().getValue();
+                    if (lane == null || !laneKey.equals(lanes.firstKey())
+                            || lane.chunkCount() == 0
+                            || lane.chunkAt(0) != address
+                            || lane.headRecord != headRecord) {
+                        continue; // head moved meanwhile
+                    }
+                    if (chunk == null) {
+                        chunk = readChunk(address, true);
+                    } else {
+                        chunkCache.put(address, chunk);
+                    }
+                    record = chunk.records[headRecord];
+                }
+            }
+            CrawlURI curi = fromRecord(record);
+            curi.setHolderKey(laneKey);
+            return curi;
+        }
+    }
+
+    /**
+     * Add the CrawlURI to the tail of its lane -- or, if overwriting,
+     * replace the head of its lane, where a previously-peeked CrawlURI
+     * remains until deleted.
+     *
+     * @see org.archive.crawler.frontier.WorkQueueStore#put(org.archive.crawler.frontier.BdbWorkQueue, org.archive.modules.CrawlURI, boolean)
+     */
+    public void put(BdbWorkQueue queue, CrawlURI curi,
+            boolean overwriteIfPresent) throws IOException {
+        put(curi, overwriteIfPresent);
+    }
+
+    public void put(CrawlURI curi, boolean overwriteIfPresent)
+    throws IOException {
+        Integer laneKey = (curi.getHolderKey() instanceof Integer)
+            ? (Integer) curi.getHolderKey()
+            : Integer.valueOf(laneKeyFor(curi));
+        curi.setHolderKey(laneKey);
+        byte[] record = toRecord(curi);
+        put(curi.getClassKey(), laneKey, record, overwriteIfPresent, curi);
+    }
+
+    protected synchronized void put(String classKey, Integer laneKey, 
+            byte[] record, boolean overwriteIfPresent, CrawlURI curi) 
+    throws IOException {
+        TreeMap<Integer,Lane> lanes = lanesFor(classKey);
+        Lane lane = lanes.get(laneKey);
+        if (overwriteIfPresent) {
+            if (lane != null && lane.size > 0) {
+                replaceHead(classKey, laneKey, lane, record);
+                return;
+            }
+            logger.warning("overwritten item not present: " + curi);
+        }
+        if (lane == null) {
+            lane = new Lane();
+            lanes.put(laneKey, lane);
+        }
+        lane.pending.add(record);
+        lane.pendingBytes += record.length;
+        lane.size++;
+        pendingBytes += record.length;
+        if (lane.pendingBytes >= chunkSize) {
+            flushLane(classKey, laneKey, lane);
+        }
+        if (pendingBytes > maxPendingBytes) {
+            flushAll();
+        }
+    }
+
+    protected void replaceHead(String classKey, int laneKey, Lane lane,
+            byte[] record) throws IOException {
+        if (lane.chunkCount() == 0) {
+            byte[] prior = lane.pending.set(0, record);
+            lane.pendingBytes += record.length - prior.length;
+            pendingBytes += record.length - prior.length;
+            return;
+        }
+        // rewrite first chunk with new head record, leaving old chunk dead
+        long address = lane.chunkAt(0);
+        Chunk first = readChunk(address, true);
+        List<byte[]> records = 
+            new ArrayList<byte[]>(first.records.length - lane.headRecord);
+        records.add(record);
+        for (int i = lane.headRecord + 1; i < first.records.length; i++) {
+            records.add(first.records[i]);
+        }
+        lane.removeFirst();
+        lane.addFirst(appendChunk(classKey, laneKey, records));
+        lane.headRecord = 0;
+        noteDead(address, first.length);
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#delete(org.archive.modules.CrawlURI)
+     */
+    /**
+     * Remove the given CrawlURI, which must be the head of its lane (as 
+     * last peeked). The head is checked to be the same URI first -- its
+     * record deserialized outside the store lock -- and left in place 
+     * if not.
+     */
+    public void delete(CrawlURI item) throws IOException {
+        while (true) {
+            byte[] head;
+            synchronized (this) {
+                Lane lane = laneOf(item);
+                if (lane == null || lane.size == 0) {
+                    logger.severe("expected item not present: " + item);
+                    return;
+                }
+                head = headRecord(lane);
+            }
+            String headUri = fromRecord(head).getURI();
+            synchronized (this) {
+                Lane lane = laneOf(item);
+                if (lane == null || lane.size == 0 
+                        || !Arrays.equals(head, headRecord(lane))) {
+                    continue; // head changed meanwhile
+                }
+                if (!headUri.equals(item.getURI())) {
+                    logger.severe("not deleting head " + headUri 
+                            + " of lane " + item.getHolderKey() + " in " 
+                            + item.getClassKey() + ": expected " + item);
+                    return;
+                }
+                removeHead(lane);
+                if (lane.size == 0) {
+                    queues.get(item.getClassKey()).remove(item.getHolderKey());
+                }
+                return;
+            }
+        }
+    }
+
+    protected Lane laneOf(CrawlURI item) {
+        TreeMap<Integer,Lane> lanes = queues.get(item.getClassKey());
+        return (lanes == null) ? null : lanes.get(item.getHolderKey());
+    }
+
+    protected byte[] headRecord(Lane lane) throws IOException {
+        if (lane.chunkCount() > 0) {
+            return readChunk(lane.chunkAt(0), true).records[lane.headRecord];
+        }
+        return lane.pending.get(0);
+    }
+
+    protected void removeHead(Lane lane) throws IOException {
+        if (lane.chunkCount() > 0) {
+            long address = lane.chunkAt(0);
+            Chunk chunk = readChunk(address, true);
+            lane.headRecord++;
+            if (lane.headRecord >= chunk.records.length) {
+                lane.removeFirst();
+                lane.headRecord = 0;
+                noteDead(address, chunk.length);
+            }
+        } else {
+            byte[] record = lane.pending.remove(0);
+            lane.pendingBytes -= record.length;
+            pendingBytes -= record.length;
+        }
+        lane.size--;
+    }
+
+    /**
+     * Visit each unconsumed record of the lane, in order.
+     *
+     * @return false if visitor stopped early
+     */
+    protected boolean visitRecords(Lane lane, RecordVisitor visitor)
+    throws IOException {
+        for (int i = 0; i < lane.chunkCount(); i++) {
+            Chunk chunk = readChunk(lane.chunkAt(i), false);
+            for (int j = (i == 0) ? lane.headRecord : 0;
+                    j < chunk.records.length; j++) {
+                if (!visitor.visit(chunk.records[j])) {
+                    return false;
+                }
+            }
+        }
+        for (byte[] record : lane.pending) {
+            if (!visitor.visit(record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete matching CrawlURIs by rewriting each lane containing any as
+     * a fresh lane of only the survivors.
+     *
+     * @see org.archive.crawler.frontier.WorkQueueStore#deleteMatchingFromQueue(java.lang.String, org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public long deleteMatchingFromQueue(String match, BdbWorkQueue queue)
+    throws IOException {
+        return deleteMatchingFromQueue(match, queue.getClassKey());
+    }
+
+    public synchronized long deleteMatchingFromQueue(String match,
+            final String classKey) throws IOException {
+        final Pattern pattern = Pattern.compile(match);
+        TreeMap<Integer,Lane> lanes = queues.get(classKey);
+        if (lanes == null) {
+            return 0;
+        }
+        long deletedCount = 0;
+        for (final Integer laneKey : new ArrayList<Integer>(lanes.keySet())) {
+            Lane lane = lanes.get(laneKey);
+            final boolean[] anyMatch = new boolean[1];
+            visitRecords(lane, new RecordVisitor() {
+                boolean visit(byte[] record) {
+                    anyMatch[0] =
+                        pattern.matcher(fromRecord(record).toString()).matches();
+                    return !anyMatch[0];
+                }
+            });
+            if (!anyMatch[0]) {
+                continue;
+            }
+            final Lane survivors = new Lane();
+            visitRecords(lane, new RecordVisitor() {
+                boolean visit(byte[] record) throws IOException {
+                    if (!pattern.matcher(fromRecord(record).toString()).matches()) {
+                        survivors.pending.add(record);
+                        survivors.pendingBytes += record.length;
+                        survivors.size++;
+                        if (survivors.pendingBytes >= chunkSize) {
+                            writePending(classKey, laneKey, survivors);
+                        }
+                    }
+                    return true;
+                }
+            });
+            deletedCount += lane.size - survivors.size;
+            discardLane(lane);
+            pendingBytes += survivors.pendingBytes;
+            if (survivors.size > 0) {
+                lanes.put(laneKey, survivors);
+            } else {
+                lanes.remove(laneKey);
+            }
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Delete all of a queue's CrawlURIs by discarding its lanes whole.
+     *
+     * @see org.archive.crawler.frontier.WorkQueueStore#deleteQueue(org.archive.crawler.frontier.BdbWorkQueue)
+     */
+    public synchronized long deleteQueue(BdbWorkQueue queue) throws IOException {
+        TreeMap<Integer,Lane> lanes = queues.get(queue.getClassKey());
+        if (lanes == null) {
+            return 0;
+        }
+        long deletedCount = 0;
+        for (Lane lane : lanes.values()) {
+            deletedCount += lane.size;
+            discardLane(lane);
+        }
+        lanes.clear();
+        return deletedCount;
+    }
+
+    /** note all of a no-longer-used lane's chunks and pending records dead */
+    protected void discardLane(Lane lane) throws IOException {
+        for (int i = 0; i < lane.chunkCount(); i++) {
+            long address = lane.chunkAt(i);
+            noteDead(address, readChunk(address, false).length);
+        }
+        pendingBytes -= lane.pendingBytes;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#forAllPendingDo(org.apache.commons.collections.Closure)
+     */
+    public synchronized void forAllPendingDo(final Closure c) throws IOException {
+        for (TreeMap<Integer,Lane> lanes : queues.values()) {
+            for (Lane lane : lanes.values()) {
+                visitRecords(lane, new RecordVisitor() {
+                    boolean visit(byte[] record) {
+                        c.execute(fromRecord(record));
+                        return true;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * List matching URIs, in classKey order. The marker is of the form
+     * "N classKey", to resume at the Nth URI of the named queue.
+     *
+     * @see org.archive.crawler.frontier.WorkQueueStore#getFrom(java.lang.String, int, java.util.regex.Pattern, boolean)
+     */
+    public synchronized CompositeData getFrom(String marker,
+            final int maxMatches, final Pattern pattern, final boolean verbose)
+    throws IOException {
+        final ArrayList<String> results = new ArrayList<String>(maxMatches);
+        String startKey = "";
+        long skip = 0;
+        if (marker != null) {
+            int space = marker.indexOf(' ');
+            skip = Long.parseLong(marker.substring(0, space));
+            startKey = marker.substring(space + 1);
+        }
+        TreeMap<String,TreeMap<Integer,Lane>> sorted =
+            new TreeMap<String,TreeMap<Integer,Lane>>(queues);
+        for (Map.Entry<String,TreeMap<Integer,Lane>> queue
+                : sorted.tailMap(startKey).entrySet()) {
+            final long[] position = new long[] {
+                    queue.getKey().equals(startKey) ? -skip : 0 };
+            for (Lane lane : queue.getValue().values()) {
+                boolean finished = visitRecords(lane, new RecordVisitor() {
+                    boolean visit(byte[] record) {
+                        if (results.size() >= maxMatches) {
+                            return false;
+                        }
+                        if (position[0]++ < 0) {
+                            return true;
+                        }
+                        CrawlURI curi = fromRecord(record);
+                        if (pattern.matcher(curi.toString()).matches()) {
+                            if (verbose) {
+                                results.add("[" + curi.getClassKey() + "] "
+                                        + curi.shortReportLine());
+                            } else {
+                                results.add(curi.toString());
+                            }
+                        }
+                        return true;
+                    }
+                });
+                if (!finished) {
+                    long resumeAt = position[0]
+                        + (queue.getKey().equals(startKey) ? skip : 0);
+                    return BdbMultipleWorkQueues.uriListData(results,
+                            resumeAt + " " + queue.getKey());
+                }
+            }
+        }
+        return BdbMultipleWorkQueues.uriListData(results, null);
+    }
+
+    protected void startSegment(int segment) throws IOException {
+        if (writeFile != null) {
+            writeFile.close();
+            if (segmentLiveBytes.get(writeSegment) == 0) {
+                // nothing live was ever written, or all has died
+                segmentLiveBytes.remove(writeSegment);
+                if (!segmentFile(writeSegment).delete()) {
+                    logger.warning("unable to delete " + segmentFile(writeSegment));
+                }
+            }
+        }
+        writeSegment = segment;
+        writeFile = new RandomAccessFile(segmentFile(segment), "rw");
+        writeOffset = writeFile.length();
+        if (!segmentLiveBytes.containsKey(segment)) {
+            segmentLiveBytes.put(segment, 0L);
+        }
+    }
+
+    /**
+     * Write the given records as a chunk, starting a new segment first
+     * if the current one is full.
+     *
+     * @return address of written chunk
+     */
+    protected long appendChunk(String classKey, int laneKey,
+            List<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunkSize + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length placeholder
+        out.writeUTF(classKey);
+        out.writeShort(laneKey);
+        out.writeInt(records.size());
+        for (byte[] record : records) {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+        out.flush();
+        byte[] chunk = bytes.toByteArray();
+        int length = chunk.length;
+        putInt(chunk, length);
+        if (writeOffset > 0 && writeOffset + length > segmentSize) {
+            startSegment(writeSegment + 1);
+        }
+        long address = address(writeSegment, writeOffset);
+        writeFile.seek(writeOffset);
+        writeFile.write(chunk);
+        writeOffset += length;
+        segmentLiveBytes.put(writeSegment,
+                segmentLiveBytes.get(writeSegment) + length);
+        return address;
+    }
+
+    /** write value as first 4 bytes of array, as DataOutput would */
+    protected static void putInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    protected void writePending(String classKey, int laneKey, Lane lane)
+    throws IOException {
+        lane.addLast(appendChunk(classKey, laneKey, lane.pending));
+        lane.pending = new ArrayList<byte[]>();
+        lane.pendingBytes = 0;
+    }
+
+    protected void flushLane(String classKey, int laneKey, Lane lane)
+    throws IOException {
+        if (lane.pending.isEmpty()) {
+            return;
+        }
+        pendingBytes -= lane.pendingBytes;
+        writePending(classKey, laneKey, lane);
+    }
+
+    /** write all lanes' pending records to chunks */
+    protected void flushAll() throws IOException {
+        for (Map.Entry<String,TreeMap<Integer,Lane>> queue : queues.entrySet()) {
+            for (Map.Entry<Integer,Lane> lane : queue.getValue().entrySet()) {
+                flushLane(queue.getKey(), lane.getKey(), lane.getValue());
+            }
+        }
+    }
+
+    protected RandomAccessFile fileFor(int segment) throws IOException {
+        if (segment == writeSegment) {
+            return writeFile;
+        }
+        RandomAccessFile raf = readFiles.get(segment);
+        if (raf == null) {
+            raf = new RandomAccessFile(segmentFile(segment), "r");
+            readFiles.put(segment, raf);
+        }
+        return raf;
+    }
+
+    protected Chunk readChunk(long address, boolean cache) throws IOException {
+        Chunk chunk = chunkCache.get(address);
+        if (chunk != null) {
+            return chunk;
+        }
+        RandomAccessFile raf = fileFor(segmentOf(address));
+        raf.seek(offsetOf(address));
+        int length = raf.readInt();
+        byte[] bytes = new byte[length];
+        raf.seek(offsetOf(address));
+        raf.readFully(bytes);
+        chunk = parseChunk(bytes);
+        if (cache) {
+            chunkCache.put(address, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Read the chunk at the given address through a separate file handle,
+     * so that no store state is touched; safe without the store lock, 
+     * since written chunks never change.
+     */
+    protected Chunk readChunkUnlocked(long address) throws IOException {
+        RandomAccessFile raf = 
+            new RandomAccessFile(segmentFile(segmentOf(address)), "r");
+        try {
+            raf.seek(offsetOf(address));
+            int length = raf.readInt();
+            byte[] bytes = new byte[length];
+            raf.seek(offsetOf(address));
+            raf.readFully(bytes);
+            return parseChunk(bytes);
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    protected static Chunk parseChunk(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        Chunk chunk = new Chunk();
+        chunk.length = in.readInt();
+        chunk.classKey = in.readUTF();
+        chunk.laneKey = in.readShort() & 0xFFFF;
+        chunk.records = new byte[in.readInt()][];
+        for (int i = 0; i < chunk.records.length; i++) {
+            chunk.records[i] = new byte[in.readInt()];
+            in.readFully(chunk.records[i]);
+        }
+        return chunk;
+    }
+
+    /**
+     * Note that the chunk at the given address is no longer referenced,
+     * deleting its segment if no live chunks remain there.
+     */
+    protected void noteDead(long address, int length) {
+        chunkCache.remove(address);
+        int segment = segmentOf(address);
+        long live = segmentLiveBytes.get(segment) - length;
+        if (live > 0 || segment == writeSegment) {
+            segmentLiveBytes.put(segment, live);
+            return;
+        }
+        segmentLiveBytes.remove(segment);
+        closeQuietly(readFiles.remove(segment));
+        File f = segmentFile(segment);
+        if (!f.delete()) {
+            logger.warning("unable to delete " + f);
+        }
+    }
+
+    /**
+     * Relocate the live chunks of the closed segment with the lowest
+     * fraction of live bytes, if under the compactionThreshold. The
+     * fraction is of the segment file's actual length, which may fall
+     * short of segmentSize (segments are closed early at checkpoints) or
+     * exceed it (by one oversized chunk). Chunks are read from the 
+     * (immutable) segment without holding the store lock, which is taken
+     * only to check and update each chunk's lane.
+     *
+     * @return true if a segment was compacted
+     * @throws IOException
+     */
+    public boolean compact() throws IOException {
+        TreeMap<Integer,Long> live;
+        synchronized (this) {
+            live = new TreeMap<Integer,Long>(segmentLiveBytes);
+            live.remove(writeSegment);
+        }
+        int candidate = -1;
+        double lowest = compactionThreshold;
+        for (Map.Entry<Integer,Long> entry : live.entrySet()) {
+            long fileLength = segmentFile(entry.getKey()).length();
+            if (fileLength == 0) {
+                continue; // deleted meanwhile
+            }
+            double ratio = entry.getValue() / (double) fileLength;
+            if (ratio < lowest) {
+                lowest = ratio;
+                candidate = entry.getKey();
+            }
+        }
+        if (candidate < 0) {
+            return false;
+        }
+        File f = segmentFile(candidate);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f), 65536));
+        } catch (IOException e) {
+            // already deleted as all chunks died
+            return false;
+        }
+        int relocated = 0;
+        try {
+            long offset = 0;
+            long length = f.length();
+            while (offset < length) {
+                int chunkLength = in.readInt();
+                byte[] bytes = new byte[chunkLength];
+                putInt(bytes, chunkLength);
+                in.readFully(bytes, 4, chunkLength - 4);
+                if (relocateChunk(address(candidate, offset), bytes)) {
+                    relocated++;
+                }
+                offset += chunkLength;
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("compacted segment " + candidate + ", relocating "
+                    + relocated + " chunks");
+        }
+        return true;
+    }
+
+    /**
+     * If the chunk read from the given address is still referenced by its
+     * lane, copy it to the current segment and update the lane.
+     *
+     * @return true if chunk was relocated
+     */
+    protected synchronized boolean relocateChunk(long address, byte[] bytes)
+    throws IOException {
+        Chunk chunk = parseChunk(bytes);
+        TreeMap<Integer,Lane> lanes = queues.get(chunk.classKey);
+        Lane lane = (lanes == null) ? null : lanes.get(chunk.laneKey);
+        if (lane == null) {
+            return false;
+        }
+        for (int i = 0; i < lane.chunkCount(); i++) {
+            if (lane.chunkAt(i) == address) {
+                lane.setChunkAt(i, appendChunk(chunk.classKey, chunk.laneKey,
+                        Arrays.asList(chunk.records)));
+                noteDead(address, chunk.length);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write all pending records, sync the current segment, hard-link all
+     * live segments into the checkpoint, and save lane state alongside.
+     * A new segment is then begun, so linked segments are never again
+     * written.
+     *
+     * @see org.archive.crawler.frontier.WorkQueueStore#doCheckpoint(org.archive.checkpointing.Checkpoint)
+     */
+    public synchronized void doCheckpoint(Checkpoint checkpointInProgress)
+    throws IOException {
+        flushAll();
+        writeFile.getChannel().force(true);
+        File cpDir = new File(checkpointInProgress.getCheckpointDir().getFile(),
+                CHECKPOINT_SUBDIR);
+        org.archive.util.FileUtils.ensureWriteableDirectory(cpDir);
+        for (Map.Entry<Integer,Long> entry : segmentLiveBytes.entrySet()) {
+            if (entry.getValue() == 0) {
+                continue;
+            }
+            File f = segmentFile(entry.getKey());
+            File link = new File(cpDir, f.getName());
+            if (!FilesystemLinkMaker.makeHardLink(
+                    f.getAbsolutePath(), link.getAbsolutePath())) {
+                FileUtils.copyFile(f, link);
+            }
+        }
+        saveState(new File(cpDir, STATE_FILENAME));
+        startSegment(writeSegment + 1);
+    }
+
+    protected void saveState(File stateFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(stateFile), 65536));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(segmentLiveBytes.size());
+            for (Map.Entry<Integer,Long> entry : segmentLiveBytes.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(queues.size());
+            for (Map.Entry<String,TreeMap<Integer,Lane>> queue : queues.entrySet()) {
+                out.writeUTF(queue.getKey());
+                out.writeInt(queue.getValue().size());
+                for (Map.Entry<Integer,Lane> entry : queue.getValue().entrySet()) {
+                    Lane lane = entry.getValue();
+                    out.writeInt(entry.getKey());
+                    out.writeLong(lane.size);
+                    out.writeInt(lane.headRecord);
+                    out.writeInt(lane.chunkCount());
+                    for (int i = 0; i < lane.chunkCount(); i++) {
+                        out.writeLong(lane.chunkAt(i));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    protected void loadState(File stateFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(stateFile), 65536));
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("unsupported state format: " + stateFile);
+            }
+            segmentLiveBytes.clear();
+            for (int i = in.readInt(); i > 0; i--) {
+                segmentLiveBytes.put(in.readInt(), in.readLong());
+            }
+            queues.clear();
+            for (int i = in.readInt(); i > 0; i--) {
+                TreeMap<Integer,Lane> lanes = lanesFor(in.readUTF());
+                for (int j = in.readInt(); j > 0; j--) {
+                    int laneKey = in.readInt();
+                    Lane lane = new Lane();
+                    lane.size = in.readLong();
+                    lane.headRecord = in.readInt();
+                    for (int k = in.readInt(); k > 0; k--) {
+                        lane.addLast(in.readLong());
+                    }
+                    lanes.put(laneKey, lane);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.WorkQueueStore#close()
+     */
+    public synchronized void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        for (RandomAccessFile raf : readFiles.values()) {
+            closeQuietly(raf);
+        }
+        readFiles.clear();
+        closeQuietly(writeFile);
+        writeFile = null;
+    }
+
+    protected static void closeQuietly(RandomAccessFile raf) {
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
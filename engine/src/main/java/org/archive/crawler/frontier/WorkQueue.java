@@ -22,9 +22,13 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -39,7 +43,6 @@ import org.archive.modules.fetcher.FetchStats.Stage;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.IdentityCacheable;
 import org.archive.util.ObjectIdentityCache;
-import org.archive.util.ReportUtils;
 import org.archive.util.Reporter;
 
 /**
@@ -115,6 +118,29 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
 
     protected boolean retired;
 
+    /** Most URIs this queue may have in process at once */
+    protected int parallelism = 1;
+
+    /** Politeness tokens available to a parallel queue */
+    protected double tokens = 0;
+    
+    /** Time tokens were last refilled, or 0 if never */
+    protected long tokensUpdated = 0;
+    
+    /** Politeness interval (ms) per token, from last finished URI, or 
+     * -1 if not yet known */
+    protected long msPerToken = -1;
+
+    /** URIs taken from the queue's store while in process, when the 
+     * queue's parallelism allows more than one at once */
+    transient protected Set<CrawlURI> checkedOut;
+    
+    /** Count of in-process slots claimed by a thread about to emit */
+    transient protected int reserved = 0;
+    
+    /** Whether to retire queue once no URIs remain in process */
+    transient protected boolean retirePending = false;
+
     public WorkQueue(final String pClassKey) {
         this.classKey = pClassKey;
     }
@@ -137,6 +163,26 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         }
     }
 
+    /**
+     * Delete all URIs waiting in this queue, without examining them. 
+     * URIs already taken out of the queue to be processed are 
+     * unaffected. 
+     * @param frontier
+     * @return count of deleted URIs
+     */
+    public synchronized long deleteAll(final WorkQueueFrontier frontier) {
+        try {
+            unpeek(null);
+            final long deleteCount = deleteAllFromQueue(frontier);
+            this.count -= deleteCount;
+            return deleteCount;
+        } catch (IOException e) {
+            //FIXME better exception handling
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Add the given CrawlURI, noting its addition in running count. (It
      * should not already be present.)
@@ -203,6 +249,206 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         lastDequeueTime = System.currentTimeMillis();
     }
 
+    /**
+     * Set the number of URIs this queue may have in process at once. 
+     * Automatically reset continually from 'queueParallelism' (as it 
+     * applies to the URI at hand), like the session budget. 
+     * 
+     * @param parallelism count of URIs, at least 1
+     */
+    protected synchronized void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Count of URIs in process (or about to be) by way of check-out. 
+     * A queue with no URIs checked out may still have its peeked URI in
+     * process, in the usual one-at-a-time fashion. 
+     * 
+     * @return count of checked-out and reserved URIs
+     */
+    public synchronized int getInProcessCount() {
+        return (checkedOut == null ? 0 : checkedOut.size()) + reserved;
+    }
+    
+    /**
+     * Count of URIs remaining in the queue's store, not checked out.
+     */
+    public synchronized long getAvailableCount() {
+        return count - (checkedOut == null ? 0 : checkedOut.size());
+    }
+
+    /**
+     * Whether this queue has room for another URI in process, and another
+     * URI to offer. 
+     */
+    public synchronized boolean hasFreeSlot() {
+        return getInProcessCount() < parallelism 
+            && getAvailableCount() > reserved;
+    }
+
+    /**
+     * Claim a slot so that the calling thread may peek and emit another
+     * URI while others are in process. Only one such claim may be held 
+     * at a time, so concurrent callers never share a peeked URI. 
+     * 
+     * @return true if slot claimed
+     */
+    protected synchronized boolean tryReserve() {
+        if (checkedOut == null || checkedOut.isEmpty() || reserved > 0 
+                || !hasFreeSlot()) {
+            return false;
+        }
+        reserved++;
+        return true;
+    }
+
+    protected synchronized void releaseReservation() {
+        if (reserved > 0) {
+            reserved--;
+        }
+    }
+
+    /**
+     * Take the peeked URI out of the queue's store, to be processed while
+     * later URIs may also be peeked and processed. Consumes a politeness
+     * token and any reservation. 
+     * 
+     * @param frontier Work queues manager
+     * @param curi the peeked URI
+     * @param now current time
+     */
+    protected synchronized void checkOut(final WorkQueueFrontier frontier, 
+            CrawlURI curi, long now) {
+        try {
+            deleteItem(frontier, peekItem);
+        } catch (IOException e) {
+            //FIXME better exception handling
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        unpeek(curi);
+        if (checkedOut == null) {
+            checkedOut = Collections.newSetFromMap(
+                    new IdentityHashMap<CrawlURI, Boolean>());
+        }
+        checkedOut.add(curi);
+        releaseReservation();
+        refillTokens(now);
+        tokens -= 1;
+    }
+
+    public synchronized boolean isCheckedOut(CrawlURI curi) {
+        return checkedOut != null && checkedOut.contains(curi);
+    }
+
+    /**
+     * Return a checked-out URI, either consumed (finished) or to be 
+     * put back in the queue's store (for retry).
+     * 
+     * @param frontier Work queues manager
+     * @param curi previously checked-out URI
+     * @param consumed true if URI is finished with
+     * @return count of URIs still in process
+     */
+    protected synchronized int checkIn(final WorkQueueFrontier frontier, 
+            CrawlURI curi, boolean consumed) {
+        checkedOut.remove(curi);
+        if (consumed) {
+            count--;
+            lastDequeueTime = System.currentTimeMillis();
+        } else {
+            // no longer in store, so re-insert rather than overwrite 
+            try {
+                insert(frontier, curi, false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return getInProcessCount();
+    }
+
+    /**
+     * Add politeness tokens accrued since last refill, up to parallelism.
+     */
+    protected synchronized void refillTokens(long now) {
+        if (now < tokensUpdated) {
+            // tokens held; see holdTokens()
+            return;
+        }
+        if (tokensUpdated == 0 || msPerToken == 0) {
+            // start full; with no delay, always full
+            tokens = parallelism;
+        } else if (msPerToken > 0) {
+            tokens = Math.min(parallelism, 
+                    tokens + (now - tokensUpdated) / (double) msPerToken);
+        } 
+        // else no refill until some delay is known
+        tokensUpdated = now;
+    }
+
+    /**
+     * Note the politeness delay requested by a finished URI: tokens will 
+     * refill so that, with all slots busy, each slot waits about that long 
+     * between URIs. 
+     * 
+     * @param now current time
+     * @param delayMs politeness delay
+     */
+    protected synchronized void noteSlotDelay(long now, long delayMs) {
+        if (msPerToken >= 0) {
+            // accrue at the old rate until now
+            refillTokens(now);
+        }
+        msPerToken = Math.max(0, delayMs) / parallelism;
+        refillTokens(now);
+    }
+
+    /**
+     * Withhold all politeness tokens until the given time, after which 
+     * a single token is available and refilling resumes at the usual 
+     * rate. Used when a URI is put back for retry, so other slots also 
+     * leave the host alone for the retry delay. 
+     * 
+     * @param now current time
+     * @param until time at which tokens may again be taken
+     */
+    protected synchronized void holdTokens(long now, long until) {
+        if (until <= now) {
+            return;
+        }
+        refillTokens(now);
+        tokens = Math.min(tokens, 1);
+        tokensUpdated = Math.max(tokensUpdated, until);
+    }
+
+    /**
+     * Time until a politeness token is available. 
+     * 
+     * @param now current time
+     * @return ms to wait, or 0 if a token is available
+     */
+    protected synchronized long getTokenWaitMs(long now) {
+        refillTokens(now);
+        long held = Math.max(0, tokensUpdated - now);
+        if (tokens >= 1) {
+            return held;
+        }
+        return held + (long) Math.ceil((1 - tokens) * Math.max(0, msPerToken));
+    }
+
+    protected synchronized void setRetirePending(boolean pending) {
+        this.retirePending = pending;
+    }
+
+    public synchronized boolean isRetirePending() {
+        return retirePending;
+    }
+
     /**
      * Set the session 'activity budget' to the given value. Automatically
      * reset continually as new CrawlURIs are enqueued; a direct change
@@ -427,6 +673,15 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         final WorkQueueFrontier frontier, final String match)
         throws IOException;
 
+    /**
+     * Delete all URIs waiting in this queue. 
+     * @param frontier WorkQueues manager.
+     * @return count of deleted URIs
+     * @throws IOException  if there was a problem while deleting
+     */
+    protected abstract long deleteAllFromQueue(
+        final WorkQueueFrontier frontier) throws IOException;
+
     /**
      * Removes the given item from the queue.
      * 
@@ -476,6 +731,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         map.put("totalExpenditure", totalExpenditure);
         map.put("totalBudget", totalBudget);
         map.put("errorCount", errorCount);
+        map.put("parallelism", parallelism);
+        map.put("inProcess", getInProcessCount());
         map.put("lastPeeked", lastPeeked);
         map.put("lastQueued", lastQueued);
 
@@ -487,7 +744,18 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     }
 
     @Override
-    public synchronized void shortReportLineTo(PrintWriter writer) {
+    public void shortReportLineTo(PrintWriter writer) {
+        // rendered under the queue's lock, but written (perhaps to a slow
+        // consumer) without it
+        writer.print(shortReportLine());
+    }
+
+    /**
+     * @return single-line report of queue's current state
+     */
+    public synchronized String shortReportLine() {
+        StringWriter sw = new StringWriter();
+        PrintWriter writer = new PrintWriter(sw);
         // queue name
         writer.print(classKey);
         writer.print(" ");
@@ -532,6 +800,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         writer.print(" ");
         writer.print(lastQueued);
         writer.print("\n");
+        writer.flush();
+        return sw.toString();
     }
 
     @Override
@@ -541,17 +811,22 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
                 "totalSpend/totalBudget errorCount lastPeekUri lastQueuedUri";
     }
     
-    public String shortReportLine() {
-        return ReportUtils.shortReportLine(this);
-    }
-    
     /**
      * @param writer
      * @throws IOException
      */
     @Override
-    public synchronized void reportTo(PrintWriter writer) {
-        // name is ignored: only one kind of report for now
+    public void reportTo(PrintWriter writer) {
+        // rendered under the queue's lock, but written without it
+        writer.print(reportString());
+    }
+
+    /**
+     * @return multi-line report of queue's current state
+     */
+    public synchronized String reportString() {
+        StringWriter sw = new StringWriter();
+        PrintWriter writer = new PrintWriter(sw);
         writer.print("Queue ");
         writer.print(classKey);
         writer.print(" (p");
@@ -560,6 +835,13 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         writer.print("  ");
         writer.print(Long.toString(count));
         writer.print(" items");
+        if (parallelism > 1) {
+            writer.print("\n  ");
+            writer.print(getInProcessCount());
+            writer.print(" of ");
+            writer.print(parallelism);
+            writer.print(" parallel in process");
+        }
         if (wakeTime != 0) {
             writer.print("\n   wakes in: "+ArchiveUtils.formatMillisecondsToConventional(wakeTime - System.currentTimeMillis()));
         }
@@ -589,6 +871,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         writer.print("\n   ");
         writer.print(getPrecedenceProvider().shortReportLine());
         writer.print("\n\n");
+        writer.flush();
+        return sw.toString();
     }
     
     public FetchStats getSubstats() {
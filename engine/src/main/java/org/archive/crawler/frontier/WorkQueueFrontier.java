@@ -30,16 +30,17 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
@@ -50,7 +51,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.iterators.ObjectArrayIterator;
+import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.crawler.event.CrawlURIDispositionEvent;
 import org.archive.crawler.framework.ToeThread;
@@ -58,6 +59,8 @@ import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.CrawlServer;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.ObjectIdentityCache;
@@ -150,6 +153,70 @@ implements Closeable,
         kp.put("queueTotalBudget",budget);
     }
     
+    /** 
+     * number of URIs a queue may have in process at once. The default, 1,
+     * fetches strictly one URI at a time per queue. Higher values, best 
+     * set by sheet overlay only for sites known to welcome it, let that
+     * many URIs be fetched concurrently; politeness delays are then shared
+     * as a budget of tokens, refilled at one per (delay / parallelism), 
+     * so each connection waits about as it would alone. 
+     */
+    {
+        setQueueParallelism(1);
+    }
+    public int getQueueParallelism() {
+        return (Integer) kp.get("queueParallelism");
+    }
+    public void setQueueParallelism(int parallelism) {
+        kp.put("queueParallelism",parallelism);
+    }
+    
+    /**
+     * Whether to prepare each new queue, as its first URI arrives, by 
+     * scheduling its host's DNS lookup and its server's robots.txt at 
+     * once. The lookup then usually completes while the queue waits 
+     * inactive, and robots.txt is first in line when it activates, 
+     * sparing its first URI the usual deferrals for each prerequisite.
+     */
+    {
+        setPrepareNewQueues(false);
+    }
+    public boolean getPrepareNewQueues() {
+        return (Boolean) kp.get("prepareNewQueues");
+    }
+    public void setPrepareNewQueues(boolean prepare) {
+        kp.put("prepareNewQueues",prepare);
+    }
+    
+    /** maximum count of hosts whose early DNS lookups (see 
+     *  'prepareNewQueues') may be outstanding at once; new queues beyond
+     *  this are left to have their prerequisites scheduled as usual, 
+     *  when first visited */
+    protected int maxPreparingHosts = 1000;
+    public int getMaxPreparingHosts() {
+        return maxPreparingHosts;
+    }
+    public void setMaxPreparingHosts(int max) {
+        this.maxPreparingHosts = max;
+    }
+    
+    /** seconds after which an early lookup or robots fetch (see 
+     *  'prepareNewQueues') never seen to finish -- for example because it
+     *  was dropped as out of scope, or lost to a crash -- stops counting
+     *  against 'maxPreparingHosts' */
+    protected int preparingHostsTimeoutSeconds = 600;
+    public int getPreparingHostsTimeoutSeconds() {
+        return preparingHostsTimeoutSeconds;
+    }
+    public void setPreparingHostsTimeoutSeconds(int timeout) {
+        this.preparingHostsTimeoutSeconds = timeout;
+    }
+    
+    /** dns: and robots.txt URIs of early preparations not yet finished, 
+     *  with the time each was scheduled */
+    transient protected ConcurrentHashMap<String,Long> preparingHosts = 
+        new ConcurrentHashMap<String,Long>();
+    
     /** queue precedence assignment policy to use. */
     {
         setQueuePrecedencePolicy(new BaseQueuePrecedencePolicy());
@@ -217,6 +284,37 @@ implements Closeable,
         largestQueues.setMaxSize(count);
     }
     
+    /** index of the states of all queues with URIs pending */
+    transient protected QueueStateIndex queueStates = new QueueStateIndex();
+    /** whether to maintain the queue-state index, allowing fast queries
+     *  of queues by size or classKey prefix, and bulk operations by 
+     *  classKey prefix, at the cost of an entry in memory per nonempty 
+     *  queue (a few hundred bytes, across its two sort orders). Off by 
+     *  default, as crawls of millions of queues may not spare the memory;
+     *  when off, the bulk operations instead walk all queues' keys. */
+    protected boolean indexQueueStates = false;
+    public boolean getIndexQueueStates() {
+        return indexQueueStates;
+    }
+    public void setIndexQueueStates(boolean indexQueueStates) {
+        this.indexQueueStates = indexQueueStates;
+    }
+    public QueueStateIndex getQueueStates() {
+        return queueStates;
+    }
+    
+    /**
+     * Note the given queue's current state in the queue-state index, 
+     * if maintained.
+     * 
+     * @param wq queue whose size or state may have changed
+     */
+    protected void noteQueueState(WorkQueue wq) {
+        if (indexQueueStates) {
+            queueStates.update(wq);
+        }
+    }
+    
     protected int highestPrecedenceWaiting = Integer.MAX_VALUE;
 
     /** The UriUniqFilter to use, tracking those UURIs which are 
@@ -359,6 +457,62 @@ implements Closeable,
         }
     }
 
+    /**
+     * Schedule a batch of seeds grouped by queue: every seed is first 
+     * assigned its classKey, then each queue's seeds are scheduled 
+     * consecutively (in source order within the queue), so the queue and
+     * its stored entries stay cached across the run of adds rather than 
+     * being revisited once per seed.
+     * 
+     * @see org.archive.modules.seeds.SeedBatchListener#addedSeeds(java.util.List)
+     */
+    @Override
+    public void addedSeeds(List<CrawlURI> seeds) {
+        for (CrawlURI curi : seeds) {
+            sheetOverlaysManager.applyOverlaysTo(curi);
+            if (curi.getClassKey() == null) {
+                try {
+                    KeyedProperties.loadOverridesFrom(curi);
+                    preparer.prepare(curi);
+                } finally {
+                    KeyedProperties.clearOverridesFrom(curi); 
+                }
+            }
+        }
+        for (List<CrawlURI> queueSeeds : groupByClassKey(seeds).values()) {
+            for (CrawlURI curi : queueSeeds) {
+                try {
+                    KeyedProperties.loadOverridesFrom(curi);
+                    processScheduleIfUnique(curi);
+                } finally {
+                    KeyedProperties.clearOverridesFrom(curi); 
+                }
+            }
+        }
+    }
+
+    /**
+     * Group the given (prepared) CrawlURIs by classKey, keeping the order
+     * of first appearance of each key, and list order within each group.
+     * 
+     * @param curis CrawlURIs with classKeys assigned
+     * @return map of classKey to that queue's CrawlURIs
+     */
+    protected static Map<String,List<CrawlURI>> groupByClassKey(
+            List<CrawlURI> curis) {
+        Map<String,List<CrawlURI>> byKey = 
+            new LinkedHashMap<String,List<CrawlURI>>();
+        for (CrawlURI curi : curis) {
+            List<CrawlURI> group = byKey.get(curi.getClassKey());
+            if (group == null) {
+                group = new ArrayList<CrawlURI>();
+                byKey.put(curi.getClassKey(), group);
+            }
+            group.add(curi);
+        }
+        return byKey;
+    }
+
     /**
      * Arrange for the given CrawlURI to be visited, if it is not
      * already scheduled/completed.
@@ -388,13 +542,15 @@ implements Closeable,
 //        assert Thread.currentThread() == managerThread;
         
         WorkQueue wq = getQueueFor(curi.getClassKey());
+        boolean isNewQueue;
         synchronized(wq) {
             int originalPrecedence = wq.getPrecedence();
-            wq.enqueue(this, curi);
+            isNewQueue = (wq.enqueue(this, curi) == 1 && wq.enqueueCount == 1);
             // always take budgeting values from current curi
             // (whose overlay settings should be active here)
             wq.setSessionBudget(getBalanceReplenishAmount());
             wq.setTotalBudget(getQueueTotalBudget());
+            wq.setParallelism(getQueueParallelism());
             
             if(!wq.isRetired()) {
                 incrementQueuedUriCount();
@@ -410,6 +566,96 @@ implements Closeable,
         doJournalAdded(curi);
         wq.makeDirty();
         largestQueues.update(wq.getClassKey(), wq.getCount());
+        noteQueueState(wq);
+        
+        if (isNewQueue && !curi.isPrerequisite() && getPrepareNewQueues()) {
+            prepareQueue(curi);
+        }
+    }
+    
+    /**
+     * Schedule the DNS lookup and robots.txt of the host and server of
+     * the given first URI of a new queue, if not already fetched, and 
+     * if within the budget of preparing hosts.
+     * 
+     * @param curi first URI of new queue
+     */
+    protected void prepareQueue(CrawlURI curi) {
+        String scheme = curi.getUURI().getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return;
+        }
+        CrawlHost host = serverCache.getHostFor(curi.getUURI());
+        CrawlServer server = serverCache.getServerFor(curi.getUURI());
+        if (host == null || server == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            if (!host.hasBeenLookedUp()) {
+                CrawlURI dns = 
+                    curi.makePrerequisiteCandidate("dns:" + host.getHostName());
+                // if already being prepared, by another queue of host,
+                // still consider this queue's own robots below
+                if (!preparingHosts.containsKey(dns.getUURI().toString())) {
+                    if (!notePreparing(dns.getUURI().toString(), now)) {
+                        // over budget
+                        return;
+                    }
+                    schedule(dns);
+                }
+            }
+            if (server.isRobotsExpired(0)) {
+                // never fetched; ahead of curi in its queue 
+                CrawlURI robots = curi.makePrerequisiteCandidate(
+                        curi.getUURI().resolve("/robots.txt").toString());
+                if (notePreparing(robots.getUURI().toString(), now)) {
+                    schedule(robots);
+                }
+            }
+        } catch (URIException e) {
+            logger.log(Level.WARNING, "unable to prepare queue of " + curi, e);
+        }
+    }
+    
+    /**
+     * Note the given prerequisite URI as being prepared early, if not 
+     * already and if within the 'maxPreparingHosts' budget (after 
+     * expiring any overdue entries, if at the limit). 
+     * 
+     * @param uri dns: or robots.txt URI
+     * @param now current time
+     * @return true if newly noted, and so should be scheduled
+     */
+    protected boolean notePreparing(String uri, long now) {
+        if (preparingHosts.containsKey(uri)) {
+            return false;
+        }
+        if (preparingHosts.size() >= getMaxPreparingHosts()) {
+            expirePreparingHosts(now);
+            if (preparingHosts.size() >= getMaxPreparingHosts()) {
+                return false;
+            }
+        }
+        return preparingHosts.putIfAbsent(uri, now) == null;
+    }
+    
+    /**
+     * Forget early preparations scheduled longer ago than 
+     * 'preparingHostsTimeoutSeconds', whose finish will likely never be 
+     * seen, so they no longer hold budget.
+     * 
+     * @param now current time
+     */
+    protected void expirePreparingHosts(long now) {
+        long cutoff = now - 1000L * getPreparingHostsTimeoutSeconds();
+        Iterator<Entry<String,Long>> iter = 
+            preparingHosts.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getValue() <= cutoff) {
+                iter.remove();
+            }
+        }
     }
 
     /**
@@ -442,15 +688,17 @@ implements Closeable,
 
         synchronized(wq) {
             wq.noteDeactivated();
-            inProcessQueues.remove(wq);
+            if(wq.getInProcessCount()==0) {
+                inProcessQueues.remove(wq);
+            }
             if(wq.getCount()==0) {
                 System.err.println("deactivate empty queue?");
             }
 
             synchronized (getInactiveQueuesByPrecedence()) {
                 getInactiveQueuesForPrecedence(precedence).add(wq.getClassKey());
-                if(wq.getPrecedence() < highestPrecedenceWaiting ) {
-                    highestPrecedenceWaiting = wq.getPrecedence();
+                if(precedence < highestPrecedenceWaiting ) {
+                    highestPrecedenceWaiting = precedence;
                 }
             }
 
@@ -499,7 +747,13 @@ implements Closeable,
     protected void retireQueue(WorkQueue wq) {
 //        assert Thread.currentThread() == managerThread;
 
-        inProcessQueues.remove(wq);
+        if(wq.getInProcessCount()==0) {
+            inProcessQueues.remove(wq);
+        }
+        if(wq.isRetired()) {
+            // already retired, as by retireQueues() during processing
+            return;
+        }
         getRetiredQueues().add(wq.getClassKey());
         decrementQueuedCount(wq.getCount());
         wq.setRetired(true);
@@ -539,6 +793,7 @@ implements Closeable,
             if(q != null) {
                 unretireQueue(q);
                 q.makeDirty();
+                noteQueueState(q);
             }
             key = getRetiredQueues().poll();
         }
@@ -586,6 +841,8 @@ implements Closeable,
             // find a non-empty ready queue, if any 
             // TODO: refactor to untangle these loops, early-exits, etc!
             WorkQueue readyQ = null;
+            // whether readyQ was claimed by reserving a parallel slot
+            boolean reservedQ = false;
             findauri: while(true) {
                 findaqueue: do {
                     String key = readyClassQueues.poll();
@@ -611,10 +868,35 @@ implements Closeable,
                         // readyQ is empty and ready: it's exhausted
                         readyQ.noteExhausted(); 
                         readyQ.makeDirty();
+                        noteQueueState(readyQ);
                         readyQ = null;
                         continue; 
                     }
-                    if(!inProcessQueues.add(readyQ)) {
+                    if(readyQ.isRetired()) {
+                        // retired while awaiting its turn (see 
+                        // retireQueues()); leave for any unretiring
+                        readyQ = null;
+                        continue;
+                    }
+                    reservedQ = false; 
+                    if(readyQ.getInProcessCount() > 0) {
+                        // parallel queue already in process: may offer 
+                        // another URI only if slot free (and none else 
+                        // about to emit) 
+                        if(!readyQ.tryReserve()) {
+                            readyQ = null;
+                            continue;
+                        }
+                        long now = System.currentTimeMillis();
+                        if(readyQ.getTokenWaitMs(now) > 0) {
+                            // tokens held (eg by a retry) since readied
+                            readyQ.releaseReservation();
+                            readySlot(readyQ, now);
+                            readyQ = null;
+                            continue;
+                        }
+                        reservedQ = true; 
+                    } else if(!inProcessQueues.add(readyQ)) {
                         // double activation; discard this and move on
                         // (this guard allows other enqueuings to ready or 
                         // the various inactive-by-precedence queues to 
@@ -634,10 +916,19 @@ implements Closeable,
                         KeyedProperties.loadOverridesFrom(readyQUri);
                         readyQ.setSessionBudget(getBalanceReplenishAmount());
                         readyQ.setTotalBudget(getQueueTotalBudget()); 
+                        readyQ.setParallelism(getQueueParallelism());
                     } finally {
                         KeyedProperties.clearOverridesFrom(readyQUri); 
                     }
                     
+                    if (reservedQ && (readyQ.isOverSessionBudget() 
+                            || readyQ.isOverTotalBudget())) {
+                        // leave to the last in-process URI's finish, 
+                        // after which the usual budget checks apply 
+                        readyQ.releaseReservation();
+                        readyQ = null;
+                        continue;
+                    }
                     if (readyQ.isOverSessionBudget()) {
                         deactivateQueue(readyQ);
                         readyQ.makeDirty();
@@ -666,6 +957,9 @@ implements Closeable,
                                 + readyQ.classKey + "\n" 
                                 + readyQ.shortReportLegend() + "\n"
                                 + readyQ.shortReportLine() + "\n");
+                        if (reservedQ) {
+                            readyQ.releaseReservation();
+                        }
                         break returnauri;
                     }
                     
@@ -685,6 +979,13 @@ implements Closeable,
                     if (currentQueueKey.equals(curi.getClassKey())) {
                         // curi was in right queue, emit
                         noteAboutToEmit(curi, readyQ);
+                        if (reservedQ || readyQ.getParallelism() > 1) {
+                            // take out of queue, so others may follow
+                            long now = System.currentTimeMillis();
+                            readyQ.checkOut(this, curi, now);
+                            readySlot(readyQ, now);
+                        }
+                        noteQueueState(readyQ);
                         return curi;
                     }
                     // URI's assigned queue has changed since it
@@ -692,11 +993,19 @@ implements Closeable,
                     // known). Requeue to new queue.
                     // TODO: consider synchronization on readyQ
                     readyQ.dequeue(this,curi);
+                    noteQueueState(readyQ);
                     doJournalRelocated(curi);
                     curi.setClassKey(currentQueueKey);
                     decrementQueuedCount(1);
                     curi.setHolderKey(null);
                     sendToQueue(curi);
+                    if(reservedQ && readyQ.getAvailableCount()==0) {
+                        // all remaining URIs in process; their finishing
+                        // will reconsider the queue
+                        readyQ.releaseReservation();
+                        readyQ = null;
+                        continue findauri;
+                    }
                     if(readyQ.getCount()==0) {
                         // readyQ is empty and ready: it's exhausted
                         // release held status, allowing any subsequent 
@@ -822,8 +1131,9 @@ implements Closeable,
             logger.fine("queue reenqueued: " +
                 wq.getClassKey());
         }
-        if(highestPrecedenceWaiting < wq.getPrecedence() 
-            || wq.getPrecedence() >= getPrecedenceFloor()) {
+        int precedence = wq.getPrecedence();
+        if(highestPrecedenceWaiting < precedence 
+            || precedence >= getPrecedenceFloor()) {
             // if still over budget, deactivate
             deactivateQueue(wq);
         } else {
@@ -869,9 +1179,13 @@ implements Closeable,
      * Wake any queues sitting in the snoozed queue whose time has come.
      */
     protected void wakeQueues() {
+        long now = System.currentTimeMillis();
         DelayedWorkQueue waked; 
         while((waked = snoozedClassQueues.poll())!=null) {
             WorkQueue queue = waked.getWorkQueue(this);
+            if (isStaleSnooze(waked, queue, now)) {
+                continue;
+            }
             queue.setWakeTime(0);
             queue.makeDirty();
             reenqueueQueue(queue);
@@ -880,12 +1194,15 @@ implements Closeable,
         if(!snoozedOverflow.isEmpty()) {
             synchronized(snoozedOverflow) {
                 Iterator<DelayedWorkQueue> iter = 
-                    snoozedOverflow.headMap(System.currentTimeMillis()).values().iterator();
+                    snoozedOverflow.headMap(now).values().iterator();
                 while(iter.hasNext()) {
                     DelayedWorkQueue dq = iter.next();
                     iter.remove();
                     snoozedOverflowCount.decrementAndGet();
                     WorkQueue queue = dq.getWorkQueue(this);
+                    if (isStaleSnooze(dq, queue, now)) {
+                        continue;
+                    }
                     queue.setWakeTime(0);
                     queue.makeDirty();
                     reenqueueQueue(queue);
@@ -894,6 +1211,22 @@ implements Closeable,
         }
     }
     
+    /**
+     * Whether a snoozed entry no longer reflects its queue's wake time: 
+     * a parallel queue may be re-snoozed for an earlier time, or 
+     * activated meanwhile, leaving older entries behind to be discarded.
+     * 
+     * @param dq snoozed entry
+     * @param queue its queue
+     * @param now time now in ms
+     * @return true if entry should be ignored
+     */
+    protected boolean isStaleSnooze(DelayedWorkQueue dq, WorkQueue queue, 
+            long now) {
+        long wakeTime = queue.getWakeTime();
+        return wakeTime != dq.getWakeTime() || wakeTime > now;
+    }
+
     /**
      * Note that the previously emitted CrawlURI has completed
      * its processing (for now).
@@ -922,8 +1255,12 @@ implements Closeable,
         // (whose overlay settings should be active here)
         wq.setSessionBudget(getBalanceReplenishAmount());
         wq.setTotalBudget(getQueueTotalBudget());
+        wq.setParallelism(getQueueParallelism());
         
-        assert (wq.peek(this) == curi) : "unexpected peek " + wq;
+        // whether taken out of queue to run in parallel with others
+        boolean checkedOut = wq.isCheckedOut(curi);
+        
+        assert (checkedOut || wq.peek(this) == curi) : "unexpected peek " + wq;
 
         int holderCost = curi.getHolderCost();
 
@@ -934,19 +1271,38 @@ implements Closeable,
             }
             long delay_ms = retryDelayFor(curi) * 1000;
             curi.processingCleanup(); // lose state that shouldn't burden retry
-            wq.unpeek(curi);
-            wq.update(this, curi); // rewrite any changes
-            handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
+            if (checkedOut) {
+                // put back, with any changes; other slots wait out the 
+                // retry delay too, rather than keep hitting the host
+                int stillInProcess = wq.checkIn(this, curi, false);
+                wq.holdTokens(now, now + delay_ms);
+                releaseSlot(wq, curi.includesRetireDirective(), now, -1, 
+                        stillInProcess);
+            } else {
+                wq.unpeek(curi);
+                wq.update(this, curi); // rewrite any changes
+                handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
+            }
             appCtx.publishEvent(new CrawlURIDispositionEvent(this,curi,DEFERRED_FOR_RETRY));
             doJournalReenqueued(curi);
             wq.makeDirty();
+            noteQueueState(wq);
             return; // no further dequeueing, logging, rescheduling to occur
         }
 
         // Curi will definitely be disposed of without retry, so remove from queue
-        wq.dequeue(this,curi);
+        int stillInProcess = 0; 
+        if (checkedOut) {
+            stillInProcess = wq.checkIn(this, curi, true);
+        } else {
+            wq.dequeue(this,curi);
+        }
         decrementQueuedCount(1);
         largestQueues.update(wq.getClassKey(), wq.getCount());
+        if (curi.isPrerequisite() && !preparingHosts.isEmpty()) {
+            // early lookup (if one) done; free budget for another 
+            preparingHosts.remove(curi.getUURI().toString());
+        }
         log(curi);
 
         
@@ -987,8 +1343,14 @@ implements Closeable,
         wq.expend(holderCost); // successes & failures charge cost to queue
         
         long delay_ms = curi.getPolitenessDelay();
-        handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
+        if (checkedOut) {
+            releaseSlot(wq, curi.includesRetireDirective(), now, delay_ms, 
+                    stillInProcess);
+        } else {
+            handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
+        }
         wq.makeDirty();
+        noteQueueState(wq);
         
         if(curi.getRescheduleTime()>0) {
             // marked up for forced-revisit at a set time
@@ -1013,6 +1375,11 @@ implements Closeable,
      */
     protected void handleQueue(WorkQueue wq, boolean forceRetire, long now, long delay_ms) {
         inProcessQueues.remove(wq);
+        if(wq.isRetirePending()) {
+            // requested while in process; see retireQueues()
+            wq.setRetirePending(false);
+            forceRetire = true;
+        }
         if(forceRetire) {
             retireQueue(wq);
         } else if (delay_ms > 0) {
@@ -1023,6 +1390,56 @@ implements Closeable,
         }
     }
 
+    /**
+     * Account for the finish of one of a parallel queue's checked-out 
+     * URIs. If it was the last in process, the queue moves to its next
+     * state as usual, waiting for a politeness token if necessary; 
+     * otherwise the freed slot is offered once a token is available. 
+     * 
+     * @param wq queue of finished URI
+     * @param forceRetire whether URI requested queue retirement
+     * @param now time now in ms
+     * @param delay_ms politeness delay requested, or -1 to leave the 
+     * token rate unchanged
+     * @param stillInProcess count of queue's URIs still in process
+     */
+    protected void releaseSlot(WorkQueue wq, boolean forceRetire, long now, 
+            long delay_ms, int stillInProcess) {
+        if (delay_ms >= 0) {
+            wq.noteSlotDelay(now, delay_ms);
+        }
+        if (forceRetire) {
+            wq.setRetirePending(true);
+        }
+        if (stillInProcess > 0) {
+            readySlot(wq, now);
+            return;
+        }
+        boolean retire = wq.isRetirePending();
+        wq.setRetirePending(false);
+        handleQueue(wq, retire, now, wq.getTokenWaitMs(now));
+    }
+
+    /**
+     * Offer a parallel queue, already in process, for another URI: at
+     * once if a politeness token is available, or by snoozing until one 
+     * will be. 
+     * 
+     * @param wq queue with URIs in process
+     * @param now time now in ms
+     */
+    protected void readySlot(WorkQueue wq, long now) {
+        if (wq.isRetirePending() || wq.isRetired() || !wq.hasFreeSlot()) {
+            return;
+        }
+        long wait = wq.getTokenWaitMs(now);
+        if (wait <= 0) {
+            readyQueue(wq);
+        } else if (wq.getWakeTime() == 0 || wq.getWakeTime() > now + wait) {
+            snoozeQueue(wq, now, wait);
+        }
+    }
+
     /**
      * Place the given queue into 'snoozed' state, ineligible to
      * supply any URIs for crawling, for the given amount of time. 
@@ -1077,12 +1494,103 @@ implements Closeable,
                 wq.unpeek(null);
                 count += wq.deleteMatching(this, uriRegex);
                 wq.makeDirty();
+                noteQueueState(wq);
+            }
+        }
+        decrementQueuedCount(count);
+        return count;
+    }
+
+    /**
+     * Delete all waiting URIs of every queue whose classKey begins with 
+     * the given prefix (such as a SURT prefix, for SURT-form classKeys), 
+     * as found by classKeysWithPrefix(). Each queue's URIs are removed 
+     * from the store whole, without being read; queues with a URI in 
+     * process are skipped. As with deleteURIs(), the crawl should 
+     * usually be paused first. 
+     * 
+     * @param classKeyPrefix classKey prefix
+     * @return count of URIs deleted
+     */
+    public long deleteQueues(String classKeyPrefix) {
+        long count = 0;
+        for (String classKey : classKeysWithPrefix(classKeyPrefix)) {
+            WorkQueue wq = getQueueFor(classKey);
+            synchronized (wq) {
+                if (inProcessQueues.contains(wq)) {
+                    logger.info("skipping in-process queue " 
+                            + wq.getClassKey());
+                    continue;
+                }
+                long deleted = wq.deleteAll(this);
+                if (!wq.isRetired()) {
+                    // retired queues' URIs were already uncounted
+                    count += deleted;
+                }
+                wq.makeDirty();
+                largestQueues.update(wq.getClassKey(), wq.getCount());
+                noteQueueState(wq);
             }
         }
         decrementQueuedCount(count);
         return count;
     }
 
+    /**
+     * Retire every queue whose classKey begins with the given prefix, as 
+     * found by classKeysWithPrefix(). A queue with URIs in process is 
+     * retired when they finish. Retired queues keep their URIs, and may 
+     * be restored by unretiring (as after a change of budget settings).
+     * 
+     * @param classKeyPrefix classKey prefix
+     * @return count of queues retired, or to be retired
+     */
+    public int retireQueues(String classKeyPrefix) {
+        int count = 0;
+        for (String classKey : classKeysWithPrefix(classKeyPrefix)) {
+            WorkQueue wq = getQueueFor(classKey);
+            synchronized (wq) {
+                if (wq.isRetired() || wq.isRetirePending()) {
+                    continue;
+                }
+                if (inProcessQueues.contains(wq)) {
+                    wq.setRetirePending(true);
+                } else {
+                    retireQueue(wq);
+                }
+                wq.makeDirty();
+                noteQueueState(wq);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Find the classKeys of all queues beginning with the given prefix: 
+     * of nonempty queues from the queue-state index, if maintained, or 
+     * else of all queues, by walking their keys.
+     * 
+     * @param classKeyPrefix classKey prefix; empty for all queues
+     * @return list of matching classKeys
+     */
+    protected List<String> classKeysWithPrefix(String classKeyPrefix) {
+        List<String> classKeys = new ArrayList<String>();
+        if (indexQueueStates) {
+            for (QueueStateIndex.QueueState state 
+                    : queueStates.withPrefix(classKeyPrefix)) {
+                classKeys.add(state.getClassKey());
+            }
+        } else {
+            for (String classKey : allQueues.keySet()) {
+                if (classKey.startsWith(classKeyPrefix)) {
+                    classKeys.add(classKey);
+                }
+            }
+        }
+        return classKeys;
+    }
+
     //
     // Reporter implementation
     //
@@ -1212,11 +1720,20 @@ implements Closeable,
     /**
      * This method compiles a human readable report on the status of the frontier
      * at the time of the call.
+     * 
+     * The counts, and the keys of (at most maxQueuesPerReportCategory) 
+     * queues of each category, are first copied in one quick pass; the 
+     * report is then rendered from that snapshot, each queue's lines 
+     * formatted under its own lock only briefly, so that generating a 
+     * report (as from the web UI) doesn't hold up crawling.
+     * 
      * @param name Name of report.
      * @param writer Where to write to.
      */
     @Override
-    public synchronized void reportTo(PrintWriter writer) {
+    public void reportTo(PrintWriter writer) {
+        // snapshot
+        int max = maxQueuesPerReportCategory;
         int allCount = allQueues.size();
         int inProcessCount = inProcessQueues.size();
         int readyCount = readyClassQueues.size();
@@ -1226,7 +1743,33 @@ implements Closeable,
         int retiredCount = getRetiredQueues().size();
         int exhaustedCount = 
             allCount - activeCount - inactiveCount - retiredCount;
+        long discovered = discoveredUriCount();
+        long queued = queuedUriCount();
+        long finished = finishedUriCount();
+        long succeeded = succeededFetchCount();
+        long failed = failedFetchCount();
+        long disregarded = disregardedUriCount();
+        long included = uriUniqFilter.count();
+        long pending = uriUniqFilter.pending();
+        State last = lastReachedState;
+        
+        SortedMap<Integer,Queue<String>> inactives = getInactiveQueuesByPrecedence();
+        LinkedHashMap<Integer,Integer> inactiveCounts = 
+            new LinkedHashMap<Integer,Integer>();
+        LinkedHashMap<Integer,List<Object>> inactiveKeys = 
+            new LinkedHashMap<Integer,List<Object>>();
+        for(Integer prec : inactives.keySet()) {
+            Queue<String> inactiveQueues = inactives.get(prec);
+            inactiveCounts.put(prec, inactiveQueues.size());
+            inactiveKeys.put(prec, firstOf(inactiveQueues.iterator(), max));
+        }
+        SortedSet<Map.Entry<?,Long>> longest = largestQueues.getEntriesDescending();
+        List<Object> inProcess = firstOf(inProcessQueues.iterator(), max);
+        List<Object> ready = firstOf(readyClassQueues.iterator(), max);
+        List<DelayedWorkQueue> snoozed = earliestOf(snoozedClassQueues, max);
+        List<Object> retired = firstOf(getRetiredQueues().iterator(), max);
         
+        // render
         writer.print("Frontier report - ");
         writer.print(ArchiveUtils.get12DigitDate());
         writer.print("\n");
@@ -1235,29 +1778,29 @@ implements Closeable,
         writer.print("\n");
         writer.print("\n -----===== STATS =====-----\n");
         writer.print(" Discovered:    ");
-        writer.print(Long.toString(discoveredUriCount()));
+        writer.print(Long.toString(discovered));
         writer.print("\n");
         writer.print(" Queued:        ");
-        writer.print(Long.toString(queuedUriCount()));
+        writer.print(Long.toString(queued));
         writer.print("\n");
         writer.print(" Finished:      ");
-        writer.print(Long.toString(finishedUriCount()));
+        writer.print(Long.toString(finished));
         writer.print("\n");
         writer.print("  Successfully: ");
-        writer.print(Long.toString(succeededFetchCount()));
+        writer.print(Long.toString(succeeded));
         writer.print("\n");
         writer.print("  Failed:       ");
-        writer.print(Long.toString(failedFetchCount()));
+        writer.print(Long.toString(failed));
         writer.print("\n");
         writer.print("  Disregarded:  ");
-        writer.print(Long.toString(disregardedUriCount()));
+        writer.print(Long.toString(disregarded));
         writer.print("\n");
         writer.print("\n -----===== QUEUES =====-----\n");
         writer.print(" Already included size:     ");
-        writer.print(Long.toString(uriUniqFilter.count()));
+        writer.print(Long.toString(included));
         writer.print("\n");
         writer.print("               pending:     ");
-        writer.print(Long.toString(uriUniqFilter.pending()));
+        writer.print(Long.toString(pending));
         writer.print("\n");
         writer.print("\n All class queues map size: ");
         writer.print(Long.toString(allCount));
@@ -1277,16 +1820,15 @@ implements Closeable,
         writer.print("           Inactive queues: ");
         writer.print(inactiveCount);
         writer.print(" (");
-        Map<Integer,Queue<String>> inactives = getInactiveQueuesByPrecedence();
         boolean betwixt = false; 
-        for(Integer k : inactives.keySet()) {
+        for(Integer k : inactiveCounts.keySet()) {
             if(betwixt) {
                 writer.print("; ");
             }
             writer.print("p");
             writer.print(k);
             writer.print(": ");
-            writer.print(inactives.get(k).size());
+            writer.print(inactiveCounts.get(k));
             betwixt = true; 
         }
         writer.print(")\n");
@@ -1297,56 +1839,92 @@ implements Closeable,
         writer.print(exhaustedCount);
         writer.print("\n");
         
-        State last = lastReachedState;
         writer.print("\n             Last state: "+last);        
         
         writer.print("\n -----===== MANAGER THREAD =====-----\n");
         ToeThread.reportThread(managerThread, writer);
         
-        writer.print("\n -----===== "+largestQueues.size()+" LONGEST QUEUES =====-----\n");
-        appendQueueReports(writer, "LONGEST", largestQueues.getEntriesDescending().iterator(), largestQueues.size(), largestQueues.size());
+        writer.print("\n -----===== "+longest.size()+" LONGEST QUEUES =====-----\n");
+        appendQueueReports(writer, "LONGEST", longest.iterator(), longest.size(), longest.size());
         
         writer.print("\n -----===== IN-PROCESS QUEUES =====-----\n");
-        Collection<WorkQueue> inProcess = inProcessQueues;
-        ArrayList<WorkQueue> copy = extractSome(inProcess, maxQueuesPerReportCategory);
-        appendQueueReports(writer, "IN-PROCESS", copy.iterator(), copy.size(), maxQueuesPerReportCategory);
+        appendQueueReports(writer, "IN-PROCESS", inProcess.iterator(), inProcessCount, max);
         
         writer.print("\n -----===== READY QUEUES =====-----\n");
-        appendQueueReports(writer, "READY", this.readyClassQueues.iterator(),
-            this.readyClassQueues.size(), maxQueuesPerReportCategory);
+        appendQueueReports(writer, "READY", ready.iterator(), readyCount, max);
         
         writer.print("\n -----===== SNOOZED QUEUES =====-----\n");
-        Object[] objs = snoozedClassQueues.toArray();
-        DelayedWorkQueue[] qs = Arrays.copyOf(objs,objs.length,DelayedWorkQueue[].class);
-        Arrays.sort(qs);
-        appendQueueReports(writer, "SNOOZED", new ObjectArrayIterator(qs), getSnoozedCount(), maxQueuesPerReportCategory);
+        appendQueueReports(writer, "SNOOZED", snoozed.iterator(), snoozedCount, max);
         
         writer.print("\n -----===== INACTIVE QUEUES =====-----\n");
-        SortedMap<Integer,Queue<String>> sortedInactives = getInactiveQueuesByPrecedence();
-        for(Integer prec : sortedInactives.keySet()) {
-            Queue<String> inactiveQueues = sortedInactives.get(prec);
-            appendQueueReports(writer, "INACTIVE-p"+prec, inactiveQueues.iterator(),
-                    inactiveQueues.size(), maxQueuesPerReportCategory);
+        for(Integer prec : inactiveKeys.keySet()) {
+            appendQueueReports(writer, "INACTIVE-p"+prec, 
+                    inactiveKeys.get(prec).iterator(),
+                    inactiveCounts.get(prec), max);
         }
         
         writer.print("\n -----===== RETIRED QUEUES =====-----\n");
-        appendQueueReports(writer, "RETIRED", getRetiredQueues().iterator(),
-            getRetiredQueues().size(), maxQueuesPerReportCategory);
+        appendQueueReports(writer, "RETIRED", retired.iterator(), retiredCount, max);
         
         writer.flush();
     }
     
+    /**
+     * Copy the first (up to) max items of the given iterator, as a 
+     * stable snapshot from which to render a report.
+     * 
+     * @param iterator items
+     * @param max maximum items to copy
+     * @return list of items
+     */
+    protected static List<Object> firstOf(Iterator<?> iterator, int max) {
+        ArrayList<Object> list = new ArrayList<Object>();
+        while (list.size() < max && iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+    
+    /**
+     * Get the earliest-waking max of the given snoozed queues, in wake 
+     * order, keeping only max at a time (in a heap whose head is the 
+     * latest kept) rather than sorting them all.
+     * 
+     * @param snoozed snoozed queues, in any order
+     * @param max most to return
+     * @return list of up to max earliest-waking queues
+     */
+    protected static List<DelayedWorkQueue> earliestOf(
+            Iterable<DelayedWorkQueue> snoozed, int max) {
+        List<DelayedWorkQueue> list = new ArrayList<DelayedWorkQueue>();
+        if (max <= 0) {
+            return list;
+        }
+        PriorityQueue<DelayedWorkQueue> latestFirst = 
+            new PriorityQueue<DelayedWorkQueue>(max, 
+                    Collections.<DelayedWorkQueue>reverseOrder());
+        for (DelayedWorkQueue dq : snoozed) {
+            if (latestFirst.size() < max) {
+                latestFirst.add(dq);
+            } else if (dq.compareTo(latestFirst.peek()) < 0) {
+                latestFirst.poll();
+                latestFirst.add(dq);
+            }
+        }
+        list.addAll(latestFirst);
+        Collections.sort(list);
+        return list;
+    }
+    
     /** Compact report of all nonempty queues (one queue per line)
      * 
      * @param writer
      */
     public void allNonemptyReportTo(PrintWriter writer) {
-        ArrayList<WorkQueue> inProcessQueuesCopy;
-        synchronized(this.inProcessQueues) {
-            // grab a copy that will be stable against mods for report duration 
-            Collection<WorkQueue> inProcess = this.inProcessQueues;
-            inProcessQueuesCopy = new ArrayList<WorkQueue>(inProcess);
-        }
+        // grab a copy that will be stable against mods for report duration 
+        // (inProcessQueues being concurrent, without locking it)
+        ArrayList<WorkQueue> inProcessQueuesCopy = 
+            new ArrayList<WorkQueue>(this.inProcessQueues);
         writer.print("\n -----===== IN-PROCESS QUEUES =====-----\n");
         queueSingleLinesTo(writer, inProcessQueuesCopy.iterator());
 
@@ -1374,6 +1952,29 @@ implements Closeable,
         queueSingleLinesTo(writer, allQueues.keySet().iterator());
     }
     
+    /**
+     * Compact report of all nonempty queues whose classKey begins with 
+     * the given prefix, from the queue-state index (and so without 
+     * loading the queues themselves), if maintained; else, the usual
+     * single-line reports of all matching queues. 
+     * 
+     * @param writer
+     * @param classKeyPrefix classKey prefix; empty for all queues
+     */
+    public void queueStatesReportTo(PrintWriter writer, String classKeyPrefix) {
+        if (!indexQueueStates) {
+            queueSingleLinesTo(writer, 
+                    classKeysWithPrefix(classKeyPrefix).iterator());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        writer.println(QueueStateIndex.QueueState.shortReportLegend());
+        for (QueueStateIndex.QueueState state 
+                : queueStates.withPrefix(classKeyPrefix)) {
+            state.shortReportLineTo(writer, now);
+        }
+    }
+    
     /**
      * Writer the single-line reports of all queues in the
      * iterator to the writer 
@@ -1415,33 +2016,6 @@ implements Closeable,
         }       
     }
 
-    /**
-     * Extract some of the elements in the given collection to an
-     * ArrayList.  This method synchronizes on the given collection's
-     * monitor.  The returned list will never contain more than the
-     * specified maximum number of elements.
-     * 
-     * @param c    the collection whose elements to extract
-     * @param max  the maximum number of elements to extract
-     * @return  the extraction
-     */
-    private static <T> ArrayList<T> extractSome(Collection<T> c, int max) {
-        // Try to guess a sane initial capacity for ArrayList
-        // Hopefully given collection won't grow more than 10 items
-        // between now and the synchronized block...
-        int initial = Math.min(c.size() + 10, max);
-        int count = 0;
-        ArrayList<T> list = new ArrayList<T>(initial);
-        synchronized (c) {
-            Iterator<T> iter = c.iterator();
-            while (iter.hasNext() && (count < max)) {
-                list.add(iter.next());
-                count++;
-            }
-        }
-        return list;
-    }
-
     /**
      * Append queue report to general Frontier report.
      * @param w StringBuffer to append to.
@@ -0,0 +1,144 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.collections.Closure;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+
+/**
+ * Storage for the pending CrawlURIs of all of a BdbFrontier's queues.
+ * Each queue, identified by classKey, yields its CrawlURIs in
+ * precedence order: lower scheduling directive first, then lower
+ * precedence, then (as near as the implementation allows) earlier
+ * ordinal.
+ *
+ * <p>The frontier tracks each queue's count, and only asks for the
+ * head of a queue known to be non-empty. Queues are passed as the
+ * BdbWorkQueue objects themselves, so stores may use the queue's
+ * compact origin key rather than its classKey.
+ */
+public interface WorkQueueStore extends Closeable {
+
+    /**
+     * Prepare storage for a newly-created queue.
+     *
+     * @param queue new queue
+     */
+    public void initQueue(BdbWorkQueue queue);
+
+    /**
+     * Get the first CrawlURI of the given queue, without removing it.
+     * The CrawlURI's holderKey is set to whatever the store needs to
+     * later update or delete it.
+     *
+     * @param queue queue
+     * @return first CrawlURI, or null if none could be read
+     * @throws IOException
+     */
+    public CrawlURI peek(BdbWorkQueue queue) throws IOException;
+
+    /**
+     * Put the given CrawlURI into the given queue (which matches the
+     * CrawlURI's classKey).
+     *
+     * @param queue queue
+     * @param curi CrawlURI to add
+     * @param overwriteIfPresent if true, the CrawlURI has previously
+     * been peeked and this is an update of its stored state
+     * @throws IOException
+     */
+    public void put(BdbWorkQueue queue, CrawlURI curi,
+            boolean overwriteIfPresent) throws IOException;
+
+    /**
+     * Delete the given, previously-peeked CrawlURI.
+     *
+     * @param item CrawlURI to delete
+     * @throws IOException
+     */
+    public void delete(CrawlURI item) throws IOException;
+
+    /**
+     * Delete all CrawlURIs of the given queue whose string form matches
+     * the given regular expression.
+     *
+     * @param match regular expression
+     * @param queue queue
+     * @return count of deleted CrawlURIs
+     * @throws IOException
+     */
+    public long deleteMatchingFromQueue(String match, BdbWorkQueue queue)
+    throws IOException;
+
+    /**
+     * Delete all CrawlURIs of the given queue, without deserializing 
+     * them.
+     *
+     * @param queue queue
+     * @return count of deleted CrawlURIs
+     * @throws IOException
+     */
+    public long deleteQueue(BdbWorkQueue queue) throws IOException;
+
+    /**
+     * List pending CrawlURIs matching the given pattern.
+     *
+     * @param marker position from which to continue a prior listing, or
+     * null to start from the beginning
+     * @param maxMatches maximum matches to return
+     * @param pattern pattern CrawlURI strings must match
+     * @param verbose if true, list queue and report line for each URI
+     * @return CompositeData with "list" of matches and "marker" for
+     * continuing (null if listing complete)
+     * @throws IOException
+     */
+    public CompositeData getFrom(String marker, int maxMatches,
+            Pattern pattern, boolean verbose) throws IOException;
+
+    /**
+     * Perform the given action on every pending CrawlURI.
+     *
+     * @param c Closure action to perform
+     * @throws IOException
+     */
+    public void forAllPendingDo(Closure c) throws IOException;
+
+    /**
+     * Make all stored CrawlURIs durable, and save anything else needed
+     * to restore the store's current state, as part of the given
+     * checkpoint.
+     *
+     * @param checkpointInProgress checkpoint
+     * @throws IOException
+     */
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException;
+
+    /**
+     * Release any resources held.
+     */
+    public void close();
+}
@@ -54,6 +54,9 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
         private static final long serialVersionUID = 5545297542888582745L;
         
         protected Histotable<Integer> enqueuedCounts = new Histotable<Integer>();
+        /** URI-precedence of highest URI enqueued, or 0 if none; kept
+         * current on each tally, so reading it costs no map lookup */
+        protected volatile int highestEnqueued = 0; 
         public HighestUriPrecedenceProvider(int base) {
             super(base);
         }
@@ -66,13 +69,13 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
             switch(stage) {
             case SCHEDULED:
                 // enqueued
-                enqueuedCounts.tally(curi.getPrecedence());
+                tally(curi.getPrecedence(), 1);
                 break;
             case SUCCEEDED:
             case DISREGARDED:
             case FAILED:
                 // dequeued
-                enqueuedCounts.tally(curi.getPrecedence(),-1);
+                tally(curi.getPrecedence(), -1);
                 break;
             case RETRIED:
                 // do nothing, already tallied
@@ -80,14 +83,28 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
             }
         }
 
+        /**
+         * Adjust the count at the given URI-precedence, rechecking the
+         * highest only when the change is at or above it. 
+         */
+        protected void tally(int uriPrecedence, long count) {
+            synchronized (enqueuedCounts) {
+                boolean wasEmpty = enqueuedCounts.isEmpty(); 
+                enqueuedCounts.tally(uriPrecedence, count);
+                if (wasEmpty || uriPrecedence <= highestEnqueued) {
+                    highestEnqueued = enqueuedCounts.isEmpty() 
+                        ? 0 : enqueuedCounts.firstKey();
+                }
+            }
+        }
+
         /* (non-Javadoc)
          * @see org.archive.crawler.frontier.precedence.SimplePrecedenceProvider#getPrecedence()
          */
         @Override
         public int getPrecedence() {
             // base plus highest URI still in queue
-            Integer delta = (enqueuedCounts.size() > 0) ? enqueuedCounts.firstKey() : 0;
-            return super.getPrecedence() + delta;
+            return super.getPrecedence() + highestEnqueued;
         }
 
         /*
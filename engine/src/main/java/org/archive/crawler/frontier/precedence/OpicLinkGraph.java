@@ -0,0 +1,706 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier.precedence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.FilesystemLinkMaker;
+import org.archive.util.Reporter;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.context.Lifecycle;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * In-crawl link graph and OPIC ('On-line Page Importance Computation') 
+ * importance estimates, for prioritizing URIs by the link structure
+ * discovered so far rather than only by an offline computation.
+ * 
+ * Every URI known to the graph holds some 'cash'. Seeds are granted 
+ * cash when scheduled; when a page is fetched, its cash is divided 
+ * evenly among its discovered outlinks, and the page's own cash reset. 
+ * Cash given to outlinks which are never scheduled (such as those out 
+ * of scope) leaves the system. A URI's cash when it is scheduled, 
+ * relative to the mean over all URIs known, is its estimated 
+ * importance: see OpicUriPrecedencePolicy and OpicQueuePrecedencePolicy.
+ * 
+ * Cash is held in memory, in a fixed-capacity table keyed by 64-bit 
+ * URI fingerprint. Once the table is full, newly discovered URIs are 
+ * not tracked (and cash sent to them is lost), so capacity should be
+ * sized to the crawl's expected URI count. Each table slot uses 12 
+ * bytes.
+ * 
+ * Discovered links are also recorded compactly, for offline analysis
+ * or later recomputation, as fingerprint adjacency records (source 
+ * fingerprint, outlink count, outlink fingerprints) appended to 
+ * memory-mapped segment files in the configured directory. Both are 
+ * saved into, and restored from, checkpoints.
+ * 
+ * NOTE: Because this is a Lifecycle bean requiring start and stop, it
+ * should be a top-level named bean, autowired into the policies and
+ * LinkGraphProcessor which use it.
+ */
+public class OpicLinkGraph implements Lifecycle, Checkpointable, 
+BeanNameAware, Reporter {
+    private static final Logger logger =
+        Logger.getLogger(OpicLinkGraph.class.getName());
+
+    /** CrawlURI data key for a URI's cash when scheduled, as a multiple
+     * of the mean cash of all tracked URIs (Float) */
+    public static final String A_OPIC_CASH = "opicCash";
+    /** CrawlURI data key for the cash each outlink of a fetched URI is 
+     * to receive (Float); present only during that URI's disposition */
+    public static final String A_OPIC_SHARE = "opicShare";
+
+    public static final String SEGMENT_PREFIX = "links-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String CASH_FILENAME = "opic-cash.bin";
+    protected static final int STRIPES = 64; 
+    protected static final int FORMAT_VERSION = 1;
+
+    /** directory for link segment files */
+    protected ConfigPath dir = new ConfigPath("link graph subdirectory","linkgraph");
+    public ConfigPath getDir() {
+        return dir;
+    }
+    public void setDir(ConfigPath dir) {
+        this.dir = dir;
+    }
+
+    /** size of each memory-mapped link segment file */
+    protected int segmentSize = 64 * 1024 * 1024; // 64MiB
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /** whether to record link adjacency to segment files at all; 
+     * importance estimates do not require it */
+    protected boolean recordLinks = true;
+    public boolean getRecordLinks() {
+        return recordLinks;
+    }
+    public void setRecordLinks(boolean recordLinks) {
+        this.recordLinks = recordLinks;
+    }
+
+    /** maximum number of URIs whose cash is tracked; rounded up to a
+     * power of two, of which at most three-quarters is used */
+    protected int capacity = 4 * 1024 * 1024; 
+    public int getCapacity() {
+        return capacity;
+    }
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** cash granted each seed when scheduled */
+    protected float seedCash = 1.0f;
+    public float getSeedCash() {
+        return seedCash;
+    }
+    public void setSeedCash(float seedCash) {
+        this.seedCash = seedCash;
+    }
+
+    protected String beanName = "opicLinkGraph"; 
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    protected Checkpoint recoveryCheckpoint;
+    public void setRecoveryCheckpoint(Checkpoint checkpoint) {
+        this.recoveryCheckpoint = checkpoint; 
+    }
+
+    protected CashStripe[] stripes; 
+    
+    protected int segment; 
+    protected RandomAccessFile segmentFile;
+    protected MappedByteBuffer segmentBuffer;
+    protected long[] linkScratch = new long[256];
+    
+    protected AtomicLong pagesRecorded = new AtomicLong(0);
+    protected AtomicLong linksRecorded = new AtomicLong(0);
+    protected AtomicLong untracked = new AtomicLong(0);
+
+    protected volatile boolean isRunning = false;
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        int stripeCapacity = Integer.highestOneBit(
+                Math.max(capacity / STRIPES - 1, 1)) << 1;
+        stripes = new CashStripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new CashStripe(stripeCapacity);
+        }
+        try {
+            File d = dir.getFile();
+            org.archive.util.FileUtils.ensureWriteableDirectory(d);
+            for (File f : listSegmentFiles(d)) {
+                if (!f.delete()) {
+                    throw new IOException("unable to delete " + f);
+                }
+            }
+            segment = 0; 
+            if (recoveryCheckpoint != null) {
+                recover(recoveryCheckpoint);
+            }
+            if (recordLinks) {
+                startSegment(segment);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        isRunning = true;
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        try {
+            endSegment();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //
+    // OPIC cash accounting
+    //
+
+    public static long fingerprint(CrawlURI curi) {
+        return FPGenerator.std64.fp(curi.getURI());
+    }
+
+    protected CashStripe stripeFor(long fp) {
+        return stripes[(int) (fp >>> 58) & (STRIPES - 1)];
+    }
+
+    /**
+     * Note the given URI is being scheduled: seeds receive their grant, 
+     * and URIs discovered from a fetched page receive that page's 
+     * per-outlink share. 
+     * 
+     * @param curi CrawlURI being scheduled
+     * @return URI's cash as a multiple of mean cash (also stored in
+     * its data under A_OPIC_CASH)
+     */
+    public float uriScheduled(CrawlURI curi) {
+        long fp = fingerprint(curi);
+        float grant = 0; 
+        CrawlURI via = curi.getFullVia();
+        if (via != null) {
+            grant = shareFor(via);
+        } else if (curi.isSeed()) {
+            grant = seedCash;
+        }
+        CashStripe stripe = stripeFor(fp);
+        float cash = stripe.add(fp, grant);
+        if (Float.isNaN(cash)) {
+            untracked.incrementAndGet();
+            cash = 0; 
+        }
+        float relative = (float) (cash / getMeanCash()); 
+        curi.getData().put(A_OPIC_CASH, relative);
+        return relative; 
+    }
+
+    /**
+     * Get the cash each outlink of the given fetched URI should 
+     * receive, taking the URI's own cash on first call. 
+     * 
+     * @param source fetched CrawlURI whose outlinks are being scheduled
+     * @return cash per outlink
+     */
+    protected float shareFor(CrawlURI source) {
+        synchronized (source) {
+            Float share = (Float) source.getData().get(A_OPIC_SHARE);
+            if (share == null) {
+                float cash = takeCash(source);
+                int degree = source.getOutLinks().size() 
+                    + source.getOutCandidates().size();
+                share = degree > 0 ? cash / degree : 0f;
+                source.getData().put(A_OPIC_SHARE, share);
+            }
+            return share;
+        }
+    }
+
+    /**
+     * Take (and zero) the given URI's cash.
+     */
+    protected float takeCash(CrawlURI curi) {
+        long fp = fingerprint(curi);
+        return stripeFor(fp).take(fp);
+    }
+
+    /**
+     * Current cash held by the given URI, or 0 if unknown.
+     */
+    public float getCash(CrawlURI curi) {
+        long fp = fingerprint(curi);
+        return stripeFor(fp).get(fp);
+    }
+
+    /**
+     * Mean cash held over all tracked URIs; approximate, as stripes are
+     * read without locking. 
+     */
+    public double getMeanCash() {
+        double total = 0; 
+        long count = 0; 
+        for (CashStripe stripe : stripes) {
+            total += stripe.total; 
+            count += stripe.size;
+        }
+        return (count == 0 || total <= 0) ? 1.0 : total / count; 
+    }
+
+    /**
+     * Note the given URI's disposition is complete: record its outlinks
+     * and, if none were scheduled, release its cash. 
+     * 
+     * @param curi fetched CrawlURI, after CandidatesProcessor
+     */
+    public void pageFinished(CrawlURI curi) {
+        synchronized (curi) {
+            if (curi.getData().remove(A_OPIC_SHARE) == null) {
+                // cash not yet distributed; lost with unscheduled outlinks
+                takeCash(curi);
+            }
+        }
+        if (recordLinks && !curi.getOutCandidates().isEmpty()) {
+            long[] links = new long[curi.getOutCandidates().size()];
+            int n = 0; 
+            for (CrawlURI candidate : curi.getOutCandidates()) {
+                links[n++] = fingerprint(candidate);
+            }
+            try {
+                appendAdjacency(fingerprint(curi), links, n);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * One stripe of the fingerprint-to-cash table: open addressing 
+     * with linear probing, 0 marking an empty slot (fingerprint 0 is
+     * stored as 1). 
+     */
+    protected static class CashStripe {
+        final long[] keys;
+        final float[] cash; 
+        final int mask; 
+        final int limit; 
+        volatile int size; 
+        volatile double total; 
+
+        CashStripe(int capacity) {
+            keys = new long[capacity];
+            cash = new float[capacity];
+            mask = capacity - 1; 
+            limit = capacity - capacity / 4;
+        }
+        
+        /** slot for fp, or -(insertion point + 1) if absent */
+        int find(long fp) {
+            int i = (int) fp & mask; 
+            while (true) {
+                long k = keys[i];
+                if (k == fp) {
+                    return i;
+                }
+                if (k == 0) {
+                    return -(i + 1);
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        /** add amount to fp's cash, returning new cash; NaN if full */
+        synchronized float add(long fp, float amount) {
+            fp = (fp == 0) ? 1 : fp;
+            int i = find(fp);
+            if (i < 0) {
+                if (size >= limit) {
+                    return Float.NaN;
+                }
+                i = -(i + 1);
+                keys[i] = fp; 
+                size++;
+            }
+            cash[i] += amount;
+            total += amount; 
+            return cash[i];
+        }
+        
+        synchronized float take(long fp) {
+            int i = find((fp == 0) ? 1 : fp);
+            if (i < 0) {
+                return 0;
+            }
+            float c = cash[i];
+            cash[i] = 0; 
+            total -= c; 
+            return c; 
+        }
+        
+        synchronized float get(long fp) {
+            int i = find((fp == 0) ? 1 : fp);
+            return i < 0 ? 0 : cash[i];
+        }
+        
+        synchronized void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    out.writeLong(keys[i]);
+                    out.writeFloat(cash[i]);
+                }
+            }
+        }
+
+        synchronized void readFrom(DataInputStream in) throws IOException {
+            Arrays.fill(keys, 0);
+            Arrays.fill(cash, 0);
+            size = 0; 
+            total = 0; 
+            for (int n = in.readInt(); n > 0; n--) {
+                long fp = in.readLong();
+                float c = in.readFloat();
+                if (Float.isNaN(add(fp, c))) {
+                    // checkpoint from larger-capacity table
+                    break; 
+                }
+            }
+        }
+    }
+
+    //
+    // Link segments
+    //
+
+    /**
+     * Visitor of recorded adjacency records. 
+     */
+    public interface AdjacencyVisitor {
+        /**
+         * @param source source URI fingerprint
+         * @param links array holding outlink fingerprints (reused 
+         * between calls)
+         * @param count number of outlinks in array
+         */
+        void visit(long source, long[] links, int count);
+    }
+
+    protected File segmentFile(int n) {
+        return new File(dir.getFile(), 
+                String.format("%s%08d%s", SEGMENT_PREFIX, n, SEGMENT_SUFFIX));
+    }
+
+    public static File[] listSegmentFiles(File d) {
+        File[] files = d.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int n = 0; 
+        for (File f : files) {
+            if (f.getName().startsWith(SEGMENT_PREFIX)
+                    && f.getName().endsWith(SEGMENT_SUFFIX)) {
+                files[n++] = f;
+            }
+        }
+        files = Arrays.copyOf(files, n);
+        Arrays.sort(files);
+        return files; 
+    }
+
+    protected void startSegment(int n) throws IOException {
+        segment = n; 
+        segmentFile = new RandomAccessFile(segmentFile(n), "rw");
+        segmentBuffer = segmentFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * Flush the current segment and trim its file to the bytes used.
+     */
+    protected void endSegment() throws IOException {
+        if (segmentFile == null) {
+            return;
+        }
+        segmentBuffer.force();
+        int used = segmentBuffer.position();
+        segmentBuffer = null; 
+        segmentFile.setLength(used);
+        segmentFile.close();
+        segmentFile = null; 
+    }
+
+    /**
+     * Append one adjacency record, starting a new segment first if the 
+     * current one lacks room.
+     * 
+     * @param source source URI fingerprint
+     * @param links outlink fingerprints
+     * @param count number of outlinks 
+     */
+    public synchronized void appendAdjacency(long source, long[] links, 
+            int count) throws IOException {
+        if (segmentBuffer == null) {
+            return; // not running
+        }
+        count = Math.min(count, (segmentSize - 12) / 8);
+        int length = 12 + 8 * count;
+        if (segmentBuffer.remaining() < length) {
+            endSegment();
+            startSegment(segment + 1);
+        }
+        segmentBuffer.putLong(source);
+        segmentBuffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            segmentBuffer.putLong(links[i]);
+        }
+        pagesRecorded.incrementAndGet();
+        linksRecorded.addAndGet(count);
+    }
+
+    /**
+     * Visit all adjacency records written so far, in order. Appends 
+     * wait until the visit completes.
+     * 
+     * @param visitor AdjacencyVisitor to receive records
+     */
+    public synchronized void visitAdjacencies(AdjacencyVisitor visitor) 
+    throws IOException {
+        for (int n = 0; n < segment; n++) {
+            File f = segmentFile(n);
+            if (!f.exists()) {
+                continue;
+            }
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                visitBuffer(raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, raf.length()), visitor);
+            } finally {
+                raf.close();
+            }
+        }
+        if (segmentBuffer != null) {
+            ByteBuffer current = segmentBuffer.duplicate();
+            current.flip();
+            visitBuffer(current, visitor);
+        }
+    }
+
+    protected void visitBuffer(ByteBuffer buffer, 
+            AdjacencyVisitor visitor) {
+        while (buffer.remaining() >= 12) {
+            long source = buffer.getLong();
+            int count = buffer.getInt();
+            if (linkScratch.length < count) {
+                linkScratch = new long[count];
+            }
+            for (int i = 0; i < count; i++) {
+                linkScratch[i] = buffer.getLong();
+            }
+            visitor.visit(source, linkScratch, count);
+        }
+    }
+
+    //
+    // Checkpointing
+    //
+
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    /** directory within checkpoint for segments and cash table, beside 
+     * the bean's JSON state */
+    protected File checkpointDataDir(Checkpoint checkpoint) {
+        return new File(checkpoint.getCheckpointDir().getFile(),
+                beanName + "-data");
+    }
+
+    /**
+     * Close the current segment, hard-link all segments and save the 
+     * cash table into the checkpoint. A new segment is then begun, so 
+     * linked segments are never again written. 
+     * 
+     * @see org.archive.checkpointing.Checkpointable#doCheckpoint(org.archive.checkpointing.Checkpoint)
+     */
+    public synchronized void doCheckpoint(Checkpoint checkpointInProgress) 
+    throws IOException {
+        File cpDir = checkpointDataDir(checkpointInProgress);
+        org.archive.util.FileUtils.ensureWriteableDirectory(cpDir);
+        endSegment();
+        for (File f : listSegmentFiles(dir.getFile())) {
+            File link = new File(cpDir, f.getName());
+            if (!FilesystemLinkMaker.makeHardLink(
+                    f.getAbsolutePath(), link.getAbsolutePath())) {
+                FileUtils.copyFile(f, link);
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(cpDir, CASH_FILENAME)), 65536));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            for (CashStripe stripe : stripes) {
+                stripe.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            JSONObject json = new JSONObject();
+            json.put("segment", segment + 1); // next to be written
+            json.put("pagesRecorded", pagesRecorded.get());
+            json.put("linksRecorded", linksRecorded.get());
+            json.put("untracked", untracked.get());
+            checkpointInProgress.saveJson(beanName, json);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+        segment++;
+        if (recordLinks) {
+            startSegment(segment);
+        }
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected void recover(Checkpoint checkpoint) throws IOException {
+        File cpDir = checkpointDataDir(checkpoint);
+        for (File f : listSegmentFiles(cpDir)) {
+            File dest = new File(dir.getFile(), f.getName());
+            if (!FilesystemLinkMaker.makeHardLink(
+                    f.getAbsolutePath(), dest.getAbsolutePath())) {
+                FileUtils.copyFile(f, dest);
+            }
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(cpDir, CASH_FILENAME)), 65536));
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("unsupported cash table format");
+            }
+            for (CashStripe stripe : stripes) {
+                stripe.readFrom(in);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            JSONObject json = checkpoint.loadJson(beanName);
+            segment = json.getInt("segment");
+            pagesRecorded.set(json.getLong("pagesRecorded"));
+            linksRecorded.set(json.getLong("linksRecorded"));
+            untracked.set(json.getLong("untracked"));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        logger.info("recovered link graph at segment " + segment);
+    }
+
+    //
+    // Reporter implementation
+    //
+
+    public void reportTo(PrintWriter writer) {
+        writer.print("OpicLinkGraph - ");
+        shortReportLineTo(writer);
+        writer.println();
+    }
+
+    /**
+     * Number of URIs whose cash is tracked.
+     */
+    public long getTrackedCount() {
+        long tracked = 0; 
+        CashStripe[] s = stripes;
+        if (s != null) {
+            for (CashStripe stripe : s) {
+                tracked += stripe.size;
+            }
+        }
+        return tracked;
+    }
+
+    public void shortReportLineTo(PrintWriter w) {
+        w.print(getTrackedCount());
+        w.print(" tracked, ");
+        w.print(untracked.get());
+        w.print(" untracked, ");
+        w.print(pagesRecorded.get());
+        w.print(" pages, ");
+        w.print(linksRecorded.get());
+        w.print(" links recorded, mean cash ");
+        w.print(stripes == null ? 0f : (float) getMeanCash());
+    }
+
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("tracked", getTrackedCount());
+        map.put("untracked", untracked.get());
+        map.put("pagesRecorded", pagesRecorded.get());
+        map.put("linksRecorded", linksRecorded.get());
+        map.put("meanCash", stripes == null ? 0 : getMeanCash());
+        return map;
+    }
+
+    public String shortReportLegend() {
+        return "tracked untracked pagesRecorded linksRecorded meanCash";
+    }
+}
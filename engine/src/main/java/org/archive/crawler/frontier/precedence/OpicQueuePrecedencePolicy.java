@@ -0,0 +1,148 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier.precedence;
+
+import java.io.PrintWriter;
+
+import org.archive.crawler.frontier.WorkQueue;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.Stage;
+
+/**
+ * QueuePrecedencePolicy which sets a uri-queue's precedence from the 
+ * total OPIC importance of the URIs it has waiting, so that sites 
+ * holding the most link-estimated importance are crawled first. 
+ * 
+ * Each URI's importance is the relative cash recorded on it by 
+ * OpicUriPrecedencePolicy when it was scheduled. A queue waiting on 
+ * URIs of no importance has the base precedence plus maxBoost; each 
+ * doubling of its total raises its precedence by one, up to the base 
+ * precedence itself. Each URI added or removed updates the queue's total
+ * and precedence in constant time. 
+ */
+public class OpicQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
+    private static final long serialVersionUID = 1L;
+
+    /** number of precedence levels, above base, over which queues are
+     * spread by importance; default 8 */
+    {
+        setMaxBoost(8);
+    }
+    public int getMaxBoost() {
+        return (Integer) kp.get("maxBoost");
+    }
+    public void setMaxBoost(int boost) {
+        kp.put("maxBoost", boost);
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy#installProvider(org.archive.crawler.frontier.WorkQueue)
+     */
+    @Override
+    protected void installProvider(WorkQueue wq) {
+        wq.setPrecedenceProvider(
+                new OpicPrecedenceProvider(getBasePrecedence(), getMaxBoost()));
+    }
+
+    /**
+     * Leave an installed provider, which keeps its own precedence
+     * current, unless settings have changed. 
+     * 
+     * @see org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy#queueReevaluate(org.archive.crawler.frontier.WorkQueue)
+     */
+    @Override
+    public void queueReevaluate(WorkQueue wq) {
+        PrecedenceProvider precedenceProvider = wq.getPrecedenceProvider();
+        if (precedenceProvider instanceof OpicPrecedenceProvider) {
+            OpicPrecedenceProvider opp = (OpicPrecedenceProvider) precedenceProvider;
+            if (opp.basePrecedence == getBasePrecedence() 
+                    && opp.maxBoost == getMaxBoost()) {
+                return; 
+            }
+            // keep accumulated importance under new settings
+            OpicPrecedenceProvider replacement = new OpicPrecedenceProvider(
+                    getBasePrecedence(), getMaxBoost());
+            replacement.adjust(opp.pendingCash);
+            wq.setPrecedenceProvider(replacement);
+            return;
+        }
+        installProvider(wq);
+    }
+
+    /**
+     * Helper provider tracking the total importance of a queue's 
+     * waiting URIs. 
+     */
+    public static class OpicPrecedenceProvider extends SimplePrecedenceProvider {
+        private static final long serialVersionUID = 1L;
+
+        protected int basePrecedence;
+        protected int maxBoost; 
+        protected double pendingCash;
+
+        public OpicPrecedenceProvider(int base, int maxBoost) {
+            super(base + maxBoost);
+            this.basePrecedence = base; 
+            this.maxBoost = maxBoost; 
+        }
+
+        /* (non-Javadoc)
+         * @see org.archive.crawler.frontier.precedence.PrecedenceProvider#tally(org.archive.modules.CrawlURI, org.archive.modules.fetcher.FetchStats.Stage)
+         */
+        @Override
+        public void tally(CrawlURI curi, Stage stage) {
+            switch(stage) {
+            case SCHEDULED:
+                adjust(cashOf(curi));
+                break;
+            case SUCCEEDED:
+            case DISREGARDED:
+            case FAILED:
+                adjust(-cashOf(curi));
+                break;
+            default:
+                // RETRIED, RELOCATED: still or never here
+            }
+        }
+        
+        protected float cashOf(CrawlURI curi) {
+            Float cash = (Float) curi.getData().get(OpicLinkGraph.A_OPIC_CASH);
+            return cash == null ? 0f : cash;
+        }
+        
+        protected synchronized void adjust(double delta) {
+            pendingCash = Math.max(0, pendingCash + delta);
+            precedence = basePrecedence 
+                + OpicUriPrecedencePolicy.boostFor(pendingCash, maxBoost);
+        }
+
+        @Override
+        public void shortReportLineTo(PrintWriter writer) {
+            writer.print(getPrecedence());
+            writer.print(" ");
+            writer.print((float) pendingCash);
+        }
+
+        @Override
+        public String shortReportLegend() {
+            return super.shortReportLegend() + ": precedence pendingCash";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier.precedence;
+
+import org.archive.modules.CrawlURI;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * UriPrecedencePolicy which assigns URIs a precedence from their 
+ * in-crawl OPIC importance estimate, as maintained by an OpicLinkGraph:
+ * URIs which have received more cash from the pages linking to them,
+ * relative to the mean, are given higher precedence (lower numbers). 
+ * 
+ * A URI holding the mean cash is given the base precedence plus 
+ * maxBoost minus one; each doubling of cash beyond that raises its 
+ * precedence by one, up to base precedence itself. 
+ * 
+ * Requires a top-level OpicLinkGraph bean, and a LinkGraphProcessor in
+ * the disposition chain after the CandidatesProcessor. 
+ */
+public class OpicUriPrecedencePolicy extends BaseUriPrecedencePolicy {
+    private static final long serialVersionUID = 1L;
+
+    /** number of precedence levels, above base, over which URIs are
+     * spread by importance; default 8 */
+    {
+        setMaxBoost(8);
+    }
+    public int getMaxBoost() {
+        return (Integer) kp.get("maxBoost");
+    }
+    public void setMaxBoost(int boost) {
+        kp.put("maxBoost", boost);
+    }
+
+    protected OpicLinkGraph linkGraph;
+    public OpicLinkGraph getLinkGraph() {
+        return linkGraph;
+    }
+    @Autowired
+    public void setLinkGraph(OpicLinkGraph linkGraph) {
+        this.linkGraph = linkGraph;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.precedence.BaseUriPrecedencePolicy#calculatePrecedence(org.archive.modules.CrawlURI)
+     */
+    @Override
+    protected int calculatePrecedence(CrawlURI curi) {
+        float relativeCash = linkGraph.uriScheduled(curi);
+        return getBasePrecedence() + boostFor(relativeCash, getMaxBoost()); 
+    }
+    
+    /**
+     * Precedence to add to a base for the given relative cash: 
+     * maxBoost for none, falling by one with each doubling. 
+     * 
+     * @param relativeCash cash as a multiple of the mean
+     * @param maxBoost number of levels
+     * @return offset from base, from 0 to maxBoost
+     */
+    public static int boostFor(double relativeCash, int maxBoost) {
+        // floor(log2(1+x)), exact at powers of two
+        int level = 63 - Long.numberOfLeadingZeros((long) (1 + relativeCash));
+        return maxBoost - Math.min(maxBoost, Math.max(level, 0));
+    }
+}
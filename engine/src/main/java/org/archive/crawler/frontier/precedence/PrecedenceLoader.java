@@ -33,6 +33,7 @@ import org.archive.modules.recrawl.PersistProcessor;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 import org.archive.util.bdbje.EnhancedEnvironment;
+import org.archive.util.fingerprint.MappedFingerprintTable;
 import org.archive.util.iterator.LineReadingIterator;
 
 import com.sleepycat.bind.serial.SerialBinding;
@@ -42,6 +43,8 @@ import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 
+import st.ata.util.FPGenerator;
+
 
 
 /**
@@ -66,6 +69,10 @@ public class PrecedenceLoader {
      *  
      * into a BDB-JE environment (second argument, created if necessary). 
      * 
+     * Alternatively, with a leading '--table' argument, writes the 
+     * precedence values to a read-only MappedFingerprintTable file, for
+     * use as PreloadedUriPrecedencePolicy's precedenceTable. 
+     * 
      * @param args command-line arguments
      * @throws DatabaseException
      * @throws IOException
@@ -73,6 +80,8 @@ public class PrecedenceLoader {
     public static void main(String[] args) throws DatabaseException, IOException {
         if(args.length==2) {
             main2args(args);
+        } else if(args.length==3 && "--table".equals(args[0])) {
+            mainTable(args[1], args[2]);
         } else {
             System.out.println("Arguments: ");
             System.out.println("    source target");
@@ -80,6 +89,10 @@ public class PrecedenceLoader {
                 "...where source is a file of lines 'URI precedence' ");
             System.out.println(
                 "and target is a BDB env dir (created if necessary). ");
+            System.out.println("or: ");
+            System.out.println("    --table source target");
+            System.out.println(
+                "...where target is a fingerprint table file to write. ");
             return;
         }
         
@@ -122,12 +135,7 @@ public class PrecedenceLoader {
             while(iter.hasNext()) {
                 String line = (String) iter.next(); 
                 String[] splits = line.split("\\s");
-                String uri = splits[0];
-                if(!uri.matches("\\w+:.*")) {
-                    // prepend "http://"
-                    uri = "http://"+uri;
-                }
-                String key = PersistProcessor.persistKeyFor(uri);
+                String key = keyFor(splits[0]);
                 int precedence = Integer.parseInt(splits[1]);
                 @SuppressWarnings("unchecked")
                 Map<String, Object> map = (Map<String, Object>)historyMap.get(key);
@@ -156,4 +164,57 @@ public class PrecedenceLoader {
         targetEnv.close();
         System.out.println(count+" records imported from "+source+" to BDB env "+env);
     }
-}
\ No newline at end of file
+
+    /**
+     * Persist key for a URI as given in a precedence source file. 
+     * 
+     * @param uri URI, possibly lacking a scheme
+     * @return key as used in the URI-history database
+     */
+    protected static String keyFor(String uri) {
+        if(!uri.matches("\\w+:.*")) {
+            // prepend "http://"
+            uri = "http://"+uri;
+        }
+        return PersistProcessor.persistKeyFor(uri);
+    }
+
+    /**
+     * Write the precalculated precedence information in the source file 
+     * to a MappedFingerprintTable at the target path, keyed by the 
+     * fingerprint of each URI's persist key. Where a URI appears more 
+     * than once, its last precedence wins. 
+     * 
+     * @param sourcePath file of lines 'URI precedence'
+     * @param targetPath table file to write (replaced if present)
+     * @throws IOException
+     */
+    private static void mainTable(String sourcePath, String targetPath)
+    throws IOException {
+        File source = new File(sourcePath);
+        File target = new File(targetPath);
+        if(!source.isFile()) {
+            System.err.println("unacceptable source file");
+            return;
+        }
+        MappedFingerprintTable.Builder builder = 
+            new MappedFingerprintTable.Builder();
+        int count = 0;
+        BufferedReader br = ArchiveUtils.getBufferedReader(source);
+        Iterator<String> iter = new LineReadingIterator(br);
+        while(iter.hasNext()) {
+            String[] splits = iter.next().split("\\s");
+            builder.add(FPGenerator.std64.fp(keyFor(splits[0])), 
+                    Integer.parseInt(splits[1]));
+            count++;
+            if(count % 100000 == 0) {
+                System.out.print(count+"... ");
+            }
+        }
+        br.close();
+        System.out.println();
+        long distinct = builder.build(target);
+        System.out.println(count+" lines read from "+source+", "+distinct
+                +" distinct entries written to table "+target);
+    }
+}
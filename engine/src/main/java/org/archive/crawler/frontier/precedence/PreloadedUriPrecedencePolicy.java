@@ -20,11 +20,14 @@ package org.archive.crawler.frontier.precedence;
 
 import static org.archive.modules.CoreAttributeConstants.A_PRECALC_PRECEDENCE;
 
+import java.io.IOException;
 import java.util.Map;
 
 import org.archive.bdb.BdbModule;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.recrawl.PersistProcessor;
+import org.archive.spring.ConfigPath;
+import org.archive.util.fingerprint.MappedFingerprintTable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -35,10 +38,18 @@ import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 
+import st.ata.util.FPGenerator;
+
 /**
  * UriPrecedencePolicy which assigns URIs a precedence from a value that 
  * was preloaded for them into the uri-history database. 
  * 
+ * Alternatively, if a precedenceTable is configured, precedence values
+ * are looked up in that read-only, memory-mapped file (as written by 
+ * PrecedenceLoader's '--table' option) instead. Lookups then need no
+ * database access or deserialization, but only the precedence value --
+ * not any other prior URI history -- is available. 
+ * 
  * NOTE: Because this is a Lifecycle bean requiring start and stop, it
  * should not be instantiated as an anonymous inner bean. Rather, it 
  * should be a top-level named bean, then either autowired or placed-by-
@@ -66,8 +77,22 @@ implements Lifecycle {
         this.bdb = bdb;
     }
 
+    /**
+     * Read-only precedence table file, as written by PrecedenceLoader's
+     * '--table' option. If set, precedence values are read from this
+     * table rather than the uri-history database. 
+     */
+    protected ConfigPath precedenceTable = null;
+    public ConfigPath getPrecedenceTable() {
+        return precedenceTable;
+    }
+    public void setPrecedenceTable(ConfigPath precedenceTable) {
+        this.precedenceTable = precedenceTable;
+    }
+
     protected StoredSortedMap<String, ?> store;
     protected Database historyDb;
+    protected transient MappedFingerprintTable table;
     
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public void start() {
@@ -75,6 +100,14 @@ implements Lifecycle {
             return;
         }
         store = null;
+        if(precedenceTable != null) {
+            try {
+                table = new MappedFingerprintTable(precedenceTable.getFile());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         String dbName = PersistProcessor.URI_HISTORY_DBNAME;
         try {
             StoredClassCatalog classCatalog = bdb.getClassCatalog();
@@ -90,12 +123,20 @@ implements Lifecycle {
     }
     
     public boolean isRunning() {
-        return historyDb != null; 
+        return historyDb != null || table != null; 
     }
     
     public void stop() {
         if(!isRunning()) {
             return;
+        }
+        if(table != null) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                // only unmapping; nothing to lose
+            }
+            table = null;
         }
         
         // BdbModule will handle closing of DB
@@ -123,6 +164,14 @@ implements Lifecycle {
      */
     @Override
     protected int calculatePrecedence(CrawlURI curi) {
+        if(table != null) {
+            int preloadPrecedence = table.get(FPGenerator.std64.fp(
+                    PersistProcessor.persistKeyFor(curi)));
+            if(preloadPrecedence == MappedFingerprintTable.NO_VALUE) {
+                return 0;
+            }
+            return super.calculatePrecedence(curi) + preloadPrecedence;
+        }
         mergePrior(curi);
         Integer preloadPrecedence = (Integer) curi.getData().get(A_PRECALC_PRECEDENCE);
         if(preloadPrecedence==null) {
@@ -18,13 +18,9 @@
  */
 package org.archive.crawler.frontier.precedence;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
-
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Transformer;
 import org.archive.crawler.frontier.WorkQueue;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.Stage;
 
 /**
  * QueuePrecedencePolicy that sets a uri-queue's precedence to a configured
@@ -76,31 +72,153 @@ public class SuccessCountsQueuePrecedencePolicy extends BaseQueuePrecedencePolic
         kp.put("incrementCounts",counts);
     }
 
+    /** last-parsed incrementCounts string and its values; usually the 
+     * same string serves every queue, so parsing is rarely repeated */
+    protected transient volatile ParsedCounts lastParsed;
+    
+    protected static class ParsedCounts {
+        final String counts;
+        final long[] increments;
+        ParsedCounts(String counts) {
+            this.counts = counts; 
+            String[] parts = counts.split(",");
+            this.increments = new long[parts.length];
+            for(int i = 0; i < parts.length; i++) {
+                increments[i] = Long.parseLong(parts[i].trim());
+            }
+        }
+    }
+    
+    /**
+     * Get the parsed increments for the current incrementCounts 
+     * setting (which may vary per queue with overlays). 
+     * 
+     * @return array of tier sizes, last to be repeated indefinitely
+     */
+    protected long[] getParsedIncrements() {
+        String counts = getIncrementCounts();
+        ParsedCounts parsed = lastParsed;
+        if (parsed == null || !parsed.counts.equals(counts)) {
+            parsed = new ParsedCounts(counts);
+            lastParsed = parsed; 
+        }
+        return parsed.increments;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy#installProvider(org.archive.crawler.frontier.WorkQueue)
+     */
+    @Override
+    protected void installProvider(WorkQueue wq) {
+        wq.setPrecedenceProvider(new SuccessCountsPrecedenceProvider(
+                getBasePrecedence(), getIncrementCounts(), 
+                getParsedIncrements(), 
+                wq.getSubstats().getFetchSuccesses()));
+    }
+
+    /**
+     * Leave an up-to-date provider in place; its precedence already 
+     * tracks the queue's successes. Only if the base precedence or
+     * increments have changed (by operator or overlay) is a fresh 
+     * provider installed. 
+     * 
+     * @see org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy#queueReevaluate(org.archive.crawler.frontier.WorkQueue)
+     */
+    @Override
+    public void queueReevaluate(WorkQueue wq) {
+        PrecedenceProvider precedenceProvider = wq.getPrecedenceProvider();
+        if (precedenceProvider instanceof SuccessCountsPrecedenceProvider
+                && ((SuccessCountsPrecedenceProvider) precedenceProvider)
+                    .isConfiguredAs(getBasePrecedence(), getIncrementCounts())) {
+            return; 
+        }
+        installProvider(wq);
+    }
+
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.QueuePrecedencePolicy#queueReevaluate(org.archive.crawler.frontier.WorkQueue)
      */
-    @SuppressWarnings("unchecked")
     @Override
     protected int calculatePrecedence(WorkQueue wq) {
-        // FIXME: it's ridiculously inefficient to do this every time, 
-        // and optimizing will probably require inserting stateful policy 
-        // helper object into WorkQueue -- expected when URI-precedence is
-        // also supported
-        int precedence = getBasePrecedence() - 1;
-        Collection<Integer> increments = CollectionUtils.collect(
-                Arrays.asList(getIncrementCounts().split(",")),
-                new Transformer() {
-                    public Object transform(final Object string) {
-                        return Integer.parseInt((String)string);
-                    }});
-        Iterator<Integer> iter = increments.iterator();
-        int increment = iter.next(); 
-        long successes = wq.getSubstats().getFetchSuccesses();
-        while(successes>=0) {
-            successes -= increment;
+        return precedenceFor(getBasePrecedence(), getParsedIncrements(), 
+                wq.getSubstats().getFetchSuccesses());
+    }
+    
+    /**
+     * Precedence of a queue with the given number of successes. 
+     * 
+     * @param base base precedence
+     * @param increments tier sizes, last repeating
+     * @param successes successes so far
+     * @return precedence
+     */
+    protected static int precedenceFor(int base, long[] increments, long successes) {
+        int precedence = base;
+        int i = 0; 
+        long threshold = increments[0];
+        while(successes >= threshold) {
             precedence++;
-            increment = iter.hasNext() ? iter.next() : increment; 
+            i = Math.min(i + 1, increments.length - 1);
+            threshold += increments[i];
         }
         return precedence;
     }
+
+    /**
+     * Helper provider which tracks the success count at which the queue
+     * next drops a precedence rank, so that each success tally is a 
+     * single comparison rather than a recalculation. 
+     */
+    public static class SuccessCountsPrecedenceProvider extends SimplePrecedenceProvider {
+        private static final long serialVersionUID = 1L;
+
+        protected String incrementCounts;
+        protected int basePrecedence; 
+        protected long[] increments; 
+        protected int tier; 
+        protected long successes; 
+        protected long nextThreshold; 
+        
+        public SuccessCountsPrecedenceProvider(int base, String incrementCounts,
+                long[] increments, long successes) {
+            super(base);
+            this.basePrecedence = base; 
+            this.incrementCounts = incrementCounts;
+            this.increments = increments; 
+            this.nextThreshold = increments[0];
+            this.successes = successes; 
+            advance(); 
+        }
+        
+        /**
+         * Whether this provider was created for the given settings. 
+         */
+        public boolean isConfiguredAs(int base, String counts) {
+            return basePrecedence == base && incrementCounts.equals(counts);
+        }
+        
+        /* (non-Javadoc)
+         * @see org.archive.crawler.frontier.precedence.PrecedenceProvider#tally(org.archive.modules.CrawlURI, org.archive.modules.fetcher.FetchStats.Stage)
+         */
+        @Override
+        public synchronized void tally(CrawlURI curi, Stage stage) {
+            if (stage == Stage.SUCCEEDED) {
+                successes++;
+                if (successes >= nextThreshold) {
+                    advance();
+                }
+            }
+        }
+        
+        /**
+         * Drop a rank for each tier threshold now reached. 
+         */
+        protected void advance() {
+            while (successes >= nextThreshold) {
+                precedence++;
+                tier = Math.min(tier + 1, increments.length - 1);
+                nextThreshold += increments[tier];
+            }
+        }
+    }
 }
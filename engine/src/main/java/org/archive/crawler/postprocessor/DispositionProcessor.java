@@ -26,6 +26,7 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
 
 import java.util.Map;
 import java.util.logging.Logger;
@@ -132,6 +133,97 @@ public class DispositionProcessor extends Processor {
         kp.put("maxPerHostBandwidthUsageKbSec",max);
     }
     
+    /**
+     * Whether to adapt each host's politeness delay to its observed 
+     * behavior. When enabled, each host has an allowed request rate, 
+     * starting from the rate implied by the usual delay calculation. 
+     * Each fetch answered without distress raises the rate by 
+     * adaptiveRateIncrease; each server error (5xx or 429), connection 
+     * failure, timeout, or fetch much slower than the host's smoothed 
+     * latency multiplies it by adaptiveBackoffFactor. The delay is then 
+     * the interval implied by that rate, between adaptiveMinDelayMs and 
+     * maxDelayMs. Robots crawl-delay and bandwidth limits still apply. 
+     */
+    {
+        setAdaptivePoliteness(false);
+    }
+    public boolean getAdaptivePoliteness() {
+        return (Boolean) kp.get("adaptivePoliteness");
+    }
+    public void setAdaptivePoliteness(boolean adaptive) {
+        kp.put("adaptivePoliteness",adaptive);
+    }
+
+    /** 
+     * with adaptive politeness, never wait less than this long, however
+     * well a host responds 
+     */
+    {
+        setAdaptiveMinDelayMs(500);
+    }
+    public int getAdaptiveMinDelayMs() {
+        return (Integer) kp.get("adaptiveMinDelayMs");
+    }
+    public void setAdaptiveMinDelayMs(int minDelay) {
+        kp.put("adaptiveMinDelayMs",minDelay);
+    }
+
+    /** 
+     * with adaptive politeness, requests-per-second added to a host's 
+     * allowed rate after each healthy fetch 
+     */
+    {
+        setAdaptiveRateIncrease(0.05f);
+    }
+    public float getAdaptiveRateIncrease() {
+        return (Float) kp.get("adaptiveRateIncrease");
+    }
+    public void setAdaptiveRateIncrease(float increase) {
+        kp.put("adaptiveRateIncrease",increase);
+    }
+
+    /** 
+     * with adaptive politeness, multiplier applied to a host's allowed 
+     * rate after a fetch showing distress
+     */
+    {
+        setAdaptiveBackoffFactor(0.5f);
+    }
+    public float getAdaptiveBackoffFactor() {
+        return (Float) kp.get("adaptiveBackoffFactor");
+    }
+    public void setAdaptiveBackoffFactor(float factor) {
+        kp.put("adaptiveBackoffFactor",factor);
+    }
+
+    /** 
+     * with adaptive politeness, a fetch taking this many multiples of the
+     * host's smoothed latency counts as distress
+     */
+    {
+        setAdaptiveLatencyGrowthFactor(2.0f);
+    }
+    public float getAdaptiveLatencyGrowthFactor() {
+        return (Float) kp.get("adaptiveLatencyGrowthFactor");
+    }
+    public void setAdaptiveLatencyGrowthFactor(float factor) {
+        kp.put("adaptiveLatencyGrowthFactor",factor);
+    }
+
+    /** 
+     * with adaptive politeness, weight (0 to 1) of each new fetch in a 
+     * host's smoothed latency and error rate 
+     */
+    {
+        setAdaptiveSmoothing(0.2f);
+    }
+    public float getAdaptiveSmoothing() {
+        return (Float) kp.get("adaptiveSmoothing");
+    }
+    public void setAdaptiveSmoothing(float alpha) {
+        kp.put("adaptiveSmoothing",alpha);
+    }
+    
     /**
      * Whether to set a CrawlURI's force-retired directive, retiring
      * its queue when it finishes. Mainly intended for URI-specific 
@@ -251,6 +343,10 @@ public class DispositionProcessor extends Processor {
                 durationToWait = maxDelay;
             }
             
+            if (getAdaptivePoliteness()) {
+                durationToWait = adaptiveDelayFor(curi, durationTaken, durationToWait);
+            }
+            
             long respectThreshold = getRespectCrawlDelayUpToSeconds() * 1000;
             if (durationToWait<respectThreshold) {
                 // may need to extend wait
@@ -291,7 +387,67 @@ public class DispositionProcessor extends Processor {
                     durationToWait = minDurationToWait;
                 }
             }
+        } else if (getAdaptivePoliteness() && isDistress(curi.getFetchStatus())) {
+            // no timing (as when no connection was made), but still
+            // reason to slow down
+            durationToWait = adaptiveDelayFor(curi, -1, getMinDelayMs());
         }
         return durationToWait;
     }
+
+    /**
+     * Whether the given fetch status suggests the server is overloaded
+     * or failing. 
+     */
+    protected boolean isDistress(int fetchStatus) {
+        return (fetchStatus >= 500 && fetchStatus < 600)
+            || fetchStatus == 429 // Too Many Requests
+            || fetchStatus == S_CONNECT_FAILED
+            || fetchStatus == S_CONNECT_LOST
+            || fetchStatus == S_TIMEOUT;
+    }
+
+    /**
+     * Tally this fetch into its host's smoothed statistics, and adjust 
+     * the host's allowed request rate: additive increase after healthy 
+     * fetches, multiplicative decrease after distress. 
+     * 
+     * @param curi CrawlURI just fetched
+     * @param durationTaken fetch duration, or -1 if unknown
+     * @param usualDelay delay as calculated without adaptation, used to 
+     * set a host's initial rate
+     * @return delay implied by host's adjusted rate
+     */
+    protected long adaptiveDelayFor(CrawlURI curi, long durationTaken, 
+            long usualDelay) {
+        CrawlHost host = serverCache.getHostFor(curi.getUURI());
+        if (host == null) {
+            return usualDelay;
+        }
+        boolean distress = isDistress(curi.getFetchStatus());
+        double minRate = 1000d / Math.max(1, getMaxDelayMs());
+        double maxRate = 1000d / Math.max(1, getAdaptiveMinDelayMs());
+        synchronized (host) {
+            double priorLatency = host.getLatencyEwmaMs();
+            if (durationTaken >= 0 && priorLatency > 0 && durationTaken 
+                    > getAdaptiveLatencyGrowthFactor() * priorLatency) {
+                // slowing sharply
+                distress = true;
+            }
+            host.tallyResponse(durationTaken, distress, getAdaptiveSmoothing());
+            double rate = host.getPolitenessRate();
+            if (rate <= 0) {
+                rate = 1000d / Math.max(1, Math.max(usualDelay, getMinDelayMs()));
+            }
+            if (distress) {
+                rate *= getAdaptiveBackoffFactor();
+            } else {
+                rate += getAdaptiveRateIncrease();
+            }
+            rate = Math.max(minRate, Math.min(maxRate, rate));
+            long delay = (long) (1000d / rate);
+            host.setPolitenessRate(rate, delay);
+            return delay;
+        }
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.postprocessor;
+
+import org.archive.crawler.frontier.precedence.OpicLinkGraph;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Disposition-chain processor which completes an OpicLinkGraph's 
+ * accounting for each fetched URI: recording its discovered outlinks 
+ * and settling its OPIC cash. Must follow the CandidatesProcessor, 
+ * whose scheduling of outlinks distributes that cash (through 
+ * OpicUriPrecedencePolicy). 
+ */
+public class LinkGraphProcessor extends Processor {
+
+    protected OpicLinkGraph linkGraph;
+    public OpicLinkGraph getLinkGraph() {
+        return linkGraph;
+    }
+    @Autowired
+    public void setLinkGraph(OpicLinkGraph linkGraph) {
+        this.linkGraph = linkGraph;
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return linkGraph.isRunning() && curi.getFetchStatus() > 0;
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) {
+        linkGraph.pageFinished(curi);
+    }
+}
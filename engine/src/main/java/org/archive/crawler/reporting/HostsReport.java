@@ -55,7 +55,7 @@ public class HostsReport extends Report {
     public void write(final PrintWriter writer, StatisticsTracker stats) {
         // TODO: only perform sorting on manageable number of hosts
         DisposableStoredSortedMap<Long,String> hd = stats.calcReverseSortedHostsDistribution();
-        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
+        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes] [latency-ms] [distress-rate] [politeness-delay-ms]\n"); 
         for (Map.Entry<Long,String> entry : hd.entrySet()) {
             // key is -count, value is hostname
             try {
@@ -71,7 +71,10 @@ public class HostsReport extends Report {
                         host.getSubstats().getDupByHashUrls(),
                         host.getSubstats().getDupByHashBytes(),
                         host.getSubstats().getNotModifiedUrls(),
-                        host.getSubstats().getNotModifiedBytes());
+                        host.getSubstats().getNotModifiedBytes(),
+                        Math.round(host.getLatencyEwmaMs()),
+                        String.format("%.3f", host.getErrorRateEwma()),
+                        host.getPolitenessDelayMs());
             } catch (Exception e) {
                 logger.log(Level.WARNING, "unable to tally host stats for " + entry.getValue(), e);
             }
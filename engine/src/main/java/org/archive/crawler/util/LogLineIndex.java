@@ -0,0 +1,262 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.util.LRU;
+
+/**
+ * Sparse in-memory index of a line-oriented log file, recording the byte
+ * offset of every Nth line. Allows reading from an arbitrary line number 
+ * by seeking near it and scanning at most N lines, rather than reading
+ * the file from its start.
+ *
+ * <p>The index is only extended as far as requested lines require, so 
+ * the first read at a given line costs one pass over the bytes before
+ * it, and later reads at or before that line only seek. It follows the
+ * live, still-being-appended log, and is rebuilt if the log is truncated
+ * or replaced by a new generation of the same name.
+ */
+public class LogLineIndex {
+    /** default number of lines between index entries */
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    /** leading bytes of log retained to recognize a replaced log */
+    protected static final int HEAD_LENGTH = 64;
+
+    protected static final int BUFFER_SIZE = 65536;
+
+    /** recently-used indexes, by log path */
+    protected static LRU<String,LogLineIndex> cache =
+        new LRU<String,LogLineIndex>(16);
+
+    protected File log;
+    protected int interval;
+
+    /** offset of line (i*interval)+1, for each entry i */
+    protected long[] offsets = new long[16];
+    protected int entryCount = 0;
+
+    /** number of complete lines indexed so far */
+    protected long lineCount = 0;
+    /** offset just past the last complete line indexed */
+    protected long indexedLength = 0;
+    /** log's last-modified time when last indexed */
+    protected long indexedModified = 0;
+    /** leading bytes of log when indexed */
+    protected byte[] head = null;
+
+    public LogLineIndex(File log, int interval) {
+        this.log = log;
+        this.interval = interval;
+    }
+
+    /**
+     * Get the index for the given log, reusing a recently-used index if
+     * available. 
+     *
+     * @param log log file
+     * @return LogLineIndex for log
+     */
+    public static LogLineIndex forLog(File log) {
+        String key = log.getAbsolutePath();
+        synchronized (cache) {
+            LogLineIndex index = cache.get(key);
+            if (index == null) {
+                index = new LogLineIndex(log, DEFAULT_INTERVAL);
+                cache.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    public File getLog() {
+        return log;
+    }
+
+    /**
+     * @return number of complete lines indexed so far
+     */
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Extend the index over all complete lines now in the log.
+     *
+     * @throws IOException
+     */
+    public void update() throws IOException {
+        update(Long.MAX_VALUE);
+    }
+
+    /**
+     * Extend the index over complete lines appended to the log since the
+     * last update, stopping once at least minLines lines are indexed. If 
+     * the log no longer matches what was indexed (as when truncated, or
+     * replaced by a new generation of the same name), the index is
+     * rebuilt from scratch.
+     *
+     * @param minLines number of lines which must be indexed, if present
+     * @throws IOException
+     */
+    public synchronized void update(long minLines) throws IOException {
+        long length = log.length();
+        if (isStale(length)) {
+            reset();
+        }
+        if (lineCount >= minLines || length == indexedLength) {
+            return;
+        }
+        indexedModified = log.lastModified();
+        FileInputStream in = new FileInputStream(log);
+        try {
+            in.getChannel().position(indexedLength);
+            byte[] buf = new byte[BUFFER_SIZE];
+            long pos = indexedLength;
+            int n;
+            while (lineCount < minLines && (n = in.read(buf)) != -1) {
+                if (pos == 0) {
+                    head = Arrays.copyOf(buf, Math.min(n, HEAD_LENGTH));
+                }
+                for (int i = 0; i < n && lineCount < minLines; i++) {
+                    if (buf[i] == '\n') {
+                        if (lineCount % interval == 0) {
+                            addEntry(indexedLength);
+                        }
+                        lineCount++;
+                        indexedLength = pos + i + 1;
+                    }
+                }
+                pos += n;
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Check whether the log, now of the given length, has been truncated
+     * or replaced since last indexed: it is shorter, or of the same 
+     * length but modified since, or no longer has a line end where the 
+     * last indexed line ended, or no longer begins with the same bytes.
+     *
+     * @param length current length of log
+     * @return true if the index must be rebuilt
+     * @throws IOException
+     */
+    protected boolean isStale(long length) throws IOException {
+        if (indexedLength == 0) {
+            return false;
+        }
+        if (length < indexedLength) {
+            return true;
+        }
+        if (length == indexedLength 
+                && log.lastModified() != indexedModified) {
+            return true;
+        }
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            raf.seek(indexedLength - 1);
+            if (raf.read() != '\n') {
+                return true;
+            }
+            raf.seek(0);
+            byte[] current = new byte[head.length];
+            raf.readFully(current);
+            if (!Arrays.equals(head, current)) {
+                return true;
+            }
+        } catch (EOFException e) {
+            return true;
+        } finally {
+            raf.close();
+        }
+        return false;
+    }
+
+    protected void reset() {
+        entryCount = 0;
+        lineCount = 0;
+        indexedLength = 0;
+        indexedModified = 0;
+        head = null;
+    }
+
+    protected void addEntry(long offset) {
+        if (entryCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entryCount * 2);
+        }
+        offsets[entryCount] = offset;
+        entryCount++;
+    }
+
+    /**
+     * Open a reader positioned at the given line, first extending the 
+     * index as far as that line if necessary.
+     *
+     * @param lineNumber line number, counting from 1
+     * @return BufferedReader whose next line is the requested line (or
+     * at end-of-file, if the log has fewer lines)
+     * @throws IOException
+     */
+    public BufferedReader readerAtLine(long lineNumber) throws IOException {
+        long offset;
+        long skipLines;
+        synchronized (this) {
+            if (lineNumber < 1) {
+                lineNumber = 1;
+            }
+            update(lineNumber);
+            int entry = (int) Math.min((lineNumber - 1) / interval,
+                    entryCount - 1);
+            offset = entry < 0 ? 0 : offsets[entry];
+            skipLines = (lineNumber - 1) - (long) Math.max(entry, 0) * interval;
+        }
+        BufferedReader reader = readerAtOffset(offset);
+        for (long i = 0; i < skipLines; i++) {
+            if (reader.readLine() == null) {
+                break;
+            }
+        }
+        return reader;
+    }
+
+    protected BufferedReader readerAtOffset(long offset) throws IOException {
+        FileInputStream in = new FileInputStream(log);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+        // platform default charset, as elsewhere in LogReader
+        return new BufferedReader(new InputStreamReader(in), 8192);
+    }
+}
@@ -32,6 +32,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import org.apache.commons.io.IOUtils;
 import org.archive.io.CompositeFileReader;
 import org.archive.util.ArchiveUtils;
 
@@ -108,8 +109,17 @@ public class LogReader
         File f = new File(aFileName);
         long logsize = f.length();
         try {
-            return get(new FileReader(aFileName),lineNumber,n,logsize);
-        } catch (FileNotFoundException e) {
+            if (lineNumber < 1) {
+                return get(new FileReader(aFileName),lineNumber,n,logsize);
+            }
+            BufferedReader reader = 
+                LogLineIndex.forLog(f).readerAtLine(lineNumber);
+            try {
+                return get(reader,1,n,logsize);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
@@ -180,12 +190,23 @@ public class LogReader
                                int lineNumber, 
                                int n, 
                                long logsize)
+    {
+        return get(new BufferedReader(reader, 8192), lineNumber, n, logsize);
+    }
+
+    /**
+     * Gets a portion of a log file, as with 
+     * {@link #get(InputStreamReader, int, int, long)}, from an already 
+     * buffered reader.
+     */
+    protected static String[] get(BufferedReader bf, 
+                                  int lineNumber, 
+                                  int n, 
+                                  long logsize)
     {
         StringBuffer ret = new StringBuffer();
         String info = null;
         try{
-            BufferedReader bf = new BufferedReader(reader, 8192);
-
             String line = null;
             int i=1;
             while ((line = bf.readLine()) != null) {
@@ -24,8 +24,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.AutoKryo;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SchedulingConstants;
 import org.archive.net.UURI;
@@ -82,6 +84,12 @@ public class CrawlURITest extends TmpDirTestCase {
             deserializedCuri = (CrawlURI)ois.readObject();
             assertEquals("Deserialized not equal to original",
                 this.seed.toString(), deserializedCuri.toString());
+            assertEquals("Deserialized via not equal to original",
+                this.seed.getVia().toString(), 
+                deserializedCuri.getVia().toString());
+            assertEquals("Deserialized path not equal to original",
+                this.seed.getPathFromSeed(), 
+                deserializedCuri.getPathFromSeed());
             String host = this.seed.getUURI().getHost();
             assertTrue("Deserialized host not null",
                 host != null && host.length() >= 0);
@@ -120,4 +128,36 @@ public class CrawlURITest extends TmpDirTestCase {
                 "100+LLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLX",
                 CrawlURI.extendHopsPath("99+LLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLL",'X'));
     }
+    
+    /**
+     * Test Kryo round-trip of the compactly-encoded pathFromSeed and via.
+     * 
+     * @throws URIException
+     */
+    public void testKryoSerialization() throws URIException {
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(CrawlURI.class);
+        String[] paths = { "", "LLXE", "5+LLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLLR",
+                "-", null };
+        String[] vias = { "http://www.dh.gov.uk/Home/fs/es", 
+                "http://www.dh.gov.uk/Home/fs/en/more", 
+                "https://example.com/", null };
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        for (String path : paths) {
+            for (String via : vias) {
+                CrawlURI curi = new CrawlURI(
+                        UURIFactory.getInstance("http://www.dh.gov.uk/Home/fs/en"),
+                        path, 
+                        (via == null) ? null : UURIFactory.getInstance(via), 
+                        null);
+                buffer.clear();
+                kryo.writeObject(buffer, curi);
+                buffer.flip();
+                CrawlURI read = kryo.readObject(buffer, CrawlURI.class);
+                assertEquals(curi.toString(), read.toString());
+                assertEquals(path, read.getPathFromSeed());
+                assertEquals(curi.flattenVia(), read.flattenVia());
+            }
+        }
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.extractor.ContentExtractor;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for ExtractionPool: which CrawlURIs are handed off, fallback to
+ * the ToeThread when saturated, and reuse of handed-off Recorders.
+ */
+public class ExtractionPoolTest extends TmpDirTestCase {
+
+    protected static class TestExtractor extends ContentExtractor {
+        protected boolean wants;
+        public TestExtractor(boolean wants) {
+            this.wants = wants;
+        }
+        protected boolean shouldExtract(CrawlURI uri) {
+            return wants;
+        }
+        protected boolean innerExtract(CrawlURI uri) {
+            return false;
+        }
+    }
+
+    protected static class TestProcessor extends Processor {
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+        protected void innerProcess(CrawlURI uri) {
+        }
+    }
+
+    /** pool whose tasks just wait for release, then note completion */
+    protected class TestPool extends ExtractionPool {
+        protected CountDownLatch release = new CountDownLatch(0);
+        protected List<CrawlURI> completed = 
+            Collections.synchronizedList(new ArrayList<CrawlURI>());
+
+        protected Recorder newRecorder(int n) {
+            return new Recorder(getTmpDir(), "ExtractionPoolTest" + n, 
+                    1024, 1024);
+        }
+
+        protected void complete(CrawlURI curi, int resumeIndex) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            completed.add(curi);
+        }
+    }
+
+    protected int uriCount = 0;
+
+    protected CrawlURI makeCrawlURI(final long contentLength) 
+    throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.example.com/" + (uriCount++))) {
+            private static final long serialVersionUID = 1L;
+            public long getContentLength() {
+                return contentLength;
+            }
+        };
+        curi.setRecorder(new Recorder(getTmpDir(), 
+                "ExtractionPoolTest-toe" + uriCount, 1024, 1024));
+        return curi;
+    }
+
+    public void testShouldHandOff() throws Exception {
+        TestPool pool = new TestPool();
+        pool.setMinContentLength(1000);
+        List<Processor> chain = Arrays.<Processor>asList(
+                new TestProcessor(), 
+                new TestExtractor(false), 
+                new TestExtractor(true));
+        List<Processor> unwanted = Arrays.<Processor>asList(
+                new TestProcessor(), 
+                new TestExtractor(false));
+        CrawlURI large = makeCrawlURI(5000);
+        CrawlURI small = makeCrawlURI(500);
+
+        // not running
+        assertFalse(pool.shouldHandOff(chain, 1, large));
+        pool.start();
+        try {
+            // only before a ContentExtractor
+            assertFalse(pool.shouldHandOff(chain, 0, large));
+            // some extractor from here on wants it
+            assertTrue(pool.shouldHandOff(chain, 1, large));
+            assertTrue(pool.shouldHandOff(chain, 2, large));
+            // no extractor wants it
+            assertFalse(pool.shouldHandOff(unwanted, 1, large));
+            // too small to be worth it
+            assertFalse(pool.shouldHandOff(chain, 1, small));
+        } finally {
+            pool.stop();
+        }
+    }
+
+    public void testSaturationAndRecorderReuse() throws Exception {
+        TestPool pool = new TestPool();
+        pool.setThreads(1);
+        pool.setMaxPending(1);
+        pool.release = new CountDownLatch(1);
+        pool.start();
+        try {
+            CrawlURI first = makeCrawlURI(5000);
+            CrawlURI second = makeCrawlURI(5000);
+            CrawlURI third = makeCrawlURI(5000);
+            Recorder firstRecorder = first.getRecorder();
+            Recorder secondRecorder = second.getRecorder();
+
+            // one running, one pending: room for both
+            Recorder r1 = pool.offload(first, 1);
+            Recorder r2 = pool.offload(second, 1);
+            assertNotNull(r1);
+            assertNotNull(r2);
+            assertNotSame(r1, r2);
+            // saturated: caller keeps the CrawlURI
+            assertNull(pool.offload(third, 1));
+            assertEquals(1, pool.declined.get());
+            assertEquals(2, pool.recordersCreated.get());
+            // handed-off CrawlURIs keep their own Recorders
+            assertSame(firstRecorder, first.getRecorder());
+
+            pool.release.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pool.inProgress.get() > 0 
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pool.inProgress.get());
+            assertEquals(2, pool.completed.size());
+
+            // completed URIs' Recorders are now the spares
+            Recorder r3 = pool.offload(third, 1);
+            assertTrue(r3 == firstRecorder || r3 == secondRecorder);
+            assertEquals(2, pool.recordersCreated.get());
+            assertEquals(3, pool.handedOff.get());
+        } finally {
+            pool.stop();
+        }
+    }
+}
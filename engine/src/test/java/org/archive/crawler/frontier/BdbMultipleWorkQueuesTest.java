@@ -18,23 +18,32 @@
  */
 package org.archive.crawler.frontier;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.KryoBinding;
+import org.archive.crawler.frontier.BdbMultipleWorkQueues.BufferedEntry;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SchedulingConstants;
 import org.archive.net.UURIFactory;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
 
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.tree.Key;
 
-import junit.framework.TestCase;
-
 /**
  * Unit tests for BdbMultipleWorkQueues functionality. 
  * 
  * @author gojomo
  */
-public class BdbMultipleWorkQueuesTest extends TestCase {
+public class BdbMultipleWorkQueuesTest extends TmpDirTestCase {
     private static Logger logger =
         Logger.getLogger(BdbMultipleWorkQueuesTest.class.getName());
 
@@ -100,4 +109,220 @@ public class BdbMultipleWorkQueuesTest extends TestCase {
                     .compareKeys(key5, key4, null) < 0);
         }
     }
+    
+    /**
+     * Check that head buffers are trimmed by deletes of the head, and 
+     * discarded by inserts sorting within the buffered range and by 
+     * out-of-order deletes.
+     * 
+     * @throws Exception
+     */
+    public void testHeadBufferInvalidation() throws Exception {
+        BdbMultipleWorkQueues queues = new BdbMultipleWorkQueues(null, null);
+        queues.setHeadBufferSize(10);
+        LinkedList<BufferedEntry> buffer = new LinkedList<BufferedEntry>();
+        for (int i = 0; i < 3; i++) {
+            buffer.add(makeEntry(makeCrawlURI("http://archive.org/" + i, i + 10)));
+        }
+        synchronized (queues.headBuffers) {
+            queues.installHeadBuffer("foo", buffer);
+        }
+        assertEquals(3, queues.bufferedUriCount);
+        
+        // later insert leaves buffer intact
+        CrawlURI later = makeCrawlURI("http://archive.org/later", 20);
+        queues.noteInserted("foo", 
+                BdbMultipleWorkQueues.calculateInsertKey(later).getData());
+        assertSame(buffer, queues.headBuffers.get("foo"));
+        
+        // deleting head trims buffer
+        queues.noteDeleted(itemFor(buffer.getFirst()));
+        assertEquals(2, queues.bufferedUriCount);
+        assertEquals(2, buffer.size());
+        
+        // earlier insert discards buffer
+        CrawlURI earlier = makeCrawlURI("http://archive.org/earlier", 11);
+        queues.noteInserted("foo", 
+                BdbMultipleWorkQueues.calculateInsertKey(earlier).getData());
+        assertNull(queues.headBuffers.get("foo"));
+        assertEquals(0, queues.bufferedUriCount);
+        
+        // deleting other than head discards buffer
+        synchronized (queues.headBuffers) {
+            queues.installHeadBuffer("foo", buffer);
+        }
+        queues.noteDeleted(itemFor(buffer.getLast()));
+        assertNull(queues.headBuffers.get("foo"));
+        assertEquals(0, queues.bufferedUriCount);
+        
+        // any insert discards a refill in progress
+        LinkedList<BufferedEntry> placeholder = new LinkedList<BufferedEntry>();
+        synchronized (queues.headBuffers) {
+            queues.headBuffers.put("foo", placeholder);
+        }
+        queues.noteInserted("foo", 
+                BdbMultipleWorkQueues.calculateInsertKey(later).getData());
+        assertNull(queues.headBuffers.get("foo"));
+    }
+    
+    /**
+     * Check that each get from a head buffer returns a fresh CrawlURI, 
+     * so that unsaved changes to one are not seen by the next.
+     * 
+     * @throws Exception
+     */
+    public void testHeadBufferFreshCopies() throws Exception {
+        BdbMultipleWorkQueues queues = new BdbMultipleWorkQueues(null, null);
+        queues.setHeadBufferSize(10);
+        LinkedList<BufferedEntry> buffer = new LinkedList<BufferedEntry>();
+        buffer.add(makeEntry(makeCrawlURI("http://archive.org/0", 10)));
+        synchronized (queues.headBuffers) {
+            queues.installHeadBuffer("foo", buffer);
+        }
+        DatabaseEntry headKey = new DatabaseEntry();
+        CrawlURI first = queues.getBuffered(headKey, "foo");
+        assertEquals("http://archive.org/0", first.toString());
+        assertTrue(Arrays.equals(buffer.getFirst().key, headKey.getData()));
+        first.setFetchStatus(-1);
+        CrawlURI second = queues.getBuffered(headKey, "foo");
+        assertNotSame(first, second);
+        assertEquals("http://archive.org/0", second.toString());
+        assertEquals(0, second.getFetchStatus());
+    }
+    
+    public void testHeadBufferBudget() throws Exception {
+        BdbMultipleWorkQueues queues = new BdbMultipleWorkQueues(null, null);
+        queues.setHeadBufferSize(10);
+        queues.setMaxBufferedUris(5);
+        LinkedList<BufferedEntry> first = new LinkedList<BufferedEntry>();
+        LinkedList<BufferedEntry> second = new LinkedList<BufferedEntry>();
+        for (int i = 0; i < 3; i++) {
+            first.add(makeEntry(makeCrawlURI("http://archive.org/" + i, i)));
+            second.add(makeEntry(makeCrawlURI("http://archive.org/" + i, i)));
+        }
+        synchronized (queues.headBuffers) {
+            queues.installHeadBuffer("foo", first);
+            queues.installHeadBuffer("bar", second);
+        }
+        // least-recently-used buffer discarded to respect budget
+        assertNull(queues.headBuffers.get("foo"));
+        assertSame(second, queues.headBuffers.get("bar"));
+        assertEquals(3, queues.bufferedUriCount);
+    }
+    
+    /**
+     * Check that keys from numeric-ID origins keep their queue's URIs 
+     * contiguous and ordered, and don't collide with classKey origins.
+     * 
+     * @throws Exception
+     */
+    public void testQueueIdKeys() throws Exception {
+        byte[] origin1 = BdbMultipleWorkQueues.calculateOriginKey(1);
+        byte[] origin256 = BdbMultipleWorkQueues.calculateOriginKey(256);
+        assertEquals(5, origin1.length);
+        assertEquals("#1", BdbWorkQueue.getPrefixClassKey(origin1));
+        assertEquals("#256", BdbWorkQueue.getPrefixClassKey(origin256));
+        
+        CrawlURI early = makeCrawlURI("http://archive.org/early", 1);
+        CrawlURI late = makeCrawlURI("http://archive.org/late", 2);
+        byte[] key1early = 
+            BdbMultipleWorkQueues.calculateInsertKey(origin1, early).getData();
+        byte[] key1late = 
+            BdbMultipleWorkQueues.calculateInsertKey(origin1, late).getData();
+        byte[] key256early = 
+            BdbMultipleWorkQueues.calculateInsertKey(origin256, early).getData();
+        assertEquals(13, key1early.length);
+        assertEquals("#1", BdbWorkQueue.getPrefixClassKey(key1early));
+        assertTrue(BdbMultipleWorkQueues.insertKeyToString(
+                new DatabaseEntry(key1early)).startsWith("#1 "));
+        assertEquals(
+                BdbMultipleWorkQueues.insertKeyToString(
+                        BdbMultipleWorkQueues.calculateInsertKey(early))
+                    .replace("foo ", "#1 "),
+                BdbMultipleWorkQueues.insertKeyToString(
+                        new DatabaseEntry(key1early)));
+        assertTrue(Key.compareKeys(origin1, key1early, null) < 0);
+        assertTrue(Key.compareKeys(key1early, key1late, null) < 0);
+        assertTrue(Key.compareKeys(key1late, origin256, null) < 0);
+        assertTrue(Key.compareKeys(origin256, key256early, null) < 0);
+        
+        // all classKey-origin keys sort before all ID-origin keys
+        byte[] classKeyKey = 
+            BdbMultipleWorkQueues.calculateInsertKey(early).getData();
+        assertTrue(Key.compareKeys(classKeyKey, origin1, null) < 0);
+    }
+    
+    /**
+     * Check that deleting a queue whole removes all its URIs, but not 
+     * those of a queue whose classKey it prefixes, and leaves it usable.
+     * 
+     * @throws Exception
+     */
+    public void testDeleteQueue() throws Exception {
+        File envDir = new File(getTmpDir(), "BdbMultipleWorkQueuesTest");
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        EnhancedEnvironment env = EnhancedEnvironment.getTestEnvironment(envDir);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        Database db = env.openDatabase(null, "pending", dbConfig);
+        try {
+            BdbMultipleWorkQueues queues = new BdbMultipleWorkQueues(db, null);
+            BdbFrontier frontier = new BdbFrontier();
+            frontier.pendingUris = queues;
+            BdbWorkQueue foo = new BdbWorkQueue("foo", frontier);
+            BdbWorkQueue fooz = new BdbWorkQueue("fooz", frontier);
+            for (int i = 0; i < 3; i++) {
+                foo.enqueue(frontier, 
+                        makeQueuedCrawlURI("http://foo/" + i, "foo", i));
+            }
+            fooz.enqueue(frontier, makeQueuedCrawlURI("http://fooz/", "fooz", 4));
+            
+            assertEquals(3, queues.deleteQueue(foo));
+            assertEquals("http://fooz/", queues.peek(fooz).toString());
+            
+            // queue-front cap kept: queue still usable
+            foo.enqueue(frontier, makeQueuedCrawlURI("http://foo/5", "foo", 5));
+            assertEquals("http://foo/5", queues.peek(foo).toString());
+        } finally {
+            db.close();
+            env.close();
+            FileUtils.deleteDirectory(envDir);
+        }
+    }
+    
+    protected CrawlURI makeQueuedCrawlURI(String uri, String classKey, 
+            long ordinal) throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setOrdinal(ordinal);
+        curi.setClassKey(classKey);
+        return curi;
+    }
+    
+    protected CrawlURI makeCrawlURI(String uri, long ordinal) 
+    throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setOrdinal(ordinal);
+        curi.setClassKey("foo");
+        curi.setHolderKey(BdbMultipleWorkQueues.calculateInsertKey(curi));
+        return curi;
+    }
+    
+    /** head buffer entry holding the given CrawlURI, as read from the db */
+    protected BufferedEntry makeEntry(CrawlURI curi) {
+        DatabaseEntry value = new DatabaseEntry();
+        new KryoBinding<CrawlURI>(CrawlURI.class).objectToEntry(curi, value);
+        return new BufferedEntry(
+                ((DatabaseEntry) curi.getHolderKey()).getData(), 
+                value.getData());
+    }
+    
+    /** CrawlURI standing for the given buffered entry, as if peeked */
+    protected CrawlURI itemFor(BufferedEntry entry) throws URIException {
+        CrawlURI curi = 
+            new CrawlURI(UURIFactory.getInstance("http://archive.org/item"));
+        curi.setClassKey("foo");
+        curi.setHolderKey(new DatabaseEntry(entry.key));
+        return curi;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.frontier.QueueStateIndex.QueueState;
+import org.archive.crawler.frontier.WorkQueueTest.ListWorkQueue;
+
+/**
+ * Tests for QueueStateIndex.
+ */
+public class QueueStateIndexTest extends TestCase {
+
+    protected WorkQueue queue(QueueStateIndex index, String classKey, 
+            long count) {
+        WorkQueue wq = new ListWorkQueue(classKey);
+        wq.count = count;
+        index.update(wq);
+        return wq;
+    }
+
+    protected List<String> keys(Iterable<QueueState> states) {
+        List<String> keys = new ArrayList<String>();
+        for (QueueState state : states) {
+            keys.add(state.getClassKey());
+        }
+        return keys;
+    }
+
+    public void testPrefixAndSize() {
+        QueueStateIndex index = new QueueStateIndex();
+        queue(index, "com,example,", 5);
+        WorkQueue www = queue(index, "com,example,www,", 2);
+        queue(index, "com,examples,", 7);
+        queue(index, "org,example,", 1);
+        assertEquals(4, index.size());
+
+        assertEquals("[com,example,, com,example,www,, com,examples,]",
+                keys(index.withPrefix("com,example")).toString());
+        assertEquals("[com,example,, com,example,www,]",
+                keys(index.withPrefix("com,example,")).toString());
+        assertEquals(4, keys(index.withPrefix("")).size());
+        assertEquals("[com,examples,, com,example,]",
+                keys(index.largest(2)).toString());
+
+        // resize
+        www.count = 10;
+        index.update(www);
+        assertEquals("[com,example,www,, com,examples,]",
+                keys(index.largest(2)).toString());
+        assertEquals("[com,example,www,, com,examples,, com,example,]",
+                keys(index.withCountAtLeast(5)).toString());
+        assertEquals(10, index.get("com,example,www,").getCount());
+
+        // emptied queues drop out
+        www.count = 0;
+        index.update(www);
+        assertNull(index.get("com,example,www,"));
+        assertEquals(3, index.size());
+        assertEquals("[com,examples,, com,example,, org,example,]",
+                keys(index.largest(10)).toString());
+    }
+}
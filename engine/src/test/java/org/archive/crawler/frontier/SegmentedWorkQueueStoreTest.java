@@ -0,0 +1,203 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.SchedulingConstants;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for SegmentedWorkQueueStore.
+ */
+public class SegmentedWorkQueueStoreTest extends TmpDirTestCase {
+
+    protected SegmentedWorkQueueStore store;
+    protected File storeDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        storeDir = new File(getTmpDir(), "SegmentedWorkQueueStoreTest");
+        FileUtils.deleteDirectory(storeDir);
+        store = newStore();
+        store.open(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        super.tearDown();
+    }
+
+    protected SegmentedWorkQueueStore newStore() {
+        SegmentedWorkQueueStore s = new SegmentedWorkQueueStore(storeDir);
+        s.setChunkSize(1024);
+        s.setSegmentSize(16 * 1024);
+        s.setCompactionIntervalSeconds(0);
+        return s;
+    }
+
+    protected CrawlURI makeCrawlURI(String classKey, int i) throws IOException {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://" + classKey + "/" + i));
+        curi.setClassKey(classKey);
+        curi.setOrdinal(i);
+        return curi;
+    }
+
+    protected CrawlURI take(String classKey) throws IOException {
+        CrawlURI curi = store.peek(classKey);
+        store.delete(curi);
+        return curi;
+    }
+
+    public void testPrecedenceOrder() throws IOException {
+        CrawlURI normal = makeCrawlURI("foo", 1);
+        CrawlURI lowPrecedence = makeCrawlURI("foo", 2);
+        lowPrecedence.setPrecedence(5);
+        CrawlURI high = makeCrawlURI("foo", 3);
+        high.setSchedulingDirective(SchedulingConstants.HIGH);
+        CrawlURI highPrecedence = makeCrawlURI("foo", 4);
+        highPrecedence.setPrecedence(0);
+        store.put(normal, false);
+        store.put(lowPrecedence, false);
+        store.put(high, false);
+        store.put(highPrecedence, false);
+        assertEquals(high.toString(), take("foo").toString());
+        assertEquals(highPrecedence.toString(), take("foo").toString());
+        assertEquals(normal.toString(), take("foo").toString());
+        assertEquals(lowPrecedence.toString(), take("foo").toString());
+        assertNull(store.peek("foo"));
+    }
+
+    public void testManyChunksAndSegments() throws IOException {
+        for (int i = 0; i < 2000; i++) {
+            store.put(makeCrawlURI("foo", i), false);
+            store.put(makeCrawlURI("bar", i), false);
+        }
+        assertTrue(SegmentedWorkQueueStore.listSegmentFiles(storeDir).length > 2);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("http://foo/" + i, take("foo").toString());
+            assertEquals("http://bar/" + i, take("bar").toString());
+        }
+        assertNull(store.peek("foo"));
+        // only current segment should remain
+        assertEquals(1, SegmentedWorkQueueStore.listSegmentFiles(storeDir).length);
+    }
+
+    public void testOverwriteHead() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            store.put(makeCrawlURI("foo", i), false);
+        }
+        store.flushAll();
+        CrawlURI head = store.peek("foo");
+        head.setFetchStatus(-1);
+        store.put(head, true);
+        CrawlURI reread = store.peek("foo");
+        assertEquals(head.toString(), reread.toString());
+        assertEquals(-1, reread.getFetchStatus());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("http://foo/" + i, take("foo").toString());
+        }
+        assertNull(store.peek("foo"));
+    }
+
+    public void testDeleteChecksHead() throws IOException {
+        store.put(makeCrawlURI("foo", 0), false);
+        store.put(makeCrawlURI("foo", 1), false);
+        CrawlURI head = store.peek("foo");
+        CrawlURI other = makeCrawlURI("foo", 1);
+        other.setHolderKey(head.getHolderKey());
+        // not the head: refused, leaving both
+        store.delete(other);
+        assertEquals("http://foo/0", take("foo").toString());
+        assertEquals("http://foo/1", take("foo").toString());
+        assertNull(store.peek("foo"));
+    }
+
+    public void testDeleteMatching() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            store.put(makeCrawlURI("foo", i), false);
+        }
+        assertEquals(50, store.deleteMatchingFromQueue(".*/\\d*5", "foo"));
+        for (int i = 0; i < 500; i++) {
+            if (i % 10 != 5) {
+                assertEquals("http://foo/" + i, take("foo").toString());
+            }
+        }
+        assertNull(store.peek("foo"));
+    }
+
+    public void testCompaction() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            store.put(makeCrawlURI("fast", i), false);
+            if (i % 100 == 0) {
+                store.put(makeCrawlURI("slow", i), false);
+                // write slow queue's URIs into chunks among fast queue's
+                store.flushAll();
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            take("fast");
+        }
+        int before = SegmentedWorkQueueStore.listSegmentFiles(storeDir).length;
+        for (int i = 0; i < 100 && store.compact(); i++) {
+            // repeat until no segment is below threshold
+        }
+        assertTrue(SegmentedWorkQueueStore.listSegmentFiles(storeDir).length < before);
+        for (int i = 0; i < 1000; i += 100) {
+            assertEquals("http://slow/" + i, take("slow").toString());
+        }
+    }
+
+    public void testCheckpointRecovery() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            store.put(makeCrawlURI("foo", i), false);
+        }
+        for (int i = 0; i < 100; i++) {
+            take("foo");
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        File cpDir = new File(getTmpDir(), "SegmentedWorkQueueStoreTest-cp");
+        FileUtils.deleteDirectory(cpDir);
+        checkpoint.setCheckpointDir(
+                new ConfigPath("checkpoint", cpDir.getAbsolutePath()));
+        store.doCheckpoint(checkpoint);
+        // changes after checkpoint should not affect recovery
+        for (int i = 100; i < 300; i++) {
+            take("foo");
+        }
+        store.close();
+
+        store = newStore();
+        store.open(checkpoint);
+        for (int i = 100; i < 500; i++) {
+            assertEquals("http://foo/" + i, take("foo").toString());
+        }
+        assertNull(store.peek("foo"));
+    }
+}
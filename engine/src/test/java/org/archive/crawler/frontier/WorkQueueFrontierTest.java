@@ -0,0 +1,256 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.frontier.WorkQueueTest.ListWorkQueue;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.util.ObjectIdentityMemCache;
+import org.archive.util.Supplier;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the early preparation of new queues' hosts and servers, and 
+ * for bulk operations on queues by classKey prefix, over in-memory queues.
+ */
+public class WorkQueueFrontierTest extends TestCase {
+
+    protected List<String> scheduled = new ArrayList<String>();
+    protected Queue<String> retired = new LinkedList<String>();
+    protected BdbFrontier frontier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        frontier = new BdbFrontier() {
+            @Override
+            public void schedule(CrawlURI curi) {
+                scheduled.add(curi.toString());
+            }
+            @Override
+            protected WorkQueue getQueueFor(final String classKey) {
+                return allQueues.getOrUse(classKey, 
+                        new Supplier<WorkQueue>() {
+                            public WorkQueue get() {
+                                return new ListWorkQueue(classKey);
+                            }});
+            }
+            @Override
+            protected Queue<String> getRetiredQueues() {
+                return retired;
+            }
+        };
+        frontier.setServerCache(new DefaultServerCache());
+        frontier.allQueues = new ObjectIdentityMemCache<WorkQueue>();
+    }
+
+    protected CrawlURI makeCrawlURI(String uri) throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(uri));
+    }
+
+    public void testPrepareQueue() throws Exception {
+        frontier.prepareQueue(makeCrawlURI("http://example.com/a"));
+        assertEquals(2, scheduled.size());
+        assertEquals("dns:example.com", scheduled.get(0));
+        assertEquals("http://example.com/robots.txt", scheduled.get(1));
+
+        // host lookup already underway; other server still gets robots
+        scheduled.clear();
+        frontier.prepareQueue(makeCrawlURI("https://example.com/b"));
+        assertEquals(1, scheduled.size());
+        assertEquals("https://example.com/robots.txt", scheduled.get(0));
+
+        // nothing left to prepare
+        scheduled.clear();
+        frontier.prepareQueue(makeCrawlURI("http://example.com/c"));
+        assertEquals(0, scheduled.size());
+
+        assertEquals(3, frontier.preparingHosts.size());
+    }
+
+    public void testPreparingBudgetExpiry() throws Exception {
+        frontier.setMaxPreparingHosts(2);
+        frontier.prepareQueue(makeCrawlURI("http://example.com/a"));
+        assertEquals(2, scheduled.size());
+
+        // over budget: nothing scheduled
+        scheduled.clear();
+        frontier.prepareQueue(makeCrawlURI("http://example.org/a"));
+        assertEquals(0, scheduled.size());
+
+        // unfinished entries expire, freeing budget
+        frontier.setPreparingHostsTimeoutSeconds(0);
+        frontier.prepareQueue(makeCrawlURI("http://example.org/a"));
+        assertEquals(2, scheduled.size());
+        assertEquals("dns:example.org", scheduled.get(0));
+        assertEquals("http://example.org/robots.txt", scheduled.get(1));
+    }
+
+    public void testEarliestSnoozed() {
+        List<DelayedWorkQueue> snoozed = new ArrayList<DelayedWorkQueue>();
+        long[] wakeTimes = {50, 10, 40, 30, 20, 60};
+        for (int i = 0; i < wakeTimes.length; i++) {
+            WorkQueue wq = new ListWorkQueue("q" + wakeTimes[i]);
+            wq.setWakeTime(wakeTimes[i]);
+            snoozed.add(new DelayedWorkQueue(wq));
+        }
+        List<DelayedWorkQueue> earliest = 
+            WorkQueueFrontier.earliestOf(snoozed, 3);
+        assertEquals(3, earliest.size());
+        assertEquals("q10", earliest.get(0).getClassKey());
+        assertEquals("q20", earliest.get(1).getClassKey());
+        assertEquals("q30", earliest.get(2).getClassKey());
+        assertEquals(6, WorkQueueFrontier.earliestOf(snoozed, 10).size());
+        assertEquals(0, WorkQueueFrontier.earliestOf(snoozed, 0).size());
+    }
+
+    /** queue of n URIs, noted as the frontier would on scheduling */
+    protected WorkQueue fill(String classKey, int n) throws URIException {
+        WorkQueue wq = frontier.getQueueFor(classKey);
+        for (int i = 0; i < n; i++) {
+            CrawlURI curi = makeCrawlURI("http://example.com/" + classKey + i);
+            curi.setClassKey(classKey);
+            wq.enqueue(frontier, curi);
+            frontier.incrementQueuedUriCount();
+        }
+        frontier.largestQueues.update(classKey, wq.getCount());
+        frontier.noteQueueState(wq);
+        return wq;
+    }
+
+    /** check out a URI of the given queue, as if emitted */
+    protected CrawlURI emit(WorkQueue wq) {
+        CrawlURI curi = wq.peek(frontier);
+        wq.checkOut(frontier, curi, System.currentTimeMillis());
+        frontier.inProcessQueues.add(wq);
+        frontier.noteQueueState(wq);
+        return curi;
+    }
+
+    public void testDeleteQueues() throws Exception {
+        checkDeleteQueues();
+        setUp();
+        frontier.setIndexQueueStates(true);
+        checkDeleteQueues();
+    }
+
+    protected void checkDeleteQueues() throws Exception {
+        WorkQueue idle = fill("com,example,a,", 3);
+        WorkQueue snoozed = fill("com,example,b,", 2);
+        snoozed.setWakeTime(System.currentTimeMillis() + 60000);
+        WorkQueue inProcess = fill("com,example,c,", 2);
+        emit(inProcess);
+        WorkQueue retiredQueue = fill("com,example,d,", 2);
+        frontier.retireQueue(retiredQueue);
+        WorkQueue other = fill("org,example,", 1);
+        assertEquals(8, frontier.queuedUriCount());
+
+        // in-process queue skipped; retired queue's URIs already uncounted
+        assertEquals(5, frontier.deleteQueues("com,example,"));
+        assertEquals(3, frontier.queuedUriCount());
+        assertEquals(0, idle.getCount());
+        assertEquals(0, snoozed.getCount());
+        assertEquals(2, inProcess.getCount());
+        assertEquals(0, retiredQueue.getCount());
+        assertEquals(1, other.getCount());
+        assertEquals(Long.valueOf(0), 
+                frontier.largestQueues.getTopSet().get("com,example,a,"));
+        if (frontier.getIndexQueueStates()) {
+            assertNull(frontier.getQueueStates().get("com,example,a,"));
+            assertNotNull(frontier.getQueueStates().get("com,example,c,"));
+        }
+    }
+
+    public void testRetireQueues() throws Exception {
+        checkRetireQueues();
+        setUp();
+        frontier.setIndexQueueStates(true);
+        checkRetireQueues();
+    }
+
+    protected void checkRetireQueues() throws Exception {
+        retired.clear();
+        WorkQueue idle = fill("com,example,a,", 3);
+        WorkQueue snoozed = fill("com,example,b,", 2);
+        snoozed.setWakeTime(System.currentTimeMillis() + 60000);
+        WorkQueue inProcess = fill("com,example,c,", 2);
+        CrawlURI emitted = emit(inProcess);
+        WorkQueue retiredQueue = fill("com,example,d,", 2);
+        frontier.retireQueue(retiredQueue);
+        WorkQueue other = fill("org,example,", 1);
+
+        // already-retired queue not counted again
+        assertEquals(3, frontier.retireQueues("com,example,"));
+        assertTrue(idle.isRetired());
+        assertTrue(snoozed.isRetired());
+        assertFalse(inProcess.isRetired());
+        assertTrue(inProcess.isRetirePending());
+        assertFalse(other.isRetired());
+        assertEquals(3, retired.size());
+        assertTrue(retired.contains("com,example,a,"));
+        assertTrue(retired.contains("com,example,b,"));
+        // retired queues keep their URIs, uncounted
+        assertEquals(3, idle.getCount());
+        assertEquals(3, frontier.queuedUriCount());
+
+        // in-process queue retired when its URI finishes
+        inProcess.checkIn(frontier, emitted, true);
+        frontier.handleQueue(inProcess, false, System.currentTimeMillis(), 0);
+        assertTrue(inProcess.isRetired());
+        assertFalse(inProcess.isRetirePending());
+        assertFalse(frontier.inProcessQueues.contains(inProcess));
+        assertTrue(retired.contains("com,example,c,"));
+    }
+
+    public void testGroupByClassKey() throws Exception {
+        String[][] seeds = {
+            {"http://a.example.com/1", "com,example,a,"},
+            {"http://b.example.com/1", "com,example,b,"},
+            {"http://a.example.com/2", "com,example,a,"},
+            {"http://c.example.com/1", "com,example,c,"},
+            {"http://b.example.com/2", "com,example,b,"},
+        };
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (String[] seed : seeds) {
+            CrawlURI curi = makeCrawlURI(seed[0]);
+            curi.setClassKey(seed[1]);
+            curis.add(curi);
+        }
+        Map<String,List<CrawlURI>> groups = 
+            WorkQueueFrontier.groupByClassKey(curis);
+        // queues in order of first appearance, seeds in order within each
+        assertEquals("[com,example,a,, com,example,b,, com,example,c,]", 
+                groups.keySet().toString());
+        assertEquals("[http://a.example.com/1, http://a.example.com/2]", 
+                groups.get("com,example,a,").toString());
+        assertEquals("[http://b.example.com/1, http://b.example.com/2]", 
+                groups.get("com,example,b,").toString());
+        assertEquals(1, groups.get("com,example,c,").size());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for WorkQueue's parallel in-process accounting.
+ */
+public class WorkQueueTest extends TestCase {
+
+    /**
+     * Minimal in-memory WorkQueue.
+     */
+    protected static class ListWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+        protected LinkedList<CrawlURI> items = new LinkedList<CrawlURI>();
+
+        public ListWorkQueue(String classKey) {
+            super(classKey);
+        }
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean overwriteIfPresent) throws IOException {
+            if (!overwriteIfPresent || !items.contains(curi)) {
+                items.add(curi);
+            }
+        }
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) throws IOException {
+            return 0;
+        }
+        protected long deleteAllFromQueue(WorkQueueFrontier frontier)
+                throws IOException {
+            long deleted = items.size();
+            items.clear();
+            return deleted;
+        }
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item)
+                throws IOException {
+            items.remove(item);
+        }
+        protected CrawlURI peekItem(WorkQueueFrontier frontier)
+                throws IOException {
+            return items.peek();
+        }
+    }
+
+    protected ListWorkQueue fill(int n) throws IOException {
+        ListWorkQueue wq = new ListWorkQueue("example.com");
+        for (int i = 0; i < n; i++) {
+            wq.enqueue(null, new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/" + i)));
+        }
+        return wq;
+    }
+
+    public void testCheckOutAndIn() throws IOException {
+        ListWorkQueue wq = fill(5);
+        wq.setParallelism(3);
+        CrawlURI[] out = new CrawlURI[3];
+        for (int i = 0; i < 3; i++) {
+            out[i] = wq.peek(null);
+            assertEquals("http://example.com/" + i, out[i].toString());
+            wq.checkOut(null, out[i], 0);
+            assertTrue(wq.isCheckedOut(out[i]));
+        }
+        assertEquals(3, wq.getInProcessCount());
+        assertEquals(5, wq.getCount());
+        assertEquals(2, wq.getAvailableCount());
+        assertFalse(wq.hasFreeSlot());
+        assertFalse(wq.tryReserve());
+
+        // finished: consumed
+        assertEquals(2, wq.checkIn(null, out[0], true));
+        assertEquals(4, wq.getCount());
+        assertTrue(wq.hasFreeSlot());
+        assertTrue(wq.tryReserve());
+        // only one reservation at a time
+        assertFalse(wq.tryReserve());
+        wq.releaseReservation();
+
+        // retried: put back
+        assertEquals(1, wq.checkIn(null, out[1], false));
+        assertEquals(4, wq.getCount());
+        assertEquals(3, wq.getAvailableCount());
+        assertFalse(wq.isCheckedOut(out[1]));
+    }
+
+    public void testTokens() throws IOException {
+        long now = System.currentTimeMillis();
+        ListWorkQueue wq = fill(5);
+        wq.setParallelism(2);
+        assertEquals(0, wq.getTokenWaitMs(now));
+        wq.checkOut(null, wq.peek(null), now);
+        wq.checkOut(null, wq.peek(null), now);
+        // each slot should wait 4s, so one token every 2s
+        wq.noteSlotDelay(now, 4000);
+        assertEquals(2000, wq.getTokenWaitMs(now));
+        assertEquals(1000, wq.getTokenWaitMs(now + 1000));
+        assertEquals(0, wq.getTokenWaitMs(now + 2000));
+        // never more than parallelism tokens
+        now += 100000;
+        assertEquals(0, wq.getTokenWaitMs(now));
+        wq.checkOut(null, wq.peek(null), now);
+        wq.checkOut(null, wq.peek(null), now);
+        assertEquals(2000, wq.getTokenWaitMs(now));
+    }
+
+    public void testHoldTokens() throws IOException {
+        long now = System.currentTimeMillis();
+        ListWorkQueue wq = fill(5);
+        wq.setParallelism(2);
+        wq.noteSlotDelay(now, 4000);
+        assertEquals(0, wq.getTokenWaitMs(now));
+        // retry delay: nothing until it passes, then one token
+        wq.holdTokens(now, now + 30000);
+        assertEquals(30000, wq.getTokenWaitMs(now));
+        assertEquals(20000, wq.getTokenWaitMs(now + 10000));
+        assertEquals(0, wq.getTokenWaitMs(now + 30000));
+        wq.checkOut(null, wq.peek(null), now + 30000);
+        // then refilling at the usual rate
+        assertEquals(2000, wq.getTokenWaitMs(now + 30000));
+    }
+}
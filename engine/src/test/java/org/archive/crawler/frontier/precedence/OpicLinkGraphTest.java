@@ -0,0 +1,167 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier.precedence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for OpicLinkGraph.
+ */
+public class OpicLinkGraphTest extends TmpDirTestCase {
+
+    protected OpicLinkGraph graph;
+    protected File graphDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        graphDir = new File(getTmpDir(), "OpicLinkGraphTest");
+        FileUtils.deleteDirectory(graphDir);
+        graph = newGraph();
+        graph.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        graph.stop();
+        super.tearDown();
+    }
+
+    protected OpicLinkGraph newGraph() {
+        OpicLinkGraph g = new OpicLinkGraph();
+        g.setDir(new ConfigPath("test", graphDir.getAbsolutePath()));
+        g.setCapacity(1024);
+        g.setSegmentSize(1024);
+        return g;
+    }
+
+    protected CrawlURI fetchWithLinks(CrawlURI source, int links) 
+    throws IOException {
+        for (int i = 0; i < links; i++) {
+            CrawlURI candidate = new CrawlURI(UURIFactory.getInstance(
+                    source.getURI() + "link" + i + "/"));
+            candidate.setFullVia(source);
+            source.getOutCandidates().add(candidate);
+        }
+        for (CrawlURI candidate : source.getOutCandidates()) {
+            graph.uriScheduled(candidate);
+        }
+        graph.pageFinished(source);
+        return source;
+    }
+
+    public void testCashDistribution() throws IOException {
+        CrawlURI seed = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/"));
+        seed.setSeed(true);
+        graph.uriScheduled(seed);
+        assertEquals(1.0f, graph.getCash(seed));
+
+        fetchWithLinks(seed, 4);
+        assertEquals(0f, graph.getCash(seed));
+        for (CrawlURI link : seed.getOutCandidates()) {
+            assertEquals(0.25f, graph.getCash(link));
+        }
+        assertNull(seed.getData().get(OpicLinkGraph.A_OPIC_SHARE));
+        assertEquals(5, graph.getTrackedCount());
+
+        // a page linked from two others receives both shares
+        CrawlURI first = seed.getOutCandidates().iterator().next();
+        fetchWithLinks(first, 1);
+        CrawlURI target = first.getOutCandidates().iterator().next();
+        assertEquals(0.25f, graph.getCash(target));
+        CrawlURI second = new CrawlURI(
+                UURIFactory.getInstance("http://example.org/"));
+        second.setSeed(true);
+        graph.uriScheduled(second);
+        target.setFullVia(second);
+        second.getOutCandidates().add(target);
+        graph.uriScheduled(target);
+        graph.pageFinished(second);
+        assertEquals(1.25f, graph.getCash(target));
+    }
+
+    public void testBoostFor() {
+        assertEquals(8, OpicUriPrecedencePolicy.boostFor(0, 8));
+        assertEquals(8, OpicUriPrecedencePolicy.boostFor(0.5, 8));
+        assertEquals(7, OpicUriPrecedencePolicy.boostFor(1, 8));
+        assertEquals(6, OpicUriPrecedencePolicy.boostFor(3, 8));
+        assertEquals(0, OpicUriPrecedencePolicy.boostFor(1e6, 8));
+    }
+
+    public void testAdjacencySegmentsAndRecovery() throws IOException {
+        final long[] links = new long[20];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = i * 31L;
+        }
+        // 100 records of 172 bytes span many 1KiB segments
+        for (int i = 0; i < 100; i++) {
+            graph.appendAdjacency(i, links, links.length);
+        }
+        assertTrue(OpicLinkGraph.listSegmentFiles(graphDir).length > 10);
+        assertEquals(100, countVisited(graph));
+
+        CrawlURI seed = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/"));
+        seed.setSeed(true);
+        graph.uriScheduled(seed);
+
+        Checkpoint checkpoint = new Checkpoint();
+        File cpDir = new File(getTmpDir(), "OpicLinkGraphTest-cp");
+        FileUtils.deleteDirectory(cpDir);
+        checkpoint.setCheckpointDir(
+                new ConfigPath("checkpoint", cpDir.getAbsolutePath()));
+        graph.doCheckpoint(checkpoint);
+        // changes after checkpoint should not affect recovery
+        graph.appendAdjacency(100, links, links.length);
+        graph.stop();
+
+        graph = newGraph();
+        graph.setRecoveryCheckpoint(checkpoint);
+        graph.start();
+        assertEquals(100, countVisited(graph));
+        assertEquals(1.0f, graph.getCash(seed));
+        graph.appendAdjacency(100, links, links.length);
+        assertEquals(101, countVisited(graph));
+    }
+
+    protected int countVisited(OpicLinkGraph g) throws IOException {
+        final List<Long> sources = new ArrayList<Long>();
+        g.visitAdjacencies(new OpicLinkGraph.AdjacencyVisitor() {
+            public void visit(long source, long[] links, int count) {
+                assertEquals(20, count);
+                assertEquals(19 * 31L, links[19]);
+                assertEquals(sources.size(), source);
+                sources.add(source);
+            }
+        });
+        return sources.size();
+    }
+}
@@ -19,6 +19,8 @@
 
 package org.archive.crawler.frontier.precedence;
 
+import org.archive.crawler.frontier.precedence.SuccessCountsQueuePrecedencePolicy.SuccessCountsPrecedenceProvider;
+import org.archive.modules.fetcher.FetchStats.Stage;
 import org.archive.state.ModuleTestBase;
 
 
@@ -27,5 +29,43 @@ import org.archive.state.ModuleTestBase;
  */
 public class SuccessCountsQueuePrecedencePolicyTest extends ModuleTestBase {
 
+    /**
+     * Original, recalculate-every-time precedence computation. 
+     */
+    protected int recalculated(int base, int[] increments, long successes) {
+        int precedence = base - 1;
+        int i = 0; 
+        int increment = increments[i]; 
+        while(successes>=0) {
+            successes -= increment;
+            precedence++;
+            i = Math.min(i + 1, increments.length - 1);
+            increment = increments[i]; 
+        }
+        return precedence;
+    }
+
+    public void testIncrementalMatchesRecalculation() {
+        SuccessCountsQueuePrecedencePolicy policy = 
+            new SuccessCountsQueuePrecedencePolicy();
+        policy.setIncrementCounts("3, 5,2");
+        long[] parsed = policy.getParsedIncrements();
+        assertSame(parsed, policy.getParsedIncrements()); 
+        
+        SuccessCountsPrecedenceProvider fromZero = 
+            new SuccessCountsPrecedenceProvider(2, "3, 5,2", parsed, 0);
+        for (int successes = 0; successes < 40; successes++) {
+            int expected = recalculated(2, new int[] {3,5,2}, successes);
+            assertEquals(expected, SuccessCountsQueuePrecedencePolicy
+                    .precedenceFor(2, parsed, successes));
+            assertEquals(expected, fromZero.getPrecedence());
+            assertEquals(expected, new SuccessCountsPrecedenceProvider(
+                    2, "3, 5,2", parsed, successes).getPrecedence());
+            fromZero.tally(null, Stage.SUCCEEDED);
+        }
+        assertTrue(fromZero.isConfiguredAs(2, "3, 5,2"));
+        assertFalse(fromZero.isConfiguredAs(3, "3, 5,2"));
+        assertFalse(fromZero.isConfiguredAs(2, "100,1000"));
+    }
 }
 
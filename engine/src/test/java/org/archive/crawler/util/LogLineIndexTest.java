@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Test LogLineIndex.
+ */
+public class LogLineIndexTest extends TmpDirTestCase {
+
+    protected File writeLog(String name, int firstLine, int lines,
+            boolean append) throws IOException {
+        File log = new File(getTmpDir(), name);
+        FileWriter fw = new FileWriter(log, append);
+        for (int i = firstLine; i < firstLine + lines; i++) {
+            fw.write(String.format("2011-01-01T00:%05dZ line %d\n", i, i));
+        }
+        fw.close();
+        return log;
+    }
+
+    public void testReaderAtLine() throws IOException {
+        File log = writeLog("LogLineIndexTest.log", 1, 2500, false);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        index.update();
+        assertEquals(2500, index.getLineCount());
+        BufferedReader reader = index.readerAtLine(1234);
+        assertEquals("2011-01-01T00:01234Z line 1234", reader.readLine());
+        reader.close();
+        reader = index.readerAtLine(1);
+        assertEquals("2011-01-01T00:00001Z line 1", reader.readLine());
+        reader.close();
+        reader = index.readerAtLine(3000);
+        assertNull(reader.readLine());
+        reader.close();
+    }
+
+    public void testIncrementalUpdate() throws IOException {
+        File log = writeLog("LogLineIndexTest-incr.log", 1, 150, false);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        index.update();
+        assertEquals(150, index.getLineCount());
+        writeLog("LogLineIndexTest-incr.log", 151, 200, true);
+        index.update();
+        assertEquals(350, index.getLineCount());
+        BufferedReader reader = index.readerAtLine(301);
+        assertEquals("2011-01-01T00:00301Z line 301", reader.readLine());
+        reader.close();
+    }
+
+    public void testReplacedLog() throws IOException {
+        File log = writeLog("LogLineIndexTest-repl.log", 1, 150, false);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        index.update();
+        assertEquals(150, index.getLineCount());
+        // new generation, longer than the old
+        writeLog("LogLineIndexTest-repl.log", 1000, 300, false);
+        index.update();
+        assertEquals(300, index.getLineCount());
+        BufferedReader reader = index.readerAtLine(1);
+        assertEquals("2011-01-01T00:01000Z line 1000", reader.readLine());
+        reader.close();
+        // truncated
+        writeLog("LogLineIndexTest-repl.log", 2000, 10, false);
+        index.update();
+        assertEquals(10, index.getLineCount());
+    }
+
+    public void testIndexesOnlyAsFarAsNeeded() throws IOException {
+        File log = writeLog("LogLineIndexTest-lazy.log", 1, 2500, false);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        BufferedReader reader = index.readerAtLine(250);
+        assertEquals("2011-01-01T00:00250Z line 250", reader.readLine());
+        reader.close();
+        assertEquals(250, index.getLineCount());
+        // earlier lines need no further indexing
+        reader = index.readerAtLine(42);
+        assertEquals("2011-01-01T00:00042Z line 42", reader.readLine());
+        reader.close();
+        assertEquals(250, index.getLineCount());
+        reader = index.readerAtLine(2001);
+        assertEquals("2011-01-01T00:02001Z line 2001", reader.readLine());
+        reader.close();
+        assertEquals(2001, index.getLineCount());
+    }
+
+    public void testLogReaderGet() throws IOException {
+        File log = writeLog("LogLineIndexTest-get.log", 1, 2500, false);
+        String[] result = LogReader.get(log.getPath(), 1500, 2);
+        assertEquals("2011-01-01T00:01500Z line 1500\n"
+                + "2011-01-01T00:01501Z line 1501\n", result[0]);
+    }
+}
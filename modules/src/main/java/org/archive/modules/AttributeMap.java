@@ -0,0 +1,379 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.archive.modules.recrawl.RecrawlAttributeConstants;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
+/**
+ * Map for CrawlURI attributes which keeps the values of well-known keys
+ * (those in {@link #SLOT_KEYS}) in a packed array of slots, rather than
+ * in per-entry objects, and falls back to an ordinary HashMap for any
+ * other keys. A CrawlURI carrying only well-known attributes thus costs
+ * one small array, rather than a hash table plus an entry per attribute.
+ *
+ * <p>The {@link KeyCodingSerializer} writes well-known keys, whether in
+ * an AttributeMap or in a plain HashMap (as with fetch-history entries),
+ * as one-byte codes rather than full strings.
+ */
+public class AttributeMap extends AbstractMap<String,Object>
+implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Keys given slots (and compact serialized codes). Position is
+     * part of the serialized form: only append, never reorder or remove.
+     * At most 64.
+     */
+    protected static final String[] SLOT_KEYS = {
+        CoreAttributeConstants.A_ANNOTATIONS,
+        CoreAttributeConstants.A_SOURCE_TAG,
+        CoreAttributeConstants.A_HERITABLE_KEYS,
+        CoreAttributeConstants.A_PREREQUISITE_URI,
+        CoreAttributeConstants.A_FETCH_BEGAN_TIME,
+        CoreAttributeConstants.A_FETCH_COMPLETED_TIME,
+        CoreAttributeConstants.A_HTML_BASE,
+        CoreAttributeConstants.A_DNS_SERVER_IP_LABEL,
+        CoreAttributeConstants.A_NONFATAL_ERRORS,
+        CoreAttributeConstants.A_PRECALC_PRECEDENCE,
+        CoreAttributeConstants.A_FORCE_RETIRE,
+        CoreAttributeConstants.A_CREDENTIALS_KEY,
+        CoreAttributeConstants.A_SUBMIT_DATA,
+        CoreAttributeConstants.A_HTTP_AUTH_CHALLENGES,
+        CoreAttributeConstants.A_WARC_RESPONSE_HEADERS,
+        CoreAttributeConstants.A_HTTP_RESPONSE_HEADERS,
+        RecrawlAttributeConstants.A_FETCH_HISTORY,
+        RecrawlAttributeConstants.A_CONTENT_DIGEST_HISTORY,
+        RecrawlAttributeConstants.A_REFERENCE_LENGTH,
+        RecrawlAttributeConstants.A_STATUS,
+        RecrawlAttributeConstants.A_CONTENT_DIGEST,
+        RecrawlAttributeConstants.A_ETAG_HEADER,
+        RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER,
+        RecrawlAttributeConstants.A_WRITE_TAG,
+        RecrawlAttributeConstants.A_ORIGINAL_URL,
+        RecrawlAttributeConstants.A_WARC_RECORD_ID,
+        RecrawlAttributeConstants.A_WARC_FILENAME,
+        RecrawlAttributeConstants.A_WARC_FILE_OFFSET,
+        RecrawlAttributeConstants.A_ORIGINAL_DATE,
+        RecrawlAttributeConstants.A_CONTENT_DIGEST_COUNT,
+    };
+
+    protected static final Map<String,Integer> SLOT_INDEX =
+        new HashMap<String,Integer>();
+    static {
+        for (int i = 0; i < SLOT_KEYS.length; i++) {
+            SLOT_INDEX.put(SLOT_KEYS[i], i);
+        }
+    }
+
+    protected static final Object[] NO_VALUES = new Object[0];
+
+    /** bit per occupied slot */
+    protected long present = 0;
+    /** values of occupied slots, in slot order */
+    protected Object[] values = NO_VALUES;
+    /** entries for keys without slots; null until needed */
+    protected HashMap<String,Object> others = null;
+
+    public AttributeMap() {
+    }
+
+    public AttributeMap(Map<String,Object> m) {
+        putAll(m);
+    }
+
+    /**
+     * @param key
+     * @return slot number of key, or -1 if key has none
+     */
+    protected static int slotOf(Object key) {
+        Integer slot = SLOT_INDEX.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /** @return position in values array of the given (occupied) slot */
+    protected int indexOf(int slot) {
+        return Long.bitCount(present & ((1L << slot) - 1));
+    }
+
+    protected boolean isPresent(int slot) {
+        return (present & (1L << slot)) != 0;
+    }
+
+    @Override
+    public int size() {
+        return Long.bitCount(present) + (others == null ? 0 : others.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return present == 0 && (others == null || others.isEmpty());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return isPresent(slot);
+        }
+        return others != null && others.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return isPresent(slot) ? values[indexOf(slot)] : null;
+        }
+        return others == null ? null : others.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            if (others == null) {
+                others = new HashMap<String,Object>();
+            }
+            return others.put(key, value);
+        }
+        int index = indexOf(slot);
+        if (isPresent(slot)) {
+            Object prior = values[index];
+            values[index] = value;
+            return prior;
+        }
+        Object[] newValues = new Object[values.length + 1];
+        System.arraycopy(values, 0, newValues, 0, index);
+        System.arraycopy(values, index, newValues, index + 1,
+                values.length - index);
+        newValues[index] = value;
+        values = newValues;
+        present |= 1L << slot;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return others == null ? null : others.remove(key);
+        }
+        if (!isPresent(slot)) {
+            return null;
+        }
+        int index = indexOf(slot);
+        Object prior = values[index];
+        if (values.length == 1) {
+            values = NO_VALUES;
+        } else {
+            Object[] newValues = new Object[values.length - 1];
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(values, index + 1, newValues, index,
+                    values.length - index - 1);
+            values = newValues;
+        }
+        present &= ~(1L << slot);
+        return prior;
+    }
+
+    @Override
+    public void clear() {
+        present = 0;
+        values = NO_VALUES;
+        others = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Object>>() {
+            @Override
+            public Iterator<Map.Entry<String,Object>> iterator() {
+                return new EntryIterator();
+            }
+            @Override
+            public int size() {
+                return AttributeMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates occupied slots in slot order, then other entries.
+     */
+    protected class EntryIterator implements Iterator<Map.Entry<String,Object>> {
+        int nextSlot = nextOccupied(0);
+        int lastSlot = -1;
+        Iterator<Map.Entry<String,Object>> othersIter = null;
+
+        protected int nextOccupied(int from) {
+            long remaining = (from >= 64) ? 0 : present & (-1L << from);
+            return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+        }
+
+        public boolean hasNext() {
+            if (nextSlot >= 0) {
+                return true;
+            }
+            if (othersIter == null) {
+                if (others == null) {
+                    return false;
+                }
+                othersIter = others.entrySet().iterator();
+            }
+            return othersIter.hasNext();
+        }
+
+        public Map.Entry<String,Object> next() {
+            if (nextSlot >= 0) {
+                lastSlot = nextSlot;
+                nextSlot = nextOccupied(lastSlot + 1);
+                return new SlotEntry(SLOT_KEYS[lastSlot]);
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastSlot = -1;
+            return othersIter.next();
+        }
+
+        public void remove() {
+            if (lastSlot >= 0) {
+                AttributeMap.this.remove(SLOT_KEYS[lastSlot]);
+                lastSlot = -1;
+            } else if (othersIter != null) {
+                othersIter.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * Entry reading and writing through to a slot.
+     */
+    protected class SlotEntry implements Map.Entry<String,Object> {
+        String key;
+        SlotEntry(String key) {
+            this.key = key;
+        }
+        public String getKey() {
+            return key;
+        }
+        public Object getValue() {
+            return get(key);
+        }
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?,?>)) {
+                return false;
+            }
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            Object value = getValue();
+            return key.equals(e.getKey())
+                && (value == null ? e.getValue() == null
+                        : value.equals(e.getValue()));
+        }
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * Kryo serializer for String-keyed maps -- AttributeMaps, or plain
+     * HashMaps such as fetch-history entries -- writing each well-known
+     * key as a small number rather than as its full string. Keys of
+     * other types are written as objects, so any map is handled.
+     */
+    public static class KeyCodingSerializer extends Serializer {
+        protected static final int KEY_OBJECT = 0;
+        protected static final int KEY_STRING = 1;
+        protected static final int KEY_SLOT_BASE = 2;
+
+        protected Kryo kryo;
+
+        public KeyCodingSerializer(Kryo kryo) {
+            this.kryo = kryo;
+        }
+
+        @Override
+        public void writeObjectData(ByteBuffer buffer, Object object) {
+            Map<?,?> map = (Map<?,?>) object;
+            IntSerializer.put(buffer, map.size(), true);
+            for (Map.Entry<?,?> entry : map.entrySet()) {
+                Object key = entry.getKey();
+                int slot = slotOf(key);
+                if (slot >= 0) {
+                    IntSerializer.put(buffer, KEY_SLOT_BASE + slot, true);
+                } else if (key instanceof String) {
+                    IntSerializer.put(buffer, KEY_STRING, true);
+                    StringSerializer.put(buffer, (String) key);
+                } else {
+                    IntSerializer.put(buffer, KEY_OBJECT, true);
+                    kryo.writeClassAndObject(buffer, key);
+                }
+                kryo.writeClassAndObject(buffer, entry.getValue());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+            Map<Object,Object> map = (Map<Object,Object>) kryo.newInstance(type);
+            int size = IntSerializer.get(buffer, true);
+            for (int i = 0; i < size; i++) {
+                int code = IntSerializer.get(buffer, true);
+                Object key;
+                if (code >= KEY_SLOT_BASE) {
+                    key = SLOT_KEYS[code - KEY_SLOT_BASE];
+                } else if (code == KEY_STRING) {
+                    key = StringSerializer.get(buffer);
+                } else {
+                    key = kryo.readClassAndObject(buffer);
+                }
+                map.put(key, kryo.readClassAndObject(buffer));
+            }
+            return (T) map;
+        }
+    }
+}
@@ -125,4 +125,7 @@ public interface CoreAttributeConstants {
     // arbitrary additions to WARC response record headers
     public static final String A_WARC_RESPONSE_HEADERS = "warc-response-headers";
 
+    // names of extractors that completed a scan while content was fetched
+    public static final String A_STREAM_EXTRACTED = "stream-extracted";
+
 }
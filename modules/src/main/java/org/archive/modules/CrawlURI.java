@@ -66,7 +66,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -99,6 +101,10 @@ import org.archive.util.Reporter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
 
 /**
  * Represents a candidate URI and the associated state it
@@ -120,7 +126,14 @@ import org.json.JSONObject;
  */
 public class CrawlURI 
 implements Reporter, Serializable, OverlayContext {
-    private static final long serialVersionUID = 3L;
+    /**
+     * 4: pathFromSeed and via became transient, written after the data 
+     * map by writeObject() (and in compact form by KryoSerializer). 
+     * CrawlURIs serialized by earlier versions -- including those in the
+     * frontier queues of earlier checkpoints -- cannot be read; bumped so 
+     * Java serialization fails fast on them rather than misreading.
+     */
+    private static final long serialVersionUID = 4L;
 
     private static final Logger logger =
         Logger.getLogger(CrawlURI.class.getName());
@@ -147,14 +160,16 @@ implements Reporter, Serializable, OverlayContext {
      * X speculative embed (as from javascript, some alternate-format extractors
      * L link</pre>
      * For example LLLE (an embedded image on a page 3 links from seed).
+     * Transient to allow more compact custom serialization; see 
+     * {@link KryoSerializer}.
      */
-    private String pathFromSeed;
+    transient private String pathFromSeed;
     
     /**
      * Where this URI was (presently) discovered. . Transient to allow
      * more efficient custom serialization
      */
-    private UURI via;
+    transient private UURI via;
 
     /**
      * Context of URI's discovery, as per the 'context' in Link
@@ -205,6 +220,9 @@ implements Reporter, Serializable, OverlayContext {
      * {@link CoreAttributeConstants} interface.  Use this list to carry
      * data or state produced by custom processors rather change the
      * classes {@link CrawlURI} or this class, CrawlURI.
+     * <p>
+     * An {@link AttributeMap}, keeping well-known attributes in compact
+     * slots.
      */
     protected Map<String,Object> data;
 
@@ -865,7 +883,15 @@ implements Reporter, Serializable, OverlayContext {
         // Clear 'links extracted' flag.
         this.linkExtractorFinished = false;
         // Clean the data map of all but registered permanent members.
-        this.data = getPersistentDataMap();
+        if (data != null) {
+            AttributeMap retained = new AttributeMap();
+            for (String key : getPersistentKeys()) {
+                if (data.containsKey(key)) {
+                    retained.put(key, data.get(key));
+                }
+            }
+            this.data = retained;
+        }
         
         extraInfo = null;
         outCandidates = null;
@@ -880,16 +906,22 @@ implements Reporter, Serializable, OverlayContext {
             return null;
         }
         Map<String,Object> result = new HashMap<String,Object>(getData());
+        result.keySet().retainAll(getPersistentKeys());
+        return result;
+    }
+    
+    /**
+     * @return keys whose values persist across processing passes: 
+     * registered persistent keys plus any heritable keys
+     */
+    protected Set<String> getPersistentKeys() {
         Set<String> retain = new HashSet<String>(persistentKeys);
-        
         if (containsDataKey(A_HERITABLE_KEYS)) {
             @SuppressWarnings("unchecked")
             HashSet<String> heritable = (HashSet<String>)getData().get(A_HERITABLE_KEYS);
             retain.addAll(heritable);
         }
-        
-        result.keySet().retainAll(retain);
-        return result;
+        return retain;
     }
 
     /**
@@ -1167,9 +1199,15 @@ implements Reporter, Serializable, OverlayContext {
         return persistentKeys.remove(key);
     }
 
+    /**
+     * Write the usual fields, then the data map, pathFromSeed and via. 
+     * Not readable by versions before serialVersionUID 4.
+     */
     private void writeObject(ObjectOutputStream stream) throws IOException {
         stream.defaultWriteObject();
         stream.writeObject((data==null || data.isEmpty()) ? null : data);
+        stream.writeObject(pathFromSeed);
+        stream.writeObject(via);
       }
     
     private void readObject(ObjectInputStream stream) throws IOException,
@@ -1178,6 +1216,8 @@ implements Reporter, Serializable, OverlayContext {
         @SuppressWarnings("unchecked")
         Map<String,Object> temp = (Map<String,Object>)stream.readObject();
         this.data = temp;
+        this.pathFromSeed = (String) stream.readObject();
+        this.via = (UURI) stream.readObject();
         outLinks = new HashSet<Link>();
         outCandidates = new HashSet<CrawlURI>();
     }
@@ -1298,7 +1338,7 @@ implements Reporter, Serializable, OverlayContext {
     
     public Map<String,Object> getData() {
         if (data == null) {
-            data = new HashMap<String,Object>();
+            data = new AttributeMap();
         }
         return data;
     }
@@ -1635,7 +1675,7 @@ implements Reporter, Serializable, OverlayContext {
                 getUURI(), link.getContext());
         newCaURI.inheritFrom(this);
         if (link.hasData()) {
-            newCaURI.data = link.getData();
+            newCaURI.data = new AttributeMap(link.getData());
         }
         return newCaURI;
     }
@@ -1834,10 +1874,15 @@ implements Reporter, Serializable, OverlayContext {
     private CrawlURI() {}
     public static void autoregisterTo(AutoKryo kryo) {
 //        kryo.register(CrawlURI.class,new DeflateCompressor(kryo.newSerializer(CrawlURI.class)));
-        kryo.register(CrawlURI.class);
+        kryo.register(CrawlURI.class, 
+                new KryoSerializer(kryo.newSerializer(CrawlURI.class)));
         kryo.autoregister(byte[].class); 
         kryo.autoregister(java.util.HashSet.class); 
-        kryo.autoregister(java.util.HashMap.class); 
+        kryo.autoregister(AttributeMap.class, 
+                new AttributeMap.KeyCodingSerializer(kryo)); 
+        // also compacts fetch-history entries and other attribute maps
+        kryo.autoregister(java.util.HashMap.class, 
+                new AttributeMap.KeyCodingSerializer(kryo)); 
         kryo.autoregister(org.archive.net.UURI.class); 
         kryo.autoregister(org.archive.modules.extractor.HTMLLinkContext.class); 
         kryo.autoregister(org.archive.modules.extractor.LinkContext.SimpleLinkContext.class);
@@ -1850,6 +1895,179 @@ implements Reporter, Serializable, OverlayContext {
         kryo.setRegistrationOptional(true);
     }
     
+    /** tags for compact hops-path encoding, in low 2 bits of header */
+    private static final int HOPS_NULL = 0;
+    private static final int HOPS_RAW = 1;
+    private static final int HOPS_PACKED = 2;
+    private static final int HOPS_PACKED_OVERFLOW = 3;
+    
+    /** 3-bit code of each hop character, or -1 if not a hop character */
+    private static final byte[] HOP_CODES = new byte[128];
+    static {
+        Arrays.fill(HOP_CODES, (byte) -1);
+        for (Hop hop : Hop.values()) {
+            HOP_CODES[hop.getHopChar()] = (byte) hop.ordinal();
+        }
+    }
+    
+    /**
+     * Write a hops path (as from {@link #getPathFromSeed()}) in compact 
+     * form: 3 bits per hop, with any leading overflow count (see 
+     * {@link #extendHopsPath(String, char)}) as a number. Paths not of 
+     * the expected form are written as plain strings. 
+     * 
+     * @param buffer destination
+     * @param path hops path, possibly null
+     */
+    protected static void writeHopsPath(ByteBuffer buffer, String path) {
+        if (path == null) {
+            IntSerializer.put(buffer, HOPS_NULL, true);
+            return;
+        }
+        int overflow = 0;
+        int start = 0;
+        int plusIndex = path.indexOf('+');
+        if (plusIndex > 0) {
+            try {
+                overflow = Integer.parseInt(path.substring(0, plusIndex));
+            } catch (NumberFormatException e) {
+                overflow = -1;
+            }
+            start = plusIndex + 1;
+        }
+        boolean packable = overflow >= 0 && plusIndex != 0;
+        for (int i = start; packable && i < path.length(); i++) {
+            char c = path.charAt(i);
+            packable = c < HOP_CODES.length && HOP_CODES[c] >= 0;
+        }
+        if (!packable) {
+            IntSerializer.put(buffer, HOPS_RAW, true);
+            StringSerializer.put(buffer, path);
+            return;
+        }
+        int hops = path.length() - start;
+        IntSerializer.put(buffer, 
+                (hops << 2) | (plusIndex > 0 ? HOPS_PACKED_OVERFLOW : HOPS_PACKED), 
+                true);
+        if (plusIndex > 0) {
+            IntSerializer.put(buffer, overflow, true);
+        }
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = start; i < path.length(); i++) {
+            bits = (bits << 3) | HOP_CODES[path.charAt(i)];
+            bitCount += 3;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                buffer.put((byte) (bits >>> bitCount));
+            }
+        }
+        if (bitCount > 0) {
+            buffer.put((byte) (bits << (8 - bitCount)));
+        }
+    }
+    
+    /**
+     * Read a hops path written by {@link #writeHopsPath(ByteBuffer, String)}.
+     * 
+     * @param buffer source
+     * @return hops path, possibly null
+     */
+    protected static String readHopsPath(ByteBuffer buffer) {
+        int header = IntSerializer.get(buffer, true);
+        int tag = header & 3;
+        if (tag == HOPS_NULL) {
+            return null;
+        }
+        if (tag == HOPS_RAW) {
+            return StringSerializer.get(buffer);
+        }
+        int hops = header >>> 2;
+        if (hops == 0 && tag == HOPS_PACKED) {
+            // common for seeds; avoid a new empty String per instance
+            return "";
+        }
+        StringBuilder path = new StringBuilder(hops + 8);
+        if (tag == HOPS_PACKED_OVERFLOW) {
+            path.append(IntSerializer.get(buffer, true)).append('+');
+        }
+        Hop[] types = Hop.values();
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < hops; i++) {
+            if (bitCount < 3) {
+                bits = (bits << 8) | (buffer.get() & 0xFF);
+                bitCount += 8;
+            }
+            bitCount -= 3;
+            path.append(types[(bits >>> bitCount) & 7].getHopChar());
+        }
+        return path.toString();
+    }
+    
+    /**
+     * Kryo serializer for CrawlURIs which writes all ordinary fields via
+     * the usual field-by-field serializer, then the pathFromSeed and via
+     * in compact forms: hops packed 3 bits to the character, and the via 
+     * URI as only its difference from the URI itself (with which it 
+     * usually shares a scheme and host, and often much of a path). Both 
+     * are expanded on read, so everything else (including crawl.log and
+     * recovery-log lines) sees the usual full strings. 
+     * 
+     * As the field-by-field portion no longer includes those two fields,
+     * entries written before this serializer (as in the BDB frontier of 
+     * an older checkpoint) are not readable by it. 
+     */
+    public static class KryoSerializer extends Serializer {
+        protected Serializer fieldSerializer;
+        
+        public KryoSerializer(Serializer fieldSerializer) {
+            this.fieldSerializer = fieldSerializer;
+        }
+
+        @Override
+        public void writeObjectData(ByteBuffer buffer, Object object) {
+            CrawlURI curi = (CrawlURI) object;
+            fieldSerializer.writeObjectData(buffer, curi);
+            writeHopsPath(buffer, curi.pathFromSeed);
+            if (curi.via == null) {
+                IntSerializer.put(buffer, 0, true);
+                return;
+            }
+            String via = curi.via.toCustomString();
+            String base = (curi.uuri == null) ? "" : curi.uuri.toCustomString();
+            int max = Math.min(via.length(), base.length());
+            int shared = 0;
+            while (shared < max && via.charAt(shared) == base.charAt(shared)) {
+                shared++;
+            }
+            IntSerializer.put(buffer, shared + 1, true);
+            StringSerializer.put(buffer, via.substring(shared));
+        }
+
+        @Override
+        public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+            T object = fieldSerializer.readObjectData(buffer, type);
+            CrawlURI curi = (CrawlURI) object;
+            curi.pathFromSeed = readHopsPath(buffer);
+            int sharedPlusOne = IntSerializer.get(buffer, true);
+            if (sharedPlusOne > 0) {
+                String suffix = StringSerializer.get(buffer);
+                String via = (sharedPlusOne == 1) 
+                    ? suffix 
+                    : curi.uuri.toCustomString()
+                        .substring(0, sharedPlusOne - 1) + suffix;
+                try {
+                    // as in UURI's own deserialization, already-escaped
+                    curi.via = new UURI(via, true, "UTF-8");
+                } catch (URIException e) {
+                    curi.via = curi.readUuri(via);
+                }
+            }
+            return object;
+        }
+    }
+    
     /**
      * Do all actions associated with setting a <code>CrawlURI</code> as
      * requiring a prerequisite.
@@ -1861,6 +2079,24 @@ implements Reporter, Serializable, OverlayContext {
      * @throws URIException
      */
     public CrawlURI markPrerequisite(String preq) 
+    throws URIException {
+        CrawlURI caUri = makePrerequisiteCandidate(preq);
+        setPrerequisiteUri(caUri);
+        incrementDeferrals();
+        setFetchStatus(S_DEFERRED);
+        
+        return caUri;
+    }
+    
+    /**
+     * Create a prerequisite CrawlURI for this one, scheduled to be 
+     * fetched ahead of it, without deferring this one. 
+     * 
+     * @param preq prerequisite URI string
+     * @return the newly created prerequisite CrawlURI
+     * @throws URIException
+     */
+    public CrawlURI makePrerequisiteCandidate(String preq) 
     throws URIException {
         CrawlURI caUri = makeConsequentCandidate(preq, LinkContext.PREREQ_MISC, Hop.PREREQ);
         caUri.setPrerequisite(true);
@@ -1872,10 +2108,6 @@ implements Reporter, Serializable, OverlayContext {
         }
         caUri.setSchedulingDirective(prereqPriority);
         caUri.setForceFetch(true);
-        setPrerequisiteUri(caUri);
-        incrementDeferrals();
-        setFetchStatus(S_DEFERRED);
-        
         return caUri;
     }
     
@@ -169,6 +169,20 @@ implements HasKeyedProperties,
      */
     protected abstract boolean shouldProcess(CrawlURI uri);
 
+    /**
+     * Whether {@link #process(CrawlURI)} would do more for the given URI
+     * than pass it along: the same enabled, shouldProcessRule and 
+     * {@link #shouldProcess(CrawlURI)} checks, without processing.
+     * 
+     * @param uri the URI to test
+     * @return true if this processor would process the URI now
+     */
+    public boolean wouldProcess(CrawlURI uri) {
+        return getEnabled()
+            && getShouldProcessRule().decisionFor(uri) != DecideResult.REJECT
+            && shouldProcess(uri);
+    }
+
     
     protected ProcessResult innerProcessResult(CrawlURI uri) 
     throws InterruptedException {
@@ -115,15 +115,38 @@ implements Iterable<Processor>,
     }
 
     public void process(CrawlURI curi, ChainStatusReceiver thread) throws InterruptedException {
+        process(curi, thread, 0, null);
+    }
+    
+    /**
+     * Run the given CrawlURI through the processors from the given index
+     * onward, optionally stopping short of a processor at which the 
+     * HandoffPolicy asks for processing to move elsewhere.
+     * 
+     * @param curi CrawlURI to process
+     * @param thread receiver of per-processor status, or null
+     * @param fromIndex index of first processor to run
+     * @param handoff policy consulted before each processor, or null
+     * @return index of the processor at which processing should resume
+     * after a handoff, or -1 if the chain ran to completion
+     * @throws InterruptedException
+     */
+    public int process(CrawlURI curi, ChainStatusReceiver thread, 
+            int fromIndex, HandoffPolicy handoff) throws InterruptedException {
         assert KeyedProperties.overridesActiveFrom(curi);
         String skipToProc = null; 
+        List<Processor> processors = getProcessors();
         
-        ploop: for(Processor curProc : this ) {
+        ploop: for(int i = fromIndex; i < processors.size(); i++) {
+            Processor curProc = processors.get(i);
             if(skipToProc!=null && !curProc.getBeanName().equals(skipToProc)) {
                 continue;
             } else {
                 skipToProc = null; 
             }
+            if(handoff!=null && handoff.shouldHandOff(processors, i, curi)) {
+                return i;
+            }
             if(thread!=null) {
                 thread.atProcessor(curProc);
             }
@@ -139,6 +162,17 @@ implements Iterable<Processor>,
                     continue;
             }
         }
+        return -1;
+    }
+    
+    /**
+     * Decides whether processing of a CrawlURI should leave the current
+     * thread before the processor at the given index of the chain's 
+     * processors (so before all those following it, too). 
+     */
+    public interface HandoffPolicy {
+        public boolean shouldHandOff(List<Processor> processors, int index, 
+                CrawlURI curi);
     }
     
     public interface ChainStatusReceiver {
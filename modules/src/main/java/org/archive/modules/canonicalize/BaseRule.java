@@ -80,6 +80,30 @@ implements CanonicalizationRule, Serializable, HasKeyedProperties {
         return retVal;
     }
 
+    /**
+     * Cheap test of whether the given url contains the given lowercase
+     * literal, ignoring case. Lets rules skip regex matching for the
+     * common case of URIs that could not possibly match.
+     * 
+     * @param url Url to search in.
+     * @param lowercaseLiteral literal to look for, in lowercase
+     * @return true if url contains literal, ignoring case
+     */
+    protected static boolean containsIgnoreCase(String url, 
+            String lowercaseLiteral) {
+        int len = lowercaseLiteral.length();
+        char first = lowercaseLiteral.charAt(0);
+        char firstUpper = Character.toUpperCase(first);
+        for (int i = 0, max = url.length() - len; i <= max; i++) {
+            char c = url.charAt(i);
+            if ((c == first || c == firstUpper)
+                    && url.regionMatches(true, i, lowercaseLiteral, 0, len)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * @param string String to check.
      * @return <code>string</code> if non-null, else empty string ("").
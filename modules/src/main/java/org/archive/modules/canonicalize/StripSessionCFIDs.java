@@ -53,6 +53,9 @@ extends BaseRule {
     }
 
     public String canonicalize(String url) {
+        if (!containsIgnoreCase(url, "cfid=")) {
+            return url;
+        }
         return doStripRegexMatch(url, REGEX);
     }
 
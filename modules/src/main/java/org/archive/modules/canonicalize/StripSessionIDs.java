@@ -64,6 +64,11 @@ extends BaseRule {
     }
 
     public String canonicalize(String url) {
+        // every pattern requires one of these literals
+        if (!containsIgnoreCase(url, "sid=") 
+                && !containsIgnoreCase(url, "sessionid")) {
+            return url;
+        }
         url = doStripRegexMatch(url, BASE_PATTERN);
         url = doStripRegexMatch(url, SID_PATTERN);
         url = doStripRegexMatch(url, ASPSESSION_PATTERN);
@@ -46,6 +46,9 @@ public class StripUserinfoRule extends BaseRule {
     }
 
     public String canonicalize(String url) {
+        if (url.indexOf('@') < 0) {
+            return url;
+        }
         return doStripRegexMatch(url, REGEX.pattern());
     }
 }
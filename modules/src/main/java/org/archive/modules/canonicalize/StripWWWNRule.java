@@ -53,6 +53,11 @@ public class StripWWWNRule extends BaseRule {
     }
 
     public String canonicalize(String url) {
+        int hostStart = url.indexOf("://") + 3;
+        if (hostStart < 3 
+                || !url.regionMatches(true, hostStart, "www", 0, 3)) {
+            return url;
+        }
         return doStripRegexMatch(url, REGEX.pattern());
     }
 }
\ No newline at end of file
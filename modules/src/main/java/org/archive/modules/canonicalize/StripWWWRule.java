@@ -49,6 +49,11 @@ public class StripWWWRule extends BaseRule {
     }
 
     public String canonicalize(String url) {
+        int hostStart = url.indexOf("://") + 3;
+        if (hostStart < 3 
+                || !url.regionMatches(true, hostStart, "www.", 0, 4)) {
+            return url;
+        }
         return doStripRegexMatch(url, REGEX.pattern());
     }
 }
@@ -18,7 +18,14 @@
  */
 package org.archive.modules.extractor;
 
+import static org.archive.modules.CoreAttributeConstants.A_STREAM_EXTRACTED;
+
+import java.util.HashSet;
+import java.util.Set;
+
 import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.fetcher.FetchStatusCodes;
 
 
@@ -34,12 +41,73 @@ public abstract class ContentExtractor extends Extractor {
      * Extracts links 
      */
     final protected void extract(CrawlURI uri) {
-        boolean finished = innerExtract(uri);
+        // a completed streaming scan has already found the links
+        boolean finished = wasStreamExtracted(uri) || innerExtract(uri);
         if (finished) {
             uri.linkExtractorFinished();
         }
     }
 
+    /**
+     * Name under which completed streaming scans are noted in a 
+     * CrawlURI's data.
+     */
+    protected String getStreamName() {
+        return getBeanName() != null ? getBeanName() : getClass().getName();
+    }
+
+    /**
+     * Note that this extractor scanned the given URI's content as it was
+     * fetched, and so need not replay it. 
+     * 
+     * @param uri URI whose content was scanned
+     */
+    @SuppressWarnings("unchecked")
+    protected void markStreamExtracted(CrawlURI uri) {
+        Set<String> names = (Set<String>) uri.getData().get(A_STREAM_EXTRACTED);
+        if (names == null) {
+            names = new HashSet<String>();
+            uri.getData().put(A_STREAM_EXTRACTED, names);
+        }
+        names.add(getStreamName());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected boolean wasStreamExtracted(CrawlURI uri) {
+        if (!uri.containsDataKey(A_STREAM_EXTRACTED)) {
+            return false;
+        }
+        Set<String> names = (Set<String>) uri.getData().get(A_STREAM_EXTRACTED);
+        return names.contains(getStreamName());
+    }
+
+    /**
+     * Determines if the given URI's content, about to be fetched, may be
+     * scanned as it arrives: the same checks as 
+     * {@link #shouldProcess(CrawlURI)} and {@link Processor#process(CrawlURI)}
+     * make later, except that the content length is not yet known.
+     * 
+     * @param uri the URI to check
+     * @return true if a streaming scan may be started
+     */
+    protected boolean shouldStream(CrawlURI uri) {
+        if (!getEnabled()) {
+            return false;
+        }
+        if (getShouldProcessRule().decisionFor(uri) == DecideResult.REJECT) {
+            return false;
+        }
+        if (!getExtractorParameters().getExtractIndependently()
+                && uri.hasBeenLinkExtracted()) {
+            return false;
+        }
+        if (!getExtractorParameters().getExtract404s() 
+                && uri.getFetchStatus()==FetchStatusCodes.S_NOT_FOUND) {
+            return false; 
+        }
+        return shouldExtract(uri);
+    }
+
     /**
      * Determines if links should be extracted from the given URI. This method
      * performs three checks. The first check runs only if
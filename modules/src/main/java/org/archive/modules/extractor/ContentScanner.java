@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * One StreamingExtractor's incremental scan of one CrawlURI's content.
+ * Decoded characters are passed to {@link #consume(CharSequence)} as 
+ * they arrive; the subclass's {@link #scan(StringBuilder, boolean)} 
+ * handles as much of the buffered text as it safely can, and the rest
+ * is kept until more arrives. 
+ * 
+ * If the scan completes, the extractor will skip its usual replay of
+ * the content when it processes the CrawlURI. If the scan is abandoned,
+ * or never finished (as when the fetch fails), the extractor processes
+ * the CrawlURI from replay as usual. A scan that throws is abandoned.
+ * 
+ * The extractor's time and length budget for the CrawlURI applies to 
+ * the scan as it would to a replay: only time spent scanning is 
+ * charged, not time waiting on the network. If the budget runs out, 
+ * the scan is complete with whatever links were found by then.
+ */
+public abstract class ContentScanner {
+    private static final Logger logger = 
+        Logger.getLogger(ContentScanner.class.getName());
+
+    protected ContentExtractor extractor;
+    protected CrawlURI curi;
+    protected Charset charset;
+    protected StringBuilder pending = new StringBuilder();
+    
+    /** extraction budget for the scan, or null if unlimited */
+    protected Extractor.Budget budget;
+    /** time the last scan() ended, or 0 if none yet */
+    protected long lastScanEnd = 0;
+
+    public ContentScanner(ContentExtractor extractor, CrawlURI curi, 
+            Charset charset) {
+        this.extractor = extractor;
+        this.curi = curi;
+        this.charset = charset;
+        this.budget = extractor.newBudget(curi);
+    }
+
+    /**
+     * Accept the next run of decoded content. 
+     * 
+     * @param chars characters following all previously consumed
+     */
+    public void consume(CharSequence chars) {
+        if (pending == null) {
+            // abandoned or finished
+            return;
+        }
+        pending.append(chars);
+        int done = budgetedScan(false);
+        if (done < 0) {
+            pending = null;
+        } else if (budget != null && budget.isExhausted()) {
+            // stop here, keeping links found so far, as replay would
+            extractor.noteBudgetExhausted(curi);
+            extractor.markStreamExtracted(curi);
+            pending = null;
+        } else {
+            pending.delete(0, done);
+        }
+    }
+
+    /**
+     * Note that all content has been consumed, completing the scan.
+     */
+    public void finish() {
+        if (pending == null) {
+            return;
+        }
+        if (budgetedScan(true) >= 0) {
+            if (budget != null && budget.isExhausted()) {
+                extractor.noteBudgetExhausted(curi);
+            }
+            extractor.markStreamExtracted(curi);
+        }
+        pending = null;
+    }
+
+    /**
+     * Run scan() on the pending content with the extractor's budget in
+     * effect, abandoning the scan if it throws. 
+     * 
+     * @return scan() result, or -1 if it threw
+     */
+    protected int budgetedScan(boolean atEnd) {
+        long start = System.currentTimeMillis();
+        if (budget != null && budget.deadline > 0 && lastScanEnd > 0) {
+            // don't charge time spent awaiting more content
+            budget.deadline += start - lastScanEnd;
+        }
+        Extractor.currentBudget.set(budget);
+        try {
+            return scan(pending, atEnd);
+        } catch (RuntimeException e) {
+            logger.log(Level.INFO, "abandoning stream scan of " + curi, e);
+            return -1;
+        } catch (StackOverflowError e) {
+            logger.log(Level.INFO, "abandoning stream scan of " + curi, e);
+            return -1;
+        } finally {
+            Extractor.currentBudget.remove();
+            lastScanEnd = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Scan the buffered content. 
+     * 
+     * @param buf content not yet fully scanned
+     * @param atEnd if true, no more content will follow
+     * @return count of leading characters of buf that need not be seen 
+     * again, or -1 to abandon the scan, leaving extraction to replay
+     */
+    protected abstract int scan(StringBuilder buf, boolean atEnd);
+}
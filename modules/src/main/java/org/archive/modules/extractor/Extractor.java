@@ -20,6 +20,8 @@
 package org.archive.modules.extractor;
 
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -84,6 +86,174 @@ public abstract class Extractor extends Processor {
         this.extractorParameters = helper; 
     }
     
+    /**
+     * Maximum time, in milliseconds, to spend extracting links from any
+     * one URI. The budget is checked cooperatively as content is scanned,
+     * so may be slightly overrun; links found before it ran out are kept.
+     * Zero or less means no limit.
+     */
+    {
+        setMaxExtractTimeMs(0L);
+    }
+    public long getMaxExtractTimeMs() {
+        return (Long) kp.get("maxExtractTimeMs");
+    }
+    public void setMaxExtractTimeMs(long millis) {
+        kp.put("maxExtractTimeMs", millis);
+    }
+
+    /**
+     * Maximum amount of content, in bytes or characters as the extractor
+     * reads it, to scan for links in any one URI. Zero or less means no
+     * limit.
+     */
+    {
+        setMaxScanLength(0L);
+    }
+    public long getMaxScanLength() {
+        return (Long) kp.get("maxScanLength");
+    }
+    public void setMaxScanLength(long length) {
+        kp.put("maxScanLength", length);
+    }
+
+    /**
+     * Overrides of maxExtractTimeMs for particular content-types, keyed 
+     * by content-type prefix (for example "application/pdf" or "text/").
+     * The longest matching prefix applies. 
+     */
+    {
+        setMaxExtractTimeMsByType(new HashMap<String,Long>());
+    }
+    @SuppressWarnings("unchecked")
+    public Map<String,Long> getMaxExtractTimeMsByType() {
+        return (Map<String,Long>) kp.get("maxExtractTimeMsByType");
+    }
+    public void setMaxExtractTimeMsByType(Map<String,Long> budgets) {
+        kp.put("maxExtractTimeMsByType", budgets);
+    }
+
+    /**
+     * Overrides of maxScanLength for particular content-types, keyed by
+     * content-type prefix. The longest matching prefix applies. 
+     */
+    {
+        setMaxScanLengthByType(new HashMap<String,Long>());
+    }
+    @SuppressWarnings("unchecked")
+    public Map<String,Long> getMaxScanLengthByType() {
+        return (Map<String,Long>) kp.get("maxScanLengthByType");
+    }
+    public void setMaxScanLengthByType(Map<String,Long> budgets) {
+        kp.put("maxScanLengthByType", budgets);
+    }
+
+    /** URIs whose extraction was cut short by a budget */
+    protected AtomicLong numberOfBudgetsExhausted = new AtomicLong(0);
+
+    /**
+     * Time and length limits on the current thread's extraction of one
+     * URI. Scanning loops report their progress through 
+     * {@link Extractor#budgetExhausted(long)}, and stop when it returns
+     * true. 
+     */
+    public static class Budget {
+        protected long deadline;
+        protected long maxScan;
+        protected long scanned = 0;
+        protected boolean exhausted = false;
+
+        public Budget(long deadline, long maxScan) {
+            this.deadline = deadline;
+            this.maxScan = maxScan;
+        }
+
+        /**
+         * @return time (in epoch milliseconds) by which extraction should 
+         * end, or 0 if none
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isExhausted() {
+            if (!exhausted) {
+                exhausted = (maxScan > 0 && scanned > maxScan)
+                    || (deadline > 0 && System.currentTimeMillis() > deadline);
+            }
+            return exhausted;
+        }
+    }
+
+    /** budget of the extraction running on each thread, if any */
+    protected static final ThreadLocal<Budget> currentBudget = 
+        new ThreadLocal<Budget>();
+
+    /**
+     * Note that the given amount of content has been scanned by the 
+     * extraction running on the current thread, and check whether that
+     * extraction has exhausted its budget. Cheap enough to call once 
+     * per tag, string or match; always false if no budget is set.
+     * 
+     * @param scanned bytes or characters scanned since the last call
+     * @return true if extraction should stop
+     */
+    public static boolean budgetExhausted(long scanned) {
+        Budget budget = currentBudget.get();
+        if (budget == null) {
+            return false;
+        }
+        budget.scanned += scanned;
+        return budget.isExhausted();
+    }
+
+    /**
+     * @return the current thread's extraction budget, or null if none
+     */
+    public static Budget getCurrentBudget() {
+        return currentBudget.get();
+    }
+
+    /**
+     * Get the limit applying to the given content-type: the value of the
+     * longest matching prefix in the given map, or the default.
+     */
+    protected static long limitForType(Map<String,Long> byType, 
+            String contentType, long defaultLimit) {
+        if (contentType == null || byType == null || byType.isEmpty()) {
+            return defaultLimit;
+        }
+        long limit = defaultLimit;
+        int matchLength = -1;
+        for (Map.Entry<String,Long> entry : byType.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matchLength 
+                    && contentType.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                limit = entry.getValue();
+                matchLength = prefix.length();
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Create the budget for extracting from the given URI, or null if
+     * it is unlimited.
+     */
+    protected Budget newBudget(CrawlURI uri) {
+        String contentType = uri.getContentType();
+        long maxTime = limitForType(getMaxExtractTimeMsByType(), 
+                contentType, getMaxExtractTimeMs());
+        long maxScan = limitForType(getMaxScanLengthByType(), 
+                contentType, getMaxScanLength());
+        if (maxTime <= 0 && maxScan <= 0) {
+            return null;
+        }
+        return new Budget(
+                maxTime > 0 ? System.currentTimeMillis() + maxTime : 0,
+                maxScan);
+    }
+
     /**
      * Processes the given URI.  This method just delegates to 
      * {@link #extract(ExtractorURI)}, catching runtime exceptions and
@@ -93,10 +263,16 @@ public abstract class Extractor extends Processor {
      * <p>Notably, StackOverflowError is caught here, as that seems to 
      * happen a lot when dealing with document parsing APIs.
      * 
+     * <p>Any time or length budget set for the URI is in effect for the
+     * duration of {@link #extract(CrawlURI)}; if it runs out, the URI
+     * is annotated "extractBudget:" plus this extractor's name.
+     * 
      * @param uri  the URI to extract links from
      */
     final protected void innerProcess(CrawlURI uri)
     throws InterruptedException {
+        Budget budget = newBudget(uri);
+        currentBudget.set(budget);
         try {
             extract(uri);
         } catch (NullPointerException npe) {
@@ -106,8 +282,22 @@ public abstract class Extractor extends Processor {
         } catch (java.nio.charset.CoderMalfunctionError cme) {
             // See http://sourceforge.net/tracker/index.php?func=detail&aid=1540222&group_id=73833&atid=539099
             handleException(uri, cme);
+        } finally {
+            currentBudget.remove();
+            if (budget != null && budget.exhausted) {
+                noteBudgetExhausted(uri);
+            }
         }
     }
+
+    /**
+     * Note that extraction from the given URI was cut short by its 
+     * budget.
+     */
+    protected void noteBudgetExhausted(CrawlURI uri) {
+        numberOfBudgetsExhausted.incrementAndGet();
+        uri.getAnnotations().add("extractBudget:" + getBeanName());
+    }
     
     
     private void handleException(CrawlURI uri, Throwable t) {
@@ -159,6 +349,7 @@ public abstract class Extractor extends Processor {
     protected JSONObject toCheckpointJson() throws JSONException {
         JSONObject json = super.toCheckpointJson();
         json.put("numberOfLinksExtracted", numberOfLinksExtracted.get());
+        json.put("numberOfBudgetsExhausted", numberOfBudgetsExhausted.get());
         return json;
     }
 
@@ -166,12 +357,14 @@ public abstract class Extractor extends Processor {
     protected void fromCheckpointJson(JSONObject json) throws JSONException {
         super.fromCheckpointJson(json);
         numberOfLinksExtracted.set(json.getLong("numberOfLinksExtracted"));
+        numberOfBudgetsExhausted.set(json.optLong("numberOfBudgetsExhausted"));
     }
     
     public String report() {
         StringBuffer ret = new StringBuffer();
         ret.append(super.report());
         ret.append("  " + numberOfLinksExtracted + " links from " + getURICount() +" CrawlURIs\n");
+        ret.append("  " + numberOfBudgetsExhausted + " CrawlURIs cut short by budget\n");
         return ret.toString();
     }
 
@@ -19,6 +19,7 @@
 package org.archive.modules.extractor;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -54,7 +55,8 @@ import org.archive.util.TextUtils;
  *
  **/
 
-public class ExtractorCSS extends ContentExtractor {
+public class ExtractorCSS extends ContentExtractor 
+implements StreamingExtractor {
 
 
     @SuppressWarnings("unused")
@@ -119,6 +121,38 @@ public class ExtractorCSS extends ContentExtractor {
         return false; 
     }
 
+    /**
+     * Most characters to hold while waiting for a safe point (a newline or
+     * closing brace) at which to scan; beyond this, the streaming scan is 
+     * abandoned.
+     */
+    protected static final int MAX_STREAMED_CHARS = 1024 * 1024;
+
+    /**
+     * Offer a streaming scan, handling style code through each newline or 
+     * closing brace as it arrives. (No URI match can span a newline, and 
+     * rule-closing braces are only rarely found inside URIs.)
+     * 
+     * @see org.archive.modules.extractor.StreamingExtractor#newScanner(org.archive.modules.CrawlURI, java.nio.charset.Charset)
+     */
+    public ContentScanner newScanner(CrawlURI curi, Charset charset) {
+        if (!shouldStream(curi)) {
+            return null;
+        }
+        return new ContentScanner(this, curi, charset) {
+            protected int scan(StringBuilder buf, boolean atEnd) {
+                int end = atEnd ? buf.length() 
+                        : Math.max(buf.lastIndexOf("\n"), buf.lastIndexOf("}")) + 1;
+                if (end <= 0) {
+                    return buf.length() > MAX_STREAMED_CHARS ? -1 : 0;
+                }
+                numberOfLinksExtracted.addAndGet(processStyleCode(
+                        ExtractorCSS.this, curi, buf.subSequence(0, end)));
+                return end;
+            }
+        };
+    }
+
     public static long processStyleCode(Extractor ext, 
             CrawlURI curi, CharSequence cs) {
         long foundLinks = 0;
@@ -126,7 +160,15 @@ public class ExtractorCSS extends ContentExtractor {
         String cssUri;
         try {
             uris = TextUtils.getMatcher(CSS_URI_EXTRACTOR, cs);
+            // style code inline in other content is charged by the 
+            // calling extractor
+            boolean charge = ext instanceof ExtractorCSS;
+            int scanned = 0;
             while (uris.find()) {
+                if (budgetExhausted(charge ? uris.end() - scanned : 0)) {
+                    break;
+                }
+                scanned = uris.end();
                 cssUri = uris.group(2);
                 // TODO: Escape more HTML Entities.
                 cssUri = TextUtils.replaceAll(ESCAPED_AMP, cssUri, "&");
@@ -100,7 +100,12 @@ public class ExtractorDOC extends ContentExtractor {
 
         CharSequence cs = new SeekReaderCharSequence(docReader, 0);
         Matcher m = PATTERN.matcher(cs);
+        int scanned = 0;
         while (m.find()) {
+            if (budgetExhausted(m.end() - scanned)) {
+                break;
+            }
+            scanned = m.end();
             links++;
             addLink(curi, m.group(1));
         }
@@ -59,7 +59,8 @@ import org.springframework.beans.factory.annotation.Autowired;
  * 
  * @contributor gojomo
  */
-public class ExtractorHTML extends ContentExtractor implements InitializingBean {
+public class ExtractorHTML extends ContentExtractor 
+implements InitializingBean, StreamingExtractor {
 
     @SuppressWarnings("unused")
     private static final long serialVersionUID = 2L;
@@ -740,6 +741,48 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         return false;
     }
     
+    /**
+     * Most characters of a document to hold in memory for a streaming 
+     * scan; larger documents are left to replay.
+     */
+    protected static final int MAX_STREAMED_CHARS = 2 * 1024 * 1024;
+
+    /**
+     * Offer a streaming scan. Markup is not scanned incrementally -- tags
+     * and the scripts and styles inside them may be arbitrarily long --
+     * but the decoded text is held as it arrives, and scanned once the 
+     * fetch completes, sparing a replay and re-decode of the recording.
+     * 
+     * @see org.archive.modules.extractor.StreamingExtractor#newScanner(org.archive.modules.CrawlURI, java.nio.charset.Charset)
+     */
+    public ContentScanner newScanner(CrawlURI curi, Charset charset) {
+        if (!shouldStream(curi)) {
+            return null;
+        }
+        return new ContentScanner(this, curi, charset) {
+            protected int scan(StringBuilder buf, boolean atEnd) {
+                if (buf.length() > MAX_STREAMED_CHARS) {
+                    return -1;
+                }
+                if (!atEnd) {
+                    return 0;
+                }
+                if (!curi.containsContentTypeCharsetDeclaration()) {
+                    String contentPrefix = 
+                        buf.substring(0, Math.min(1000, buf.length()));
+                    Charset declared = 
+                        getContentDeclaredCharset(curi, contentPrefix);
+                    if (declared != null && !declared.equals(charset)) {
+                        // leave charset switch to usual replay
+                        return -1;
+                    }
+                }
+                extract(curi, buf);
+                return buf.length();
+            }
+        };
+    }
+    
     // 1. look for <meta http-equiv="content-type"...>
     // 2. if not found then look for <meta charset="">
     // 3. if not found then <?xml encoding=""...?>
@@ -793,10 +836,15 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      */
     protected void extract(CrawlURI curi, CharSequence cs) {
         Matcher tags = TextUtils.getMatcher(relevantTagPattern,cs);
+        int scanned = 0;
         while(tags.find()) {
             if(Thread.interrupted()){
                 break;
             }
+            if(budgetExhausted(tags.end() - scanned)) {
+                break;
+            }
+            scanned = tags.end();
             if (tags.start(8) > 0) {
                 // comment match
                 // for now do nothing
@@ -22,9 +22,10 @@ import static org.archive.modules.extractor.Hop.SPECULATIVE;
 import static org.archive.modules.extractor.LinkContext.JS_MISC;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.lang.StringEscapeUtils;
@@ -33,7 +34,6 @@ import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 import org.archive.util.UriUtils;
 
 /**
@@ -55,7 +55,8 @@ import org.archive.util.UriUtils;
  * @contributor gojomo
  * @contributor nlevitt
  */
-public class ExtractorJS extends ContentExtractor {
+public class ExtractorJS extends ContentExtractor 
+implements StreamingExtractor {
 
     @SuppressWarnings("unused")
     private static final long serialVersionUID = 3L;
@@ -71,8 +72,56 @@ public class ExtractorJS extends ContentExtractor {
     // GROUPS:
     // (G1) ' or " with optional leading backslashes
     // (G2) whitespace-free string delimited on boths ends by G1
+    //
+    // The pattern above documents what considerStrings() matches; the
+    // scanning itself is done by hand in nextString(), which is 
+    // equivalent but avoids regex and subsequence overhead on the many
+    // quoted strings that are not URIs. 
+
+    /** most leading backslashes allowed on a quote, as in G1 above */
+    protected static final int MAX_QUOTE_BACKSLASHES = 8;
+
+    /** characters nextString() examines between checks of its deadline */
+    protected static final int DEADLINE_CHECK_INTERVAL = 1024;
 
     protected long numberOfCURIsHandled = 0;
+    
+    /** quoted strings found */
+    protected AtomicLong numberOfStringsExamined = new AtomicLong(0);
+    /** quoted strings passing the cheap possible-URI test */
+    protected AtomicLong numberOfStringsConsidered = new AtomicLong(0);
+    /** documents whose scan was cut short by a budget */
+    protected AtomicLong numberOfScansTruncated = new AtomicLong(0);
+
+    /**
+     * Maximum number of characters of any one document (or inline script
+     * passed from another extractor) to scan for strings. Zero or less
+     * means no limit.
+     */
+    {
+        setMaxCharsToScan(0);
+    }
+    public int getMaxCharsToScan() {
+        return (Integer) kp.get("maxCharsToScan");
+    }
+    public void setMaxCharsToScan(int maxChars) {
+        kp.put("maxCharsToScan", maxChars);
+    }
+
+    /**
+     * Maximum time, in milliseconds, to spend scanning any one document 
+     * (or inline script passed from another extractor) for strings. Zero
+     * or less means no limit.
+     */
+    {
+        setMaxScanTimeMs(0L);
+    }
+    public long getMaxScanTimeMs() {
+        return (Long) kp.get("maxScanTimeMs");
+    }
+    public void setMaxScanTimeMs(long millis) {
+        kp.put("maxScanTimeMs", millis);
+    }
 
     protected boolean shouldExtract(CrawlURI uri) {
         String contentType = uri.getContentType();
@@ -129,6 +178,64 @@ public class ExtractorJS extends ContentExtractor {
         return false;
     }
 
+    /**
+     * Characters kept unscanned at the end of streamed content, until more 
+     * arrives: enough to hold any complete quoted string, so that no 
+     * string is seen only partially.
+     */
+    protected static final int STREAM_TAIL = 
+        UURI.MAX_URL_LENGTH + 2 * (MAX_QUOTE_BACKSLASHES + 1) + 1;
+
+    /**
+     * Offer a streaming scan, examining quoted strings as they arrive, 
+     * unless a maxCharsToScan limit is set. 
+     * 
+     * @see org.archive.modules.extractor.StreamingExtractor#newScanner(org.archive.modules.CrawlURI, java.nio.charset.Charset)
+     */
+    public ContentScanner newScanner(CrawlURI curi, Charset charset) {
+        if (getMaxCharsToScan() > 0 || !shouldStream(curi)) {
+            return null;
+        }
+        this.numberOfCURIsHandled++;
+        return new ContentScanner(this, curi, charset) {
+            int[] found = new int[3];
+            protected int scan(StringBuilder buf, boolean atEnd) {
+                int length = buf.length();
+                int startIndex = 0;
+                Budget budget = getCurrentBudget();
+                long deadline = budget == null ? 0 : budget.getDeadline();
+                while (nextString(buf, startIndex, length, found, deadline)) {
+                    if (!atEnd && found[2] > length - STREAM_TAIL) {
+                        // string may yet continue differently; revisit
+                        return startIndex;
+                    }
+                    if (budgetExhausted(found[2] - startIndex)) {
+                        return length;
+                    }
+                    numberOfStringsExamined.incrementAndGet();
+                    if (isPossibleUri(buf, found[0], found[1])) {
+                        numberOfStringsConsidered.incrementAndGet();
+                        String candidate = 
+                            buf.substring(found[0], found[1]);
+                        if (considerString(ExtractorJS.this, curi, true, 
+                                candidate)) {
+                            numberOfLinksExtracted.incrementAndGet();
+                        }
+                    }
+                    startIndex = found[2];
+                }
+                if (found[2] < 0) {
+                    // out of time within a long stretch without strings
+                    budgetExhausted(length - startIndex);
+                    return length;
+                }
+                // no string starts in [startIndex, length-STREAM_TAIL) 
+                return atEnd ? length 
+                        : Math.max(startIndex, length - STREAM_TAIL);
+            }
+        };
+    }
+
     protected long considerStrings(CrawlURI curi, CharSequence cs) {
         return considerStrings(this, curi, cs, true);
     }
@@ -141,26 +248,180 @@ public class ExtractorJS extends ContentExtractor {
     public long considerStrings(Extractor ext, 
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
         long foundLinks = 0;
-        Matcher strings =
-            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
+        int length = cs.length();
+        int maxChars = getMaxCharsToScan();
+        if (maxChars > 0 && maxChars < length) {
+            length = maxChars;
+        }
+        long maxTime = getMaxScanTimeMs();
+        long deadline = maxTime > 0 ? System.currentTimeMillis() + maxTime : 0;
+        Budget budget = getCurrentBudget();
+        if (budget != null && budget.getDeadline() > 0 
+                && (deadline == 0 || budget.getDeadline() < deadline)) {
+            deadline = budget.getDeadline();
+        }
+        boolean truncated = length < cs.length();
         
+        int[] found = new int[3];
         int startIndex = 0;
-        while (strings.find(startIndex)) {
-            CharSequence subsequence =
-                cs.subSequence(strings.start(2), strings.end(2));
-            
-            if (UriUtils.isPossibleUri(subsequence)) {
-                if (considerString(ext, curi, handlingJSFile, subsequence.toString())) {
+        while (nextString(cs, startIndex, length, found, deadline)) {
+            numberOfStringsExamined.incrementAndGet();
+            if (isPossibleUri(cs, found[0], found[1])) {
+                numberOfStringsConsidered.incrementAndGet();
+                String candidate = cs.subSequence(found[0], found[1]).toString();
+                if (considerString(ext, curi, handlingJSFile, candidate)) {
                     foundLinks++;
                 }
             }
-
-            startIndex = strings.end(1);
+            // scripts inline in other content are charged by the 
+            // calling extractor
+            long scanned = handlingJSFile ? found[2] - startIndex : 0;
+            startIndex = found[2];
+            if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                truncated = true;
+                break;
+            }
+            if (budgetExhausted(scanned)) {
+                truncated = true;
+                break;
+            }
+        }
+        if (found[2] < 0) {
+            // out of time within a long stretch without strings
+            budgetExhausted(handlingJSFile ? length - startIndex : 0);
+            truncated = true;
+        }
+        if (truncated) {
+            numberOfScansTruncated.incrementAndGet();
+            curi.getAnnotations().add("jsScanTruncated");
         }
-        TextUtils.recycleMatcher(strings);
         return foundLinks;
     }
-
+    
+    /**
+     * Find the next quoted string at or after <code>from</code>, exactly as 
+     * a find() of {@link #JAVASCRIPT_STRING_EXTRACTOR} would.
+     * 
+     * @param cs text to scan
+     * @param from offset to start searching
+     * @param limit offset at which to stop scanning
+     * @param found on success, receives start and end offsets of the 
+     * string contents, and offset from which to continue searching
+     * @return true if a string was found
+     */
+    protected static boolean nextString(CharSequence cs, int from, int limit, 
+            int[] found) {
+        return nextString(cs, from, limit, found, 0);
+    }
+    
+    /**
+     * As {@link #nextString(CharSequence, int, int, int[])}, but giving up
+     * once past the given deadline, checked every 
+     * {@link #DEADLINE_CHECK_INTERVAL} characters, so that long stretches
+     * without strings (or with many near-miss quotes) cannot overrun it.
+     * 
+     * @param cs text to scan
+     * @param from offset to start searching
+     * @param limit offset at which to stop scanning
+     * @param found on success, receives start and end offsets of the 
+     * string contents, and offset from which to continue searching; on
+     * giving up, found[2] is set to -1
+     * @param deadline time (in epoch milliseconds) at which to give up, 
+     * or 0 for none
+     * @return true if a string was found
+     */
+    protected static boolean nextString(CharSequence cs, int from, int limit, 
+            int[] found, long deadline) {
+        found[2] = from;
+        for (int i = from; i < limit; i++) {
+            if (deadline > 0 
+                    && (i - from) % DEADLINE_CHECK_INTERVAL 
+                        == DEADLINE_CHECK_INTERVAL - 1
+                    && System.currentTimeMillis() > deadline) {
+                found[2] = -1;
+                return false;
+            }
+            char c = cs.charAt(i);
+            if (c != '\\' && c != '\'' && c != '"') {
+                continue;
+            }
+            // possessive run of up to 8 backslashes, then the quote
+            int q = i;
+            while (q < limit && q - i < MAX_QUOTE_BACKSLASHES 
+                    && cs.charAt(q) == '\\') {
+                q++;
+            }
+            if (q >= limit) {
+                return false;
+            }
+            char quote = cs.charAt(q);
+            if (quote != '\'' && quote != '"') {
+                continue;
+            }
+            int backslashes = q - i;
+            int start = q + 1;
+            // contents and closing backslashes hold no quotes or whitespace
+            int maxEnd = Math.min(limit, 
+                    start + UURI.MAX_URL_LENGTH + backslashes + 1);
+            int end = start;
+            while (end < maxEnd && !isQuoteOrSpace(cs.charAt(end))) {
+                end++;
+            }
+            int contentEnd = end - backslashes;
+            if (end >= maxEnd || cs.charAt(end) != quote 
+                    || contentEnd - start < 1 
+                    || contentEnd - start > UURI.MAX_URL_LENGTH) {
+                continue;
+            }
+            boolean closed = true;
+            for (int j = contentEnd; j < end; j++) {
+                if (cs.charAt(j) != '\\') {
+                    closed = false;
+                    break;
+                }
+            }
+            if (!closed) {
+                continue;
+            }
+            found[0] = start;
+            found[1] = contentEnd;
+            found[2] = start;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return true if c is a quote or a character matched by regex \s
+     */
+    protected static boolean isQuoteOrSpace(char c) {
+        switch (c) {
+        case '\'': case '"':
+        case ' ': case '\t': case '\n': case '\u000B': case '\f': case '\r':
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    /**
+     * Cheap equivalent of {@link UriUtils#isPossibleUri(CharSequence)} for 
+     * the whitespace-free strings found by nextString(): at least one '.' 
+     * or '/', and no '&lt;' or '&gt;'.
+     */
+    protected static boolean isPossibleUri(CharSequence cs, int start, int end) {
+        boolean dotOrSlash = false;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '<' || c == '>') {
+                return false;
+            }
+            if (c == '.' || c == '/') {
+                dotOrSlash = true;
+            }
+        }
+        return dotOrSlash;
+    }
 
     protected boolean considerString(Extractor ext, CrawlURI curi,
             boolean handlingJSFile, String candidate) {
@@ -190,4 +451,14 @@ public class ExtractorJS extends ContentExtractor {
         
         return false;
     }
+
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        ret.append("  " + numberOfStringsExamined + " quoted strings examined, ");
+        ret.append(numberOfStringsConsidered + " possible URIs\n");
+        ret.append("  " + numberOfScansTruncated + " scans cut short by budget\n");
+        return ret.toString();
+    }
 }
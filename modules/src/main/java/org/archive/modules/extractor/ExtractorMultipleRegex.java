@@ -190,6 +190,9 @@ public class ExtractorMultipleRegex extends Extractor {
         public MatchList(String regex, CharSequence cs) {
             Matcher matcher = TextUtils.getMatcher(regex, cs);
             while (matcher.find()) {
+                if (budgetExhausted(0)) {
+                    break;
+                }
                 add(new GroupList(matcher));
             }
         }
@@ -18,17 +18,18 @@
  */
 package org.archive.modules.extractor;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.io.SinkHandlerLogThread;
+import org.apache.commons.io.IOUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
-import org.archive.util.FileUtils;
 
 /** Allows the caller to process a CrawlURI representing a PDF
  *  for the purpose of extracting URIs
@@ -58,6 +59,25 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * Maximum time, in milliseconds, to spend extracting links from any
+     * one PDF. Zero or less means no limit.
+     */
+    {
+        setMaxParseTimeMs(0L);
+    }
+    public long getMaxParseTimeMs() {
+        return (Long) kp.get("maxParseTimeMs");
+    }
+    public void setMaxParseTimeMs(long millis) {
+        kp.put("maxParseTimeMs", millis);
+    }
+
+    /** pages in all PDFs parsed */
+    protected AtomicLong numberOfPagesSeen = new AtomicLong(0);
+    /** PDFs whose parse was cut short by maxParseTimeMs */
+    protected AtomicLong numberOfParsesTruncated = new AtomicLong(0);
+
     public ExtractorPDF() {
     }
     
@@ -74,27 +94,42 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
+        // the whole document must be in memory for PdfReader anyway, so
+        // read it straight from the recorder rather than via a temp file
+        byte[] document;
+        InputStream in = null;
         try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
+            in = curi.getRecorder().getContentReplayInputStream();
+            document = readDocument(in, curi.getContentLength(), 
+                    getMaxSizeToParse());
+        } catch (IOException e) {
+            curi.getNonFatalFailures().add(e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (document == null) {
+            // content body over maxSizeToParse
+            return false;
         }
 
         PDFParser parser;
         ArrayList<String> uris;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
+            parser = new PDFParser(document);
+            long maxTime = getMaxParseTimeMs();
+            long deadline = maxTime > 0 
+                ? System.currentTimeMillis() + maxTime : 0;
+            Budget budget = getCurrentBudget();
+            if (budget != null && budget.getDeadline() > 0 
+                    && (deadline == 0 || budget.getDeadline() < deadline)) {
+                deadline = budget.getDeadline();
+            }
+            if (deadline > 0) {
+                parser.setDeadline(deadline);
+            }
             uris = parser.extractURIs();
+            numberOfPagesSeen.addAndGet(parser.getNumberOfPages());
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
             return false;
@@ -103,8 +138,10 @@ public class ExtractorPDF extends ContentExtractor {
             // other problems
             curi.getNonFatalFailures().add(e);
             return false;
-        } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
+        }
+        if (parser.isTruncated()) {
+            numberOfParsesTruncated.incrementAndGet();
+            curi.getAnnotations().add("pdfParseTruncated");
         }
         
         if (uris == null) {
@@ -132,4 +169,42 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    /**
+     * Read a whole document into memory, giving up if it proves larger
+     * than the given maximum.
+     * 
+     * @param in document stream
+     * @param expectedLength expected length, used to size the buffer, or
+     * a negative value if unknown
+     * @param max maximum length to accept
+     * @return document bytes, or null if over max
+     * @throws IOException
+     */
+    protected static byte[] readDocument(InputStream in, long expectedLength, 
+            long max) throws IOException {
+        int initialSize = (int) Math.min(
+                Math.max(expectedLength, 4 * 1024), Math.min(max, 64 * 1024 * 1024));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(initialSize);
+        byte[] buf = new byte[16 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            total += n;
+            if (total > max) {
+                return null;
+            }
+            bytes.write(buf, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        ret.append("  " + numberOfPagesSeen + " pages in parsed PDFs\n");
+        ret.append("  " + numberOfParsesTruncated + " parses cut short by budget\n");
+        return ret.toString();
+    }
 }
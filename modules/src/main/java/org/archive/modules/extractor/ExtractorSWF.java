@@ -153,7 +153,11 @@ public class ExtractorSWF extends ContentExtractor {
             if (longTag) {
                 length = (int) mIn.readUI32();
             }
-            // Below test added for Heritrix use.
+            // Below tests added for Heritrix use.
+            if (budgetExhausted(length)) {
+                // report end-of-file tag, ending reading
+                return 0;
+            }
             if (length > MAX_READ_SIZE) {
                 // skip to next, rather than throw IOException ending
                 // processing
@@ -369,6 +369,10 @@ public class ExtractorUniversal extends ContentExtractor {
             long maxURLLength = UURI.MAX_URL_LENGTH;
             boolean foundDot = false;
             while(ch != -1 && ++counter <= maxdepth) {
+                if((counter & 0xFFF) == 0 && budgetExhausted(0x1000)) {
+                    // checked every 4KiB
+                    break;
+                }
                 if(lookat.length()>maxURLLength){
                     //Exceeded maximum length of a URL. Start fresh.
                     lookat = new StringBuffer();
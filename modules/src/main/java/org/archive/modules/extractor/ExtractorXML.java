@@ -150,7 +150,12 @@ public class ExtractorXML extends ContentExtractor {
             CrawlURI curi, CharSequence cs) {
         long foundLinks = 0;
         Matcher matcher = XML_URI_EXTRACTOR.matcher(cs);
+        int scanned = 0;
         while (matcher.find()) {
+            if (budgetExhausted(matcher.end() - scanned)) {
+                break;
+            }
+            scanned = matcher.end();
             String xmlUri = StringEscapeUtils.unescapeXml(matcher.group(1));
             if (UriUtils.isVeryLikelyUri(xmlUri)) {
                 foundLinks++;
@@ -18,8 +18,15 @@
  */
 package org.archive.modules.extractor;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 
@@ -27,6 +34,7 @@ import org.apache.commons.lang.StringUtils;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
+import org.archive.util.Digesters;
 import org.archive.util.TextUtils;
 
 /**
@@ -51,7 +59,11 @@ import org.archive.util.TextUtils;
  * <p>
  * It is generally recommended that this recalculation only be performed when 
  * absolutely needed (because of stripping data that changes automatically each 
- * time the URL is fetched) as this is an expensive operation.
+ * time the URL is fetched) as this is an expensive operation. Even with 
+ * no strip regex, the digest is of the decoded text, re-encoded, and so 
+ * generally differs from the fetcher's digest of the raw body. Digesting 
+ * streams through the replayed content once, with per-thread 
+ * digests and buffers, rather than building the stripped document.
  * 
  * NOTE: This processor may open a ReplayCharSequence from the 
  * CrawlURI's Recorder, without closing that ReplayCharSequence, to allow
@@ -99,8 +111,36 @@ public class HTTPContentDigest extends Processor {
         kp.put("maxSizeToDigest",threshold);
     }
     
+    /**
+     * Digest algorithm: SHA1 (the default), another JCA algorithm, or 
+     * MURMUR3-128 for a much cheaper non-cryptographic fingerprint. The 
+     * result replaces the CrawlURI's content digest, as used for 
+     * duplicate detection and in WARC payload-digest headers; use a
+     * non-SHA1 algorithm only where the digest serves duplicate detection
+     * alone.
+     */
+    {
+        setDigestAlgorithm(SHA1);
+    }
+    public String getDigestAlgorithm() {
+        return (String) kp.get("digestAlgorithm");
+    }
+    public void setDigestAlgorithm(String algorithm) {
+        kp.put("digestAlgorithm",algorithm);
+    }
+    
     private static final String SHA1 = "SHA1";
 
+    /** characters encoded per digest update */
+    protected static final int BUFFER_CHARS = 8 * 1024;
+    
+    /** per-thread encode buffers, reused across URIs */
+    protected static ThreadLocal<CharDigester> charDigesters = 
+        new ThreadLocal<CharDigester>() {
+        protected CharDigester initialValue() {
+            return new CharDigester();
+        }
+    };
     
     /**
      * Constructor.
@@ -126,38 +166,37 @@ public class HTTPContentDigest extends Processor {
         // Ok, if we got this far we need to calculate the content digest. 
         // Get the regex
         String regex = getStripRegex();
+        String algorithm = getDigestAlgorithm();
         
         // Get a replay of the document character seq.
         ReplayCharSequence cs = null;
         try {
            cs = curi.getRecorder().getContentReplayCharSequence();
-           // Create a MessageDigest 
-           MessageDigest digest = null;
-           try {
-               digest = MessageDigest.getInstance(SHA1);
-           } catch (NoSuchAlgorithmException e1) {
-               e1.printStackTrace();
-               return;
-           }
-
-           digest.reset();
-
-           String s = null;
+           MessageDigest digest = Digesters.get(algorithm);
+           CharDigester digester = charDigesters.get();
+           digester.start(digest);
 
            if (StringUtils.isEmpty(regex)) {
-               s = cs.toString();
+               digester.update(cs, 0, cs.length());
            } else {
-               // Process the document
+               // Digest the document as if each match were replaced by
+               // a single space, without building the replaced string
                Matcher m = TextUtils.getMatcher(regex, cs);
-               s = m.replaceAll(" ");
+               int pos = 0;
+               while (m.find()) {
+                   digester.update(cs, pos, m.start());
+                   digester.update(" ", 0, 1);
+                   pos = m.end();
+               }
+               digester.update(cs, pos, cs.length());
                TextUtils.recycleMatcher(m);
            }
-           digest.update(s.getBytes());
-           // Get the new digest value
-           byte[] newDigestValue = digest.digest();
            // Save new digest value
-           curi.setContentDigest(SHA1, newDigestValue);
+           curi.setContentDigest(algorithm, digester.finish());
            
+        } catch (NoSuchAlgorithmException e) {
+            logger.log(Level.SEVERE, "unavailable digest algorithm", e);
+            return;
         } catch (Exception e) {
             curi.getNonFatalFailures().add(e);
             logger.warning("Failed get of replay char sequence " +
@@ -166,4 +205,58 @@ public class HTTPContentDigest extends Processor {
             return; // Can't proceed if this happens.
         }
     }
+
+    /**
+     * Encodes runs of characters into a MessageDigest through fixed 
+     * buffers. The platform default charset is used, with replacement
+     * of unencodable characters, exactly as the String.getBytes() of 
+     * earlier versions did, so digest values are unchanged.
+     */
+    protected static class CharDigester {
+        protected CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        protected CharBuffer chars = CharBuffer.allocate(BUFFER_CHARS);
+        protected ByteBuffer bytes = ByteBuffer.allocate(
+                (int) (BUFFER_CHARS * encoder.maxBytesPerChar()));
+        protected MessageDigest digest;
+
+        public void start(MessageDigest digest) {
+            this.digest = digest;
+            encoder.reset();
+            chars.clear();
+            bytes.clear();
+        }
+
+        public void update(CharSequence cs, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                chars.put(cs.charAt(i));
+            }
+        }
+
+        protected void encode(boolean endOfInput) {
+            chars.flip();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, endOfInput);
+                digest.update(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            } while (result.isOverflow());
+            // keep any half of a surrogate pair for next time
+            chars.compact();
+        }
+
+        public byte[] finish() {
+            encode(true);
+            encoder.flush(bytes);
+            digest.update(bytes.array(), 0, bytes.position());
+            bytes.clear();
+            byte[] value = digest.digest();
+            digest = null;
+            return value;
+        }
+    }
 }
\ No newline at end of file
@@ -421,7 +421,13 @@ public class JerichoExtractorHTML extends ExtractorHTML {
     protected void extract(CrawlURI curi, CharSequence cs) {
         Source source = new Source(cs);
         List<Element> elements = source.findAllElements(StartTagType.NORMAL);
+        int scanned = 0;
         for (Element element : elements) {
+            // elements are in order of start position
+            if (budgetExhausted(element.getBegin() - scanned)) {
+                break;
+            }
+            scanned = element.getBegin();
             String elementName = element.getName();
             Attributes attributes;
             if (elementName.equals(HTMLElementName.META)) {
@@ -46,6 +46,10 @@ public class PDFParser {
     protected PdfReader documentReader;
     protected byte[] document;
     protected PdfDictionary catalog;
+    /** time after which extraction stops early, or 0 for no limit */
+    protected long deadline = 0;
+    /** whether extraction stopped early */
+    protected boolean truncated = false;
 
     public PDFParser(String doc) throws IOException {
         resetState();
@@ -66,6 +70,7 @@ public class PDFParser {
         documentReader = null;
         document = null;
         catalog = null;
+        truncated = false;
 
         for(int i=0; i < encounteredReferences.size(); i++){
             encounteredReferences.add(new ArrayList<Integer>());
@@ -105,9 +110,13 @@ public class PDFParser {
         long length = documentOnDisk.length();
         document = new byte[(int)length];
 
-        FileInputStream inStream = new FileInputStream(documentOnDisk);
-
-        inStream.read(document);
+        DataInputStream inStream = 
+            new DataInputStream(new FileInputStream(documentOnDisk));
+        try {
+            inStream.readFully(document);
+        } finally {
+            inStream.close();
+        }
     }
 
     /**
@@ -176,6 +185,29 @@ public class PDFParser {
         catalog = documentReader.getCatalog();
     }
 
+    /**
+     * Set a time (as from System.currentTimeMillis()) after which
+     * extractURIs() should stop, returning only the URIs found so far.
+     * @param deadline time limit, or 0 for none
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return whether the last extractURIs() stopped early at the deadline
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return number of pages in the document
+     */
+    public int getNumberOfPages() {
+        return documentReader.getNumberOfPages();
+    }
+
     /**
      * Extract URIs from all objects found in a Pdf document's catalog.
      * Returns an array list representing all URIs found in the document catalog tree.
@@ -193,6 +225,10 @@ public class PDFParser {
      */
     @SuppressWarnings("unchecked")
     protected void extractURIs(PdfObject entity){
+            if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                truncated = true;
+                return;
+            }
 
             // deal with dictionaries
             if(entity.isDictionary()){
@@ -0,0 +1,44 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.nio.charset.Charset;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * A ContentExtractor able to scan content as it is being fetched, so
+ * that its usual replay of the fetched content may be skipped. 
+ * 
+ * @see ContentScanner
+ */
+public interface StreamingExtractor {
+
+    /**
+     * Offer to scan the content of the given CrawlURI, whose response 
+     * headers have been received but whose body has not yet been read.
+     * 
+     * @param curi CrawlURI about to have its content read
+     * @param charset charset in which content will be decoded
+     * @return a ContentScanner to receive the decoded content, or null
+     * if this extractor will not scan this content incrementally
+     */
+    public ContentScanner newScanner(CrawlURI curi, Charset charset);
+}
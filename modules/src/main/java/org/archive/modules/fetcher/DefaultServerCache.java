@@ -27,6 +27,7 @@ import java.util.logging.Logger;
 import org.apache.commons.collections.Closure;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.Robotstxt;
 import org.archive.modules.net.ServerCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.ObjectIdentityMemCache;
@@ -58,6 +59,13 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
      */
     protected ObjectIdentityCache<CrawlHost> hosts = null;
     
+    /**
+     * robots.txt content digest -> Robotstxt, shared by all servers 
+     * which served identical robots.txt.
+     * Set in the initialization.
+     */
+    protected ObjectIdentityCache<Robotstxt> robots = null;
+    
     /**
      * Constructor.
      */
@@ -71,8 +79,15 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
     
     public DefaultServerCache(ObjectIdentityCache<CrawlServer> servers, 
             ObjectIdentityCache<CrawlHost> hosts) {
+        this(servers, hosts, new ObjectIdentityMemCache<Robotstxt>());
+    }
+    
+    public DefaultServerCache(ObjectIdentityCache<CrawlServer> servers, 
+            ObjectIdentityCache<CrawlHost> hosts, 
+            ObjectIdentityCache<Robotstxt> robots) {
         this.servers = servers;
         this.hosts = hosts;
+        this.robots = robots;
     }
     
     /**
@@ -88,6 +103,10 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
                         String skey = new String(serverKey); // ensure private minimal key
                         return new CrawlServer(skey);
                     }});
+        if (cserver != null) {
+            // transient, so must be (re)set on instances loaded from disk
+            cserver.setRobotsCache(robots);
+        }
         return cserver;
     }
     
@@ -144,6 +163,10 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
             this.servers.close();
             this.servers = null;
         }
+        if (this.robots != null) { 
+            this.robots.close();
+            this.robots = null;
+        }
     }
 
     /**
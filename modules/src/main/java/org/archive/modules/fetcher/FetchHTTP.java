@@ -28,8 +28,16 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_UNFETCHABLE_URI;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -79,9 +87,12 @@ import org.archive.modules.credential.HttpAuthenticationCredential;
 import org.archive.modules.deciderules.AcceptDecideRule;
 import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.deciderules.DecideRule;
+import org.archive.modules.extractor.ContentScanner;
+import org.archive.modules.extractor.StreamingExtractor;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
+import org.archive.util.Digesters;
 import org.archive.util.Recorder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
@@ -105,6 +116,21 @@ public class FetchHTTP extends Processor implements Lifecycle {
         AUTH_SCHEME_REGISTRY = b.build();
     }
 
+    /**
+     * Extractors to be fed the response body, decoded to characters, as it
+     * is read. Those completing a scan of a URI's content skip their usual
+     * replay of it when later reached in the fetch chain. Only content 
+     * without a Content-Encoding is streamed. Empty by default.
+     */
+    protected List<StreamingExtractor> streamingExtractors = 
+        new ArrayList<StreamingExtractor>();
+    public List<StreamingExtractor> getStreamingExtractors() {
+        return this.streamingExtractors;
+    }
+    public void setStreamingExtractors(List<StreamingExtractor> extractors) {
+        this.streamingExtractors = extractors;
+    }
+
     protected ServerCache serverCache;
     public ServerCache getServerCache() {
         return this.serverCache;
@@ -137,7 +163,9 @@ public class FetchHTTP extends Processor implements Lifecycle {
     }
     /**
      * Which algorithm (for example MD5 or SHA-1) to use to perform an
-     * on-the-fly digest hash of retrieved content-bodies.
+     * on-the-fly digest hash of retrieved content-bodies. MURMUR3-128 
+     * gives a much cheaper non-cryptographic fingerprint, suitable for 
+     * duplicate detection only; keep SHA-1 when writing WARCs.
      */
     public void setDigestAlgorithm(String digestAlgorithm) {
         this.digestAlgorithm = digestAlgorithm;
@@ -577,13 +605,22 @@ public class FetchHTTP extends Processor implements Lifecycle {
      */
     protected void setCharacterEncoding(CrawlURI curi, final Recorder rec,
             final HttpResponse response) {
+        rec.setCharset(getContentCharset(response));
+    }
+
+    /**
+     * Get the charset declared in the response headers, or the default.
+     * 
+     * @param response response
+     * @return charset in which to decode content
+     */
+    protected Charset getContentCharset(final HttpResponse response) {
         Charset charset = ContentType.getOrDefault(response.getEntity()).getCharset();
-        if (charset != null) {
-            rec.setCharset(charset);
-        } else {
+        if (charset == null) {
             // curi.getAnnotations().add("unsatisfiableCharsetInHeader:"+StringUtils.stripToEmpty(encoding));
-            rec.setCharset(getDefaultCharset());
+            charset = getDefaultCharset();
         }
+        return charset;
     }
 
     protected boolean checkMidfetchAbort(CrawlURI curi) {
@@ -627,7 +664,14 @@ public class FetchHTTP extends Processor implements Lifecycle {
         String algorithm = null;
         if (digestContent) {
             algorithm = getDigestAlgorithm();
-            rec.getRecordedInput().setDigest(algorithm);
+            try {
+                // reuse this thread's digest, rather than look up anew
+                rec.getRecordedInput().setDigest(Digesters.get(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                logger.log(Level.SEVERE, "unavailable digest algorithm", e);
+                rec.getRecordedInput().setDigest((MessageDigest)null);
+                digestContent = false;
+            }
         } else {
             // clear
             rec.getRecordedInput().setDigest((MessageDigest)null);
@@ -663,11 +707,18 @@ public class FetchHTTP extends Processor implements Lifecycle {
         if (h != null) {
             contentLength = Long.parseLong(h.getValue());
         }
+        List<ContentScanner> scanners = null;
         try {
             if (!req.request.isAborted()) {
-                // Force read-to-end, so that any socket hangs occur here,
-                // not in later modules.
-                rec.getRecordedInput().readToEndOfContent(contentLength); 
+                scanners = startScanners(curi, response);
+                if (scanners != null) {
+                    // reads to end of content, via the entity
+                    streamContent(response, scanners);
+                } else {
+                    // Force read-to-end, so that any socket hangs occur here,
+                    // not in later modules.
+                    rec.getRecordedInput().readToEndOfContent(contentLength);
+                }
             }
         } catch (RecorderTimeoutException ex) {
             doAbort(curi, req.request, TIMER_TRUNC);
@@ -695,6 +746,13 @@ public class FetchHTTP extends Processor implements Lifecycle {
             setOtherCodings(curi, rec, response); 
         }
 
+        if (scanners != null) {
+            // complete (as replay would) even if content was truncated
+            for (ContentScanner scanner : scanners) {
+                scanner.finish();
+            }
+        }
+
         if (digestContent) {
             curi.setContentDigest(algorithm, 
                 rec.getRecordedInput().getDigestValue());
@@ -735,6 +793,74 @@ public class FetchHTTP extends Processor implements Lifecycle {
     }
 
 
+    /**
+     * Start scans of the response body by any streamingExtractors 
+     * interested in it.
+     * 
+     * @return scanners, or null if the content will not be streamed
+     */
+    protected List<ContentScanner> startScanners(CrawlURI curi, 
+            HttpResponse response) {
+        if (streamingExtractors == null || streamingExtractors.isEmpty()
+                || response.getEntity() == null
+                || response.getEntity().getContentEncoding() != null) {
+            return null;
+        }
+        Charset charset = getContentCharset(response);
+        List<ContentScanner> scanners = null;
+        for (StreamingExtractor extractor : streamingExtractors) {
+            ContentScanner scanner = extractor.newScanner(curi, charset);
+            if (scanner != null) {
+                if (scanners == null) {
+                    scanners = new ArrayList<ContentScanner>();
+                }
+                scanners.add(scanner);
+            }
+        }
+        return scanners;
+    }
+
+    /**
+     * Read the response body through the entity, so undoing any chunked
+     * transfer-encoding, and feed it decoded to the given scanners. 
+     * Everything read is recorded as usual by the Recorder underneath. 
+     * Recorder limits apply, as with readToEndOfContent(). A scanner 
+     * failing, or exhausting its extractor's budget, ends only its own 
+     * scan (see ContentScanner); the fetch itself continues. 
+     */
+    protected void streamContent(HttpResponse response, 
+            List<ContentScanner> scanners) throws IOException {
+        CharsetDecoder decoder = getContentCharset(response).newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(16 * 1024);
+        CharBuffer chars = CharBuffer.allocate(16 * 1024);
+        InputStream in = response.getEntity().getContent();
+        boolean eof = false;
+        while (!eof) {
+            int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+            if (n < 0) {
+                eof = true;
+            } else {
+                bytes.position(bytes.position() + n);
+            }
+            bytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, eof);
+                if (eof && !result.isOverflow()) {
+                    result = decoder.flush(chars);
+                }
+                chars.flip();
+                for (ContentScanner scanner : scanners) {
+                    scanner.consume(chars);
+                }
+                chars.clear();
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+    }
+
     /**
      * Promote successful credential to the server.
      * 
@@ -22,6 +22,7 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.archive.modules.CrawlURI;
@@ -49,90 +50,131 @@ public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
         public void tally(CrawlURI curi, Stage stage); 
     }
     
-    protected long totalScheduled;   // anything initially scheduled
+    protected volatile long totalScheduled;   // anything initially scheduled
                            // (totalScheduled - (fetchSuccesses + fetchFailures)
-    protected long fetchSuccesses;   // anything disposed-success 
+    protected volatile long fetchSuccesses;   // anything disposed-success 
                            // (HTTP 2XX response codes, other non-errors)
-    protected long fetchFailures;    // anything disposed-failure
-    protected long fetchDisregards;  // anything disposed-disregard
-    protected long fetchResponses;   // all positive responses (incl. 3XX, 4XX, 5XX)
-    protected long robotsDenials;    // all robots-precluded failures
-    protected long successBytes;     // total size of all success responses
-    protected long totalBytes;       // total size of all responses
-    protected long fetchNonResponses; // processing attempts resulting in no response
+    protected volatile long fetchFailures;    // anything disposed-failure
+    protected volatile long fetchDisregards;  // anything disposed-disregard
+    protected volatile long fetchResponses;   // all positive responses (incl. 3XX, 4XX, 5XX)
+    protected volatile long robotsDenials;    // all robots-precluded failures
+    protected volatile long successBytes;     // total size of all success responses
+    protected volatile long totalBytes;       // total size of all responses
+    protected volatile long fetchNonResponses; // processing attempts resulting in no response
                            // (both failures and temp deferrals)
     
-    protected long novelBytes; 
-    protected long novelUrls;
-    protected long notModifiedBytes;
-    protected long notModifiedUrls;
-    protected long dupByHashBytes;
-    protected long dupByHashUrls;  
+    protected volatile long novelBytes; 
+    protected volatile long novelUrls;
+    protected volatile long notModifiedBytes;
+    protected volatile long notModifiedUrls;
+    protected volatile long dupByHashBytes;
+    protected volatile long dupByHashUrls;  
     
-    protected long lastSuccessTime; 
+    protected volatile long lastSuccessTime; 
+    
+    /*
+     * Tallies update the volatile fields above by compare-and-set, rather
+     * than holding this instance's lock: the same server, host and queue
+     * FetchStats are tallied by every ToeThread finishing a URI there, 
+     * and a lock here convoyed those threads on popular hosts. Each field
+     * is individually exact and immediately visible (as QuotaEnforcer 
+     * requires); a reader may see one field of a tally updated before 
+     * another. The fields remain plain longs for serialization. 
+     */
+    private static final AtomicLongFieldUpdater<FetchStats> TOTAL_SCHEDULED =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "totalScheduled");
+    private static final AtomicLongFieldUpdater<FetchStats> FETCH_SUCCESSES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "fetchSuccesses");
+    private static final AtomicLongFieldUpdater<FetchStats> FETCH_FAILURES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "fetchFailures");
+    private static final AtomicLongFieldUpdater<FetchStats> FETCH_DISREGARDS =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "fetchDisregards");
+    private static final AtomicLongFieldUpdater<FetchStats> FETCH_RESPONSES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "fetchResponses");
+    private static final AtomicLongFieldUpdater<FetchStats> ROBOTS_DENIALS =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "robotsDenials");
+    private static final AtomicLongFieldUpdater<FetchStats> SUCCESS_BYTES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "successBytes");
+    private static final AtomicLongFieldUpdater<FetchStats> TOTAL_BYTES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "totalBytes");
+    private static final AtomicLongFieldUpdater<FetchStats> FETCH_NON_RESPONSES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "fetchNonResponses");
+    private static final AtomicLongFieldUpdater<FetchStats> NOVEL_BYTES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "novelBytes");
+    private static final AtomicLongFieldUpdater<FetchStats> NOVEL_URLS =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "novelUrls");
+    private static final AtomicLongFieldUpdater<FetchStats> NOT_MODIFIED_BYTES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "notModifiedBytes");
+    private static final AtomicLongFieldUpdater<FetchStats> NOT_MODIFIED_URLS =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "notModifiedUrls");
+    private static final AtomicLongFieldUpdater<FetchStats> DUP_BY_HASH_BYTES =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "dupByHashBytes");
+    private static final AtomicLongFieldUpdater<FetchStats> DUP_BY_HASH_URLS =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "dupByHashUrls");
+    private static final AtomicLongFieldUpdater<FetchStats> LAST_SUCCESS_TIME =
+        AtomicLongFieldUpdater.newUpdater(FetchStats.class, "lastSuccessTime");
     
     /*
      * XXX redundancy with StatisticsTracker.onApplicationEvent() ... CrawledBytesHistotable.accumulate() code path
      */
-    public synchronized void tally(CrawlURI curi, Stage stage) {
+    public void tally(CrawlURI curi, Stage stage) {
         switch(stage) {
             case SCHEDULED:
-                totalScheduled++;
+                TOTAL_SCHEDULED.incrementAndGet(this);
                 break;
             case RETRIED:
                 if(curi.getFetchStatus()<=0) {
-                    fetchNonResponses++;
+                    FETCH_NON_RESPONSES.incrementAndGet(this);
                 }
                 break;
             case SUCCEEDED:
-                fetchSuccesses++;
-                fetchResponses++;
-                totalBytes += curi.getContentSize();
-                successBytes += curi.getContentSize();
-           
-                if (curi.getFetchStatus() == HttpStatus.SC_NOT_MODIFIED) {
-                    notModifiedBytes += curi.getContentSize();
-                    notModifiedUrls++;
-                } else if (curi.getAnnotations().contains("duplicate:digest")) {
-                    dupByHashBytes += curi.getContentSize();
-                    dupByHashUrls++;
-                } else {
-                    novelBytes += curi.getContentSize();
-                    novelUrls++;
-                } 
+                long size = curi.getContentSize();
+                FETCH_SUCCESSES.incrementAndGet(this);
+                FETCH_RESPONSES.incrementAndGet(this);
+                TOTAL_BYTES.addAndGet(this, size);
+                SUCCESS_BYTES.addAndGet(this, size);
+                tallyNovelty(curi, size);
                 
-                lastSuccessTime = curi.getFetchCompletedTime();
+                long completed = curi.getFetchCompletedTime();
+                long last;
+                do {
+                    last = lastSuccessTime;
+                } while (completed > last 
+                        && !LAST_SUCCESS_TIME.compareAndSet(this, last, completed));
                 break;
             case DISREGARDED:
-                fetchDisregards++;
+                FETCH_DISREGARDS.incrementAndGet(this);
                 if(curi.getFetchStatus()==S_ROBOTS_PRECLUDED) {
-                    robotsDenials++;
+                    ROBOTS_DENIALS.incrementAndGet(this);
                 }
                 break;
             case FAILED:
                 if(curi.getFetchStatus()<=0) {
-                    fetchNonResponses++;
+                    FETCH_NON_RESPONSES.incrementAndGet(this);
                 } else {
-                    fetchResponses++;
-                    totalBytes += curi.getContentSize();
-                    
-                    if (curi.getFetchStatus() == HttpStatus.SC_NOT_MODIFIED) { 
-                        notModifiedBytes += curi.getContentSize();
-                        notModifiedUrls++;
-                    } else if (curi.getAnnotations().contains("duplicate:digest")) {
-                        dupByHashBytes += curi.getContentSize();
-                        dupByHashUrls++;
-                    } else {
-                        novelBytes += curi.getContentSize();
-                        novelUrls++;
-                    } 
-
+                    size = curi.getContentSize();
+                    FETCH_RESPONSES.incrementAndGet(this);
+                    TOTAL_BYTES.addAndGet(this, size);
+                    tallyNovelty(curi, size);
                 }
-                fetchFailures++;
+                FETCH_FAILURES.incrementAndGet(this);
                 break;
         }
     }
     
+    protected void tallyNovelty(CrawlURI curi, long size) {
+        if (curi.getFetchStatus() == HttpStatus.SC_NOT_MODIFIED) {
+            NOT_MODIFIED_BYTES.addAndGet(this, size);
+            NOT_MODIFIED_URLS.incrementAndGet(this);
+        } else if (curi.getAnnotations().contains("duplicate:digest")) {
+            DUP_BY_HASH_BYTES.addAndGet(this, size);
+            DUP_BY_HASH_URLS.incrementAndGet(this);
+        } else {
+            NOVEL_BYTES.addAndGet(this, size);
+            NOVEL_URLS.incrementAndGet(this);
+        } 
+    }
+    
     public long getFetchSuccesses() {
         return fetchSuccesses;
     }
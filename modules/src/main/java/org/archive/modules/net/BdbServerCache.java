@@ -32,6 +32,10 @@ import com.sleepycat.je.DatabaseException;
 /**
  * ServerCache backed by BDB big maps; the usual choice for crawls.
  * 
+ * <p>The 'servers' map of checkpoints taken before CrawlServer kept its 
+ * robots rules by key (in the 'robotstxt' map) cannot be read: resuming
+ * from such a checkpoint is not supported.
+ * 
  * @contributor pjack
  * @contributor gojomo
  */
@@ -56,6 +60,7 @@ implements Lifecycle, Checkpointable {
         try {
             this.servers = bdb.getObjectCache("servers", isCheckpointRecovery, CrawlServer.class, CrawlServer.class);
             this.hosts = bdb.getObjectCache("hosts", isCheckpointRecovery, CrawlHost.class, CrawlHost.class);
+            this.robots = bdb.getObjectCache("robotstxt", isCheckpointRecovery, Robotstxt.class, Robotstxt.class);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         }
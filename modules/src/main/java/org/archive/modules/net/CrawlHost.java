@@ -73,6 +73,13 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats, Identi
 
     // Used when bandwith constraint are used
     private long earliestNextURIEmitTime = 0;
+
+    // Used when adaptive politeness is enabled: smoothed response 
+    // statistics, and the currently allowed request rate
+    protected double latencyEwmaMs = -1;
+    protected double errorRateEwma = 0;
+    protected double politenessRate = -1;
+    protected long politenessDelayMs = -1;
     
     /** 
      * Create a new CrawlHost object.
@@ -207,6 +214,63 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats, Identi
         this.earliestNextURIEmitTime = earliestNextURIEmitTime;
     }
 
+    /**
+     * Fold one response into the smoothed (exponentially-weighted moving
+     * average) latency and error-rate statistics.
+     * 
+     * @param latencyMs time taken by the fetch, or -1 if unknown (as
+     * when no connection was made)
+     * @param error whether the fetch indicated server distress (5xx, 
+     * connection failure, timeout)
+     * @param alpha weight of this observation, 0 to 1
+     */
+    public synchronized void tallyResponse(long latencyMs, boolean error, 
+            double alpha) {
+        if (latencyMs < 0) {
+            // no latency to tally
+        } else if (latencyEwmaMs < 0) {
+            latencyEwmaMs = latencyMs;
+        } else {
+            latencyEwmaMs += alpha * (latencyMs - latencyEwmaMs);
+        }
+        errorRateEwma += alpha * ((error ? 1 : 0) - errorRateEwma);
+    }
+
+    /**
+     * Smoothed fetch latency, or -1 if nothing tallied.
+     */
+    public double getLatencyEwmaMs() {
+        return latencyEwmaMs;
+    }
+
+    /**
+     * Smoothed fraction of fetches indicating server distress.
+     */
+    public double getErrorRateEwma() {
+        return errorRateEwma;
+    }
+
+    /**
+     * Requests per second currently allowed by adaptive politeness, or 
+     * -1 if not yet set.
+     */
+    public double getPolitenessRate() {
+        return politenessRate;
+    }
+
+    /**
+     * Politeness delay last derived from the allowed rate, or -1 if not
+     * yet set. 
+     */
+    public long getPolitenessDelayMs() {
+        return politenessDelayMs;
+    }
+
+    public synchronized void setPolitenessRate(double rate, long delayMs) {
+        this.politenessRate = rate;
+        this.politenessDelayMs = delayMs;
+    }
+
     /**
      * Get country code of this host
      * 
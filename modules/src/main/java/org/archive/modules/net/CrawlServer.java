@@ -22,10 +22,9 @@ import static org.archive.modules.CrawlURI.FetchType.HTTP_GET;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Map;
@@ -46,6 +45,7 @@ import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.IdentityCacheable;
 import org.archive.util.ObjectIdentityCache;
+import org.archive.util.Supplier;
 
 /**
  * Represents a single remote "server".
@@ -58,7 +58,15 @@ import org.archive.util.ObjectIdentityCache;
 public class CrawlServer implements Serializable, FetchStats.HasFetchStats, IdentityCacheable {
     private static final Logger logger =
         Logger.getLogger(CrawlServer.class.getName());
-    private static final long serialVersionUID = 3L;
+    /**
+     * 4: the serialized Robotstxt field was replaced by robotsKey, the 
+     * key of rules kept in the shared robots cache. CrawlServers 
+     * serialized by earlier versions -- including the 'servers' cache of
+     * earlier checkpoints, read back field by field by Kryo -- cannot be 
+     * read; bumped so Java serialization fails fast on them rather than 
+     * misreading.
+     */
+    private static final long serialVersionUID = 4L;
 
     public static final long ROBOTS_NOT_FETCHED = -1;
     /** only check if robots-fetch is perhaps superfluous 
@@ -67,9 +75,12 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
 
     private String server; // actually, host+port in the https case
     private int port;
-    protected Robotstxt robotstxt;
-    protected long robotsFetched = ROBOTS_NOT_FETCHED;
-    protected boolean validRobots = false;
+    /** key (content digest) of current robots rules, if any */
+    protected volatile String robotsKey; 
+    /** rules for robotsKey, once resolved; shared with other servers */
+    protected transient volatile Robotstxt robotstxt;
+    protected volatile long robotsFetched = ROBOTS_NOT_FETCHED;
+    protected volatile boolean validRobots = false;
     protected FetchStats substats = new FetchStats();
     
     // how many consecutive connection errors have been encountered;
@@ -127,8 +138,65 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         return true;
     }
     
+    /**
+     * Shared, content-addressed robots rules. Set by the ServerCache.
+     */
+    transient protected ObjectIdentityCache<Robotstxt> robotsCache;
+    public void setRobotsCache(ObjectIdentityCache<Robotstxt> robotsCache) {
+        this.robotsCache = robotsCache;
+    }
+    
+    /**
+     * Get the current robots rules, resolving them by key from the 
+     * shared robots cache if not already in hand. 
+     * 
+     * @return Robotstxt, or null if none (or none resolvable)
+     */
     public Robotstxt getRobotstxt() {
-        return robotstxt;
+        Robotstxt rules = robotstxt;
+        if (rules != null) {
+            return rules; 
+        }
+        String key = robotsKey; 
+        if (key == null) {
+            return null;
+        }
+        if (Robotstxt.NO_ROBOTS_KEY.equals(key)) {
+            rules = Robotstxt.NO_ROBOTS;
+        } else if (robotsCache != null) {
+            rules = robotsCache.get(key);
+        }
+        if (rules != null && key.equals(robotsKey)) {
+            robotstxt = rules;
+        }
+        return rules;
+    }
+    
+    protected void setRobotstxt(Robotstxt rules) {
+        // key first, so a concurrent getRobotstxt() can't leave stale 
+        // rules in place 
+        robotsKey = rules.getKey();
+        robotstxt = rules; 
+    }
+    
+    /**
+     * Get the rules parsed from the given content, reusing any identical
+     * rules already known to the shared robots cache rather than parsing
+     * again.
+     * 
+     * @param content robots.txt bytes
+     * @return Robotstxt
+     */
+    protected Robotstxt robotsFor(final byte[] content) {
+        final String key = Robotstxt.digestFor(content); 
+        Supplier<Robotstxt> parser = new Supplier<Robotstxt>() {
+            public Robotstxt get() {
+                return new Robotstxt(key, content);
+            }};
+        if (robotsCache == null) {
+            return parser.get();
+        }
+        return robotsCache.getOrUse(key, parser);
     }
     
     /** Update the robotstxt
@@ -173,21 +241,19 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
            // misconfiguration or blanket-block, not an intentional
            // indicator of partial blocking. 
            // TODO: consider handling server errors, redirects differently
-           robotstxt = Robotstxt.NO_ROBOTS;
+           setRobotstxt(Robotstxt.NO_ROBOTS);
            validRobots = true;
            return;
        }
 
        InputStream contentBodyStream = null;
        try {
-           BufferedReader reader;
            contentBodyStream = curi.getRecorder().getContentReplayInputStream();
-
-           reader = new BufferedReader(new InputStreamReader(contentBodyStream));
-           robotstxt = new Robotstxt(reader); 
+           byte[] content = readUpTo(contentBodyStream, Robotstxt.MAX_BYTES);
+           setRobotstxt(robotsFor(content)); 
            validRobots = true;
        } catch (IOException e) {
-           robotstxt = Robotstxt.NO_ROBOTS;
+           setRobotstxt(Robotstxt.NO_ROBOTS);
            logger.log(Level.WARNING,"problem reading robots.txt for "+curi,e);
            validRobots = true;
            curi.getNonFatalFailures().add(e);
@@ -196,6 +262,21 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
        }
    }    
 
+    /**
+     * Read the given stream to its end, or until max bytes.
+     */
+    protected static byte[] readUpTo(InputStream in, int max) 
+    throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n; 
+        while (out.size() < max 
+                && (n = in.read(buf, 0, Math.min(buf.length, max - out.size()))) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * @return The server string which might include a port number.
      */
@@ -253,7 +334,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
      *
 	 * @return Returns the validRobots.
 	 */
-	public synchronized boolean isValidRobots() {
+	public boolean isValidRobots() {
 		return validRobots;
 	}
     
@@ -306,11 +387,16 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
      * @param curi
      * @return true if the robots policy is expired.
      */
-    public synchronized boolean isRobotsExpired(int validityDuration) {
+    public boolean isRobotsExpired(int validityDuration) {
         if (robotsFetched == ROBOTS_NOT_FETCHED) {
             // Have not attempted to fetch robots
             return true;
         }
+        if (validRobots && getRobotstxt() == null) {
+            // rules missing from the robots cache (or no cache set); 
+            // refetch rather than crawl without them
+            return true;
+        }
         long duration = validityDuration*1000L;
         if (duration == 0) {
             // When zero, robots should be valid forever
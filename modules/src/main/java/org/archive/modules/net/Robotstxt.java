@@ -19,8 +19,12 @@
 package org.archive.modules.net;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,18 +35,31 @@ import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
 import org.archive.bdb.AutoKryo;
 import org.archive.io.ReadSource;
+import org.archive.util.Base32;
+import org.archive.util.Digesters;
+import org.archive.util.IdentityCacheable;
+import org.archive.util.ObjectIdentityCache;
 
 /**
  * Utility class for parsing and representing 'robots.txt' format 
  * directives, into a list of named user-agents and map from user-agents 
  * to RobotsDirectives. 
+ * 
+ * Instances parsed from fetched content are keyed by a digest of that 
+ * content, and are not changed after parsing, so one instance may be 
+ * shared (via an ObjectIdentityCache) by every CrawlServer which served 
+ * byte-identical robots.txt.
  */
-public class Robotstxt implements Serializable {
+public class Robotstxt implements Serializable, IdentityCacheable {
     static final long serialVersionUID = 7025386509301303890L;
     private static final Logger logger =
         Logger.getLogger(Robotstxt.class.getName());
 
     protected static final long MAX_SIZE = 500*1024;
+    /** most content bytes considered; enough for MAX_SIZE characters */
+    protected static final int MAX_BYTES = (int) (4*MAX_SIZE);
+    /** key of the shared NO_ROBOTS instance */
+    public static final String NO_ROBOTS_KEY = "none";
     
     // all user agents contained in this robots.txt
     // in order of declaration
@@ -55,13 +72,39 @@ public class Robotstxt implements Serializable {
     
     protected boolean hasErrors = false;
     
+    /** digest of the content parsed, or other identifying key */
+    protected String key = null;
+    
     protected static RobotsDirectives NO_DIRECTIVES = new RobotsDirectives();
     /** empty, reusable instance for all sites providing no rules */
-    public static Robotstxt NO_ROBOTS = new Robotstxt();
+    public static Robotstxt NO_ROBOTS = new Robotstxt(NO_ROBOTS_KEY);
     
     public Robotstxt() {
     }
 
+    protected Robotstxt(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Parse robots.txt content, as previously digested by 
+     * {@link #digestFor(byte[])}. 
+     * 
+     * @param key digest of content
+     * @param content robots.txt bytes
+     */
+    public Robotstxt(String key, byte[] content) {
+        this.key = key;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(content)));
+        try {
+            initializeFromReader(reader);
+        } catch (IOException e) {
+            // not expected from in-memory content
+            logger.log(Level.SEVERE, "robots content problem", e);
+        }
+    }
+
     public Robotstxt(BufferedReader reader) throws IOException {
         initializeFromReader(reader);
     }
@@ -248,6 +291,37 @@ public class Robotstxt implements Serializable {
         return getDirectivesFor(userAgent, true);
     }
     
+    /**
+     * Key for the given robots.txt content: a Base32 SHA1 digest.
+     * 
+     * @param content robots.txt bytes
+     * @return String digest
+     */
+    public static String digestFor(byte[] content) {
+        try {
+            MessageDigest digest = Digesters.get("SHA1");
+            return Base32.encode(digest.digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA1 is always available
+            throw new RuntimeException(e);
+        }
+    }
+
+    //
+    // IdentityCacheable support
+    //
+    public String getKey() {
+        return key;
+    }
+
+    public void makeDirty() {
+        // never changed after parsing; nothing to persist
+    }
+
+    public void setIdentityCache(ObjectIdentityCache<?> cache) {
+        // never changed after parsing; no need to remember
+    }
+
     // Kryo support
     public static void autoregisterTo(AutoKryo kryo) {
         kryo.register(Robotstxt.class);
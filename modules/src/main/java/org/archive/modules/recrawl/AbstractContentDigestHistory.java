@@ -43,6 +43,14 @@ public abstract class AbstractContentDigestHistory {
      */
     public abstract void store(CrawlURI curi);
 
+    /**
+     * @return human-readable summary of lookup statistics, if any, for
+     * inclusion in the processors report
+     */
+    public String report() {
+        return "";
+    }
+
     /**
      * 
      * @param curi
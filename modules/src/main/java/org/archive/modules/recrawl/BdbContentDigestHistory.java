@@ -20,11 +20,14 @@ package org.archive.modules.recrawl;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.bdb.BdbModule;
 import org.archive.modules.CrawlURI;
+import org.archive.util.fingerprint.LongFPSet;
+import org.archive.util.fingerprint.MemLongFPSet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -35,6 +38,8 @@ import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 
+import st.ata.util.FPGenerator;
+
 /**
  * Bdb content digest history store. Must be a toplevel bean in
  * crawler-beans.cxml in order to receive {@link Lifecycle} events.
@@ -61,9 +66,50 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
         this.historyDbName = name; 
     }
 
+    /**
+     * Whether to keep an in-memory set of 64-bit fingerprints of all stored
+     * digest keys, so that lookups of never-before-seen digests (the large
+     * majority, in most crawls) are answered without a BDB read. The set
+     * costs 9 bytes of heap per hash-table slot; at its 0.75 load factor,
+     * doubling as it fills, that is 12 to 24 bytes per stored digest, plus
+     * the old table while doubling (in all, about 600MB for the default 
+     * 'maxMemoryFilterEntries' of 50 million, briefly 900MB while growing 
+     * to it). Any history already in the database is scanned into the set
+     * at startup.
+     */
+    protected boolean useMemoryFilter = false;
+    public boolean getUseMemoryFilter() {
+        return useMemoryFilter;
+    }
+    public void setUseMemoryFilter(boolean useMemoryFilter) {
+        this.useMemoryFilter = useMemoryFilter;
+    }
+    
+    /**
+     * Maximum number of digest fingerprints to hold in the in-memory filter.
+     * Once exceeded, the filter is discarded and all lookups go to BDB. 
+     */
+    protected long maxMemoryFilterEntries = 50 * 1000 * 1000L;
+    public long getMaxMemoryFilterEntries() {
+        return maxMemoryFilterEntries;
+    }
+    public void setMaxMemoryFilterEntries(long maxMemoryFilterEntries) {
+        this.maxMemoryFilterEntries = maxMemoryFilterEntries;
+    }
+
     @SuppressWarnings("rawtypes")
     protected StoredSortedMap<String, Map> store;
     protected Database historyDb;
+    
+    /** fingerprints of all keys in store, or null if not in use */
+    protected volatile LongFPSet memoryFilter;
+    
+    /** lookups answered as definitely-new by memoryFilter alone */
+    protected AtomicLong memoryFilterMisses = new AtomicLong(0);
+    /** lookups that went to BDB */
+    protected AtomicLong storeLookups = new AtomicLong(0);
+    /** lookups that found history in BDB */
+    protected AtomicLong storeHits = new AtomicLong(0);
 
     @Override
     @SuppressWarnings("rawtypes")
@@ -84,6 +130,64 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
             throw new RuntimeException(e);
         }
         store = historyMap;
+        if (getUseMemoryFilter()) {
+            initMemoryFilter();
+        }
+    }
+    
+    /**
+     * Create the in-memory filter, and fill it with fingerprints of all 
+     * keys already in the store. 
+     */
+    protected void initMemoryFilter() {
+        MemLongFPSet filter = new MemLongFPSet(20, 0.75f);
+        long count = 0;
+        for (String key : store.keySet()) {
+            if (++count > getMaxMemoryFilterEntries()) {
+                logger.warning("over " + getMaxMemoryFilterEntries() 
+                        + " stored digests; not using memory filter");
+                return;
+            }
+            filter.add(fingerprint(key));
+        }
+        logger.info("memory filter initialized with " + count 
+                + " stored digests");
+        memoryFilter = filter;
+    }
+    
+    protected long fingerprint(String key) {
+        return FPGenerator.std64.fp(key);
+    }
+    
+    /**
+     * @param key digest key
+     * @return true if key is definitely not in store, without consulting
+     * store; false if it may be
+     */
+    protected boolean isDefinitelyNew(String key) {
+        LongFPSet filter = memoryFilter;
+        if (filter == null) {
+            return false;
+        }
+        synchronized (filter) {
+            return !filter.contains(fingerprint(key));
+        }
+    }
+    
+    protected void addToMemoryFilter(String key) {
+        LongFPSet filter = memoryFilter;
+        if (filter == null) {
+            return;
+        }
+        synchronized (filter) {
+            if (filter.count() >= getMaxMemoryFilterEntries()) {
+                logger.warning("over " + getMaxMemoryFilterEntries() 
+                        + " stored digests; discarding memory filter");
+                memoryFilter = null;
+                return;
+            }
+            filter.add(fingerprint(key));
+        }
     }
 
     @Override
@@ -98,6 +202,7 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
         }
         // leave other cleanup to BdbModule
         historyDb = null;
+        memoryFilter = null;
     }
     
     protected transient BdbModule.BdbConfig historyDbConfig;
@@ -117,11 +222,18 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
         // WARCWriterProcessor knows it should put the info in there
         HashMap<String, Object> contentDigestHistory = curi.getContentDigestHistory();
         
+        String key = persistKeyFor(curi);
+        if (isDefinitelyNew(key)) {
+            memoryFilterMisses.incrementAndGet();
+            return;
+        }
+        storeLookups.incrementAndGet();
         @SuppressWarnings("unchecked")
-        Map<String, Object> loadedHistory = store.get(persistKeyFor(curi));
+        Map<String, Object> loadedHistory = store.get(key);
         if (loadedHistory != null) {
+            storeHits.incrementAndGet();
             if (logger.isLoggable(Level.FINER)) {
-                logger.finer("loaded history by digest " + persistKeyFor(curi)
+                logger.finer("loaded history by digest " + key
                         + " for uri " + curi + " - " + loadedHistory);
             }
             contentDigestHistory.putAll(loadedHistory);
@@ -141,6 +253,26 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
                     + " for uri " + curi + " - "
                     + curi.getContentDigestHistory());
         }
-        store.put(persistKeyFor(curi), curi.getContentDigestHistory());
+        String key = persistKeyFor(curi);
+        store.put(key, curi.getContentDigestHistory());
+        addToMemoryFilter(key);
+    }
+
+    @Override
+    public String report() {
+        long filtered = memoryFilterMisses.get();
+        long lookups = storeLookups.get();
+        long total = filtered + lookups;
+        StringBuilder ret = new StringBuilder();
+        ret.append("  Content digest history: " + total + " lookups, ");
+        ret.append(storeHits.get() + " found\n");
+        LongFPSet filter = memoryFilter;
+        if (filter != null) {
+            ret.append("  memory filter: " + filter.count() + " digests, ");
+            ret.append(filtered + " lookups answered from memory (");
+            ret.append(total == 0 ? 0 : (100 * filtered / total));
+            ret.append("%)\n");
+        }
+        return ret.toString();
     }
 }
\ No newline at end of file
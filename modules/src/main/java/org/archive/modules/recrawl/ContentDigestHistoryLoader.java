@@ -44,4 +44,9 @@ public class ContentDigestHistoryLoader extends Processor {
             curi.getAnnotations().add("duplicate:digest");
         }
     }
+    
+    @Override
+    public String report() {
+        return super.report() + contentDigestHistory.report();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.seeds;
+
+import java.util.List;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * SeedListener which can also accept several seeds in one call, as
+ * announced by a SeedModule parsing a large seed list in batches. 
+ * Listeners which gain nothing from batches need only implement 
+ * SeedListener; SeedModule then announces batched seeds one by one.
+ */
+public interface SeedBatchListener extends SeedListener {
+    /**
+     * Accept a batch of seeds, equivalent to calling 
+     * {@link SeedListener#addedSeed(CrawlURI)} for each, though not 
+     * necessarily in list order.
+     * 
+     * @param seeds seeds, in seed-source order
+     */
+    void addedSeeds(List<CrawlURI> seeds);
+}
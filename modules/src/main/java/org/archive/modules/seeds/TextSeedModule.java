@@ -24,8 +24,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -85,6 +93,36 @@ implements ReadSource {
         this.blockAwaitingSeedLines = blockAwaitingSeedLines;
     }
 
+    /**
+     * Number of threads to use converting seed lines into CrawlURIs. With
+     * the default of 1, all parsing happens on the thread reading the seeds
+     * source. Larger values hand batches of lines to a pool of workers for
+     * URI parsing and canonicalization, while seeds are still announced to
+     * SeedListeners in source order, from a single thread. Each run of
+     * seeds within a parsed batch is announced together, letting a
+     * SeedBatchListener (such as the frontier) schedule them grouped by
+     * queue. Useful only for very large seed lists.
+     */
+    protected int seedParsingThreads = 1;
+    public int getSeedParsingThreads() {
+        return seedParsingThreads;
+    }
+    public void setSeedParsingThreads(int seedParsingThreads) {
+        this.seedParsingThreads = seedParsingThreads;
+    }
+
+    /**
+     * Number of seed lines handed to a parsing thread at a time, when
+     * seedParsingThreads is greater than 1.
+     */
+    protected int seedParsingBatchSize = 1000;
+    public int getSeedParsingBatchSize() {
+        return seedParsingBatchSize;
+    }
+    public void setSeedParsingBatchSize(int seedParsingBatchSize) {
+        this.seedParsingBatchSize = seedParsingBatchSize;
+    }
+
     public TextSeedModule() {
     }
 
@@ -132,7 +170,6 @@ implements ReadSource {
      * another thread to proceed after a configurable number of lines processed
      */
     protected void announceSeedsFromReader(BufferedReader reader, CountDownLatch latchOrNull) {
-        String s;
         Iterator<String> iter = 
             new RegexLineIterator(
                     new LineReadingIterator(reader),
@@ -140,25 +177,131 @@ implements ReadSource {
                     RegexLineIterator.NONWHITESPACE_ENTRY_TRAILING_COMMENT,
                     RegexLineIterator.ENTRY);
 
-        int count = 0; 
-        while (iter.hasNext()) {
-            s = (String) iter.next();
-            if(Character.isLetterOrDigit(s.charAt(0))) {
-                // consider a likely URI
-                seedLine(s);
-                count++;
-                if(count%20000==0) {
-                    System.runFinalization();
+        if (getSeedParsingThreads() > 1) {
+            announceSeedsInParallel(iter, latchOrNull);
+        } else {
+            int count = 0; 
+            while (iter.hasNext()) {
+                String s = (String) iter.next();
+                if(Character.isLetterOrDigit(s.charAt(0))) {
+                    // consider a likely URI
+                    seedLine(s);
+                    count++;
+                    if(count%20000==0) {
+                        System.runFinalization();
+                    }
+                } else {
+                    // report just in case it's a useful directive
+                    nonseedLine(s);
+                }
+                if(latchOrNull!=null) {
+                    latchOrNull.countDown(); 
+                }
+            }
+        }
+        publishConcludedSeedBatch(); 
+    }
+
+    /**
+     * Announce seeds from the given line iterator, converting batches of
+     * lines to CrawlURIs on a pool of seedParsingThreads workers. Results
+     * are announced in the original line order; at most two batches per
+     * worker are outstanding at any time, bounding memory use.
+     * 
+     * @param iter source of seed/directive lines
+     * @param latchOrNull if non-null, sent countDown after each line
+     */
+    protected void announceSeedsInParallel(Iterator<String> iter, 
+            CountDownLatch latchOrNull) {
+        int threads = getSeedParsingThreads();
+        int batchSize = Math.max(1, getSeedParsingBatchSize());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<Object>>> pending = 
+            new LinkedList<Future<List<Object>>>();
+        try {
+            while (iter.hasNext()) {
+                final List<String> batch = new ArrayList<String>(batchSize);
+                while (iter.hasNext() && batch.size() < batchSize) {
+                    batch.add((String) iter.next());
                 }
+                pending.add(pool.submit(new Callable<List<Object>>() {
+                    public List<Object> call() {
+                        return parseSeedLines(batch);
+                    }
+                }));
+                if (pending.size() >= threads * 2) {
+                    announceParsedBatch(pending.removeFirst(), latchOrNull);
+                }
+            }
+            while (!pending.isEmpty()) {
+                announceParsedBatch(pending.removeFirst(), latchOrNull);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Convert a batch of lines into CrawlURIs (for seeds) or the original
+     * String (for nonseed lines), preserving order. 
+     * 
+     * @param lines seed/directive lines
+     * @return list of CrawlURI or String, one per line
+     */
+    protected List<Object> parseSeedLines(List<String> lines) {
+        List<Object> results = new ArrayList<Object>(lines.size());
+        for (String s : lines) {
+            if(Character.isLetterOrDigit(s.charAt(0))) {
+                CrawlURI curi = seedFrom(s);
+                results.add(curi != null ? curi : (Object) s);
             } else {
-                // report just in case it's a useful directive
-                nonseedLine(s);
+                results.add(s);
+            }
+        }
+        return results;
+    }
+
+    protected void announceParsedBatch(Future<List<Object>> future, 
+            CountDownLatch latchOrNull) {
+        List<Object> parsed;
+        try {
+            parsed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        // announce runs of seeds as one batch; flush before any nonseed
+        // line so seeds and directives still arrive in source order
+        List<CrawlURI> seeds = new ArrayList<CrawlURI>(parsed.size());
+        for (Object o : parsed) {
+            if (o instanceof CrawlURI) {
+                seeds.add((CrawlURI) o);
+                continue;
             }
+            if (!seeds.isEmpty()) {
+                announceSeedRun(seeds, latchOrNull);
+                seeds = new ArrayList<CrawlURI>();
+            }
+            nonseedLine((String) o);
             if(latchOrNull!=null) {
                 latchOrNull.countDown(); 
             }
         }
-        publishConcludedSeedBatch(); 
+        if (!seeds.isEmpty()) {
+            announceSeedRun(seeds, latchOrNull);
+        }
+    }
+
+    protected void announceSeedRun(List<CrawlURI> seeds, 
+            CountDownLatch latchOrNull) {
+        publishAddedSeeds(seeds);
+        if(latchOrNull!=null) {
+            for (int i = 0; i < seeds.size(); i++) {
+                latchOrNull.countDown(); 
+            }
+        }
     }
     
     /**
@@ -167,6 +310,23 @@ implements ReadSource {
      * @param uri String seed-containing line
      */
     protected void seedLine(String uri) {
+        CrawlURI curi = seedFrom(uri);
+        if (curi != null) {
+            publishAddedSeed(curi);
+        } else {
+            // try as nonseed line as fallback
+            nonseedLine(uri);
+        }
+    }
+
+    /**
+     * Create the seed CrawlURI for a probable-seed line, without announcing
+     * it. Safe to call from multiple threads. 
+     * 
+     * @param uri String seed-containing line
+     * @return seed CrawlURI, or null if the line is not a valid URI
+     */
+    protected CrawlURI seedFrom(String uri) {
         if (!uri.matches("[a-zA-Z][\\w+\\-]+:.*")) { // Rfc2396 s3.1 scheme,
                                                      // minus '.'
             // Does not begin with scheme, so try http://
@@ -180,10 +340,9 @@ implements ReadSource {
             if (getSourceTagSeeds()) {
                 curi.setSourceTag(curi.toString());
             }
-            publishAddedSeed(curi);
+            return curi;
         } catch (URIException e) {
-            // try as nonseed line as fallback
-            nonseedLine(uri);
+            return null;
         }
     }
     
@@ -0,0 +1,112 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.archive.bdb.AutoKryo;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for AttributeMap.
+ */
+public class AttributeMapTest extends TestCase {
+
+    /**
+     * Check that a random mix of slotted and other keys behaves exactly
+     * as in a HashMap.
+     */
+    public void testMatchesHashMap() {
+        String[] keys = { CoreAttributeConstants.A_ANNOTATIONS,
+                CoreAttributeConstants.A_SOURCE_TAG, A_FETCH_HISTORY,
+                A_STATUS, A_ETAG_HEADER, "custom-1", "custom-2" };
+        Random random = new Random(1);
+        AttributeMap map = new AttributeMap();
+        HashMap<String,Object> expected = new HashMap<String,Object>();
+        for (int i = 0; i < 10000; i++) {
+            String key = keys[random.nextInt(keys.length)];
+            switch (random.nextInt(4)) {
+            case 0:
+            case 1:
+                Object value = random.nextBoolean() ? null : i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+                break;
+            case 2:
+                assertEquals(expected.remove(key), map.remove(key));
+                break;
+            default:
+                Iterator<Map.Entry<String,Object>> iter =
+                    map.entrySet().iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().getKey().equals(key)) {
+                        iter.remove();
+                        expected.remove(key);
+                    }
+                }
+            }
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected, map);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testKryoSerialization() throws Exception {
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(CrawlURI.class);
+
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/"));
+        curi.getAnnotations().add("test");
+        curi.setSourceTag("http://example.com/");
+        curi.getData().put("custom", 42L);
+        HashMap<String,Object> fetch = new HashMap<String,Object>();
+        fetch.put(A_STATUS, 200);
+        fetch.put(A_ETAG_HEADER, "\"abc\"");
+        fetch.put("custom", "value");
+        curi.getData().put(A_FETCH_HISTORY, new HashMap[] { fetch, null });
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        kryo.writeObject(buffer, curi);
+        buffer.flip();
+        CrawlURI read = kryo.readObject(buffer, CrawlURI.class);
+
+        assertTrue(read.getData() instanceof AttributeMap);
+        assertEquals(curi.getData().keySet(), read.getData().keySet());
+        assertEquals("test", read.getAnnotations().iterator().next());
+        assertEquals("http://example.com/", read.getSourceTag());
+        assertEquals(42L, read.getData().get("custom"));
+        HashMap<String,Object>[] history = read.getFetchHistory();
+        assertEquals(2, history.length);
+        assertEquals(fetch, history[0]);
+        assertNull(history[1]);
+    }
+}
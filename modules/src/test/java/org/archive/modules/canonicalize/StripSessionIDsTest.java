@@ -101,4 +101,23 @@ public class StripSessionIDsTest extends ModuleTestBase {
         result = new StripSessionIDs().canonicalize(url);
         assertTrue("Failed " + result, expectedResult.equals(result));  
     }
+    
+    public void testMixedCase() throws URIException {
+        String str32id = "0123456789abcdefghijklemopqrstuv";
+        String url = BASE + "?JSessionID=" + str32id + "&x=y";
+        String expectedResult = BASE + "?x=y";
+        String result = new StripSessionIDs().canonicalize(url);
+        assertTrue("Failed " + result, expectedResult.equals(result));
+        
+        url = BASE + "?SID=" + str32id;
+        expectedResult = BASE + "?";
+        result = new StripSessionIDs().canonicalize(url);
+        assertTrue("Failed " + result, expectedResult.equals(result));
+    }
+    
+    public void testNoSessionId() throws URIException {
+        String url = BASE + "?one=two&x=y";
+        String result = new StripSessionIDs().canonicalize(url);
+        assertSame("Failed " + result, url, result);
+    }
 }
@@ -23,7 +23,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
@@ -410,4 +412,36 @@ public class ExtractorHTMLTest extends StringExtractorTestBase {
         
     }
         
+    /**
+     * Test that a scan-length budget cuts extraction short, keeping 
+     * links found before it ran out.
+     */
+    public void testScanBudget() throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/"));
+        StringBuilder cs = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            cs.append("<a href=\"/page" + i + ".html\">page</a>\n");
+        }
+        Extractor.currentBudget.set(new Extractor.Budget(0, 1000));
+        try {
+            getExtractor().extract(curi, cs);
+        } finally {
+            Extractor.currentBudget.remove();
+        }
+        int found = curi.getOutLinks().size();
+        assertTrue("too few links: " + found, found > 10);
+        assertTrue("too many links: " + found, found < 50);
+        // no budget in effect outside an extraction
+        assertFalse(Extractor.budgetExhausted(Long.MAX_VALUE));
+    }
+    
+    public void testLimitForType() {
+        Map<String,Long> byType = new HashMap<String,Long>();
+        byType.put("text/", 10L);
+        byType.put("text/html", 20L);
+        assertEquals(20L, Extractor.limitForType(byType, "text/html; charset=UTF-8", 5L));
+        assertEquals(10L, Extractor.limitForType(byType, "TEXT/plain", 5L));
+        assertEquals(5L, Extractor.limitForType(byType, "application/pdf", 5L));
+        assertEquals(5L, Extractor.limitForType(byType, null, 5L));
+    }
 }
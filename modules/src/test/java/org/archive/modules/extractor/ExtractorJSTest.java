@@ -18,6 +18,7 @@
  */
 package org.archive.modules.extractor;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -128,6 +129,125 @@ public class ExtractorJSTest extends StringExtractorTestBase {
         return result;
     }
     
+    public void testMaxCharsToScan() throws Exception {
+        ExtractorJS extractor = (ExtractorJS) makeExtractor();
+        extractor.setMaxCharsToScan(35);
+        String content = "var foo = \"/first/outlink.html\"; var bar = \"/second/outlink.html\";";
+        CrawlURI curi = makeData(content, null).iterator().next().uri;
+        extractor.process(curi);
+        assertEquals(1, curi.getOutLinks().size());
+        assertEquals("http://www.archive.org/first/outlink.html", 
+                curi.getOutLinks().iterator().next().getDestination().toString());
+        assertTrue(curi.getAnnotations().contains("jsScanTruncated"));
+        assertTrue(extractor.report().contains("1 scans cut short"));
+    }
+    
+    /**
+     * Test that feeding content in small pieces to a streaming scan finds
+     * the same links as the usual scan of the replayed content. 
+     */
+    public void testStreamingScan() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("var s" + i + " = '/path/number" + i + ".html'; ");
+            content.append("x = \"not a url " + i + "\";\n");
+        }
+        ExtractorJS extractor = (ExtractorJS) makeExtractor();
+        CrawlURI replayed = makeData(content.toString(), null).iterator().next().uri;
+        extractor.process(replayed);
+        assertEquals(500, replayed.getOutLinks().size());
+
+        CrawlURI streamed = makeData(content.toString(), null).iterator().next().uri;
+        ContentScanner scanner = extractor.newScanner(streamed, 
+                Charset.forName("UTF-8"));
+        for (int i = 0; i < content.length(); i += 97) {
+            scanner.consume(content.subSequence(i, 
+                    Math.min(i + 97, content.length())));
+        }
+        scanner.finish();
+        assertTrue(extractor.wasStreamExtracted(streamed));
+        extractor.process(streamed);
+        assertTrue(streamed.hasBeenLinkExtracted());
+        assertEquals(replayed.getOutLinks(), streamed.getOutLinks());
+    }
+
+    /**
+     * Test that a streaming scan honors the extractor's scan budget,
+     * keeping the links found before it ran out.
+     */
+    public void testStreamingScanBudget() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("var s" + i + " = '/path/number" + i + ".html';\n");
+        }
+        ExtractorJS extractor = (ExtractorJS) makeExtractor();
+        extractor.setMaxScanLength(2000);
+        CrawlURI streamed = makeData(content.toString(), null).iterator().next().uri;
+        ContentScanner scanner = extractor.newScanner(streamed, 
+                Charset.forName("UTF-8"));
+        for (int i = 0; i < content.length(); i += 997) {
+            scanner.consume(content.subSequence(i, 
+                    Math.min(i + 997, content.length())));
+        }
+        scanner.finish();
+        assertTrue(extractor.wasStreamExtracted(streamed));
+        assertTrue(streamed.getOutLinks().size() > 0);
+        assertTrue(streamed.getOutLinks().size() < 500);
+        boolean annotated = false;
+        for (String annotation : streamed.getAnnotations()) {
+            annotated |= annotation.startsWith("extractBudget:");
+        }
+        assertTrue(annotated);
+    }
+
+    /**
+     * Test that the string scan checks its deadline within long stretches 
+     * holding no strings, rather than only between strings found.
+     */
+    public void testNextStringDeadline() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            content.append("x' ");
+        }
+        content.append("'/path/a.html'");
+        int[] found = new int[3];
+        // no deadline: string at end found
+        assertTrue(ExtractorJS.nextString(content, 0, content.length(), 
+                found, 0));
+        assertEquals("/path/a.html", 
+                content.substring(found[0], found[1]));
+        int end = found[1];
+        // deadline long past: gives up partway
+        assertFalse(ExtractorJS.nextString(content, 0, content.length(), 
+                found, 1));
+        assertEquals(-1, found[2]);
+        // exhausted search without deadline is not giving up
+        assertFalse(ExtractorJS.nextString(content, end + 1, 
+                content.length(), found));
+        assertTrue(found[2] >= 0);
+    }
+
+    /**
+     * Test that a failing streaming scan is abandoned, leaving extraction
+     * to the usual replay.
+     */
+    public void testStreamingScanFailure() throws Exception {
+        ExtractorJS extractor = (ExtractorJS) makeExtractor();
+        CrawlURI streamed = makeData("var s = '/path/a.html';", null)
+            .iterator().next().uri;
+        ContentScanner scanner = new ContentScanner(extractor, streamed, 
+                Charset.forName("UTF-8")) {
+            protected int scan(StringBuilder buf, boolean atEnd) {
+                throw new IllegalStateException("broken scanner");
+            }
+        };
+        scanner.consume("var s = '/path/a.html';");
+        scanner.finish();
+        assertFalse(extractor.wasStreamExtracted(streamed));
+        extractor.process(streamed);
+        assertEquals(1, streamed.getOutLinks().size());
+    }
+    
     @Override
     protected Collection<TestData> makeData(String content, String destURI)
     throws Exception {
@@ -18,6 +18,10 @@
  */
 package org.archive.modules.extractor;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import org.archive.modules.ProcessorTestBase;
 
 /**
@@ -29,4 +33,17 @@ public class ExtractorPDFTest extends ProcessorTestBase {
 
     // TODO TESTME!
     
+    public void testReadDocument() throws IOException {
+        byte[] content = new byte[100 * 1024];
+        Arrays.fill(content, (byte) 'x');
+        // expected length wrong or unknown doesn't matter
+        for (long expected : new long[] { -1, 10, content.length, 1000000 }) {
+            byte[] read = ExtractorPDF.readDocument(
+                    new ByteArrayInputStream(content), expected, content.length);
+            assertTrue(Arrays.equals(content, read));
+        }
+        // over maximum
+        assertNull(ExtractorPDF.readDocument(
+                new ByteArrayInputStream(content), -1, content.length - 1));
+    }
 }
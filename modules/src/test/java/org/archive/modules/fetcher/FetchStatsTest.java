@@ -0,0 +1,74 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.Stage;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for FetchStats.
+ */
+public class FetchStatsTest extends TestCase {
+
+    /**
+     * Check that tallies from many threads at once are none of them lost.
+     */
+    public void testConcurrentTally() throws Exception {
+        final FetchStats stats = new FetchStats();
+        final CrawlURI success = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/ok"));
+        success.setFetchStatus(200);
+        success.setContentSize(100);
+        final CrawlURI failure = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/missing"));
+        failure.setFetchStatus(404);
+        failure.setContentSize(10);
+        final int threads = 8;
+        final int perThread = 10000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        stats.tally(success, Stage.SCHEDULED);
+                        stats.tally(success, Stage.SUCCEEDED);
+                        stats.tally(failure, Stage.SCHEDULED);
+                        stats.tally(failure, Stage.FAILED);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long n = threads * perThread;
+        assertEquals(2 * n, stats.getTotalScheduled());
+        assertEquals(n, stats.getFetchSuccesses());
+        assertEquals(2 * n, stats.getFetchResponses());
+        assertEquals(100 * n, stats.getSuccessBytes());
+        assertEquals(110 * n, stats.getTotalBytes());
+        assertEquals(2 * n, stats.getNovelUrls());
+        assertEquals(0, stats.getRemaining());
+    }
+}
@@ -66,4 +66,19 @@ public class CrawlHostTest extends TestCase {
         TestCase.assertEquals(crawlHost0, crawlHost1);
         TestCase.assertEquals(localhost, crawlHost1.getIP());
     }
+
+    public void testTallyResponse() {
+        CrawlHost host = new CrawlHost("example.com");
+        assertEquals(-1.0, host.getLatencyEwmaMs());
+        host.tallyResponse(100, false, 0.5);
+        assertEquals(100.0, host.getLatencyEwmaMs());
+        assertEquals(0.0, host.getErrorRateEwma());
+        host.tallyResponse(300, true, 0.5);
+        assertEquals(200.0, host.getLatencyEwmaMs());
+        assertEquals(0.5, host.getErrorRateEwma());
+        // unknown latency affects only error rate
+        host.tallyResponse(-1, true, 0.5);
+        assertEquals(200.0, host.getLatencyEwmaMs());
+        assertEquals(0.75, host.getErrorRateEwma());
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.archive.modules.net;
 
+import org.archive.modules.fetcher.DefaultServerCache;
 import org.archive.modules.net.CrawlServer;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
@@ -42,5 +43,24 @@ public class CrawlServerTest extends TestCase {
                 "www.example.com:443",
                 CrawlServer.getServerKey(u1));
     }
+
+    public void testSharedRobots() throws Exception {
+        DefaultServerCache cache = new DefaultServerCache();
+        CrawlServer s1 = cache.getServerFor("one.example.com");
+        CrawlServer s2 = cache.getServerFor("two.example.com");
+        byte[] content = "User-agent: *\nDisallow: /private/\n".getBytes("UTF-8");
+        s1.setRobotstxt(s1.robotsFor(content));
+        s2.setRobotstxt(s2.robotsFor(content.clone()));
+        assertSame(s1.getRobotstxt(), s2.getRobotstxt());
+        assertFalse(s1.getRobotstxt().getDirectivesFor("test").allows("/private/x"));
+
+        // as if reloaded without the transient rules
+        s1.robotstxt = null;
+        assertSame(s2.getRobotstxt(), s1.getRobotstxt());
+        
+        s2.setRobotstxt(Robotstxt.NO_ROBOTS);
+        s2.robotstxt = null;
+        assertSame(Robotstxt.NO_ROBOTS, s2.getRobotstxt());
+    }
     
 }
@@ -187,6 +187,42 @@ public class ContentDigestHistoryTest extends TmpDirTestCase {
         assertEquals("http://example.org/original", curi2.getContentDigestHistory().get(A_ORIGINAL_URL));
     }
 
+    public void testMemoryFilter() throws InterruptedException, IOException {
+        BdbContentDigestHistory filtered = new BdbContentDigestHistory();
+        filtered.setBdbModule(bdb());
+        filtered.setHistoryDbName("filteredContentDigestHistory");
+        filtered.setUseMemoryFilter(true);
+        filtered.start();
+        filtered.store.clear();
+        
+        Recorder rec = new Recorder(getTmpDir(), "rec");
+        CrawlURI curi1 = new CrawlURI(UURIFactory.getInstance("http://example.org/1"));
+        curi1.setRecorder(rec);
+        curi1.setContentDigest("sha1", Base32.decode("orfjublpcrnymm4seg5uk6vfoeu7kw6c"));
+        
+        filtered.load(curi1);
+        assertTrue(curi1.getContentDigestHistory().isEmpty());
+        assertEquals(1, filtered.memoryFilterMisses.get());
+        assertEquals(0, filtered.storeLookups.get());
+        
+        curi1.getContentDigestHistory().put(A_ORIGINAL_URL, "http://example.org/original");
+        filtered.store(curi1);
+        
+        CrawlURI curi2 = new CrawlURI(UURIFactory.getInstance("http://example.org/2"));
+        curi2.setRecorder(rec);
+        curi2.setContentDigest("sha1", Base32.decode("orfjublpcrnymm4seg5uk6vfoeu7kw6c"));
+        filtered.load(curi2);
+        assertEquals("http://example.org/original", curi2.getContentDigestHistory().get(A_ORIGINAL_URL));
+        assertEquals(1, filtered.storeLookups.get());
+        assertEquals(1, filtered.storeHits.get());
+        
+        // a restarted history sees previously-stored digests 
+        filtered.stop();
+        filtered.start();
+        assertFalse(filtered.isDefinitelyNew(filtered.persistKeyFor(curi2)));
+        assertTrue(filtered.report().contains("memory filter: 1 digests"));
+    }
+
     protected CrawlURI makeCrawlURI(String uri) throws URIException,
             IOException {
         UURI uuri = UURIFactory.getInstance(uri);
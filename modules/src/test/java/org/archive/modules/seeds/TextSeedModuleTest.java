@@ -0,0 +1,170 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.seeds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.spring.ConfigString;
+
+/**
+ * Tests for TextSeedModule, in particular that parsing seeds on several
+ * threads announces exactly what single-threaded parsing does.
+ */
+public class TextSeedModuleTest extends TestCase {
+
+    /**
+     * SeedListener recording each announcement, and the thread making it.
+     */
+    protected static class RecordingListener implements SeedListener {
+        List<String> events = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        int concluded = 0;
+
+        public synchronized void addedSeed(CrawlURI curi) {
+            events.add("seed " + curi);
+            threads.add(Thread.currentThread());
+        }
+        public synchronized boolean nonseedLine(String line) {
+            events.add("nonseed " + line);
+            threads.add(Thread.currentThread());
+            return false;
+        }
+        public synchronized void concludedSeedBatch() {
+            concluded++;
+        }
+    }
+
+    /**
+     * RecordingListener also accepting seeds in batches, recording the
+     * size of each batch.
+     */
+    protected static class RecordingBatchListener extends RecordingListener
+    implements SeedBatchListener {
+        List<Integer> batchSizes = new ArrayList<Integer>();
+
+        public synchronized void addedSeeds(List<CrawlURI> seeds) {
+            batchSizes.add(seeds.size());
+            for (CrawlURI curi : seeds) {
+                addedSeed(curi);
+            }
+        }
+    }
+
+    protected static String tooLongUri() {
+        StringBuilder sb = new StringBuilder("http://example.com/");
+        while (sb.length() <= UURI.MAX_URL_LENGTH) {
+            sb.append("toolong");
+        }
+        return sb.toString();
+    }
+
+    protected String makeSeeds(int lines) {
+        String tooLong = tooLongUri();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 100 == 0) {
+                sb.append("# comment " + i + "\n");
+            } else if (i % 50 == 25) {
+                sb.append("+directive" + i + "\n");
+            } else if (i % 77 == 0) {
+                // unparseable as URI: announced as a nonseed line
+                sb.append(tooLong + i + "\n");
+            } else {
+                sb.append("example" + i + ".com/  # trailing comment\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    protected RecordingListener announce(String seeds, int threads, 
+            int batchSize) {
+        return announce(seeds, threads, batchSize, new RecordingListener());
+    }
+
+    protected RecordingListener announce(String seeds, int threads, 
+            int batchSize, RecordingListener listener) {
+        TextSeedModule module = new TextSeedModule();
+        module.setTextSource(new ConfigString(seeds));
+        module.setSeedParsingThreads(threads);
+        module.setSeedParsingBatchSize(batchSize);
+        module.addSeedListener(listener);
+        module.announceSeeds();
+        return listener;
+    }
+
+    public void testSingleThreaded() {
+        RecordingListener listener = announce(makeSeeds(300), 1, 1000);
+        // 3 comment lines skipped entirely
+        assertEquals(297, listener.events.size());
+        assertEquals("seed http://example1.com/", listener.events.get(0));
+        assertEquals("nonseed +directive25", listener.events.get(24));
+        assertEquals("nonseed " + tooLongUri() + "77", 
+                listener.events.get(76));
+        assertEquals(1, listener.concluded);
+    }
+
+    public void testParallelMatchesSingleThreaded() {
+        String seeds = makeSeeds(2500);
+        RecordingListener single = announce(seeds, 1, 1000);
+        // batch sizes not dividing the line count, smaller and larger 
+        // than the count of outstanding batches
+        int[][] configs = { {4, 7}, {3, 1}, {2, 5000}, {8, 100} };
+        for (int[] config : configs) {
+            RecordingListener parallel = 
+                announce(seeds, config[0], config[1]);
+            assertEquals("threads=" + config[0] + " batch=" + config[1], 
+                    single.events, parallel.events);
+            assertEquals(1, parallel.concluded);
+            // announced only from the calling thread
+            for (Thread t : parallel.threads) {
+                assertSame(Thread.currentThread(), t);
+            }
+        }
+    }
+
+    public void testParallelAnnouncesSeedRuns() {
+        String seeds = makeSeeds(300);
+        RecordingListener single = announce(seeds, 1, 1000);
+        RecordingBatchListener batched = new RecordingBatchListener();
+        announce(seeds, 2, 40, batched);
+        // same announcements, in the same order
+        assertEquals(single.events, batched.events);
+        // runs of seeds between nonseed lines and batch ends arrive together
+        assertEquals(Integer.valueOf(24), batched.batchSizes.get(0));
+        assertEquals(Integer.valueOf(15), batched.batchSizes.get(1));
+        int total = 0;
+        for (int size : batched.batchSizes) {
+            assertTrue(size > 0);
+            total += size;
+        }
+        int seedCount = 0;
+        for (String event : single.events) {
+            if (event.startsWith("seed ")) {
+                seedCount++;
+            }
+        }
+        assertEquals(seedCount, total);
+    }
+}